@@ -0,0 +1,243 @@
+// $Id$
+/*
+ * WorldEdit
+ * Copyright (C) 2010 sk89q <http://www.sk89q.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.sk89q.worldedit.bench;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+import com.sk89q.jnbt.ByteArrayTag;
+import com.sk89q.jnbt.CompoundTag;
+import com.sk89q.jnbt.IntTag;
+import com.sk89q.jnbt.ListTag;
+import com.sk89q.jnbt.NBTOutputStream;
+import com.sk89q.jnbt.Tag;
+import com.sk89q.worldedit.MemoryWorld;
+import com.sk89q.worldedit.blocks.BlockID;
+
+/**
+ * Builds the worlds and files the benchmarks run against. Everything is
+ * generated from the coordinates alone so that every run sees the same data.
+ *
+ * @author sk89q
+ */
+public final class BenchmarkFixtures {
+    private static final int SECTOR_BYTES = 4096;
+
+    private BenchmarkFixtures() {
+    }
+
+    /**
+     * Get the terrain height of a column.
+     *
+     * @param x
+     * @param z
+     * @return
+     */
+    public static int getTerrainHeight(int x, int z) {
+        return 48 + (int) (8 * Math.sin(x / 9.0) + 6 * Math.cos(z / 7.0));
+    }
+
+    /**
+     * Get the block type of the generated terrain at a position.
+     *
+     * @param x
+     * @param y
+     * @param z
+     * @return
+     */
+    public static int getTerrainType(int x, int y, int z) {
+        int height = getTerrainHeight(x, z);
+
+        if (y == 0) {
+            return BlockID.BEDROCK;
+        } else if (y > height) {
+            return BlockID.AIR;
+        } else if (y == height) {
+            return BlockID.GRASS;
+        } else if (y > height - 4) {
+            return BlockID.DIRT;
+        } else if (((x * 31 + y * 17 + z * 13) & 63) == 0) {
+            return BlockID.COAL_ORE;
+        } else {
+            return BlockID.STONE;
+        }
+    }
+
+    /**
+     * Fill a square of chunk columns of a world with terrain, starting
+     * at the origin.
+     *
+     * @param world
+     * @param size length of a side in blocks
+     */
+    public static void createTerrain(MemoryWorld world, int size) {
+        for (int x = 0; x < size; ++x) {
+            for (int z = 0; z < size; ++z) {
+                int height = getTerrainHeight(x, z);
+                for (int y = 0; y <= height; ++y) {
+                    world.setBlock(x, y, z, getTerrainType(x, y, z), 0);
+                }
+            }
+        }
+    }
+
+    /**
+     * Build the tag of a chunk of terrain as it is stored in chunk files.
+     *
+     * @param chunkX
+     * @param chunkZ
+     * @return
+     */
+    public static CompoundTag createChunkTag(int chunkX, int chunkZ) {
+        byte[] blocks = new byte[32768];
+        byte[] data = new byte[16384];
+
+        for (int x = 0; x < 16; ++x) {
+            for (int z = 0; z < 16; ++z) {
+                for (int y = 0; y < 128; ++y) {
+                    blocks[y + (z * 128 + (x * 128 * 16))] = (byte) getTerrainType(
+                            (chunkX << 4) + x, y, (chunkZ << 4) + z);
+                }
+            }
+        }
+
+        Map<String, Tag> values = new HashMap<String, Tag>();
+        values.put("Blocks", new ByteArrayTag("Blocks", blocks));
+        values.put("Data", new ByteArrayTag("Data", data));
+        values.put("xPos", new IntTag("xPos", chunkX));
+        values.put("zPos", new IntTag("zPos", chunkZ));
+        values.put("TileEntities", new ListTag("TileEntities", CompoundTag.class,
+                new ArrayList<Tag>()));
+        return new CompoundTag("Level", values);
+    }
+
+    /**
+     * Write a tag as compressed NBT.
+     *
+     * @param tag
+     * @return
+     * @throws IOException
+     */
+    public static byte[] toBytes(Tag tag) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        NBTOutputStream out = new NBTOutputStream(bytes);
+        out.writeTag(tag);
+        out.close();
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Build an MCRegion file holding a square of chunks of terrain, starting
+     * at chunk 0, 0.
+     *
+     * @param chunks length of a side in chunks, at most 32
+     * @return
+     * @throws IOException
+     */
+    public static byte[] createRegion(int chunks) throws IOException {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        int[] offsets = new int[SECTOR_BYTES / 4];
+        int sector = 2;
+
+        for (int cx = 0; cx < chunks; ++cx) {
+            for (int cz = 0; cz < chunks; ++cz) {
+                Map<String, Tag> root = new HashMap<String, Tag>();
+                root.put("Level", createChunkTag(cx, cz));
+                byte[] payload = toBytes(new CompoundTag("", root));
+
+                int length = payload.length + 5;
+                int sectors = (length + SECTOR_BYTES - 1) / SECTOR_BYTES;
+
+                DataOutputStream out = new DataOutputStream(body);
+                out.writeInt(payload.length + 1);
+                out.writeByte(1); // GZip
+                out.write(payload);
+                out.write(new byte[sectors * SECTOR_BYTES - length]);
+
+                offsets[cx + cz * 32] = sector << 8 | sectors;
+                sector += sectors;
+            }
+        }
+
+        ByteArrayOutputStream file = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(file);
+        for (int offset : offsets) {
+            out.writeInt(offset);
+        }
+        out.write(new byte[SECTOR_BYTES]); // Timestamps
+        body.writeTo(out);
+        out.flush();
+        return file.toByteArray();
+    }
+
+    /**
+     * Write a world folder with a region file made by
+     * {@link #createRegion(int)}.
+     *
+     * @param dir
+     * @param chunks
+     * @throws IOException
+     */
+    public static void writeRegion(File dir, int chunks) throws IOException {
+        File regionDir = new File(dir, "region");
+        regionDir.mkdirs();
+
+        FileOutputStream out = new FileOutputStream(new File(regionDir, "r.0.0.mcr"));
+        try {
+            out.write(createRegion(chunks));
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Create an empty temporary folder.
+     *
+     * @return
+     * @throws IOException
+     */
+    public static File createTempDir() throws IOException {
+        File dir = File.createTempFile("worldedit-bench", "");
+        if (!dir.delete() || !dir.mkdir()) {
+            throw new IOException("Could not create " + dir);
+        }
+        return dir;
+    }
+
+    /**
+     * Delete a folder and everything in it.
+     *
+     * @param file
+     */
+    public static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+}
@@ -0,0 +1,110 @@
+// $Id$
+/*
+ * WorldEdit
+ * Copyright (C) 2010 sk89q <http://www.sk89q.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.sk89q.worldedit.bench;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import com.sk89q.worldedit.CuboidClipboard;
+import com.sk89q.worldedit.EditSession;
+import com.sk89q.worldedit.MaxChangedBlocksException;
+import com.sk89q.worldedit.MemoryWorld;
+import com.sk89q.worldedit.Vector;
+import com.sk89q.worldedit.data.DataException;
+
+/**
+ * Measures copying, pasting and rotating a 64x64x64 clipboard, and saving
+ * and loading it as a .schematic file.
+ *
+ * @author sk89q
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ClipboardBenchmark {
+    private MemoryWorld world;
+    private CuboidClipboard clipboard;
+    private File dir;
+    private File schematic;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException, DataException {
+        world = new MemoryWorld("bench");
+        BenchmarkFixtures.createTerrain(world, 64);
+
+        clipboard = new CuboidClipboard(new Vector(64, 64, 64), new Vector(0, 0, 0));
+        clipboard.copy(new EditSession(world, -1));
+
+        dir = BenchmarkFixtures.createTempDir();
+        schematic = new File(dir, "bench.schematic");
+        clipboard.saveSchematic(schematic);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        BenchmarkFixtures.delete(dir);
+    }
+
+    @Benchmark
+    public CuboidClipboard copy() {
+        clipboard.copy(new EditSession(world, -1));
+        return clipboard;
+    }
+
+    @Benchmark
+    public EditSession paste() throws MaxChangedBlocksException {
+        EditSession editSession = new EditSession(world, -1);
+        clipboard.paste(editSession, new Vector(128, 0, 0), false);
+        return editSession;
+    }
+
+    @Benchmark
+    public CuboidClipboard rotate2D() {
+        clipboard.rotate2D(90);
+        return clipboard;
+    }
+
+    @Benchmark
+    public File saveSchematic() throws IOException, DataException {
+        File file = new File(dir, "save.schematic");
+        clipboard.saveSchematic(file);
+        return file;
+    }
+
+    @Benchmark
+    public CuboidClipboard loadSchematic() throws IOException, DataException {
+        return CuboidClipboard.loadSchematic(schematic);
+    }
+}
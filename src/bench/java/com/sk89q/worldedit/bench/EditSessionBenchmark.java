@@ -0,0 +1,119 @@
+// $Id$
+/*
+ * WorldEdit
+ * Copyright (C) 2010 sk89q <http://www.sk89q.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.sk89q.worldedit.bench;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import com.sk89q.worldedit.EditSession;
+import com.sk89q.worldedit.HeightMap;
+import com.sk89q.worldedit.MaxChangedBlocksException;
+import com.sk89q.worldedit.MemoryWorld;
+import com.sk89q.worldedit.Vector;
+import com.sk89q.worldedit.blocks.BaseBlock;
+import com.sk89q.worldedit.blocks.BlockID;
+import com.sk89q.worldedit.patterns.SingleBlockPattern;
+import com.sk89q.worldedit.regions.CuboidRegion;
+
+/**
+ * Measures the basic EditSession operations on a 64x64 area of terrain.
+ * Each call alternates between two block types so that every call has
+ * to change every block.
+ *
+ * @author sk89q
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class EditSessionBenchmark {
+    private MemoryWorld world;
+    private CuboidRegion region;
+    private boolean flip;
+
+    @Setup(Level.Iteration)
+    public void setUp() {
+        world = new MemoryWorld("bench");
+        BenchmarkFixtures.createTerrain(world, 64);
+        region = new CuboidRegion(new Vector(0, 0, 0), new Vector(63, 63, 63));
+    }
+
+    private int nextType() {
+        flip = !flip;
+        return flip ? BlockID.GLASS : BlockID.SANDSTONE;
+    }
+
+    @Benchmark
+    public int setBlocks() throws MaxChangedBlocksException {
+        EditSession editSession = new EditSession(world, -1);
+        return editSession.setBlocks(region, new BaseBlock(nextType()));
+    }
+
+    @Benchmark
+    public int replaceBlocks() throws MaxChangedBlocksException {
+        int to = nextType();
+        Set<BaseBlock> from = new HashSet<BaseBlock>();
+        from.add(new BaseBlock(BlockID.STONE));
+        from.add(new BaseBlock(to == BlockID.GLASS ? BlockID.SANDSTONE : BlockID.GLASS));
+
+        EditSession editSession = new EditSession(world, -1);
+        return editSession.replaceBlocks(region, from, new BaseBlock(to));
+    }
+
+    @Benchmark
+    public int makeSphere() throws MaxChangedBlocksException {
+        EditSession editSession = new EditSession(world, -1);
+        return editSession.makeSphere(new Vector(32, 32, 32),
+                new SingleBlockPattern(new BaseBlock(nextType())), 24, true);
+    }
+
+    @Benchmark
+    public int sphereBrush() throws MaxChangedBlocksException {
+        EditSession editSession = new EditSession(world, -1);
+        return editSession.makeSphere(new Vector(32, 32, 32),
+                new SingleBlockPattern(new BaseBlock(nextType())), 8, 8, 8, false);
+    }
+
+    @Benchmark
+    public int cylinderBrush() throws MaxChangedBlocksException {
+        EditSession editSession = new EditSession(world, -1);
+        return editSession.makeCylinder(new Vector(32, 24, 32),
+                new SingleBlockPattern(new BaseBlock(nextType())), 8, 16);
+    }
+
+    @Benchmark
+    public HeightMap heightMap() {
+        EditSession editSession = new EditSession(world, -1);
+        return new HeightMap(editSession, region, false);
+    }
+}
@@ -0,0 +1,180 @@
+// $Id$
+/*
+ * WorldEdit
+ * Copyright (C) 2010 sk89q <http://www.sk89q.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.sk89q.worldedit.bench;
+
+import java.util.HashSet;
+import java.util.Stack;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import com.sk89q.worldedit.BlockVector;
+import com.sk89q.worldedit.EditSession;
+import com.sk89q.worldedit.FloodFill;
+import com.sk89q.worldedit.MaxChangedBlocksException;
+import com.sk89q.worldedit.MemoryWorld;
+import com.sk89q.worldedit.Vector;
+import com.sk89q.worldedit.blocks.BaseBlock;
+import com.sk89q.worldedit.blocks.BlockID;
+
+/**
+ * Measures flood fills through a lake of moving water that is wider than the
+ * radius. The traversal benchmarks only walk the lake, once with
+ * {@link FloodFill} and once with the stack and hash set that the fills
+ * used before, so that their time and allocation can be compared.
+ *
+ * <p>The lake is built once per iteration. The benchmarks that change it
+ * undo their edit before returning, which puts back only the blocks that
+ * changed, so their times include the undo.</p>
+ *
+ * @author sk89q
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class FloodFillBenchmark {
+    private static final int SIZE = 160;
+    private static final int LAKE_MIN_Y = 30;
+    private static final int LAKE_MAX_Y = 60;
+
+    @Param({"50", "75"})
+    public int radius;
+
+    private MemoryWorld world;
+    private Vector center;
+
+    @Setup(Level.Iteration)
+    public void setUp() {
+        if (world == null) {
+            world = new MemoryWorld("bench");
+            BenchmarkFixtures.createTerrain(world, SIZE);
+            center = new Vector(SIZE / 2, LAKE_MAX_Y, SIZE / 2);
+        }
+
+        for (int x = 0; x < SIZE; ++x) {
+            for (int z = 0; z < SIZE; ++z) {
+                for (int y = LAKE_MIN_Y; y <= LAKE_MAX_Y; ++y) {
+                    world.setBlock(x, y, z, BlockID.WATER, 0);
+                }
+                world.setBlock(x, LAKE_MAX_Y + 1, z, BlockID.AIR, 0);
+            }
+        }
+    }
+
+    @Benchmark
+    public int drainArea() throws MaxChangedBlocksException {
+        EditSession editSession = new EditSession(world, -1);
+        int affected = editSession.drainArea(center, radius);
+        restore(editSession);
+        return affected;
+    }
+
+    @Benchmark
+    public int fixLiquid() throws MaxChangedBlocksException {
+        EditSession editSession = new EditSession(world, -1);
+        int affected = editSession.fixLiquid(center, radius, BlockID.WATER,
+                BlockID.STATIONARY_WATER);
+        restore(editSession);
+        return affected;
+    }
+
+    @Benchmark
+    public int fillXZ() throws MaxChangedBlocksException {
+        EditSession editSession = new EditSession(world, -1);
+        int affected = editSession.fillXZ(center.add(0, 1, 0),
+                new BaseBlock(BlockID.GLASS), radius, 1, false);
+        restore(editSession);
+        return affected;
+    }
+
+    /**
+     * Put back the blocks an edit changed.
+     *
+     * @param editSession
+     */
+    private void restore(EditSession editSession) {
+        editSession.undo(new EditSession(world, -1));
+    }
+
+    @Benchmark
+    public int traverseFloodFill() throws MaxChangedBlocksException {
+        final double radius = this.radius;
+        int size = this.radius + 1;
+
+        FloodFill fill = new FloodFill(center.subtract(size, size, size),
+                center.add(size, size, size), FloodFill.Connectivity.FACES,
+                new FloodFill.Predicate() {
+                    public boolean matches(int x, int y, int z) {
+                        return world.getBlockType(x, y, z) == BlockID.WATER
+                                && center.distance(new Vector(x, y, z)) <= radius;
+                    }
+                });
+        fill.addSeed(center);
+        fill.run(new FloodFill.Action() {
+            public boolean visit(int x, int y, int z) {
+                return true;
+            }
+        });
+        return fill.getVisitedCount();
+    }
+
+    @Benchmark
+    public int traverseHashSet() {
+        HashSet<BlockVector> visited = new HashSet<BlockVector>();
+        Stack<BlockVector> queue = new Stack<BlockVector>();
+        queue.push(center.toBlockVector());
+
+        while (!queue.empty()) {
+            BlockVector pt = queue.pop();
+
+            if (visited.contains(pt)) {
+                continue;
+            }
+
+            if (world.getBlockType(pt) != BlockID.WATER
+                    || center.distance(pt) > radius) {
+                continue;
+            }
+
+            visited.add(pt);
+
+            queue.push(pt.add(1, 0, 0).toBlockVector());
+            queue.push(pt.add(-1, 0, 0).toBlockVector());
+            queue.push(pt.add(0, 0, 1).toBlockVector());
+            queue.push(pt.add(0, 0, -1).toBlockVector());
+            queue.push(pt.add(0, 1, 0).toBlockVector());
+            queue.push(pt.add(0, -1, 0).toBlockVector());
+        }
+
+        return visited.size();
+    }
+}
@@ -0,0 +1,91 @@
+// $Id$
+/*
+ * WorldEdit
+ * Copyright (C) 2010 sk89q <http://www.sk89q.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.sk89q.worldedit.bench;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import com.sk89q.worldedit.BlockVector;
+import com.sk89q.worldedit.DoubleArrayList;
+import com.sk89q.worldedit.blocks.BaseBlock;
+import com.sk89q.worldedit.history.ChangeJournal;
+
+/**
+ * Records the same changes into the DoubleArrayList pair that history used
+ * before and into a ChangeJournal pair. Both keep the original and the
+ * current block of each change, so the allocation reported by the gc
+ * profiler compares what an edit session's history costs.
+ *
+ * @author sk89q
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class HistoryBenchmark {
+    @Param({"100000", "1000000"})
+    public int count;
+
+    private int side;
+
+    @Setup
+    public void setUp() {
+        side = (int) Math.ceil(Math.pow(count, 1 / 3.0));
+    }
+
+    @Benchmark
+    public Object doubleArrayList() {
+        DoubleArrayList<BlockVector, BaseBlock> original =
+                new DoubleArrayList<BlockVector, BaseBlock>(true);
+        DoubleArrayList<BlockVector, BaseBlock> current =
+                new DoubleArrayList<BlockVector, BaseBlock>(false);
+        for (int i = 0; i < count; ++i) {
+            BlockVector pt = new BlockVector(i % side, (i / side) % side, i / (side * side));
+            original.put(pt, new BaseBlock(1, 0));
+            current.put(new BlockVector(pt), new BaseBlock(20, 0));
+        }
+        return new Object[] { original, current };
+    }
+
+    @Benchmark
+    public Object changeJournal() {
+        ChangeJournal original = new ChangeJournal();
+        ChangeJournal current = new ChangeJournal();
+        for (int i = 0; i < count; ++i) {
+            int x = i % side;
+            int y = (i / side) % side;
+            int z = i / (side * side);
+            original.add(x, y, z, 1, 0);
+            current.add(x, y, z, 20, 0);
+        }
+        return new Object[] { original, current };
+    }
+}
@@ -0,0 +1,85 @@
+// $Id$
+/*
+ * WorldEdit
+ * Copyright (C) 2010 sk89q <http://www.sk89q.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.sk89q.worldedit.bench;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import com.sk89q.jnbt.NBTInputStream;
+import com.sk89q.worldedit.Vector2D;
+import com.sk89q.worldedit.data.DataException;
+import com.sk89q.worldedit.data.McRegionReader;
+
+/**
+ * Measures reading every chunk of an 8x8 chunk MCRegion file held in
+ * memory, from the header through to the parsed chunk tags.
+ *
+ * @author sk89q
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class McRegionBenchmark {
+    private static final int CHUNKS = 8;
+
+    private byte[] region;
+
+    @Setup
+    public void setUp() throws IOException {
+        region = BenchmarkFixtures.createRegion(CHUNKS);
+    }
+
+    @Benchmark
+    public void readChunks(Blackhole blackhole) throws IOException, DataException {
+        McRegionReader reader = new McRegionReader(new ByteArrayInputStream(region));
+
+        try {
+            // The reader only seeks forward, so read in file order
+            for (int cx = 0; cx < CHUNKS; ++cx) {
+                for (int cz = 0; cz < CHUNKS; ++cz) {
+                    InputStream stream = reader.getChunkInputStream(new Vector2D(cx, cz));
+                    NBTInputStream nbt = new NBTInputStream(stream);
+                    try {
+                        blackhole.consume(nbt.readTag());
+                    } finally {
+                        nbt.close();
+                    }
+                }
+            }
+        } finally {
+            reader.close();
+        }
+    }
+}
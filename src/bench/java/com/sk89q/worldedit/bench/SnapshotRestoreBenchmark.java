@@ -0,0 +1,88 @@
+// $Id$
+/*
+ * WorldEdit
+ * Copyright (C) 2010 sk89q <http://www.sk89q.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.sk89q.worldedit.bench;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import com.sk89q.worldedit.EditSession;
+import com.sk89q.worldedit.MaxChangedBlocksException;
+import com.sk89q.worldedit.MemoryWorld;
+import com.sk89q.worldedit.Vector;
+import com.sk89q.worldedit.data.FileMcRegionChunkStore;
+import com.sk89q.worldedit.regions.CuboidRegion;
+import com.sk89q.worldedit.snapshots.SnapshotRestore;
+
+/**
+ * Measures restoring a 64x128x64 area from an MCRegion snapshot on disk
+ * into an empty world.
+ *
+ * @author sk89q
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class SnapshotRestoreBenchmark {
+    private File dir;
+    private CuboidRegion region;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        dir = BenchmarkFixtures.createTempDir();
+        BenchmarkFixtures.writeRegion(dir, 4);
+        region = new CuboidRegion(new Vector(0, 0, 0), new Vector(63, 127, 63));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        BenchmarkFixtures.delete(dir);
+    }
+
+    @Benchmark
+    public SnapshotRestore restore() throws IOException, MaxChangedBlocksException {
+        FileMcRegionChunkStore store = new FileMcRegionChunkStore(dir);
+
+        try {
+            SnapshotRestore restore = new SnapshotRestore(store, region);
+            restore.restore(new EditSession(new MemoryWorld("bench"), -1));
+            if (restore.hadTotalFailure()) {
+                throw new IllegalStateException(restore.getLastErrorMessage());
+            }
+            return restore;
+        } finally {
+            store.close();
+        }
+    }
+}
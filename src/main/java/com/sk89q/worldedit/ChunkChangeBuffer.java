@@ -0,0 +1,192 @@
+// $Id$
+/*
+ * WorldEdit
+ * Copyright (C) 2010 sk89q <http://www.sk89q.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.sk89q.worldedit;
+
+/**
+ * Buffers block changes for a single chunk so that they can be applied
+ * with {@link LocalWorld#setBlocks(ChunkChangeBuffer, boolean)} in one pass.
+ * Each change is stored as a chunk-local index
+ * (<code>y &lt;&lt; 8 | z &lt;&lt; 4 | x</code>), a type and a data value.
+ * Changes are applied in the order they were added.
+ *
+ * @author sk89q
+ */
+public class ChunkChangeBuffer {
+    private final int chunkX;
+    private final int chunkZ;
+    private int[] indexes;
+    private short[] types;
+    private byte[] data;
+    private int size = 0;
+
+    /**
+     * Construct the buffer.
+     *
+     * @param chunkX
+     * @param chunkZ
+     */
+    public ChunkChangeBuffer(int chunkX, int chunkZ) {
+        this.chunkX = chunkX;
+        this.chunkZ = chunkZ;
+        indexes = new int[64];
+        types = new short[64];
+        data = new byte[64];
+    }
+
+    /**
+     * Get the X coordinate of the chunk.
+     *
+     * @return
+     */
+    public int getChunkX() {
+        return chunkX;
+    }
+
+    /**
+     * Get the Z coordinate of the chunk.
+     *
+     * @return
+     */
+    public int getChunkZ() {
+        return chunkZ;
+    }
+
+    /**
+     * Add a change. The position is given in world coordinates and must
+     * lie inside this buffer's chunk.
+     *
+     * @param x
+     * @param y
+     * @param z
+     * @param type
+     * @param data
+     */
+    public void add(int x, int y, int z, int type, int data) {
+        if (x >> 4 != chunkX || z >> 4 != chunkZ) {
+            throw new IllegalArgumentException("Position (" + x + ", " + z
+                    + ") is not in chunk (" + chunkX + ", " + chunkZ + ")");
+        }
+
+        if (size == indexes.length) {
+            int capacity = size << 1;
+            int[] newIndexes = new int[capacity];
+            short[] newTypes = new short[capacity];
+            byte[] newData = new byte[capacity];
+            System.arraycopy(indexes, 0, newIndexes, 0, size);
+            System.arraycopy(types, 0, newTypes, 0, size);
+            System.arraycopy(this.data, 0, newData, 0, size);
+            indexes = newIndexes;
+            types = newTypes;
+            this.data = newData;
+        }
+
+        indexes[size] = (y << 8) | ((z & 15) << 4) | (x & 15);
+        types[size] = (short) type;
+        this.data[size] = (byte) data;
+        ++size;
+    }
+
+    /**
+     * Get the number of changes.
+     *
+     * @return
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Get the chunk-local index of a change.
+     *
+     * @param i
+     * @return
+     */
+    public int getIndex(int i) {
+        return indexes[i];
+    }
+
+    /**
+     * Get the X coordinate within the chunk (0-15) of a change.
+     *
+     * @param i
+     * @return
+     */
+    public int getLocalX(int i) {
+        return indexes[i] & 15;
+    }
+
+    /**
+     * Get the Y coordinate of a change.
+     *
+     * @param i
+     * @return
+     */
+    public int getY(int i) {
+        return indexes[i] >> 8;
+    }
+
+    /**
+     * Get the Z coordinate within the chunk (0-15) of a change.
+     *
+     * @param i
+     * @return
+     */
+    public int getLocalZ(int i) {
+        return (indexes[i] >> 4) & 15;
+    }
+
+    /**
+     * Get the world position of a change.
+     *
+     * @param i
+     * @return
+     */
+    public Vector getPosition(int i) {
+        return new Vector((chunkX << 4) + getLocalX(i), getY(i),
+                (chunkZ << 4) + getLocalZ(i));
+    }
+
+    /**
+     * Get the block type of a change.
+     *
+     * @param i
+     * @return
+     */
+    public int getType(int i) {
+        return types[i] & 0xFFFF;
+    }
+
+    /**
+     * Get the data value of a change.
+     *
+     * @param i
+     * @return
+     */
+    public int getData(int i) {
+        return data[i] & 0xFF;
+    }
+
+    /**
+     * Remove all changes.
+     */
+    public void clear() {
+        size = 0;
+    }
+}
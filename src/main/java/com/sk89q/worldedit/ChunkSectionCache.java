@@ -0,0 +1,215 @@
+// $Id$
+/*
+ * WorldEdit
+ * Copyright (C) 2010 sk89q <http://www.sk89q.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.sk89q.worldedit;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Read-through cache of the block types and data of the most recently used
+ * 16x16x16 chunk sections of a world. Sections are read with
+ * {@link LocalWorld#getBlocks(Vector, Vector, short[], byte[])} and the
+ * least recently used one is dropped when the cache is full.
+ *
+ * <p>The cache only sees the changes that are passed to
+ * {@link #update(int, int, int, int, int)}. Changes the world makes on its
+ * own, such as physics, are not picked up until the section is dropped.</p>
+ *
+ * @author sk89q
+ */
+public class ChunkSectionCache {
+    private final LocalWorld world;
+    private final int maxSections;
+    private final Map<Long, Section> sections;
+    private Section last;
+    private long hits = 0;
+    private long misses = 0;
+
+    /**
+     * Construct the cache.
+     *
+     * @param world
+     * @param maxSections number of sections to keep, at least 1
+     */
+    public ChunkSectionCache(LocalWorld world, int maxSections) {
+        if (maxSections < 1) {
+            throw new IllegalArgumentException("Cache must hold at least one section");
+        }
+
+        this.world = world;
+        this.maxSections = maxSections;
+        this.sections = new LinkedHashMap<Long, Section>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, Section> eldest) {
+                return size() > ChunkSectionCache.this.maxSections;
+            }
+        };
+    }
+
+    private static long key(int sectionX, int sectionY, int sectionZ) {
+        return ((long) sectionX << 38) | (((long) sectionZ & 0x3FFFFFFL) << 12)
+                | (sectionY & 0xFFF);
+    }
+
+    /**
+     * Get the section containing a position, reading it from the world if
+     * needed.
+     *
+     * @param x
+     * @param y
+     * @param z
+     * @return
+     */
+    private Section getSection(int x, int y, int z) {
+        int sx = x >> 4;
+        int sy = y >> 4;
+        int sz = z >> 4;
+
+        Section section = last;
+        if (section != null && section.x == sx && section.y == sy
+                && section.z == sz) {
+            ++hits;
+            return section;
+        }
+
+        Long key = key(sx, sy, sz);
+        section = sections.get(key);
+
+        if (section != null) {
+            ++hits;
+        } else {
+            ++misses;
+            section = new Section(sx, sy, sz);
+            world.getBlocks(new Vector(sx << 4, sy << 4, sz << 4),
+                    new Vector((sx << 4) + 15, (sy << 4) + 15, (sz << 4) + 15),
+                    section.types, section.data);
+            sections.put(key, section);
+        }
+
+        last = section;
+        return section;
+    }
+
+    private static int index(int x, int y, int z) {
+        return ((y & 15) << 8) | ((z & 15) << 4) | (x & 15);
+    }
+
+    /**
+     * Get the type of a block.
+     *
+     * @param x
+     * @param y
+     * @param z
+     * @return
+     */
+    public int getType(int x, int y, int z) {
+        return getSection(x, y, z).types[index(x, y, z)] & 0xFFFF;
+    }
+
+    /**
+     * Get the data value of a block.
+     *
+     * @param x
+     * @param y
+     * @param z
+     * @return
+     */
+    public int getData(int x, int y, int z) {
+        return getSection(x, y, z).data[index(x, y, z)] & 0xFF;
+    }
+
+    /**
+     * Record a change made to the world. Nothing is read if the section
+     * is not cached.
+     *
+     * @param x
+     * @param y
+     * @param z
+     * @param type
+     * @param data
+     */
+    public void update(int x, int y, int z, int type, int data) {
+        Section section = last;
+        if (section == null || section.x != x >> 4 || section.y != y >> 4
+                || section.z != z >> 4) {
+            section = sections.get(key(x >> 4, y >> 4, z >> 4));
+        }
+
+        if (section != null) {
+            int index = index(x, y, z);
+            section.types[index] = (short) type;
+            section.data[index] = (byte) data;
+        }
+    }
+
+    /**
+     * Drop all cached sections. The counters are kept.
+     */
+    public void clear() {
+        sections.clear();
+        last = null;
+    }
+
+    /**
+     * Get the number of reads answered from the cache.
+     *
+     * @return
+     */
+    public long getHits() {
+        return hits;
+    }
+
+    /**
+     * Get the number of reads that had to load a section from the world.
+     *
+     * @return
+     */
+    public long getMisses() {
+        return misses;
+    }
+
+    /**
+     * Get the number of sections currently cached.
+     *
+     * @return
+     */
+    public int size() {
+        return sections.size();
+    }
+
+    /**
+     * A cached section.
+     */
+    private static class Section {
+        final int x;
+        final int y;
+        final int z;
+        final short[] types = new short[4096];
+        final byte[] data = new byte[4096];
+
+        Section(int x, int y, int z) {
+            this.x = x;
+            this.y = y;
+            this.z = z;
+        }
+    }
+}
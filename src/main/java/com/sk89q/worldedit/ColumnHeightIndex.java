@@ -0,0 +1,275 @@
+// $Id$
+/*
+ * WorldEdit
+ * Copyright (C) 2010 sk89q <http://www.sk89q.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.sk89q.worldedit;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import com.sk89q.worldedit.blocks.BlockType;
+
+/**
+ * Remembers the highest block of each column of a world for a few kinds of
+ * surfaces. A chunk is indexed the first time one of its columns is asked
+ * for, with one read of the whole chunk, after which the height of any of
+ * its columns is known right away.
+ *
+ * <p>Like {@link ChunkSectionCache}, the index only sees the changes that
+ * are passed to {@link #update(int, int, int, int)}. When the highest block
+ * of a column is replaced by one that is not part of the surface, the
+ * column is read again the next time it is asked for.</p>
+ *
+ * @author sk89q
+ */
+public class ColumnHeightIndex {
+    /**
+     * The kinds of blocks a surface can be made of.
+     */
+    public enum Surface {
+        /**
+         * Any block but air.
+         */
+        NON_AIR {
+            @Override
+            public boolean matches(int type) {
+                return type != 0;
+            }
+        },
+        /**
+         * Blocks that cannot be walked through.
+         */
+        SOLID {
+            @Override
+            public boolean matches(int type) {
+                return !BlockType.canPassThrough(type);
+            }
+        },
+        /**
+         * Blocks that can occur naturally as terrain.
+         */
+        NATURAL_TERRAIN {
+            @Override
+            public boolean matches(int type) {
+                return BlockType.isNaturalTerrainBlock(type);
+            }
+        };
+
+        /**
+         * Returns whether a block type is part of the surface.
+         *
+         * @param type
+         * @return
+         */
+        public abstract boolean matches(int type);
+    }
+
+    private static final Surface[] SURFACES = Surface.values();
+
+    /**
+     * Whether each of the first 4096 block types is part of each surface,
+     * indexed by surface and then by type, so that chunks can be indexed
+     * without a set lookup per block.
+     */
+    private static final boolean[][] MATCHES = new boolean[SURFACES.length][4096];
+
+    static {
+        for (Surface surface : SURFACES) {
+            for (int type = 0; type < 4096; ++type) {
+                MATCHES[surface.ordinal()][type] = surface.matches(type);
+            }
+        }
+    }
+
+    /**
+     * Height of a column that has to be read again.
+     */
+    private static final short UNKNOWN = -2;
+
+    private final LocalWorld world;
+    private final Map<Long, short[]> chunks = new HashMap<Long, short[]>();
+
+    /**
+     * Construct the index.
+     *
+     * @param world
+     */
+    public ColumnHeightIndex(LocalWorld world) {
+        this.world = world;
+    }
+
+    private static long key(int chunkX, int chunkZ) {
+        return ((long) chunkX << 32) | (chunkZ & 0xFFFFFFFFL);
+    }
+
+    private static int index(int x, int z, Surface surface) {
+        return (surface.ordinal() << 8) | ((z & 15) << 4) | (x & 15);
+    }
+
+    /**
+     * Get the height of the highest block of a column that is part of a
+     * surface.
+     *
+     * @param x
+     * @param z
+     * @param surface
+     * @return the height, or -1 if there is no such block
+     */
+    public int getHighest(int x, int z, Surface surface) {
+        long key = key(x >> 4, z >> 4);
+        short[] heights = chunks.get(key);
+
+        if (heights == null) {
+            heights = readChunk(x >> 4, z >> 4);
+            chunks.put(key, heights);
+        }
+
+        int index = index(x, z, surface);
+        if (heights[index] == UNKNOWN) {
+            readColumn(x, z, heights);
+        }
+
+        return heights[index];
+    }
+
+    /**
+     * Tell the index that a block has changed. Changes to chunks that have
+     * not been indexed yet are ignored, as they are read from the world
+     * when they are needed.
+     *
+     * @param x
+     * @param y
+     * @param z
+     * @param type
+     */
+    public void update(int x, int y, int z, int type) {
+        short[] heights = chunks.get(key(x >> 4, z >> 4));
+        if (heights == null) {
+            return;
+        }
+
+        for (Surface surface : SURFACES) {
+            int index = index(x, z, surface);
+            int height = heights[index];
+
+            if (height == UNKNOWN) {
+                continue;
+            } else if (surface.matches(type)) {
+                if (y > height) {
+                    heights[index] = (short) y;
+                }
+            } else if (y == height) {
+                heights[index] = UNKNOWN;
+            }
+        }
+    }
+
+    /**
+     * Forget every indexed chunk.
+     */
+    public void clear() {
+        chunks.clear();
+    }
+
+    /**
+     * Get the number of chunks that have been indexed.
+     *
+     * @return
+     */
+    public int size() {
+        return chunks.size();
+    }
+
+    /**
+     * Index a chunk, reading it a section at a time from the top down
+     * until the highest block of every surface of every column is known.
+     *
+     * @param chunkX
+     * @param chunkZ
+     * @return
+     */
+    private short[] readChunk(int chunkX, int chunkZ) {
+        short[] heights = new short[SURFACES.length * 256];
+        Arrays.fill(heights, (short) -1);
+
+        int remaining = heights.length;
+        short[] types = new short[16 * 16 * 16];
+
+        for (int y1 = world.getHeight(); y1 >= 0 && remaining > 0; y1 = (y1 & ~15) - 1) {
+            int y0 = y1 & ~15;
+            world.getBlocks(new Vector(chunkX << 4, y0, chunkZ << 4),
+                    new Vector((chunkX << 4) + 15, y1, (chunkZ << 4) + 15),
+                    types, null);
+
+            for (int column = 0; column < 256; ++column) {
+                remaining -= findHeights(types, column, 256, y0, y1, heights, column);
+            }
+        }
+
+        return heights;
+    }
+
+    private void readColumn(int x, int z, short[] heights) {
+        int maxY = world.getHeight();
+        short[] types = new short[maxY + 1];
+        world.getBlocks(new Vector(x, 0, z), new Vector(x, maxY, z), types, null);
+
+        int column = ((z & 15) << 4) | (x & 15);
+        for (Surface surface : SURFACES) {
+            heights[(surface.ordinal() << 8) | column] = -1;
+        }
+        findHeights(types, 0, 1, 0, maxY, heights, column);
+    }
+
+    /**
+     * Look for the highest block of each surface that has not been found
+     * yet in part of a column of block types.
+     *
+     * @param types
+     * @param offset index of the block at y0
+     * @param stride distance between a block and the one above it
+     * @param y0 height of the lowest block read
+     * @param y1 height of the highest block read
+     * @param heights
+     * @param column index of the column in the chunk
+     * @return number of surfaces that were found
+     */
+    private static int findHeights(short[] types, int offset, int stride,
+            int y0, int y1, short[] heights, int column) {
+        int found = 0;
+
+        for (Surface surface : SURFACES) {
+            int index = (surface.ordinal() << 8) | column;
+            if (heights[index] != -1) {
+                continue;
+            }
+
+            boolean[] matches = MATCHES[surface.ordinal()];
+            for (int y = y1; y >= y0; --y) {
+                int type = types[offset + (y - y0) * stride] & 0xFFFF;
+                if (type < matches.length ? matches[type] : surface.matches(type)) {
+                    heights[index] = (short) y;
+                    ++found;
+                    break;
+                }
+            }
+        }
+
+        return found;
+    }
+}
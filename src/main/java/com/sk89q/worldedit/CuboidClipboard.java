@@ -21,7 +21,7 @@ package com.sk89q.worldedit;
 
 import com.sk89q.jnbt.*;
 import com.sk89q.worldedit.blocks.*;
-import com.sk89q.worldedit.data.*;
+import com.sk89q.worldedit.data.DataException;
 import java.io.*;
 import java.util.Map;
 import java.util.HashMap;
@@ -30,7 +30,10 @@ import java.util.List;
 import java.util.zip.GZIPInputStream;
 
 /**
- * The clipboard remembers the state of a cuboid region.
+ * The clipboard remembers the state of a cuboid region. Block types and
+ * data values are kept in flat arrays laid out as in a .schematic file,
+ * y first, then z, then x; only blocks with tile entity data are kept as
+ * objects.
  *
  * @author sk89q
  */
@@ -44,7 +47,9 @@ public class CuboidClipboard {
         UP_DOWN
     }
 
-    private BaseBlock[][][] data;
+    private short[] ids;
+    private byte[] data;
+    private Map<Integer, BaseBlock> tileEntities = new HashMap<Integer, BaseBlock>();
     private Vector offset;
     private Vector origin;
     private Vector size;
@@ -56,7 +61,7 @@ public class CuboidClipboard {
      */
     public CuboidClipboard(Vector size) {
         this.size = size;
-        data = new BaseBlock[size.getBlockX()][size.getBlockY()][size.getBlockZ()];
+        allocate();
         origin = new Vector();
         offset = new Vector();
     }
@@ -69,7 +74,7 @@ public class CuboidClipboard {
      */
     public CuboidClipboard(Vector size, Vector origin) {
         this.size = size;
-        data = new BaseBlock[size.getBlockX()][size.getBlockY()][size.getBlockZ()];
+        allocate();
         this.origin = origin;
         offset = new Vector();
     }
@@ -83,11 +88,44 @@ public class CuboidClipboard {
      */
     public CuboidClipboard(Vector size, Vector origin, Vector offset) {
         this.size = size;
-        data = new BaseBlock[size.getBlockX()][size.getBlockY()][size.getBlockZ()];
+        allocate();
         this.origin = origin;
         this.offset = offset;
     }
 
+    /**
+     * Allocate the arrays for the current size.
+     */
+    private void allocate() {
+        int volume = getWidth() * getHeight() * getLength();
+        ids = new short[volume];
+        data = new byte[volume];
+        tileEntities.clear();
+    }
+
+    /**
+     * Get the index of a point in the arrays.
+     *
+     * @param x
+     * @param y
+     * @param z
+     * @return
+     * @throws ArrayIndexOutOfBoundsException
+     */
+    private int getIndex(int x, int y, int z)
+            throws ArrayIndexOutOfBoundsException {
+        int width = getWidth();
+        int length = getLength();
+
+        if (x < 0 || x >= width || y < 0 || y >= getHeight()
+                || z < 0 || z >= length) {
+            throw new ArrayIndexOutOfBoundsException(
+                    "(" + x + ", " + y + ", " + z + ") is outside of the clipboard");
+        }
+
+        return y * width * length + z * width + x;
+    }
+
     /**
      * Get the width (X-direction) of the clipboard.
      *
@@ -135,37 +173,57 @@ public class CuboidClipboard {
         int shiftX = sizeRotated.getX() < 0 ? -sizeRotated.getBlockX() - 1 : 0;
         int shiftZ = sizeRotated.getZ() < 0 ? -sizeRotated.getBlockZ() - 1 : 0;
 
-        BaseBlock newData[][][] = new BaseBlock
-                [Math.abs(sizeRotated.getBlockX())]
-                [Math.abs(sizeRotated.getBlockY())]
-                [Math.abs(sizeRotated.getBlockZ())];
+        int newWidth = Math.abs(sizeRotated.getBlockX());
+        int newHeight = Math.abs(sizeRotated.getBlockY());
+        int newLength = Math.abs(sizeRotated.getBlockZ());
+        short[] newIds = new short[newWidth * newHeight * newLength];
+        byte[] newData = new byte[newIds.length];
+        int[] moved = new int[width * length];
 
         for (int x = 0; x < width; ++x) {
             for (int z = 0; z < length; ++z) {
                 Vector v = (new Vector(x, 0, z)).transform2D(angle, 0, 0, 0, 0);
                 int newX = v.getBlockX();
                 int newZ = v.getBlockZ();
+                int column = (shiftZ + newZ) * newWidth + shiftX + newX;
+                moved[z * width + x] = column;
+
                 for (int y = 0; y < height; ++y) {
-                    BaseBlock block = data[x][y][z];
-                    newData[shiftX + newX][y][shiftZ + newZ] = block;
+                    int from = y * width * length + z * width + x;
+                    int to = y * newWidth * newLength + column;
+                    int type = ids[from];
+                    int blockData = data[from];
 
                     if (reverse) {
                         for (int i = 0; i < numRotations; ++i) {
-                            block.rotate90Reverse();
+                            blockData = (byte) BlockData.rotate90Reverse(type, blockData);
                         }
                     } else {
                         for (int i = 0; i < numRotations; ++i) {
-                            block.rotate90();
+                            blockData = (byte) BlockData.rotate90(type, blockData);
                         }
                     }
+
+                    newIds[to] = (short) type;
+                    newData[to] = (byte) blockData;
                 }
             }
         }
 
+        Map<Integer, BaseBlock> newTileEntities = new HashMap<Integer, BaseBlock>();
+        for (Map.Entry<Integer, BaseBlock> entry : tileEntities.entrySet()) {
+            int from = entry.getKey();
+            int y = from / (width * length);
+            int to = y * newWidth * newLength + moved[from % (width * length)];
+            BaseBlock block = entry.getValue();
+            block.setData(newData[to]);
+            newTileEntities.put(to, block);
+        }
+
+        ids = newIds;
         data = newData;
-        size = new Vector(Math.abs(sizeRotated.getBlockX()),
-                          Math.abs(sizeRotated.getBlockY()),
-                          Math.abs(sizeRotated.getBlockZ()));
+        tileEntities = newTileEntities;
+        size = new Vector(newWidth, newHeight, newLength);
         offset = offset.transform2D(angle, 0, 0, 0, 0)
                 .subtract(shiftX, 0, shiftZ);
     }
@@ -190,17 +248,15 @@ public class CuboidClipboard {
         final int length = getLength();
         final int height = getHeight();
 
+        for (int i = 0; i < ids.length; ++i) {
+            data[i] = (byte) BlockData.flip(ids[i], data[i], dir);
+        }
+
         switch (dir) {
         case NORTH_SOUTH:
-            final int wid = (int) Math.ceil(width / 2.0f);
-            for (int xs = 0; xs < wid; ++xs) {
-                for (int z = 0; z < length; ++z) {
-                    for (int y = 0; y < height; ++y) {
-                        BaseBlock old = data[xs][y][z].flip(dir);
-                        if (xs == width - xs - 1) continue;
-                        data[xs][y][z] = data[width - xs - 1][y][z].flip(dir);
-                        data[width - xs - 1][y][z] = old;
-                    }
+            for (int row = 0; row < ids.length; row += width) {
+                for (int xs = 0; xs < width / 2; ++xs) {
+                    swap(row + xs, row + width - xs - 1);
                 }
             }
 
@@ -211,14 +267,12 @@ public class CuboidClipboard {
             break;
 
         case WEST_EAST:
-            final int len = (int) Math.ceil(length / 2.0f);
-            for (int zs = 0; zs < len; ++zs) {
-                for (int x = 0; x < width; ++x) {
-                    for (int y = 0; y < height; ++y) {
-                        BaseBlock old = data[x][y][zs].flip(dir);
-                        if (zs == length - zs - 1) continue;
-                        data[x][y][zs] = data[x][y][length - zs - 1].flip(dir);
-                        data[x][y][length - zs - 1] = old;
+            for (int layer = 0; layer < ids.length; layer += width * length) {
+                for (int zs = 0; zs < length / 2; ++zs) {
+                    int a = layer + zs * width;
+                    int b = layer + (length - zs - 1) * width;
+                    for (int x = 0; x < width; ++x) {
+                        swap(a + x, b + x);
                     }
                 }
             }
@@ -230,15 +284,12 @@ public class CuboidClipboard {
             break;
 
         case UP_DOWN:
-            final int hei = (int) Math.ceil(height / 2.0f);
-            for (int ys = 0; ys < hei; ++ys) {
-                for (int x = 0; x < width; ++x) {
-                    for (int z = 0; z < length; ++z) {
-                        BaseBlock old = data[x][ys][z].flip(dir);
-                        if (ys == height - ys - 1) continue;
-                        data[x][ys][z] = data[x][height - ys - 1][z].flip(dir);
-                        data[x][height - ys - 1][z] = old;
-                    }
+            final int area = width * length;
+            for (int ys = 0; ys < height / 2; ++ys) {
+                int a = ys * area;
+                int b = (height - ys - 1) * area;
+                for (int i = 0; i < area; ++i) {
+                    swap(a + i, b + i);
                 }
             }
 
@@ -248,6 +299,47 @@ public class CuboidClipboard {
 
             break;
         }
+
+        Map<Integer, BaseBlock> flipped = new HashMap<Integer, BaseBlock>();
+        for (Map.Entry<Integer, BaseBlock> entry : tileEntities.entrySet()) {
+            int index = entry.getKey();
+            int x = index % width;
+            int z = (index / width) % length;
+            int y = index / (width * length);
+
+            switch (dir) {
+            case NORTH_SOUTH:
+                x = width - x - 1;
+                break;
+            case WEST_EAST:
+                z = length - z - 1;
+                break;
+            case UP_DOWN:
+                y = height - y - 1;
+                break;
+            }
+
+            index = y * width * length + z * width + x;
+            BaseBlock block = entry.getValue();
+            block.setData(data[index]);
+            flipped.put(index, block);
+        }
+        tileEntities = flipped;
+    }
+
+    /**
+     * Swap two blocks in the arrays.
+     *
+     * @param a
+     * @param b
+     */
+    private void swap(int a, int b) {
+        short id = ids[a];
+        ids[a] = ids[b];
+        ids[b] = id;
+        byte blockData = data[a];
+        data[a] = data[b];
+        data[b] = blockData;
     }
 
     /**
@@ -256,12 +348,20 @@ public class CuboidClipboard {
      * @param editSession
      */
     public void copy(EditSession editSession) {
-        for (int x = 0; x < size.getBlockX(); ++x) {
-            for (int y = 0; y < size.getBlockY(); ++y) {
-                for (int z = 0; z < size.getBlockZ(); ++z) {
-                    data[x][y][z] =
-                        editSession.getBlock(new Vector(x, y, z).add(getOrigin()));
-                }
+        int width = getWidth();
+        int length = getLength();
+
+        editSession.getBlocks(origin,
+                origin.add(size).subtract(1, 1, 1), ids, data);
+
+        tileEntities.clear();
+        for (int index = 0; index < ids.length; ++index) {
+            if (EditSession.hasTileEntity(ids[index])) {
+                int x = index % width;
+                int z = (index / width) % length;
+                int y = index / (width * length);
+                tileEntities.put(index,
+                        editSession.getBlock(new Vector(x, y, z).add(origin)));
             }
         }
     }
@@ -289,17 +389,7 @@ public class CuboidClipboard {
      */
     public void place(EditSession editSession, Vector pos, boolean noAir)
             throws MaxChangedBlocksException {
-        for (int x = 0; x < size.getBlockX(); ++x) {
-            for (int y = 0; y < size.getBlockY(); ++y) {
-                for (int z = 0; z < size.getBlockZ(); ++z) {
-                    if (noAir && data[x][y][z].isAir())
-                        continue;
-
-                    editSession.setBlock(new Vector(x, y, z).add(pos),
-                            data[x][y][z]);
-                }
-            }
-        }
+        editSession.placeBlocks(pos, size, ids, data, tileEntities, noAir);
     }
 
     /**
@@ -307,11 +397,50 @@ public class CuboidClipboard {
      * of the copy (0, 0, 0) and not to the actual copy origin.
      *
      * @param pos
-     * @return null
+     * @return
      * @throws ArrayIndexOutOfBoundsException
      */
     public BaseBlock getPoint(Vector pos) throws ArrayIndexOutOfBoundsException {
-        return data[pos.getBlockX()][pos.getBlockY()][pos.getBlockZ()];
+        int index = getIndex(pos.getBlockX(), pos.getBlockY(), pos.getBlockZ());
+
+        if (!tileEntities.isEmpty()) {
+            BaseBlock block = tileEntities.get(index);
+            if (block != null) {
+                return block;
+            }
+        }
+
+        return new BaseBlock(ids[index], data[index]);
+    }
+
+    /**
+     * Get the type of one point in the copy, relative to the origin of
+     * the copy (0, 0, 0), without creating a block.
+     *
+     * @param x
+     * @param y
+     * @param z
+     * @return
+     * @throws ArrayIndexOutOfBoundsException
+     */
+    public int getBlockType(int x, int y, int z)
+            throws ArrayIndexOutOfBoundsException {
+        return ids[getIndex(x, y, z)];
+    }
+
+    /**
+     * Get the data value of one point in the copy, relative to the origin
+     * of the copy (0, 0, 0), without creating a block.
+     *
+     * @param x
+     * @param y
+     * @param z
+     * @return
+     * @throws ArrayIndexOutOfBoundsException
+     */
+    public int getBlockData(int x, int y, int z)
+            throws ArrayIndexOutOfBoundsException {
+        return data[getIndex(x, y, z)];
     }
 
     /**
@@ -358,41 +487,33 @@ public class CuboidClipboard {
         schematic.put("WEOffsetZ", new IntTag("WEOffsetZ", getOffset().getBlockZ()));
 
         // Copy
-        byte[] blocks = new byte[width * height * length];
-        byte[] blockData = new byte[width * height * length];
+        byte[] blocks = new byte[ids.length];
         ArrayList<Tag> tileEntities = new ArrayList<Tag>();
 
-        for (int x = 0; x < width; ++x) {
-            for (int y = 0; y < height; ++y) {
-                for (int z = 0; z < length; ++z) {
-                    int index = y * width * length + z * width + x;
-                    blocks[index] = (byte)data[x][y][z].getType();
-                    blockData[index] = (byte)data[x][y][z].getData();
-
-                    // Store TileEntity data
-                    if (data[x][y][z] instanceof TileEntityBlock) {
-                        TileEntityBlock tileEntityBlock =
-                                (TileEntityBlock)data[x][y][z];
-
-                        // Get the list of key/values from the block
-                        Map<String,Tag> values = tileEntityBlock.toTileEntityNBT();
-                        if (values != null) {
-                            values.put("id", new StringTag("id",
-                                    tileEntityBlock.getTileEntityID()));
-                            values.put("x", new IntTag("x", x));
-                            values.put("y", new IntTag("y", y));
-                            values.put("z", new IntTag("z", z));
-                            CompoundTag tileEntityTag =
-                                    new CompoundTag("TileEntity", values);
-                            tileEntities.add(tileEntityTag);
-                        }
-                    }
-                }
+        for (int index = 0; index < ids.length; ++index) {
+            blocks[index] = (byte) ids[index];
+        }
+
+        for (Map.Entry<Integer, BaseBlock> entry : this.tileEntities.entrySet()) {
+            int index = entry.getKey();
+            TileEntityBlock tileEntityBlock = (TileEntityBlock) entry.getValue();
+
+            // Get the list of key/values from the block
+            Map<String,Tag> values = tileEntityBlock.toTileEntityNBT();
+            if (values != null) {
+                values.put("id", new StringTag("id",
+                        tileEntityBlock.getTileEntityID()));
+                values.put("x", new IntTag("x", index % width));
+                values.put("y", new IntTag("y", index / (width * length)));
+                values.put("z", new IntTag("z", (index / width) % length));
+                CompoundTag tileEntityTag =
+                        new CompoundTag("TileEntity", values);
+                tileEntities.add(tileEntityTag);
             }
         }
 
         schematic.put("Blocks", new ByteArrayTag("Blocks", blocks));
-        schematic.put("Data", new ByteArrayTag("Data", blockData));
+        schematic.put("Data", new ByteArrayTag("Data", data));
         schematic.put("Entities", new ListTag("Entities", CompoundTag.class, new ArrayList<Tag>()));
         schematic.put("TileEntities", new ListTag("TileEntities", CompoundTag.class, tileEntities));
 
@@ -508,54 +629,30 @@ public class CuboidClipboard {
         clipboard.setOrigin(origin);
         clipboard.setOffset(offset);
 
-        for (int x = 0; x < width; ++x) {
-            for (int y = 0; y < height; ++y) {
-                for (int z = 0; z < length; ++z) {
-                    int index = y * width * length + z * width + x;
-                    BlockVector pt = new BlockVector(x, y, z);
-                    BaseBlock block;
-
-                    switch (blocks[index]) {
-                    case BlockID.WALL_SIGN:
-                    case BlockID.SIGN_POST:
-                        block = new SignBlock(blocks[index], blockData[index]);
-                        break;
-
-                    case BlockID.CHEST:
-                        block = new ChestBlock(blockData[index]);
-                        break;
-
-                    case BlockID.FURNACE:
-                    case BlockID.BURNING_FURNACE:
-                        block = new FurnaceBlock(blocks[index], blockData[index]);
-                        break;
-
-                    case BlockID.DISPENSER:
-                        block = new DispenserBlock(blockData[index]);
-                        break;
-
-                    case BlockID.MOB_SPAWNER:
-                        block = new MobSpawnerBlock(blockData[index]);
-                        break;
-
-                    case BlockID.NOTE_BLOCK:
-                        block = new NoteBlock(blockData[index]);
-                        break;
-
-                    default:
-                        block = new BaseBlock(blocks[index], blockData[index]);
-                        break;
-                    }
+        int volume = width * height * length;
+        if (blocks.length < volume || blockData.length < volume) {
+            throw new DataException("Schematic file has fewer blocks than its size");
+        }
 
-                    if (block instanceof TileEntityBlock
-                            && tileEntitiesMap.containsKey(pt)) {
-                        ((TileEntityBlock)block).fromTileEntityNBT(
-                                tileEntitiesMap.get(pt));
-                    }
+        System.arraycopy(blockData, 0, clipboard.data, 0, volume);
 
-                    clipboard.data[x][y][z] = block;
-                }
+        for (int index = 0; index < volume; ++index) {
+            int type = blocks[index] & 0xFF;
+            clipboard.ids[index] = (short) type;
+
+            BaseBlock block = EditSession.createTileEntityBlock(type, blockData[index]);
+            if (block == null) {
+                continue;
+            }
+
+            BlockVector pt = new BlockVector(index % width,
+                    index / (width * length), (index / width) % length);
+            if (tileEntitiesMap.containsKey(pt)) {
+                ((TileEntityBlock) block).fromTileEntityNBT(
+                        tileEntitiesMap.get(pt));
             }
+
+            clipboard.tileEntities.put(index, block);
         }
 
         return clipboard;
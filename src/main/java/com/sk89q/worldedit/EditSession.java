@@ -18,22 +18,39 @@
  */
 package com.sk89q.worldedit;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
 import java.util.Map;
 import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.Set;
 import java.util.HashSet;
-import java.util.Stack;
 import java.util.List;
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.Random;
+import java.util.zip.GZIPInputStream;
+import com.sk89q.jnbt.CompoundTag;
+import com.sk89q.jnbt.NBTInputStream;
+import com.sk89q.jnbt.NBTOutputStream;
+import com.sk89q.jnbt.StringTag;
+import com.sk89q.jnbt.Tag;
 import com.sk89q.worldedit.regions.*;
 import com.sk89q.worldedit.util.TreeGenerator;
 import com.sk89q.worldedit.bags.*;
 import com.sk89q.worldedit.blocks.*;
+import com.sk89q.worldedit.data.DataException;
+import com.sk89q.worldedit.history.ChangeJournal;
+import com.sk89q.worldedit.history.ChunkSortedReplay;
+import com.sk89q.worldedit.history.PositionIndex;
 import com.sk89q.worldedit.masks.Mask;
 import com.sk89q.worldedit.patterns.*;
+import com.sk89q.worldedit.shapes.Shape;
+import com.sk89q.worldedit.shapes.ShapeCache;
 
 /**
  * This class can wrap all block editing operations into one "edit session" that
@@ -47,6 +64,16 @@ import com.sk89q.worldedit.patterns.*;
  */
 public class EditSession {
 
+    /**
+     * Number of history entries kept in memory before the rest are written
+     * to a temporary file. -1 disables spilling.
+     */
+    public static int HISTORY_SPILL_THRESHOLD = -1;
+    /**
+     * Directory for history spill files, or null for the system default.
+     */
+    public static File HISTORY_SPILL_DIR = null;
+
     /**
      * Random number generator.
      */
@@ -58,15 +85,19 @@ public class EditSession {
     /**
      * Stores the original blocks before modification.
      */
-    private DoubleArrayList<BlockVector, BaseBlock> original =
-            new DoubleArrayList<BlockVector, BaseBlock>(
-            true);
+    private ChangeJournal original = new ChangeJournal();
     /**
      * Stores the current blocks.
      */
-    private DoubleArrayList<BlockVector, BaseBlock> current =
-            new DoubleArrayList<BlockVector, BaseBlock>(
-            false);
+    private ChangeJournal current = new ChangeJournal();
+    /**
+     * Maps changed positions to their index in the history.
+     */
+    private PositionIndex historyIndex = new PositionIndex();
+    /**
+     * Number of block changes, including repeated changes.
+     */
+    private int changeCount = 0;
     /**
      * Blocks that should be placed before last.
      */
@@ -98,6 +129,74 @@ public class EditSession {
      */
     private boolean fastMode = false;
 
+    /**
+     * Changes waiting to be applied a chunk at a time. Only set while the
+     * queue is being flushed.
+     */
+    private Map<BlockVector2D, ChunkChangeBuffer> pendingChanges;
+
+    /**
+     * Number of changes in pendingChanges.
+     */
+    private int pendingChangeCount = 0;
+
+    /**
+     * The type and data value, as <code>type &lt;&lt; 8 | data</code>, of
+     * each block changed since the buffered changes were last all applied,
+     * by packed position. Only set while the queue is being flushed.
+     */
+    private PositionIndex pendingBlocks;
+
+    /**
+     * Number of buffered changes at which they are applied to the world,
+     * so that a large flush does not hold every change twice.
+     */
+    private static final int MAX_PENDING_CHANGES = 65536;
+
+    /**
+     * Position in the queue while it is being applied over several calls
+     * to {@link #flushQueue(int, long)}, or null.
+     */
+    private Iterator<Map.Entry<BlockVector, BaseBlock>> flushIterator;
+
+    /**
+     * Whether flushIterator is going over the blocks placed last.
+     */
+    private boolean flushingLast = false;
+
+    /**
+     * Number of queued blocks placed so far by the current flush.
+     */
+    private int flushedCount = 0;
+
+    /**
+     * Number of blocks between checks of the time limit of a partial flush.
+     */
+    private static final int FLUSH_CHECK_INTERVAL = 1024;
+
+    /**
+     * Replace masks for {@link #fillCuboid} that match every block but air.
+     */
+    private static final int[] NON_AIR_MASKS = new int[4096];
+
+    static {
+        for (int i = 1; i < NON_AIR_MASKS.length; ++i) {
+            NON_AIR_MASKS[i] = 0xFFFF;
+        }
+    }
+
+    /**
+     * Cache of recently read chunk sections, or null if reads go straight
+     * to the world.
+     */
+    private ChunkSectionCache readCache;
+
+    /**
+     * Heights of the columns that have been looked at, or null if none
+     * have been yet.
+     */
+    private ColumnHeightIndex heightIndex;
+
     /**
      * Block bag to use for getting blocks.
      */
@@ -113,6 +212,21 @@ public class EditSession {
      */
     private Mask mask;
 
+    /**
+     * Time at which this edit session was created.
+     */
+    private final long creationTime = System.currentTimeMillis();
+
+    /**
+     * Number of references to the history of this edit session.
+     */
+    private int historyReferences = 1;
+
+    /**
+     * Whether this edit session was disposed.
+     */
+    private boolean disposed = false;
+
     /**
      * Construct the object with a maximum number of blocks.
      *
@@ -126,6 +240,9 @@ public class EditSession {
 
         this.maxBlocks = maxBlocks;
         this.world = world;
+
+        original.setSpillThreshold(HISTORY_SPILL_THRESHOLD, HISTORY_SPILL_DIR);
+        current.setSpillThreshold(HISTORY_SPILL_THRESHOLD, HISTORY_SPILL_DIR);
     }
 
     /**
@@ -144,6 +261,9 @@ public class EditSession {
         this.maxBlocks = maxBlocks;
         this.blockBag = blockBag;
         this.world = world;
+
+        original.setSpillThreshold(HISTORY_SPILL_THRESHOLD, HISTORY_SPILL_DIR);
+        current.setSpillThreshold(HISTORY_SPILL_THRESHOLD, HISTORY_SPILL_DIR);
     }
 
     /**
@@ -173,14 +293,33 @@ public class EditSession {
             }
         }
 
-        final int existing = world.getBlockType(pt);
+        final int x = pt.getBlockX();
+        final int z = pt.getBlockZ();
+        final boolean batched = pendingChanges != null && mask == null
+                && blockBag == null;
+        final long key = batched ? ChangeJournal.pack(x, y, z) : 0;
+
+        // An earlier change to the block may still be waiting to be applied
+        final int pending = batched ? pendingBlocks.get(key) : -1;
+        final int existing = pending != -1 ? pending >> 8 : world.getBlockType(pt);
+        final int data = BlockType.usesData(type) && block.getData() > -1
+                ? block.getData() : 0;
+
+        if (batched && !(block instanceof TileEntityBlock) && type == existing
+                && data == (pending != -1 ? pending & 0xFF : world.getBlockData(pt))) {
+            return false;
+        }
 
         // Clear the container block so that it doesn't drop items
         if (BlockType.isContainerBlock(existing) && blockBag == null) {
             world.clearContainerBlockContents(pt);
             // Ice turns until water so this has to be done first
         } else if (existing == BlockID.ICE) {
-            world.setBlockType(pt, BlockID.AIR);
+            if (batched) {
+                bufferChange(x, y, z, BlockID.AIR, 0);
+            } else {
+                world.setBlockType(pt, BlockID.AIR);
+            }
         }
 
         if (blockBag != null) {
@@ -203,6 +342,20 @@ public class EditSession {
             }
         }
 
+        if (batched) {
+            pendingBlocks.put(key, type << 8 | data);
+
+            if (type == 0 || !(block instanceof TileEntityBlock)) {
+                bufferChange(x, y, z, type, data);
+                blockChanged(x, y, z, type, data);
+                return true;
+            }
+
+            // The tile entity is copied right away, so earlier changes to
+            // the chunk have to be in the world first
+            applyPendingChanges(x >> 4, z >> 4);
+        }
+
         final boolean result;
 
         if (BlockType.usesData(type)) {
@@ -220,6 +373,8 @@ public class EditSession {
         }
         //System.out.println(pt + "" +result);
 
+        blockChanged(x, y, z, type, data);
+
         if (type != 0) {
             if (block instanceof ContainerBlock) {
                 if (blockBag == null) {
@@ -245,17 +400,22 @@ public class EditSession {
      */
     public boolean setBlock(Vector pt, BaseBlock block)
             throws MaxChangedBlocksException {
-        BlockVector blockPt = pt.toBlockVector();
+        long key = ChangeJournal.pack(pt.getBlockX(), pt.getBlockY(), pt.getBlockZ());
+        int index = getHistoryIndex().get(key);
 
-        // if (!original.containsKey(blockPt)) {
-        original.put(blockPt, getBlock(pt));
+        // Only the first original block and the last new block are kept
+        if (index == -1) {
+            if (maxBlocks != -1 && original.size() >= maxBlocks) {
+                throw new MaxChangedBlocksException(maxBlocks);
+            }
 
-        if (maxBlocks != -1 && original.size() > maxBlocks) {
-            throw new MaxChangedBlocksException(maxBlocks);
+            historyIndex.put(key, original.size());
+            original.add(pt, getBlock(pt));
+            current.add(pt, block);
+        } else {
+            current.set(index, block);
         }
-        // }
-
-        current.put(pt.toBlockVector(), block);
+        ++changeCount;
 
         return smartSetBlock(pt, block);
     }
@@ -268,10 +428,34 @@ public class EditSession {
      * @param block
      */
     public void rememberChange(Vector pt, BaseBlock existing, BaseBlock block) {
-        BlockVector blockPt = pt.toBlockVector();
+        long key = ChangeJournal.pack(pt.getBlockX(), pt.getBlockY(), pt.getBlockZ());
+        int index = getHistoryIndex().get(key);
+
+        if (index == -1) {
+            historyIndex.put(key, original.size());
+            original.add(pt, existing);
+            current.add(pt, block);
+        } else {
+            current.set(index, block);
+        }
+        ++changeCount;
+    }
 
-        original.put(blockPt, existing);
-        current.put(pt.toBlockVector(), block);
+    /**
+     * Get the index of changed positions, rebuilding it from the history
+     * if it was released.
+     *
+     * @return
+     */
+    private PositionIndex getHistoryIndex() {
+        if (historyIndex == null) {
+            historyIndex = new PositionIndex(original.size());
+            ChangeJournal.Cursor cursor = original.forward();
+            while (cursor.next()) {
+                historyIndex.put(cursor.getPackedPosition(), cursor.getIndex());
+            }
+        }
+        return historyIndex;
     }
 
     /**
@@ -370,6 +554,10 @@ public class EditSession {
              */
         }
 
+        if (readCache != null) {
+            return readCache.getType(pt.getBlockX(), pt.getBlockY(), pt.getBlockZ());
+        }
+
         return world.getBlockType(pt);
     }
 
@@ -385,8 +573,40 @@ public class EditSession {
              */
         }
 
+        if (readCache != null) {
+            return readCache.getData(pt.getBlockX(), pt.getBlockY(), pt.getBlockZ());
+        }
+
         return world.getBlockData(pt);
     }
+
+    /**
+     * Read the types and data values of the blocks of a cuboid into arrays
+     * laid out as {@link LocalWorld#getBlocks(Vector, Vector, short[], byte[])}
+     * does. Tile entity data is not read.
+     *
+     * @param min
+     * @param max
+     * @param types array of at least the size of the cuboid
+     * @param data array of at least the size of the cuboid
+     */
+    public void getBlocks(Vector min, Vector max, short[] types, byte[] data) {
+        int minX = min.getBlockX();
+        int minY = min.getBlockY();
+        int minZ = min.getBlockZ();
+        int maxX = max.getBlockX();
+        int maxY = max.getBlockY();
+        int maxZ = max.getBlockZ();
+
+        for (int cx = minX >> 4; cx <= maxX >> 4; ++cx) {
+            for (int cz = minZ >> 4; cz <= maxZ >> 4; ++cz) {
+                world.checkLoadedChunk(new Vector(cx << 4, 0, cz << 4));
+            }
+        }
+
+        readBlocks(minX, minY, minZ, maxX, maxY, maxZ, types, data);
+    }
+
     /**
      * Gets the block type at a position x, y, z.
      *
@@ -396,8 +616,16 @@ public class EditSession {
     public BaseBlock rawGetBlock(Vector pt) {
         world.checkLoadedChunk(pt);
 
-        int type = world.getBlockType(pt);
-        int data = world.getBlockData(pt);
+        int type;
+        int data;
+
+        if (readCache != null) {
+            type = readCache.getType(pt.getBlockX(), pt.getBlockY(), pt.getBlockZ());
+            data = readCache.getData(pt.getBlockX(), pt.getBlockY(), pt.getBlockZ());
+        } else {
+            type = world.getBlockType(pt);
+            data = world.getBlockData(pt);
+        }
 
         switch (type) {
         case BlockID.WALL_SIGN:
@@ -449,10 +677,7 @@ public class EditSession {
      * @param sess
      */
     public void undo(EditSession sess) {
-        for (Map.Entry<BlockVector, BaseBlock> entry : original) {
-            BlockVector pt = (BlockVector) entry.getKey();
-            sess.smartSetBlock(pt, (BaseBlock) entry.getValue());
-        }
+        ChunkSortedReplay.replay(original, true, sess);
         sess.flushQueue();
     }
 
@@ -462,10 +687,7 @@ public class EditSession {
      * @param sess
      */
     public void redo(EditSession sess) {
-        for (Map.Entry<BlockVector, BaseBlock> entry : current) {
-            BlockVector pt = (BlockVector) entry.getKey();
-            sess.smartSetBlock(pt, (BaseBlock) entry.getValue());
-        }
+        ChunkSortedReplay.replay(current, false, sess);
         sess.flushQueue();
     }
 
@@ -478,6 +700,266 @@ public class EditSession {
         return original.size();
     }
 
+    /**
+     * Get the blocks as they were before this edit session changed them,
+     * one entry per position in the order the positions were first changed.
+     * The journal must not be modified.
+     *
+     * @return
+     */
+    public ChangeJournal getOriginalBlocks() {
+        return original;
+    }
+
+    /**
+     * Get the blocks as this edit session left them, with the same entries
+     * as {@link #getOriginalBlocks()}. The journal must not be modified.
+     *
+     * @return
+     */
+    public ChangeJournal getChangedBlocks() {
+        return current;
+    }
+
+    /**
+     * Get a rough estimate of the number of bytes of heap used by the
+     * history of this edit session.
+     *
+     * @return
+     */
+    public long getEstimatedMemoryUsage() {
+        return original.getEstimatedMemoryUsage()
+                + current.getEstimatedMemoryUsage()
+                + (historyIndex != null ? historyIndex.getEstimatedMemoryUsage() : 0);
+    }
+
+    /**
+     * Get the number of bytes of history that were written to disk.
+     *
+     * @return
+     */
+    public long getHistoryDiskUsage() {
+        return original.getDiskUsage() + current.getDiskUsage();
+    }
+
+    /**
+     * Move all of the history of this edit session to disk.
+     *
+     * @return false if the history could not be written to disk
+     */
+    public synchronized boolean spillHistory() {
+        return original.spillAll() && current.spillAll();
+    }
+
+    /**
+     * Get the time at which this edit session was created.
+     *
+     * @return
+     */
+    public long getCreationTime() {
+        return creationTime;
+    }
+
+    /**
+     * Release the history of this edit session, deleting any temporary
+     * files it was written to. The edit session can no longer be undone or
+     * redone afterwards.
+     */
+    public synchronized void dispose() {
+        if (!disposed) {
+            disposed = true;
+            releaseHistoryReference();
+        }
+    }
+
+    /**
+     * Keep the history of this edit session around until
+     * {@link #releaseHistoryReference()} is called, even if the edit session
+     * is disposed in the meantime. Pending writes to the spill file are
+     * flushed so that the history can be read from another thread.
+     */
+    public synchronized void retainHistory() {
+        original.flush();
+        current.flush();
+        ++historyReferences;
+    }
+
+    /**
+     * Release a reference to the history of this edit session. The history
+     * is freed once no references are left.
+     */
+    public synchronized void releaseHistoryReference() {
+        if (--historyReferences == 0) {
+            original.dispose();
+            current.dispose();
+            historyIndex = null;
+        }
+    }
+
+    /**
+     * Write the history of this edit session to a stream.
+     *
+     * @param out
+     * @throws IOException
+     * @throws DataException
+     */
+    public synchronized void writeHistory(DataOutputStream out)
+            throws IOException, DataException {
+        out.writeInt(original.size());
+
+        ChangeJournal.Cursor from = original.forward();
+        ChangeJournal.Cursor to = current.forward();
+        while (from.next() && to.next()) {
+            out.writeLong(from.getPackedPosition());
+            out.writeShort(from.getType());
+            out.writeByte(from.getData());
+            out.writeShort(to.getType());
+            out.writeByte(to.getData());
+        }
+
+        writeTileEntities(out, original);
+        writeTileEntities(out, current);
+    }
+
+    private static void writeTileEntities(DataOutputStream out, ChangeJournal journal)
+            throws IOException, DataException {
+        Map<Integer, BaseBlock> blocks = journal.getTileEntityBlocks();
+        out.writeInt(blocks.size());
+
+        for (Map.Entry<Integer, BaseBlock> entry : blocks.entrySet()) {
+            TileEntityBlock block = (TileEntityBlock) entry.getValue();
+            Map<String, Tag> values = new HashMap<String, Tag>();
+            Map<String, Tag> blockValues = block.toTileEntityNBT();
+            if (blockValues != null) {
+                values.putAll(blockValues);
+            }
+            values.put("id", new StringTag("id", block.getTileEntityID()));
+
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            NBTOutputStream nbtStream = new NBTOutputStream(bytes);
+            nbtStream.writeTag(new CompoundTag("TileEntity", values));
+            nbtStream.close();
+
+            out.writeInt(entry.getKey());
+            out.writeInt(bytes.size());
+            bytes.writeTo(out);
+        }
+    }
+
+    /**
+     * Read history previously written with
+     * {@link #writeHistory(DataOutputStream)} into this edit session.
+     *
+     * @param in
+     * @throws IOException
+     * @throws DataException
+     */
+    public synchronized void readHistory(DataInputStream in)
+            throws IOException, DataException {
+        int count = in.readInt();
+
+        for (int i = 0; i < count; ++i) {
+            long pos = in.readLong();
+            int x = ChangeJournal.unpackX(pos);
+            int y = ChangeJournal.unpackY(pos);
+            int z = ChangeJournal.unpackZ(pos);
+            original.add(x, y, z, in.readShort(), in.readByte());
+            current.add(x, y, z, in.readShort(), in.readByte());
+        }
+        historyIndex = null;
+
+        readTileEntities(in, original);
+        readTileEntities(in, current);
+    }
+
+    private static void readTileEntities(DataInputStream in, ChangeJournal journal)
+            throws IOException, DataException {
+        int count = in.readInt();
+
+        for (int i = 0; i < count; ++i) {
+            int index = in.readInt();
+            byte[] bytes = new byte[in.readInt()];
+            in.readFully(bytes);
+
+            NBTInputStream nbtStream = new NBTInputStream(
+                    new GZIPInputStream(new ByteArrayInputStream(bytes)));
+            Tag tag = nbtStream.readTag();
+            nbtStream.close();
+
+            BaseBlock block = createTileEntityBlock(
+                    journal.getType(index), journal.getData(index));
+            if (block != null && tag instanceof CompoundTag) {
+                ((TileEntityBlock) block).fromTileEntityNBT(((CompoundTag) tag).getValue());
+                journal.set(index, block);
+            }
+        }
+    }
+
+    /**
+     * Returns whether blocks of a type have tile entity data.
+     *
+     * @param type
+     * @return
+     */
+    static boolean hasTileEntity(int type) {
+        switch (type) {
+        case BlockID.WALL_SIGN:
+        case BlockID.SIGN_POST:
+        case BlockID.CHEST:
+        case BlockID.FURNACE:
+        case BlockID.BURNING_FURNACE:
+        case BlockID.DISPENSER:
+        case BlockID.MOB_SPAWNER:
+        case BlockID.NOTE_BLOCK:
+            return true;
+
+        default:
+            return false;
+        }
+    }
+
+    /**
+     * Create an empty block with tile entity data for the given type.
+     *
+     * @param type
+     * @param data
+     * @return block, or null if the type has no tile entity
+     */
+    static BaseBlock createTileEntityBlock(int type, int data) {
+        switch (type) {
+        case BlockID.WALL_SIGN:
+        case BlockID.SIGN_POST:
+            return new SignBlock(type, data);
+
+        case BlockID.CHEST:
+            return new ChestBlock(data);
+
+        case BlockID.FURNACE:
+        case BlockID.BURNING_FURNACE:
+            return new FurnaceBlock(type, data);
+
+        case BlockID.DISPENSER:
+            return new DispenserBlock(data);
+
+        case BlockID.MOB_SPAWNER:
+            return new MobSpawnerBlock(data);
+
+        case BlockID.NOTE_BLOCK:
+            return new NoteBlock(data);
+
+        default:
+            return null;
+        }
+    }
+
+    /**
+     * Free the index of changed positions. It is rebuilt if more changes
+     * are made later.
+     */
+    public void releaseHistoryIndex() {
+        historyIndex = null;
+    }
+
     /**
      * Get the maximum number of blocks that can be changed. -1 will be returned
      * if disabled.
@@ -545,210 +1027,760 @@ public class EditSession {
     }
 
     /**
-     * Finish off the queue.
+     * Keep the read cache and the height index up to date with a block
+     * that has been or is about to be written to the world.
+     *
+     * @param x
+     * @param y
+     * @param z
+     * @param type
+     * @param data
      */
-    public void flushQueue() {
-        if (!queued) {
-            return;
+    private void blockChanged(int x, int y, int z, int type, int data) {
+        if (readCache != null) {
+            readCache.update(x, y, z, type, data);
         }
-
-        for (Map.Entry<BlockVector, BaseBlock> entry : queueAfter) {
-            BlockVector pt = (BlockVector) entry.getKey();
-            rawSetBlock(pt, (BaseBlock) entry.getValue());
-        }
-
-        // We don't want to place these blocks if other blocks were missing
-        // because it might cause the items to drop
-        if (blockBag == null || missingBlocks.size() == 0) {
-            for (Map.Entry<BlockVector, BaseBlock> entry : queueLast) {
-                BlockVector pt = (BlockVector) entry.getKey();
-                rawSetBlock(pt, (BaseBlock) entry.getValue());
-            }
+        if (heightIndex != null) {
+            heightIndex.update(x, y, z, type);
         }
-
-        queueAfter.clear();
-        queueLast.clear();
     }
 
     /**
-     * Fills an area recursively in the X/Z directions.
+     * Cache the last read chunk sections of the world so that repeated
+     * reads of nearby blocks do not go to the world. Changes made through
+     * this edit session are kept in the cache; changes made by the world
+     * itself, such as physics, are not.
      *
-     * @param origin
-     * @param block
-     * @param radius
-     * @param depth
-     * @param recursive
-     * @return number of blocks affected
-     * @throws MaxChangedBlocksException
+     * @param sections number of 16x16x16 sections to keep
      */
-    public int fillXZ(Vector origin, BaseBlock block, double radius, int depth,
-            boolean recursive) throws MaxChangedBlocksException {
-
-        int affected = 0;
-        int originX = origin.getBlockX();
-        int originY = origin.getBlockY();
-        int originZ = origin.getBlockZ();
-
-        HashSet<BlockVector> visited = new HashSet<BlockVector>();
-        Stack<BlockVector> queue = new Stack<BlockVector>();
+    public void enableReadCache(int sections) {
+        readCache = new ChunkSectionCache(world, sections);
+    }
 
-        queue.push(new BlockVector(originX, originY, originZ));
+    /**
+     * Stop caching reads.
+     */
+    public void disableReadCache() {
+        readCache = null;
+    }
 
-        while (!queue.empty()) {
-            BlockVector pt = queue.pop();
-            int cx = pt.getBlockX();
-            int cy = pt.getBlockY();
-            int cz = pt.getBlockZ();
+    /**
+     * Get the read cache, for example to look at its hit and miss counts.
+     *
+     * @return the cache, or null if reads are not cached
+     */
+    public ChunkSectionCache getReadCache() {
+        return readCache;
+    }
 
-            if (cy < 0 || cy > originY || visited.contains(pt)) {
-                continue;
-            }
+    /**
+     * Finish off the queue.
+     */
+    public void flushQueue() {
+        flushQueue(Integer.MAX_VALUE, -1);
+    }
 
-            visited.add(pt);
+    /**
+     * Apply part of the queue, continuing from where the last call
+     * stopped. The time limit is checked every
+     * {@value #FLUSH_CHECK_INTERVAL} blocks, so it may be overrun slightly.
+     *
+     * @param maxBlocks maximum number of blocks to place
+     * @param maxTime maximum time to spend in milliseconds, or -1 for no limit
+     * @return true if the queue has been fully applied
+     */
+    public boolean flushQueue(int maxBlocks, long maxTime) {
+        if (!queued) {
+            return true;
+        }
 
-            if (recursive) {
-                if (origin.distance(pt) > radius) {
-                    continue;
-                }
+        long deadline = maxTime < 0 ? Long.MAX_VALUE
+                : System.nanoTime() + maxTime * 1000000L;
+        int placed = 0;
 
-                if (getBlock(pt).isAir()) {
-                    if (setBlock(pt, block)) {
-                        ++affected;
+        pendingChanges = new LinkedHashMap<BlockVector2D, ChunkChangeBuffer>();
+        pendingBlocks = new PositionIndex();
+
+        try {
+            if (flushIterator == null) {
+                flushIterator = queueAfter.iterator();
+            }
+
+            while (true) {
+                while (flushIterator.hasNext()) {
+                    if (placed >= maxBlocks) {
+                        applyPendingChanges();
+                        return false;
                     }
-                } else {
-                    continue;
-                }
 
-                queue.push(new BlockVector(cx, cy - 1, cz));
-                queue.push(new BlockVector(cx, cy + 1, cz));
-            } else {
-                double dist = Math.sqrt(Math.pow(originX - cx, 2)
-                        + Math.pow(originZ - cz, 2));
-                int minY = originY - depth + 1;
+                    if (placed > 0 && placed % FLUSH_CHECK_INTERVAL == 0) {
+                        applyPendingChanges();
+                        if (System.nanoTime() >= deadline) {
+                            return false;
+                        }
+                    }
 
-                if (dist > radius) {
-                    continue;
+                    Map.Entry<BlockVector, BaseBlock> entry = flushIterator.next();
+                    rawSetBlock(entry.getKey(), entry.getValue());
+                    ++placed;
+                    ++flushedCount;
                 }
 
-                if (getBlock(pt).isAir()) {
-                    affected += fillY(cx, originY, cz, block, minY);
-                } else {
-                    continue;
+                // Blocks placed last may need the others to be there already
+                applyPendingChanges();
+
+                // We don't want to place these blocks if other blocks were missing
+                // because it might cause the items to drop
+                if (flushingLast || (blockBag != null && missingBlocks.size() > 0)) {
+                    break;
                 }
+
+                flushingLast = true;
+                flushIterator = queueLast.iterator();
             }
+        } finally {
+            pendingChanges = null;
+            pendingBlocks = null;
+            pendingChangeCount = 0;
+        }
+
+        flushIterator = null;
+        flushingLast = false;
+        flushedCount = 0;
+        queueAfter.clear();
+        queueLast.clear();
+        return true;
+    }
 
-            queue.push(new BlockVector(cx + 1, cy, cz));
-            queue.push(new BlockVector(cx - 1, cy, cz));
-            queue.push(new BlockVector(cx, cy, cz + 1));
-            queue.push(new BlockVector(cx, cy, cz - 1));
+    /**
+     * Get the number of queued blocks that have not been placed yet.
+     *
+     * @return
+     */
+    public int getQueueSize() {
+        return queueAfter.size() + queueLast.size() - flushedCount;
+    }
+
+    /**
+     * Buffer a change to be applied with the rest of its chunk.
+     *
+     * @param x
+     * @param y
+     * @param z
+     * @param type
+     * @param data
+     */
+    private void bufferChange(int x, int y, int z, int type, int data) {
+        BlockVector2D chunkPos = new BlockVector2D(x >> 4, z >> 4);
+        ChunkChangeBuffer changes = pendingChanges.get(chunkPos);
+
+        if (changes == null) {
+            changes = new ChunkChangeBuffer(x >> 4, z >> 4);
+            pendingChanges.put(chunkPos, changes);
         }
 
-        return affected;
+        changes.add(x, y, z, type, data);
+
+        if (++pendingChangeCount >= MAX_PENDING_CHANGES) {
+            applyPendingChanges();
+        }
     }
 
     /**
-     * Recursively fills a block and below until it hits another block.
+     * Apply the buffered changes of one chunk.
+     *
+     * @param chunkX
+     * @param chunkZ
+     */
+    private void applyPendingChanges(int chunkX, int chunkZ) {
+        ChunkChangeBuffer changes =
+                pendingChanges.remove(new BlockVector2D(chunkX, chunkZ));
+
+        if (changes != null) {
+            pendingChangeCount -= changes.size();
+            world.setBlocks(changes, !fastMode);
+        }
+    }
+
+    /**
+     * Apply all buffered changes, one chunk at a time.
+     */
+    private void applyPendingChanges() {
+        for (ChunkChangeBuffer changes : pendingChanges.values()) {
+            world.setBlocks(changes, !fastMode);
+        }
+
+        pendingChanges.clear();
+        pendingBlocks.clear();
+        pendingChangeCount = 0;
+    }
+
+    /**
+     * Record a change in the history using a block that was already read
+     * from the world. The old block must not have tile entity data.
      *
      * @param x
-     * @param cy
+     * @param y
      * @param z
+     * @param oldType
+     * @param oldData
      * @param block
-     * @param minY
      * @throws MaxChangedBlocksException
+     */
+    private void rememberChange(int x, int y, int z, int oldType, int oldData,
+            BaseBlock block) throws MaxChangedBlocksException {
+        long key = ChangeJournal.pack(x, y, z);
+        int index = getHistoryIndex().get(key);
+
+        if (index == -1) {
+            if (maxBlocks != -1 && original.size() >= maxBlocks) {
+                throw new MaxChangedBlocksException(maxBlocks);
+            }
+
+            historyIndex.put(key, original.size());
+            original.add(x, y, z, oldType, oldData);
+            current.add(x, y, z, block);
+        } else {
+            current.set(index, block);
+        }
+        ++changeCount;
+    }
+
+    /**
+     * Read the types and data of a cuboid into arrays laid out as
+     * {@link LocalWorld#getBlocks(Vector, Vector, short[], byte[])} does,
+     * going through the read cache if there is one.
+     *
+     * @param minX
+     * @param minY
+     * @param minZ
+     * @param maxX
+     * @param maxY
+     * @param maxZ
+     * @param types
+     * @param data
+     */
+    private void readBlocks(int minX, int minY, int minZ,
+            int maxX, int maxY, int maxZ, short[] types, byte[] data) {
+        if (readCache == null) {
+            world.getBlocks(new Vector(minX, minY, minZ),
+                    new Vector(maxX, maxY, maxZ), types, data);
+            return;
+        }
+
+        int index = 0;
+        for (int y = minY; y <= maxY; ++y) {
+            for (int z = minZ; z <= maxZ; ++z) {
+                for (int x = minX; x <= maxX; ++x, ++index) {
+                    types[index] = (short) readCache.getType(x, y, z);
+                    data[index] = (byte) readCache.getData(x, y, z);
+                }
+            }
+        }
+    }
+
+    /**
+     * Build the masks {@link #fillCuboid} uses to pick the blocks to
+     * replace. Each entry, indexed by type, has a bit set for every data
+     * value that matches; a block with a data value of -1 matches all.
+     *
+     * @param blocks blocks to match, or null to match every block but air
      * @return
      */
-    private int fillY(int x, int cy, int z, BaseBlock block, int minY)
-            throws MaxChangedBlocksException {
-        int affected = 0;
+    private static int[] getReplaceMasks(Set<BaseBlock> blocks) {
+        if (blocks == null) {
+            return NON_AIR_MASKS;
+        }
 
-        for (int y = cy; y >= minY; --y) {
-            Vector pt = new Vector(x, y, z);
+        int maxType = -1;
+        for (BaseBlock block : blocks) {
+            maxType = Math.max(maxType, block.getType());
+        }
 
-            if (getBlock(pt).isAir()) {
-                setBlock(pt, block);
-                ++affected;
-            } else {
-                break;
+        int[] masks = new int[maxType + 1];
+        for (BaseBlock block : blocks) {
+            int data = block.getData();
+            if (block.getType() < 0) {
+                continue;
+            } else if (data == -1) {
+                masks[block.getType()] = 0xFFFF;
+            } else if (data >= 0 && data < 16) {
+                masks[block.getType()] |= 1 << data;
             }
         }
 
-        return affected;
+        return masks;
     }
 
     /**
-     * Fills an area recursively in the X/Z directions.
+     * Set the blocks of a cuboid, going through it one chunk section at a
+     * time. The blocks of each section are read in one call and the
+     * changes to each chunk are written together.
      *
-     * @param origin
+     * @param minX
+     * @param minY
+     * @param minZ
+     * @param maxX
+     * @param maxY
+     * @param maxZ
+     * @param replace masks from {@link #getReplaceMasks(Set)} of the blocks
+     *     to change, or null to change every block
+     * @param block block to set, or null to use the pattern
      * @param pattern
-     * @param radius
-     * @param depth
-     * @param recursive
      * @return number of blocks affected
      * @throws MaxChangedBlocksException
      */
-    public int fillXZ(Vector origin, Pattern pattern, double radius, int depth,
-            boolean recursive) throws MaxChangedBlocksException {
+    private int fillCuboid(int minX, int minY, int minZ,
+            int maxX, int maxY, int maxZ, int[] replace, BaseBlock block,
+            Pattern pattern) throws MaxChangedBlocksException {
+        minY = Math.max(0, minY);
+        maxY = Math.min(world.getHeight(), maxY);
 
-        int affected = 0;
-        int originX = origin.getBlockX();
-        int originY = origin.getBlockY();
-        int originZ = origin.getBlockZ();
+        if (minX > maxX || minY > maxY || minZ > maxZ) {
+            return 0;
+        }
 
-        HashSet<BlockVector> visited = new HashSet<BlockVector>();
-        Stack<BlockVector> queue = new Stack<BlockVector>();
+        int affected = 0;
+        short[] types = new short[4096];
+        byte[] data = new byte[4096];
+        BulkWriter writer = new BulkWriter();
+
+        try {
+            for (int cx = minX >> 4; cx <= maxX >> 4; ++cx) {
+                for (int cz = minZ >> 4; cz <= maxZ >> 4; ++cz) {
+                    int x0 = Math.max(minX, cx << 4);
+                    int x1 = Math.min(maxX, (cx << 4) + 15);
+                    int z0 = Math.max(minZ, cz << 4);
+                    int z1 = Math.min(maxZ, (cz << 4) + 15);
+
+                    writer.begin(cx, cz);
+
+                    for (int sy = minY >> 4; sy <= maxY >> 4; ++sy) {
+                        int y0 = Math.max(minY, sy << 4);
+                        int y1 = Math.min(maxY, (sy << 4) + 15);
+
+                        readBlocks(x0, y0, z0, x1, y1, z1, types, data);
+
+                        int index = 0;
+                        for (int y = y0; y <= y1; ++y) {
+                            for (int z = z0; z <= z1; ++z) {
+                                for (int x = x0; x <= x1; ++x, ++index) {
+                                    int type = types[index] & 0xFFFF;
+                                    int blockData = data[index] & 0xFF;
+
+                                    if (replace != null && (type >= replace.length
+                                            || (replace[type] & (1 << (blockData & 15))) == 0)) {
+                                        continue;
+                                    }
+
+                                    BaseBlock next = block != null ? block
+                                            : pattern.next(new Vector(x, y, z));
+
+                                    if (writer.set(x, y, z, type, blockData, next)) {
+                                        ++affected;
+                                    }
+                                }
+                            }
+                        }
+                    }
+                }
+            }
+        } finally {
+            writer.flush();
+        }
 
-        queue.push(new BlockVector(originX, originY, originZ));
+        return affected;
+    }
 
-        while (!queue.empty()) {
-            BlockVector pt = queue.pop();
-            int cx = pt.getBlockX();
-            int cy = pt.getBlockY();
-            int cz = pt.getBlockZ();
+    /**
+     * Set the blocks of a region. Cuboids go through
+     * {@link #fillCuboid}; other regions are visited a chunk at a time,
+     * reading each span of blocks in one call and writing the changes to
+     * each chunk together.
+     *
+     * @param region
+     * @param replace masks from {@link #getReplaceMasks(Set)} of the blocks
+     *     to change, or null to change every block
+     * @param block block to set, or null to use the pattern
+     * @param pattern
+     * @return number of blocks affected
+     * @throws MaxChangedBlocksException
+     */
+    private int fillRegion(Region region, final int[] replace,
+            final BaseBlock block, final Pattern pattern)
+            throws MaxChangedBlocksException {
+        if (region instanceof CuboidRegion) {
+            // Doing this for speed
+            Vector min = region.getMinimumPoint();
+            Vector max = region.getMaximumPoint();
 
-            if (cy < 0 || cy > originY || visited.contains(pt)) {
-                continue;
-            }
+            return fillCuboid(min.getBlockX(), min.getBlockY(), min.getBlockZ(),
+                    max.getBlockX(), max.getBlockY(), max.getBlockZ(),
+                    replace, block, pattern);
+        }
 
-            visited.add(pt);
+        final int maxHeight = world.getHeight();
+        final int[] affected = new int[1];
+        final short[] types = new short[16 * (maxHeight + 1)];
+        final byte[] data = new byte[types.length];
+        final BulkWriter writer = new BulkWriter();
 
-            if (recursive) {
-                if (origin.distance(pt) > radius) {
-                    continue;
+        try {
+            region.visitChunks(new ChunkVisitor() {
+                public boolean beginChunk(int chunkX, int chunkZ) {
+                    writer.begin(chunkX, chunkZ);
+                    return true;
                 }
 
-                if (getBlock(pt).isAir()) {
-                    if (setBlock(pt, pattern.next(pt))) {
-                        ++affected;
+                public void visitSpan(int minX, int maxX, int minY, int maxY,
+                        int z) throws MaxChangedBlocksException {
+                    minY = Math.max(0, minY);
+                    maxY = Math.min(maxHeight, maxY);
+                    if (minY > maxY) {
+                        return;
+                    }
+
+                    readBlocks(minX, minY, z, maxX, maxY, z, types, data);
+
+                    int index = 0;
+                    for (int y = minY; y <= maxY; ++y) {
+                        for (int x = minX; x <= maxX; ++x, ++index) {
+                            int type = types[index] & 0xFFFF;
+                            int blockData = data[index] & 0xFF;
+
+                            if (replace != null && (type >= replace.length
+                                    || (replace[type] & (1 << (blockData & 15))) == 0)) {
+                                continue;
+                            }
+
+                            BaseBlock next = block != null ? block
+                                    : pattern.next(new Vector(x, y, z));
+
+                            if (writer.set(x, y, z, type, blockData, next)) {
+                                ++affected[0];
+                            }
+                        }
                     }
-                } else {
-                    continue;
                 }
+            });
+        } finally {
+            writer.flush();
+        }
 
-                queue.push(new BlockVector(cx, cy - 1, cz));
-                queue.push(new BlockVector(cx, cy + 1, cz));
-            } else {
-                double dist = Math.sqrt(Math.pow(originX - cx, 2)
-                        + Math.pow(originZ - cz, 2));
-                int minY = originY - depth + 1;
+        return affected[0];
+    }
 
-                if (dist > radius) {
-                    continue;
+    /**
+     * Set the four walls of a cuboid without setting any block twice.
+     *
+     * @param minX
+     * @param minY
+     * @param minZ
+     * @param maxX
+     * @param maxY
+     * @param maxZ
+     * @param block block to set, or null to use the pattern
+     * @param pattern
+     * @return number of blocks affected
+     * @throws MaxChangedBlocksException
+     */
+    private int fillCuboidWalls(int minX, int minY, int minZ,
+            int maxX, int maxY, int maxZ, BaseBlock block, Pattern pattern)
+            throws MaxChangedBlocksException {
+        int affected = 0;
+
+        affected += fillCuboid(minX, minY, minZ, maxX, maxY, minZ, null, block, pattern);
+        if (maxZ != minZ) {
+            affected += fillCuboid(minX, minY, maxZ, maxX, maxY, maxZ, null, block, pattern);
+        }
+        affected += fillCuboid(minX, minY, minZ + 1, minX, maxY, maxZ - 1, null, block, pattern);
+        if (maxX != minX) {
+            affected += fillCuboid(maxX, minY, minZ + 1, maxX, maxY, maxZ - 1, null, block, pattern);
+        }
+
+        return affected;
+    }
+
+    /**
+     * Place a cuboid of blocks stored in arrays laid out as
+     * {@link LocalWorld#getBlocks(Vector, Vector, short[], byte[])} does,
+     * going through it one chunk section at a time like
+     * {@link #fillCuboid}. Blocks with tile entity data are taken from a
+     * map keyed by their index in the arrays.
+     *
+     * @param pos position of the minimum corner
+     * @param size
+     * @param types
+     * @param data
+     * @param tileBlocks blocks with tile entity data, by index
+     * @param noAir true to not place air
+     * @return number of blocks affected
+     * @throws MaxChangedBlocksException
+     */
+    public int placeBlocks(Vector pos, Vector size, short[] types, byte[] data,
+            Map<Integer, BaseBlock> tileBlocks, boolean noAir)
+            throws MaxChangedBlocksException {
+        int width = size.getBlockX();
+        int height = size.getBlockY();
+        int length = size.getBlockZ();
+        int originX = pos.getBlockX();
+        int originY = pos.getBlockY();
+        int originZ = pos.getBlockZ();
+
+        int minY = Math.max(0, originY);
+        int maxY = Math.min(world.getHeight(), originY + height - 1);
+        int maxX = originX + width - 1;
+        int maxZ = originZ + length - 1;
+
+        if (width <= 0 || length <= 0 || minY > maxY) {
+            return 0;
+        }
+
+        int affected = 0;
+        short[] oldTypes = new short[4096];
+        byte[] oldData = new byte[4096];
+        BulkWriter writer = new BulkWriter();
+        BaseBlock last = null;
+
+        try {
+            for (int cx = originX >> 4; cx <= maxX >> 4; ++cx) {
+                for (int cz = originZ >> 4; cz <= maxZ >> 4; ++cz) {
+                    int x0 = Math.max(originX, cx << 4);
+                    int x1 = Math.min(maxX, (cx << 4) + 15);
+                    int z0 = Math.max(originZ, cz << 4);
+                    int z1 = Math.min(maxZ, (cz << 4) + 15);
+
+                    writer.begin(cx, cz);
+
+                    for (int sy = minY >> 4; sy <= maxY >> 4; ++sy) {
+                        int y0 = Math.max(minY, sy << 4);
+                        int y1 = Math.min(maxY, (sy << 4) + 15);
+
+                        readBlocks(x0, y0, z0, x1, y1, z1, oldTypes, oldData);
+
+                        int index = 0;
+                        for (int y = y0; y <= y1; ++y) {
+                            for (int z = z0; z <= z1; ++z) {
+                                int source = (y - originY) * width * length
+                                        + (z - originZ) * width + (x0 - originX);
+
+                                for (int x = x0; x <= x1; ++x, ++index, ++source) {
+                                    int type = types[source];
+                                    if (noAir && type == 0) {
+                                        continue;
+                                    }
+
+                                    BaseBlock block = tileBlocks.isEmpty()
+                                            ? null : tileBlocks.get(source);
+
+                                    if (block == null) {
+                                        // Runs of the same block share one
+                                        // instance, as nothing changes them
+                                        int blockData = data[source];
+                                        if (last == null || last.getType() != type
+                                                || last.getData() != blockData) {
+                                            last = new BaseBlock(type, blockData);
+                                        }
+                                        block = last;
+                                    }
+
+                                    if (writer.set(x, y, z, oldTypes[index] & 0xFFFF,
+                                            oldData[index] & 0xFF, block)) {
+                                        ++affected;
+                                    }
+                                }
+                            }
+                        }
+                    }
                 }
+            }
+        } finally {
+            writer.flush();
+        }
 
-                if (getBlock(pt).isAir()) {
-                    affected += fillY(cx, originY, cz, pattern, minY);
+        return affected;
+    }
+
+    /**
+     * Writes the changes of a bulk operation a chunk at a time. The caller
+     * passes in the blocks it has already read, so nothing is read from the
+     * world again. Changes that need the full treatment, because of a mask,
+     * a block bag or tile entity data, go through
+     * {@link EditSession#setBlock(Vector, BaseBlock)} instead.
+     */
+    private class BulkWriter {
+        private final boolean direct = mask == null && blockBag == null;
+        private ChunkChangeBuffer changes;
+        private boolean started;
+        private int chunkX;
+        private int chunkZ;
+
+        /**
+         * Start on a chunk, writing the changes made to the previous one.
+         * Nothing is done if it is the chunk being written to already.
+         *
+         * @param chunkX
+         * @param chunkZ
+         */
+        void begin(int chunkX, int chunkZ) {
+            if (started && chunkX == this.chunkX && chunkZ == this.chunkZ) {
+                return;
+            }
+
+            flush();
+            started = true;
+            this.chunkX = chunkX;
+            this.chunkZ = chunkZ;
+            world.checkLoadedChunk(new Vector(chunkX << 4, 0, chunkZ << 4));
+
+            if (direct && !queued) {
+                changes = new ChunkChangeBuffer(chunkX, chunkZ);
+            }
+        }
+
+        /**
+         * Set a block in the current chunk.
+         *
+         * @param x
+         * @param y
+         * @param z
+         * @param oldType type of the block there now
+         * @param oldData data value of the block there now
+         * @param block
+         * @return whether the block changed
+         * @throws MaxChangedBlocksException
+         */
+        boolean set(int x, int y, int z, int oldType, int oldData,
+                BaseBlock block) throws MaxChangedBlocksException {
+            int type = block.getType();
+
+            if (!direct || block instanceof TileEntityBlock
+                    || hasTileEntity(oldType) || oldType == BlockID.ICE
+                    || !world.isValidBlockType(type)) {
+                return setBlock(new Vector(x, y, z), block);
+            }
+
+            int data = BlockType.usesData(type) && block.getData() > -1
+                    ? block.getData() : 0;
+            boolean changed = type != oldType || data != oldData;
+
+            rememberChange(x, y, z, oldType, oldData, block);
+
+            if (queued) {
+                if (BlockType.shouldPlaceLast(type)
+                        || BlockType.shouldPlaceLast(oldType)) {
+                    smartSetBlock(new Vector(x, y, z), block);
                 } else {
-                    continue;
+                    queueAfter.put(new BlockVector(x, y, z), block);
                 }
+            } else {
+                changes.add(x, y, z, type, data);
+                blockChanged(x, y, z, type, data);
             }
 
-            queue.push(new BlockVector(cx + 1, cy, cz));
-            queue.push(new BlockVector(cx - 1, cy, cz));
-            queue.push(new BlockVector(cx, cy, cz + 1));
-            queue.push(new BlockVector(cx, cy, cz - 1));
+            return changed;
         }
 
-        return affected;
+        /**
+         * Write the changes made to the current chunk.
+         */
+        void flush() {
+            if (changes != null && changes.size() > 0) {
+                world.setBlocks(changes, !fastMode);
+            }
+            changes = null;
+            started = false;
+        }
+    }
+
+    /**
+     * Fills an area recursively in the X/Z directions.
+     *
+     * @param origin
+     * @param block
+     * @param radius
+     * @param depth
+     * @param recursive
+     * @return number of blocks affected
+     * @throws MaxChangedBlocksException
+     */
+    public int fillXZ(Vector origin, BaseBlock block, double radius, int depth,
+            boolean recursive) throws MaxChangedBlocksException {
+        return fillXZ(origin, new SingleBlockPattern(block), radius, depth, recursive);
+    }
+
+    /**
+     * Fills an area recursively in the X/Z directions.
+     *
+     * @param origin
+     * @param pattern
+     * @param radius
+     * @param depth
+     * @param recursive
+     * @return number of blocks affected
+     * @throws MaxChangedBlocksException
+     */
+    public int fillXZ(final Vector origin, final Pattern pattern, final double radius,
+            int depth, boolean recursive) throws MaxChangedBlocksException {
+
+        final int originX = origin.getBlockX();
+        final int originY = origin.getBlockY();
+        final int originZ = origin.getBlockZ();
+        final int minY = originY - depth + 1;
+        final int[] affected = new int[1];
+
+        if (originY < 0) {
+            return 0;
+        }
+
+        int size = (int) Math.ceil(radius) + 1;
+        FloodFill fill;
+
+        if (recursive) {
+            fill = new FloodFill(
+                    new Vector(originX - size, Math.max(0, originY - size), originZ - size),
+                    new Vector(originX + size, originY, originZ + size),
+                    FloodFill.Connectivity.FACES, new FloodFill.Predicate() {
+                        public boolean matches(int x, int y, int z) {
+                            Vector pt = new Vector(x, y, z);
+                            return origin.distance(pt) <= radius
+                                    && getBlockType(pt) == BlockID.AIR;
+                        }
+                    });
+            fill.addSeed(originX, originY, originZ);
+            fill.run(new FloodFill.Action() {
+                public boolean visit(int x, int y, int z)
+                        throws MaxChangedBlocksException {
+                    Vector pt = new Vector(x, y, z);
+                    if (setBlock(pt, pattern.next(pt))) {
+                        ++affected[0];
+                    }
+                    return true;
+                }
+            });
+        } else {
+            fill = new FloodFill(
+                    new Vector(originX - size, originY, originZ - size),
+                    new Vector(originX + size, originY, originZ + size),
+                    FloodFill.Connectivity.HORIZONTAL, new FloodFill.Predicate() {
+                        public boolean matches(int x, int y, int z) {
+                            double dist = Math.sqrt(Math.pow(originX - x, 2)
+                                    + Math.pow(originZ - z, 2));
+                            return dist <= radius
+                                    && getBlockType(new Vector(x, y, z)) == BlockID.AIR;
+                        }
+                    });
+            fill.addSeed(originX, originY, originZ);
+            fill.run(new FloodFill.Action() {
+                public boolean visit(int x, int y, int z)
+                        throws MaxChangedBlocksException {
+                    affected[0] += fillY(x, originY, z, pattern, minY);
+                    return true;
+                }
+            });
+        }
+
+        return affected[0];
     }
 
     /**
@@ -898,40 +1930,7 @@ public class EditSession {
      */
     public int setBlocks(Region region, BaseBlock block)
             throws MaxChangedBlocksException {
-        int affected = 0;
-
-        if (region instanceof CuboidRegion) {
-            // Doing this for speed
-            Vector min = region.getMinimumPoint();
-            Vector max = region.getMaximumPoint();
-
-            int minX = min.getBlockX();
-            int minY = min.getBlockY();
-            int minZ = min.getBlockZ();
-            int maxX = max.getBlockX();
-            int maxY = max.getBlockY();
-            int maxZ = max.getBlockZ();
-
-            for (int x = minX; x <= maxX; ++x) {
-                for (int y = minY; y <= maxY; ++y) {
-                    for (int z = minZ; z <= maxZ; ++z) {
-                        Vector pt = new Vector(x, y, z);
-
-                        if (setBlock(pt, block)) {
-                            ++affected;
-                        }
-                    }
-                }
-            }
-        } else {
-            for (Vector pt : region) {
-                if (setBlock(pt, block)) {
-                    ++affected;
-                }
-            }
-        }
-
-        return affected;
+        return fillRegion(region, null, block, null);
     }
 
     /**
@@ -944,40 +1943,7 @@ public class EditSession {
      */
     public int setBlocks(Region region, Pattern pattern)
             throws MaxChangedBlocksException {
-        int affected = 0;
-
-        if (region instanceof CuboidRegion) {
-            // Doing this for speed
-            Vector min = region.getMinimumPoint();
-            Vector max = region.getMaximumPoint();
-
-            int minX = min.getBlockX();
-            int minY = min.getBlockY();
-            int minZ = min.getBlockZ();
-            int maxX = max.getBlockX();
-            int maxY = max.getBlockY();
-            int maxZ = max.getBlockZ();
-
-            for (int x = minX; x <= maxX; ++x) {
-                for (int y = minY; y <= maxY; ++y) {
-                    for (int z = minZ; z <= maxZ; ++z) {
-                        Vector pt = new Vector(x, y, z);
-
-                        if (setBlock(pt, pattern.next(pt))) {
-                            ++affected;
-                        }
-                    }
-                }
-            }
-        } else {
-            for (Vector pt : region) {
-                if (setBlock(pt, pattern.next(pt))) {
-                    ++affected;
-                }
-            }
-        }
-
-        return affected;
+        return fillRegion(region, null, null, pattern);
     }
 
     /**
@@ -991,49 +1957,7 @@ public class EditSession {
      */
     public int replaceBlocks(Region region, Set<BaseBlock> fromBlockTypes,
             BaseBlock toBlock) throws MaxChangedBlocksException {
-        int affected = 0;
-
-        if (region instanceof CuboidRegion) {
-            // Doing this for speed
-            Vector min = region.getMinimumPoint();
-            Vector max = region.getMaximumPoint();
-
-            int minX = min.getBlockX();
-            int minY = min.getBlockY();
-            int minZ = min.getBlockZ();
-            int maxX = max.getBlockX();
-            int maxY = max.getBlockY();
-            int maxZ = max.getBlockZ();
-
-            for (int x = minX; x <= maxX; ++x) {
-                for (int y = minY; y <= maxY; ++y) {
-                    for (int z = minZ; z <= maxZ; ++z) {
-                        Vector pt = new Vector(x, y, z);
-                        BaseBlock curBlockType = getBlock(pt);
-
-                        if ((fromBlockTypes == null && !curBlockType.isAir())
-                                || (fromBlockTypes != null && curBlockType.inIterable(fromBlockTypes))) { // Probably faster if someone adds a proper hashCode to BaseBlock
-                            if (setBlock(pt, toBlock)) {
-                                ++affected;
-                            }
-                        }
-                    }
-                }
-            }
-        } else {
-            for (Vector pt : region) {
-                BaseBlock curBlockType = getBlock(pt);
-
-                if (fromBlockTypes == null && !curBlockType.isAir()
-                        || fromBlockTypes != null && curBlockType.inIterable(fromBlockTypes)) {
-                    if (setBlock(pt, toBlock)) {
-                        ++affected;
-                    }
-                }
-            }
-        }
-
-        return affected;
+        return fillRegion(region, getReplaceMasks(fromBlockTypes), toBlock, null);
     }
 
     /**
@@ -1047,49 +1971,7 @@ public class EditSession {
      */
     public int replaceBlocks(Region region, Set<BaseBlock> fromBlockTypes,
             Pattern pattern) throws MaxChangedBlocksException {
-        int affected = 0;
-
-        if (region instanceof CuboidRegion) {
-            // Doing this for speed
-            Vector min = region.getMinimumPoint();
-            Vector max = region.getMaximumPoint();
-
-            int minX = min.getBlockX();
-            int minY = min.getBlockY();
-            int minZ = min.getBlockZ();
-            int maxX = max.getBlockX();
-            int maxY = max.getBlockY();
-            int maxZ = max.getBlockZ();
-
-            for (int x = minX; x <= maxX; ++x) {
-                for (int y = minY; y <= maxY; ++y) {
-                    for (int z = minZ; z <= maxZ; ++z) {
-                        Vector pt = new Vector(x, y, z);
-                        BaseBlock curBlockType = getBlock(pt);
-
-                        if ((fromBlockTypes == null && !curBlockType.isAir())
-                                || (fromBlockTypes != null && curBlockType.inIterable(fromBlockTypes))) { // Probably faster if someone adds a proper hashCode to BaseBlock
-                            if (setBlock(pt, pattern.next(pt))) {
-                                ++affected;
-                            }
-                        }
-                    }
-                }
-            }
-        } else {
-            for (Vector pt : region) {
-                BaseBlock curBlockType = getBlock(pt);
-
-                if (fromBlockTypes == null && !curBlockType.isAir()
-                        || curBlockType.inIterable(fromBlockTypes)) {
-                    if (setBlock(pt, pattern.next(pt))) {
-                        ++affected;
-                    }
-                }
-            }
-        }
-
-        return affected;
+        return fillRegion(region, getReplaceMasks(fromBlockTypes), null, pattern);
     }
 
     /**
@@ -1102,67 +1984,6 @@ public class EditSession {
      */
     public int makeCuboidFaces(Region region, BaseBlock block)
             throws MaxChangedBlocksException {
-        int affected = 0;
-
-        Vector min = region.getMinimumPoint();
-        Vector max = region.getMaximumPoint();
-
-        int minX = min.getBlockX();
-        int minY = min.getBlockY();
-        int minZ = min.getBlockZ();
-        int maxX = max.getBlockX();
-        int maxY = max.getBlockY();
-        int maxZ = max.getBlockZ();
-
-        for (int x = minX; x <= maxX; ++x) {
-            for (int y = minY; y <= maxY; ++y) {
-                if (setBlock(new Vector(x, y, minZ), block)) {
-                    ++affected;
-                }
-                if (setBlock(new Vector(x, y, maxZ), block)) {
-                    ++affected;
-                }
-                ++affected;
-            }
-        }
-
-        for (int y = minY; y <= maxY; ++y) {
-            for (int z = minZ; z <= maxZ; ++z) {
-                if (setBlock(new Vector(minX, y, z), block)) {
-                    ++affected;
-                }
-                if (setBlock(new Vector(maxX, y, z), block)) {
-                    ++affected;
-                }
-            }
-        }
-
-        for (int z = minZ; z <= maxZ; ++z) {
-            for (int x = minX; x <= maxX; ++x) {
-                if (setBlock(new Vector(x, minY, z), block)) {
-                    ++affected;
-                }
-                if (setBlock(new Vector(x, maxY, z), block)) {
-                    ++affected;
-                }
-            }
-        }
-
-        return affected;
-    }
-
-    /**
-     * Make faces of the region (as if it was a cuboid if it's not).
-     *
-     * @param region
-     * @param pattern
-     * @return number of blocks affected
-     * @throws MaxChangedBlocksException
-     */
-    public int makeCuboidFaces(Region region, Pattern pattern)
-            throws MaxChangedBlocksException {
-        int affected = 0;
-
         Vector min = region.getMinimumPoint();
         Vector max = region.getMaximumPoint();
 
@@ -1172,110 +1993,30 @@ public class EditSession {
         int maxX = max.getBlockX();
         int maxY = max.getBlockY();
         int maxZ = max.getBlockZ();
-
-        for (int x = minX; x <= maxX; ++x) {
-            for (int y = minY; y <= maxY; ++y) {
-                Vector minV = new Vector(x, y, minZ);
-                if (setBlock(min, pattern.next(minV))) {
-                    ++affected;
-                }
-                Vector maxV = new Vector(x, y, maxZ);
-                if (setBlock(maxV, pattern.next(maxV))) {
-                    ++affected;
-                }
-                ++affected;
-            }
-        }
-
-        for (int y = minY; y <= maxY; ++y) {
-            for (int z = minZ; z <= maxZ; ++z) {
-                Vector minV = new Vector(minX, y, z);
-                if (setBlock(minV, pattern.next(minV))) {
-                    ++affected;
-                }
-                Vector maxV = new Vector(maxX, y, z);
-                if (setBlock(maxV, pattern.next(maxV))) {
-                    ++affected;
-                }
-            }
-        }
-
-        for (int z = minZ; z <= maxZ; ++z) {
-            for (int x = minX; x <= maxX; ++x) {
-                Vector minV = new Vector(x, minY, z);
-                if (setBlock(minV, pattern.next(minV))) {
-                    ++affected;
-                }
-                Vector maxV = new Vector(x, maxY, z);
-                if (setBlock(maxV, pattern.next(maxV))) {
-                    ++affected;
-                }
-            }
-        }
-
-        return affected;
-    }
-
-    /**
-     * Make walls of the region (as if it was a cuboid if it's not).
-     *
-     * @param region
-     * @param block
-     * @return number of blocks affected
-     * @throws MaxChangedBlocksException
-     */
-    public int makeCuboidWalls(Region region, BaseBlock block)
-            throws MaxChangedBlocksException {
-        int affected = 0;
-
-        Vector min = region.getMinimumPoint();
-        Vector max = region.getMaximumPoint();
-
-        int minX = min.getBlockX();
-        int minY = min.getBlockY();
-        int minZ = min.getBlockZ();
-        int maxX = max.getBlockX();
-        int maxY = max.getBlockY();
-        int maxZ = max.getBlockZ();
-
-        for (int x = minX; x <= maxX; ++x) {
-            for (int y = minY; y <= maxY; ++y) {
-                if (setBlock(new Vector(x, y, minZ), block)) {
-                    ++affected;
-                }
-                if (setBlock(new Vector(x, y, maxZ), block)) {
-                    ++affected;
-                }
-                ++affected;
-            }
-        }
-
-        for (int y = minY; y <= maxY; ++y) {
-            for (int z = minZ; z <= maxZ; ++z) {
-                if (setBlock(new Vector(minX, y, z), block)) {
-                    ++affected;
-                }
-                if (setBlock(new Vector(maxX, y, z), block)) {
-                    ++affected;
-                }
-            }
+
+        int affected = fillCuboidWalls(minX, minY, minZ, maxX, maxY, maxZ, block, null);
+
+        // Floor and ceiling, inside the walls
+        affected += fillCuboid(minX + 1, minY, minZ + 1, maxX - 1, minY, maxZ - 1,
+                null, block, null);
+        if (maxY != minY) {
+            affected += fillCuboid(minX + 1, maxY, minZ + 1, maxX - 1, maxY, maxZ - 1,
+                    null, block, null);
         }
 
         return affected;
     }
 
     /**
-     * Make walls of the region (as if it was a cuboid if it's not).
+     * Make faces of the region (as if it was a cuboid if it's not).
      *
      * @param region
-     * @param block
+     * @param pattern
      * @return number of blocks affected
      * @throws MaxChangedBlocksException
      */
-    public int makeCuboidWalls(Region region, Pattern pattern)
+    public int makeCuboidFaces(Region region, Pattern pattern)
             throws MaxChangedBlocksException {
-        int affected = 0;
-
         Vector min = region.getMinimumPoint();
         Vector max = region.getMaximumPoint();
 
@@ -1286,76 +2027,64 @@ public class EditSession {
         int maxY = max.getBlockY();
         int maxZ = max.getBlockZ();
 
-        for (int x = minX; x <= maxX; ++x) {
-            for (int y = minY; y <= maxY; ++y) {
-                Vector minV = new Vector(x, y, minZ);
-                if (setBlock(minV, pattern.next(minV))) {
-                    ++affected;
-                }
-                Vector maxV = new Vector(x, y, maxZ);
-                if (setBlock(maxV, pattern.next(maxV))) {
-                    ++affected;
-                }
-                ++affected;
-            }
-        }
+        int affected = fillCuboidWalls(minX, minY, minZ, maxX, maxY, maxZ, null, pattern);
 
-        for (int y = minY; y <= maxY; ++y) {
-            for (int z = minZ; z <= maxZ; ++z) {
-                Vector minV = new Vector(minX, y, z);
-                if (setBlock(minV, pattern.next(minV))) {
-                    ++affected;
-                }
-                Vector maxV = new Vector(maxX, y, z);
-                if (setBlock(maxV, pattern.next(maxV))) {
-                    ++affected;
-                }
-            }
+        // Floor and ceiling, inside the walls
+        affected += fillCuboid(minX + 1, minY, minZ + 1, maxX - 1, minY, maxZ - 1,
+                null, null, pattern);
+        if (maxY != minY) {
+            affected += fillCuboid(minX + 1, maxY, minZ + 1, maxX - 1, maxY, maxZ - 1,
+                    null, null, pattern);
         }
 
         return affected;
     }
 
     /**
-     * Overlays a layer of blocks over a cuboid area.
+     * Make walls of the region (as if it was a cuboid if it's not).
      *
      * @param region
      * @param block
      * @return number of blocks affected
      * @throws MaxChangedBlocksException
      */
-    public int overlayCuboidBlocks(Region region, BaseBlock block)
+    public int makeCuboidWalls(Region region, BaseBlock block)
             throws MaxChangedBlocksException {
         Vector min = region.getMinimumPoint();
         Vector max = region.getMaximumPoint();
 
-        int upperY = Math.min(127, max.getBlockY() + 1);
-        int lowerY = Math.max(0, min.getBlockY() - 1);
-
-        int affected = 0;
-
-        int minX = min.getBlockX();
-        int minZ = min.getBlockZ();
-        int maxX = max.getBlockX();
-        int maxZ = max.getBlockZ();
+        return fillCuboidWalls(min.getBlockX(), min.getBlockY(), min.getBlockZ(),
+                max.getBlockX(), max.getBlockY(), max.getBlockZ(), block, null);
+    }
 
-        for (int x = minX; x <= maxX; ++x) {
-            for (int z = minZ; z <= maxZ; ++z) {
-                for (int y = upperY; y >= lowerY; --y) {
-                    Vector above = new Vector(x, y + 1, z);
+    /**
+     * Make walls of the region (as if it was a cuboid if it's not).
+     *
+     * @param region
+     * @param block
+     * @return number of blocks affected
+     * @throws MaxChangedBlocksException
+     */
+    public int makeCuboidWalls(Region region, Pattern pattern)
+            throws MaxChangedBlocksException {
+        Vector min = region.getMinimumPoint();
+        Vector max = region.getMaximumPoint();
 
-                    if (y + 1 <= 127 && !getBlock(new Vector(x, y, z)).isAir()
-                            && getBlock(above).isAir()) {
-                        if (setBlock(above, block)) {
-                            ++affected;
-                        }
-                        break;
-                    }
-                }
-            }
-        }
+        return fillCuboidWalls(min.getBlockX(), min.getBlockY(), min.getBlockZ(),
+                max.getBlockX(), max.getBlockY(), max.getBlockZ(), null, pattern);
+    }
 
-        return affected;
+    /**
+     * Overlays a layer of blocks over a cuboid area.
+     *
+     * @param region
+     * @param block
+     * @return number of blocks affected
+     * @throws MaxChangedBlocksException
+     */
+    public int overlayCuboidBlocks(Region region, BaseBlock block)
+            throws MaxChangedBlocksException {
+        return overlayCuboidBlocks(region, block, null);
     }
 
     /**
@@ -1368,10 +2097,25 @@ public class EditSession {
      */
     public int overlayCuboidBlocks(Region region, Pattern pattern)
             throws MaxChangedBlocksException {
+        return overlayCuboidBlocks(region, null, pattern);
+    }
+
+    /**
+     * Overlays a layer of blocks over a cuboid area, reading and writing
+     * a chunk column at a time.
+     *
+     * @param region
+     * @param block block to set, or null to use the pattern
+     * @param pattern
+     * @return number of blocks affected
+     * @throws MaxChangedBlocksException
+     */
+    private int overlayCuboidBlocks(Region region, BaseBlock block,
+            Pattern pattern) throws MaxChangedBlocksException {
         Vector min = region.getMinimumPoint();
         Vector max = region.getMaximumPoint();
 
-        int upperY = Math.min(127, max.getBlockY() + 1);
+        int upperY = Math.min(world.getHeight(), max.getBlockY() + 1);
         int lowerY = Math.max(0, min.getBlockY() - 1);
 
         int affected = 0;
@@ -1381,20 +2125,54 @@ public class EditSession {
         int maxX = max.getBlockX();
         int maxZ = max.getBlockZ();
 
-        for (int x = minX; x <= maxX; ++x) {
-            for (int z = minZ; z <= maxZ; ++z) {
-                for (int y = upperY; y >= lowerY; --y) {
-                    Vector above = new Vector(x, y + 1, z);
+        if (upperY < lowerY) {
+            return 0;
+        }
 
-                    if (y + 1 <= 127 && !getBlock(new Vector(x, y, z)).isAir()
-                            && getBlock(above).isAir()) {
-                        if (setBlock(above, pattern.next(above))) {
-                            ++affected;
+        // The block above the top layer is read as well
+        int topY = Math.min(world.getHeight(), upperY + 1);
+        int height = topY - lowerY + 1;
+        short[] types = new short[16 * 16 * height];
+        byte[] data = new byte[16 * 16 * height];
+        BulkWriter writer = new BulkWriter();
+
+        try {
+            for (int cx = minX >> 4; cx <= maxX >> 4; ++cx) {
+                for (int cz = minZ >> 4; cz <= maxZ >> 4; ++cz) {
+                    int x0 = Math.max(minX, cx << 4);
+                    int x1 = Math.min(maxX, (cx << 4) + 15);
+                    int z0 = Math.max(minZ, cz << 4);
+                    int z1 = Math.min(maxZ, (cz << 4) + 15);
+                    int stride = (x1 - x0 + 1) * (z1 - z0 + 1);
+
+                    writer.begin(cx, cz);
+                    readBlocks(x0, lowerY, z0, x1, topY, z1, types, data);
+
+                    for (int x = x0; x <= x1; ++x) {
+                        for (int z = z0; z <= z1; ++z) {
+                            int offset = (z - z0) * (x1 - x0 + 1) + (x - x0);
+
+                            for (int y = Math.min(upperY, topY - 1); y >= lowerY; --y) {
+                                int below = offset + (y - lowerY) * stride;
+                                int above = below + stride;
+
+                                if (types[below] != 0 && types[above] == 0) {
+                                    BaseBlock next = block != null ? block
+                                            : pattern.next(new Vector(x, y + 1, z));
+
+                                    if (writer.set(x, y + 1, z, 0,
+                                            data[above] & 0xFF, next)) {
+                                        ++affected;
+                                    }
+                                    break;
+                                }
+                            }
                         }
-                        break;
                     }
                 }
             }
+        } finally {
+            writer.flush();
         }
 
         return affected;
@@ -1413,7 +2191,7 @@ public class EditSession {
         Vector min = region.getMinimumPoint();
         Vector max = region.getMaximumPoint();
 
-        int upperY = Math.min(127, max.getBlockY() + 1);
+        int upperY = Math.min(world.getHeight(), max.getBlockY() + 1);
         int lowerY = Math.max(0, min.getBlockY() - 1);
 
         int affected = 0;
@@ -1427,46 +2205,94 @@ public class EditSession {
         BaseBlock dirt = new BaseBlock(BlockID.DIRT);
         BaseBlock stone = new BaseBlock(BlockID.STONE);
 
-        for (int x = minX; x <= maxX; ++x) {
-            for (int z = minZ; z <= maxZ; ++z) {
-                int level = -1;
+        if (upperY < lowerY) {
+            return 0;
+        }
 
-                for (int y = upperY; y >= lowerY; --y) {
-                    Vector pt = new Vector(x, y, z);
-                    //Vector above = new Vector(x, y + 1, z);
-                    int blockType = getBlockType(pt);
-
-                    boolean isTransformable =
-                            blockType == BlockID.GRASS
-                            || blockType == BlockID.DIRT
-                            || blockType == BlockID.STONE;
-
-                    // Still searching for the top block
-                    if (level == -1) {
-                        if (!isTransformable) {
-                            continue; // Not transforming this column yet
-                        }
+        int height = upperY - lowerY + 1;
+        short[] types = new short[16 * 16 * height];
+
+        for (int cx = minX >> 4; cx <= maxX >> 4; ++cx) {
+            for (int cz = minZ >> 4; cz <= maxZ >> 4; ++cz) {
+                int x0 = Math.max(minX, cx << 4);
+                int x1 = Math.min(maxX, (cx << 4) + 15);
+                int z0 = Math.max(minZ, cz << 4);
+                int z1 = Math.min(maxZ, (cz << 4) + 15);
+                int w = x1 - x0 + 1;
+                int l = z1 - z0 + 1;
 
-                        level = 0;
+                world.getBlocks(new Vector(x0, lowerY, z0),
+                        new Vector(x1, upperY, z1), types, null);
+
+                for (int x = x0; x <= x1; ++x) {
+                    for (int z = z0; z <= z1; ++z) {
+                        affected += naturalizeColumn(x, z, lowerY, upperY,
+                                types, (z - z0) * w + (x - x0), w * l,
+                                grass, dirt, stone);
                     }
+                }
+            }
+        }
 
-                    if (level >= 0) {
-                        if (isTransformable) {
-                            if (level == 0) {
-                                setBlock(pt, grass);
-                                affected++;
-                            } else if (level <= 2) {
-                                setBlock(pt, dirt);
-                                affected++;
-                            } else {
-                                setBlock(pt, stone);
-                                affected++;
-                            }
-                        }
+        return affected;
+    }
+
+    /**
+     * Naturalize a single column whose block types have been read into
+     * an array.
+     *
+     * @param x
+     * @param z
+     * @param lowerY
+     * @param upperY
+     * @param types
+     * @param offset index of the block at lowerY
+     * @param stride distance in the array between two layers
+     * @param grass
+     * @param dirt
+     * @param stone
+     * @return number of blocks affected
+     * @throws MaxChangedBlocksException
+     */
+    private int naturalizeColumn(int x, int z, int lowerY, int upperY,
+            short[] types, int offset, int stride, BaseBlock grass,
+            BaseBlock dirt, BaseBlock stone) throws MaxChangedBlocksException {
+        int affected = 0;
+        int level = -1;
+
+        for (int y = upperY; y >= lowerY; --y) {
+            int blockType = types[offset + (y - lowerY) * stride];
 
-                        level++;
+            boolean isTransformable =
+                    blockType == BlockID.GRASS
+                    || blockType == BlockID.DIRT
+                    || blockType == BlockID.STONE;
+
+            // Still searching for the top block
+            if (level == -1) {
+                if (!isTransformable) {
+                    continue; // Not transforming this column yet
+                }
+
+                level = 0;
+            }
+
+            if (level >= 0) {
+                if (isTransformable) {
+                    Vector pt = new Vector(x, y, z);
+                    if (level == 0) {
+                        setBlock(pt, grass);
+                        affected++;
+                    } else if (level <= 2) {
+                        setBlock(pt, dirt);
+                        affected++;
+                    } else {
+                        setBlock(pt, stone);
+                        affected++;
                     }
                 }
+
+                level++;
             }
         }
 
@@ -1485,8 +2311,6 @@ public class EditSession {
      */
     public int stackCuboidRegion(Region region, Vector dir, int count,
             boolean copyAir) throws MaxChangedBlocksException {
-        int affected = 0;
-
         Vector min = region.getMinimumPoint();
         Vector max = region.getMaximumPoint();
 
@@ -1501,24 +2325,34 @@ public class EditSession {
         int ys = region.getHeight();
         int zs = region.getLength();
 
-        for (int x = minX; x <= maxX; ++x) {
-            for (int z = minZ; z <= maxZ; ++z) {
-                for (int y = minY; y <= maxY; ++y) {
-                    BaseBlock block = getBlock(new Vector(x, y, z));
+        // The copies never overlap the source, so it is read a chunk
+        // section at a time and each section is written to every copy
+        BlockWindow source = new BlockWindow();
+        short[] types = new short[4096];
+        byte[] data = new byte[4096];
 
-                    if (!block.isAir() || copyAir) {
-                        for (int i = 1; i <= count; ++i) {
-                            Vector pos = new Vector(x + xs * dir.getBlockX()
-                                    * i, y + ys * dir.getBlockY() * i, z + zs
-                                    * dir.getBlockZ() * i);
+        int affected = 0;
+        BulkWriter writer = new BulkWriter();
 
-                            if (setBlock(pos, block)) {
-                                ++affected;
-                            }
+        try {
+            for (int cx = minX >> 4; cx <= maxX >> 4; ++cx) {
+                for (int cz = minZ >> 4; cz <= maxZ >> 4; ++cz) {
+                    for (int sy = minY >> 4; sy <= maxY >> 4; ++sy) {
+                        source.read(Math.max(minX, cx << 4), Math.max(minY, sy << 4),
+                                Math.max(minZ, cz << 4), Math.min(maxX, (cx << 4) + 15),
+                                Math.min(maxY, (sy << 4) + 15), Math.min(maxZ, (cz << 4) + 15),
+                                copyAir);
+
+                        for (int i = 1; i <= count; ++i) {
+                            affected += writeShifted(source, xs * dir.getBlockX() * i,
+                                    ys * dir.getBlockY() * i, zs * dir.getBlockZ() * i,
+                                    writer, types, data);
                         }
                     }
                 }
             }
+        } finally {
+            writer.flush();
         }
 
         return affected;
@@ -1538,122 +2372,373 @@ public class EditSession {
     public int moveCuboidRegion(Region region, Vector dir, int distance,
             boolean copyAir, BaseBlock replace)
             throws MaxChangedBlocksException {
-        int affected = 0;
-
         Vector shift = dir.multiply(distance);
         Vector min = region.getMinimumPoint();
         Vector max = region.getMaximumPoint();
 
-        int minX = min.getBlockX();
-        int minY = min.getBlockY();
-        int minZ = min.getBlockZ();
-        int maxX = max.getBlockX();
-        int maxY = max.getBlockY();
-        int maxZ = max.getBlockZ();
+        int[] lower = { min.getBlockX(), min.getBlockY(), min.getBlockZ() };
+        int[] upper = { max.getBlockX(), max.getBlockY(), max.getBlockZ() };
+        int[] offset = { shift.getBlockX(), shift.getBlockY(), shift.getBlockZ() };
+
+        // The source is moved a window of at most a chunk section at a time,
+        // going along the axis the move is furthest on and starting from the
+        // end the move goes toward, so nothing is written over a part of
+        // the source that has not been read yet
+        int axis = 0;
+        for (int i = 1; i < 3; ++i) {
+            if (Math.abs(offset[i]) > Math.abs(offset[axis])) {
+                axis = i;
+            }
+        }
+        int across1 = (axis + 1) % 3;
+        int across2 = (axis + 2) % 3;
+
+        // A move along the axis only never leaves its row of windows, so
+        // the rows are done one after another. Otherwise every window at a
+        // step along the axis is done before the next step, and a step is
+        // no longer than the move so the windows of a step miss each other
+        boolean straight = offset[across1] == 0 && offset[across2] == 0;
+        int length = straight ? 16 : Math.min(16, Math.abs(offset[axis]));
+
+        int[] stepStarts = new int[upper[axis] - lower[axis] + 1];
+        int[] stepEnds = new int[stepStarts.length];
+        int steps = 0;
+
+        if (offset[axis] > 0) {
+            for (int end = upper[axis]; end >= lower[axis]; ++steps) {
+                int start = Math.max(Math.max(lower[axis], end - length + 1), end & ~15);
+                stepStarts[steps] = start;
+                stepEnds[steps] = end;
+                end = start - 1;
+            }
+        } else {
+            for (int start = lower[axis]; start <= upper[axis]; ++steps) {
+                int end = Math.min(Math.min(upper[axis], start + length - 1), start | 15);
+                stepStarts[steps] = start;
+                stepEnds[steps] = end;
+                start = end + 1;
+            }
+        }
+
+        int sections1 = (upper[across1] >> 4) - (lower[across1] >> 4) + 1;
+        int sections2 = (upper[across2] >> 4) - (lower[across2] >> 4) + 1;
+        int rows = sections1 * sections2;
+
+        int affected = 0;
+        int[] from = new int[3];
+        int[] to = new int[3];
+        BlockWindow window = new BlockWindow();
+        short[] types = new short[4096];
+        byte[] data = new byte[4096];
+        BulkWriter writer = new BulkWriter();
+
+        try {
+            for (int i = 0; i < steps * rows; ++i) {
+                int step = straight ? i % steps : i / rows;
+                int row = straight ? i / steps : i % rows;
+                int section1 = (lower[across1] >> 4) + row % sections1;
+                int section2 = (lower[across2] >> 4) + row / sections1;
+
+                from[axis] = stepStarts[step];
+                to[axis] = stepEnds[step];
+                from[across1] = Math.max(lower[across1], section1 << 4);
+                to[across1] = Math.min(upper[across1], (section1 << 4) + 15);
+                from[across2] = Math.max(lower[across2], section2 << 4);
+                to[across2] = Math.min(upper[across2], (section2 << 4) + 15);
+
+                window.read(from[0], from[1], from[2], to[0], to[1], to[2], copyAir);
+                writeShifted(window, offset[0], offset[1], offset[2], writer, types, data);
+                affected += vacate(window, lower, upper, offset, copyAir, replace, writer);
+            }
+        } finally {
+            writer.flush();
+        }
+
+        return affected;
+    }
 
-        Vector newMin = min.add(shift);
-        Vector newMax = min.add(shift);
+    /**
+     * Write the blocks of a window somewhere else, leaving out those that
+     * would go above or below the world.
+     *
+     * @param window
+     * @param shiftX
+     * @param shiftY
+     * @param shiftZ
+     * @param writer
+     * @param types buffer for 4096 types
+     * @param data buffer for 4096 data values
+     * @return number of blocks changed
+     * @throws MaxChangedBlocksException
+     */
+    private int writeShifted(BlockWindow window, int shiftX, int shiftY,
+            int shiftZ, BulkWriter writer, short[] types, byte[] data)
+            throws MaxChangedBlocksException {
+        int minX = window.minX + shiftX;
+        int minY = Math.max(0, window.minY + shiftY);
+        int minZ = window.minZ + shiftZ;
+        int maxX = window.maxX + shiftX;
+        int maxY = Math.min(world.getHeight(), window.maxY + shiftY);
+        int maxZ = window.maxZ + shiftZ;
+
+        if (minY > maxY) {
+            return 0;
+        }
 
-        Map<Vector, BaseBlock> delayed = new LinkedHashMap<Vector, BaseBlock>();
+        int affected = 0;
 
-        for (int x = minX; x <= maxX; ++x) {
-            for (int z = minZ; z <= maxZ; ++z) {
+        for (int cx = minX >> 4; cx <= maxX >> 4; ++cx) {
+            for (int cz = minZ >> 4; cz <= maxZ >> 4; ++cz) {
+                int x0 = Math.max(minX, cx << 4);
+                int x1 = Math.min(maxX, (cx << 4) + 15);
+                int z0 = Math.max(minZ, cz << 4);
+                int z1 = Math.min(maxZ, (cz << 4) + 15);
+
+                writer.begin(cx, cz);
+                readBlocks(x0, minY, z0, x1, maxY, z1, types, data);
+
+                int index = 0;
                 for (int y = minY; y <= maxY; ++y) {
-                    Vector pos = new Vector(x, y, z);
-                    BaseBlock block = getBlock(pos);
-
-                    if (!block.isAir() || copyAir) {
-                        Vector newPos = pos.add(shift);
-
-                        delayed.put(newPos, getBlock(pos));
-
-                        // Don't want to replace the old block if it's in
-                        // the new area
-                        if (x >= newMin.getBlockX() && x <= newMax.getBlockX()
-                                && y >= newMin.getBlockY()
-                                && y <= newMax.getBlockY()
-                                && z >= newMin.getBlockZ()
-                                && z <= newMax.getBlockZ()) {
-                        } else {
-                            setBlock(pos, replace);
+                    for (int z = z0; z <= z1; ++z) {
+                        for (int x = x0; x <= x1; ++x, ++index) {
+                            BaseBlock block = window.get(x - shiftX, y - shiftY, z - shiftZ);
+
+                            if (block != null && writer.set(x, y, z,
+                                    types[index] & 0xFFFF, data[index] & 0xFF, block)) {
+                                ++affected;
+                            }
                         }
                     }
                 }
             }
         }
 
-        for (Map.Entry<Vector, BaseBlock> entry : delayed.entrySet()) {
-            setBlock(entry.getKey(), entry.getValue());
-            ++affected;
-        }
-
         return affected;
     }
 
     /**
-     * Drain nearby pools of water or lava.
+     * Put the replacement where a block of a moved window was taken from
+     * and no other block lands. The window must have been written to where
+     * it goes already.
      *
-     * @param pos
-     * @param radius
-     * @return number of blocks affected
+     * @param window
+     * @param lower minimum point of the whole source
+     * @param upper maximum point of the whole source
+     * @param offset
+     * @param copyAir
+     * @param replace
+     * @param writer
+     * @return number of blocks of the window that were moved
      * @throws MaxChangedBlocksException
      */
-    public int drainArea(Vector pos, double radius)
+    private int vacate(BlockWindow window, int[] lower, int[] upper, int[] offset,
+            boolean copyAir, BaseBlock replace, BulkWriter writer)
             throws MaxChangedBlocksException {
-        int affected = 0;
+        int moved = 0;
 
-        HashSet<BlockVector> visited = new HashSet<BlockVector>();
-        Stack<BlockVector> queue = new Stack<BlockVector>();
+        writer.begin(window.minX >> 4, window.minZ >> 4);
 
-        for (int x = pos.getBlockX() - 1; x <= pos.getBlockX() + 1; ++x) {
-            for (int z = pos.getBlockZ() - 1; z <= pos.getBlockZ() + 1; ++z) {
-                for (int y = pos.getBlockY() - 1; y <= pos.getBlockY() + 1; ++y) {
-                    queue.push(new BlockVector(x, y, z));
+        int index = 0;
+        for (int y = window.minY; y <= window.maxY; ++y) {
+            for (int z = window.minZ; z <= window.maxZ; ++z) {
+                for (int x = window.minX; x <= window.maxX; ++x, ++index) {
+                    if (window.get(index) == null) {
+                        continue;
+                    }
+
+                    if (y + offset[1] >= 0 && y + offset[1] <= world.getHeight()) {
+                        ++moved;
+                    }
+
+                    // The block that lands here, if any, comes from here
+                    int fromX = x - offset[0];
+                    int fromY = y - offset[1];
+                    int fromZ = z - offset[2];
+                    boolean lands;
+
+                    if (window.contains(fromX, fromY, fromZ)) {
+                        lands = window.get(fromX, fromY, fromZ) != null;
+                    } else if (fromX < lower[0] || fromY < lower[1] || fromZ < lower[2]
+                            || fromX > upper[0] || fromY > upper[1] || fromZ > upper[2]) {
+                        lands = false;
+                    } else {
+                        // A later window, which has not been written to yet
+                        lands = copyAir || getBlockType(
+                                new Vector(fromX, fromY, fromZ)) != BlockID.AIR;
+                    }
+
+                    if (!lands) {
+                        writer.set(x, y, z, window.getType(index),
+                                window.getData(index), replace);
+                    }
                 }
             }
         }
 
-        while (!queue.empty()) {
-            BlockVector cur = queue.pop();
+        return moved;
+    }
+
+    /**
+     * The blocks of a box of at most one chunk section, read with the data
+     * of tile entities. Blocks other than tile entities are shared between
+     * reads, so moving a large cuboid through one window takes a fixed
+     * amount of memory.
+     */
+    private class BlockWindow {
+        private final BaseBlock[] blocks = new BaseBlock[4096];
+        private final BaseBlock[] palette = new BaseBlock[4096 << 4];
+        private final short[] types = new short[4096];
+        private final byte[] data = new byte[4096];
+        private int minX;
+        private int minY;
+        private int minZ;
+        private int maxX;
+        private int maxY;
+        private int maxZ;
+
+        /**
+         * Read a box that fits in one chunk section.
+         *
+         * @param minX
+         * @param minY
+         * @param minZ
+         * @param maxX
+         * @param maxY
+         * @param maxZ
+         * @param copyAir false to leave air out
+         */
+        void read(int minX, int minY, int minZ, int maxX, int maxY, int maxZ,
+                boolean copyAir) {
+            this.minX = minX;
+            this.minY = minY;
+            this.minZ = minZ;
+            this.maxX = maxX;
+            this.maxY = maxY;
+            this.maxZ = maxZ;
+
+            readBlocks(minX, minY, minZ, maxX, maxY, maxZ, types, data);
+
+            int index = 0;
+            for (int y = minY; y <= maxY; ++y) {
+                for (int z = minZ; z <= maxZ; ++z) {
+                    for (int x = minX; x <= maxX; ++x, ++index) {
+                        int type = types[index] & 0xFFF;
+                        int blockData = data[index] & 0xF;
 
-            int type = getBlockType(cur);
+                        if (type == BlockID.AIR && !copyAir) {
+                            blocks[index] = null;
+                            continue;
+                        }
 
-            // Check block type
-            if (type != BlockID.WATER && type != BlockID.STATIONARY_WATER
-                    && type != BlockID.LAVA && type != BlockID.STATIONARY_LAVA) {
-                continue;
-            }
+                        BaseBlock block = createTileEntityBlock(type, blockData);
+                        if (block != null) {
+                            world.copyFromWorld(new Vector(x, y, z), block);
+                            blocks[index] = block;
+                            continue;
+                        }
 
-            // Don't want to revisit
-            if (visited.contains(cur)) {
-                continue;
+                        int key = type << 4 | blockData;
+                        if (palette[key] == null) {
+                            palette[key] = new BaseBlock(type, blockData);
+                        }
+                        blocks[index] = palette[key];
+                    }
+                }
             }
+        }
 
-            visited.add(cur);
+        boolean contains(int x, int y, int z) {
+            return x >= minX && y >= minY && z >= minZ
+                    && x <= maxX && y <= maxY && z <= maxZ;
+        }
 
-            // Check radius
-            if (pos.distance(cur) > radius) {
-                continue;
+        /**
+         * Get a block.
+         *
+         * @param x
+         * @param y
+         * @param z
+         * @return block, or null if it is outside or was left out
+         */
+        BaseBlock get(int x, int y, int z) {
+            if (!contains(x, y, z)) {
+                return null;
             }
 
-            for (int x = cur.getBlockX() - 1; x <= cur.getBlockX() + 1; ++x) {
-                for (int z = cur.getBlockZ() - 1; z <= cur.getBlockZ() + 1; ++z) {
-                    for (int y = cur.getBlockY() - 1; y <= cur.getBlockY() + 1; ++y) {
-                        BlockVector newPos = new BlockVector(x, y, z);
+            int sizeX = maxX - minX + 1;
+            int sizeZ = maxZ - minZ + 1;
+            return blocks[((y - minY) * sizeZ + z - minZ) * sizeX + x - minX];
+        }
 
-                        if (!cur.equals(newPos)) {
-                            queue.push(newPos);
-                        }
+        /**
+         * Get a block by its index in the order it was read.
+         *
+         * @param index
+         * @return block, or null if it was left out
+         */
+        BaseBlock get(int index) {
+            return blocks[index];
+        }
+
+        int getType(int index) {
+            return types[index] & 0xFFFF;
+        }
+
+        int getData(int index) {
+            return data[index] & 0xFF;
+        }
+    }
+
+    /**
+     * Drain nearby pools of water or lava.
+     *
+     * @param pos
+     * @param radius
+     * @return number of blocks affected
+     * @throws MaxChangedBlocksException
+     */
+    public int drainArea(final Vector pos, final double radius)
+            throws MaxChangedBlocksException {
+        final int[] affected = new int[1];
+        final BaseBlock air = new BaseBlock(BlockID.AIR);
+        int size = (int) Math.ceil(radius) + 2;
+
+        FloodFill fill = new FloodFill(
+                new Vector(pos.getBlockX() - size,
+                        Math.max(0, pos.getBlockY() - size), pos.getBlockZ() - size),
+                new Vector(pos.getBlockX() + size,
+                        Math.min(world.getHeight(), pos.getBlockY() + size),
+                        pos.getBlockZ() + size),
+                FloodFill.Connectivity.ALL, new FloodFill.Predicate() {
+                    public boolean matches(int x, int y, int z) {
+                        Vector pt = new Vector(x, y, z);
+                        int type = getBlockType(pt);
+
+                        return (type == BlockID.WATER || type == BlockID.STATIONARY_WATER
+                                || type == BlockID.LAVA || type == BlockID.STATIONARY_LAVA)
+                                && pos.distance(pt) <= radius;
                     }
+                });
+
+        for (int x = pos.getBlockX() - 1; x <= pos.getBlockX() + 1; ++x) {
+            for (int z = pos.getBlockZ() - 1; z <= pos.getBlockZ() + 1; ++z) {
+                for (int y = pos.getBlockY() - 1; y <= pos.getBlockY() + 1; ++y) {
+                    fill.addSeed(x, y, z);
                 }
             }
+        }
 
-            if (setBlock(cur, new BaseBlock(BlockID.AIR))) {
-                ++affected;
+        fill.run(new FloodFill.Action() {
+            public boolean visit(int x, int y, int z)
+                    throws MaxChangedBlocksException {
+                if (setBlock(new Vector(x, y, z), air)) {
+                    ++affected[0];
+                }
+                return true;
             }
-        }
+        });
 
-        return affected;
+        return affected[0];
     }
 
     /**
@@ -1666,106 +2751,141 @@ public class EditSession {
      * @return number of blocks affected
      * @throws MaxChangedBlocksException
      */
-    public int fixLiquid(Vector pos, double radius, int moving, int stationary)
-            throws MaxChangedBlocksException {
-        int affected = 0;
-
-        HashSet<BlockVector> visited = new HashSet<BlockVector>();
-        Stack<BlockVector> queue = new Stack<BlockVector>();
+    public int fixLiquid(final Vector pos, final double radius, final int moving,
+            final int stationary) throws MaxChangedBlocksException {
+        final int[] affected = new int[1];
+        final BaseBlock stationaryBlock = new BaseBlock(stationary);
+        int size = (int) Math.ceil(radius) + 2;
+
+        FloodFill fill = new FloodFill(
+                new Vector(pos.getBlockX() - size, pos.getBlockY() - 1, pos.getBlockZ() - size),
+                new Vector(pos.getBlockX() + size, pos.getBlockY() + 1, pos.getBlockZ() + size),
+                FloodFill.Connectivity.HORIZONTAL, new FloodFill.Predicate() {
+                    public boolean matches(int x, int y, int z) {
+                        int type = getBlockType(new Vector(x, y, z));
+                        return type == moving || type == stationary || type == BlockID.AIR;
+                    }
+                });
 
         for (int x = pos.getBlockX() - 1; x <= pos.getBlockX() + 1; ++x) {
             for (int z = pos.getBlockZ() - 1; z <= pos.getBlockZ() + 1; ++z) {
                 for (int y = pos.getBlockY() - 1; y <= pos.getBlockY() + 1; ++y) {
-                    int type = getBlock(new Vector(x, y, z)).getType();
+                    int type = getBlockType(new Vector(x, y, z));
 
                     // Check block type
                     if (type == moving || type == stationary) {
-                        queue.push(new BlockVector(x, y, z));
+                        fill.addSeed(x, y, z);
                     }
                 }
             }
         }
 
-        BaseBlock stationaryBlock = new BaseBlock(stationary);
-
-        while (!queue.empty()) {
-            BlockVector cur = queue.pop();
-
-            int type = getBlockType(cur);
-
-            // Check block type
-            if (type != moving && type != stationary && type != BlockID.AIR) {
-                continue;
-            }
-
-            // Don't want to revisit
-            if (visited.contains(cur)) {
-                continue;
-            }
-
-            visited.add(cur);
-
-            if (setBlock(cur, stationaryBlock)){
-                ++affected;
-            }
+        fill.run(new FloodFill.Action() {
+            public boolean visit(int x, int y, int z)
+                    throws MaxChangedBlocksException {
+                Vector pt = new Vector(x, y, z);
+                if (setBlock(pt, stationaryBlock)) {
+                    ++affected[0];
+                }
 
-            // Check radius
-            if (pos.distance(cur) > radius) {
-                continue;
+                // Only spread within the radius
+                return pos.distance(pt) <= radius;
             }
+        });
 
-            queue.push(cur.add(1, 0, 0).toBlockVector());
-            queue.push(cur.add(-1, 0, 0).toBlockVector());
-            queue.push(cur.add(0, 0, 1).toBlockVector());
-            queue.push(cur.add(0, 0, -1).toBlockVector());
-        }
-
-        return affected;
+        return affected[0];
     }
 
     /**
-     * Helper method to draw the cylinder.
+     * Set the blocks of a shape, going through it one chunk section at a
+     * time like {@link #fillCuboid}. Sections the shape does not reach are
+     * neither read nor written.
      *
-     * @param center
-     * @param x
-     * @param z
-     * @param height
-     * @param block
+     * @param shape
+     * @param pos position of the shape's center
+     * @param layers number of copies of the shape to stack upwards, each
+     *     directly on top of the previous one
+     * @param pattern
+     * @return number of blocks affected
      * @throws MaxChangedBlocksException
      */
-    private int makeHCylinderPoints(Vector center, int x, double z, int height,
-            Pattern block) throws MaxChangedBlocksException {
-        int ceilZ = (int) Math.ceil(z);
+    private int stampShape(Shape shape, Vector pos, int layers, Pattern pattern)
+            throws MaxChangedBlocksException {
+        int originX = pos.getBlockX();
+        int originY = pos.getBlockY();
+        int originZ = pos.getBlockZ();
+        int shapeMinY = shape.getMinY();
+        int shapeHeight = shape.getMaxY() - shapeMinY + 1;
+
+        int minX = originX + shape.getMinX();
+        int minY = Math.max(0, originY + shapeMinY);
+        int minZ = originZ + shape.getMinZ();
+        int maxX = originX + shape.getMaxX();
+        int maxY = Math.min(world.getHeight(),
+                originY + shapeMinY + shapeHeight * layers - 1);
+        int maxZ = originZ + shape.getMaxZ();
+
+        if (shape.size() == 0 || layers <= 0 || minY > maxY) {
+            return 0;
+        }
+
         int affected = 0;
+        short[] types = new short[4096];
+        byte[] data = new byte[4096];
+        BulkWriter writer = new BulkWriter();
+
+        try {
+            for (int cx = minX >> 4; cx <= maxX >> 4; ++cx) {
+                for (int cz = minZ >> 4; cz <= maxZ >> 4; ++cz) {
+                    int x0 = Math.max(minX, cx << 4);
+                    int x1 = Math.min(maxX, (cx << 4) + 15);
+                    int z0 = Math.max(minZ, cz << 4);
+                    int z1 = Math.min(maxZ, (cz << 4) + 15);
+
+                    boolean begun = false;
+
+                    for (int sy = minY >> 4; sy <= maxY >> 4; ++sy) {
+                        int y0 = Math.max(minY, sy << 4);
+                        int y1 = Math.min(maxY, (sy << 4) + 15);
+
+                        // Stacked layers are only checked across, not up
+                        int checkY0 = layers == 1 ? y0 - originY : shapeMinY;
+                        int checkY1 = layers == 1 ? y1 - originY : shape.getMaxY();
+                        if (!shape.mayIntersect(x0 - originX, checkY0, z0 - originZ,
+                                x1 - originX, checkY1, z1 - originZ)) {
+                            continue;
+                        }
+
+                        if (!begun) {
+                            writer.begin(cx, cz);
+                            begun = true;
+                        }
 
-        if (x == 0) {
-            for (int y = 0; y < height; ++y) {
-                setBlock(center.add(0, y, ceilZ), block);
-                setBlock(center.add(0, y, -ceilZ), block);
-                setBlock(center.add(ceilZ, y, 0), block);
-                setBlock(center.add(-ceilZ, y, 0), block);
-                affected += 4;
-            }
-        } else if (x == z) {
-            for (int y = 0; y < height; ++y) {
-                setBlock(center.add(x, y, ceilZ), block);
-                setBlock(center.add(-x, y, ceilZ), block);
-                setBlock(center.add(x, y, -ceilZ), block);
-                setBlock(center.add(-x, y, -ceilZ), block);
-                affected += 4;
-            }
-        } else if (x < z) {
-            for (int y = 0; y < height; ++y) {
-                setBlock(center.add(x, y, ceilZ), block);
-                setBlock(center.add(-x, y, ceilZ), block);
-                setBlock(center.add(x, y, -ceilZ), block);
-                setBlock(center.add(-x, y, -ceilZ), block);
-                setBlock(center.add(ceilZ, y, x), block);
-                setBlock(center.add(-ceilZ, y, x), block);
-                setBlock(center.add(ceilZ, y, -x), block);
-                setBlock(center.add(-ceilZ, y, -x), block);
-                affected += 8;
+                        readBlocks(x0, y0, z0, x1, y1, z1, types, data);
+
+                        int index = 0;
+                        for (int y = y0; y <= y1; ++y) {
+                            int shapeY = shapeMinY
+                                    + (y - originY - shapeMinY) % shapeHeight;
+                            for (int z = z0; z <= z1; ++z) {
+                                for (int x = x0; x <= x1; ++x, ++index) {
+                                    if (!shape.contains(x - originX, shapeY, z - originZ)) {
+                                        continue;
+                                    }
+
+                                    BaseBlock next = pattern.next(new Vector(x, y, z));
+                                    if (writer.set(x, y, z, types[index] & 0xFFFF,
+                                            data[index] & 0xFF, next)) {
+                                        ++affected;
+                                    }
+                                }
+                            }
+                        }
+                    }
+                }
             }
+        } finally {
+            writer.flush();
         }
 
         return affected;
@@ -1778,16 +2898,11 @@ public class EditSession {
      * @param block
      * @param radius
      * @param height
-     * @return number of blocks set
+     * @return number of blocks changed
      * @throws MaxChangedBlocksException
      */
     public int makeHollowCylinder(Vector pos, Pattern block, double radius,
             int height) throws MaxChangedBlocksException {
-        int x = 0;
-        double z = radius;
-        double d = (5 - radius * 4) / 4;
-        int affected = 0;
-
         if (height == 0) {
             return 0;
         } else if (height < 0) {
@@ -1802,61 +2917,7 @@ public class EditSession {
             height = 127 - pos.getBlockY() + 1;
         }
 
-        affected += makeHCylinderPoints(pos, x, z, height, block);
-
-        while (x < z) {
-            ++x;
-
-            if (d >= 0) {
-                d += 2 * (x - --z) + 1;
-            } else {
-                d += 2 * x + 1;
-            }
-
-            affected += makeHCylinderPoints(pos, x, z, height, block);
-        }
-
-        return affected;
-    }
-
-    /**
-     * Helper method to draw the cylinder.
-     *
-     * @param center
-     * @param x
-     * @param z
-     * @param height
-     * @param block
-     * @throws MaxChangedBlocksException
-     */
-    private int makeCylinderPoints(Vector center, int x, double z, int height,
-            Pattern block) throws MaxChangedBlocksException {
-        int ceilZ = (int) Math.ceil(z);
-    	int affected = 0;
-
-        if (x == z) {
-            for (int y = 0; y < height; ++y) {
-                for (int z2 = -ceilZ; z2 <= ceilZ; ++z2) {
-                    setBlock(center.add(x, y, z2), block);
-                    setBlock(center.add(-x, y, z2), block);
-                    affected += 2;
-                }
-            }
-        } else if (x < z) {
-            for (int y = 0; y < height; ++y) {
-                for (int x2 = -x; x2 <= x; ++x2) {
-                    for (int z2 = -ceilZ; z2 <= ceilZ; ++z2) {
-                        setBlock(center.add(x2, y, z2), block);
-                        ++affected;
-                    }
-                    setBlock(center.add(ceilZ, y, x2), block);
-                    setBlock(center.add(-ceilZ, y, x2), block);
-                    affected += 2;
-                }
-            }
-        }
-
-        return affected;
+        return stampShape(ShapeCache.getCircle(radius, false), pos, height, block);
     }
 
     /**
@@ -1866,16 +2927,11 @@ public class EditSession {
      * @param block
      * @param radius
      * @param height
-     * @return number of blocks set
+     * @return number of blocks changed
      * @throws MaxChangedBlocksException
      */
     public int makeCylinder(Vector pos, Pattern block, double radius, int height)
             throws MaxChangedBlocksException {
-        int x = 0;
-        double z = radius;
-        double d = (5 - radius * 4) / 4;
-        int affected = 0;
-
         if (height == 0) {
             return 0;
         } else if (height < 0) {
@@ -1889,89 +2945,21 @@ public class EditSession {
             height = 127 - pos.getBlockY() + 1;
         }
 
-        affected += makeCylinderPoints(pos, x, z, height, block);
-
-        while (x < z) {
-            ++x;
-
-            if (d >= 0) {
-                d += 2 * (x - --z) + 1;
-            } else {
-                d += 2 * x + 1;
-            }
-
-            affected += makeCylinderPoints(pos, x, z, height, block);
-        }
-
-        return affected;
+        return stampShape(ShapeCache.getCircle(radius, true), pos, height, block);
     }
 
     /**
-     * Makes a sphere or ellipsoid.
+     * Makes a sphere.
      *
-     * @param pos Center of the sphere or ellipsoid
+     * @param pos Center of the sphere
      * @param block The block pattern to use
-     * @param radiusX The sphere/ellipsoid's largest north/south extent
-     * @param radiusY The sphere/ellipsoid's largest up/down extent
-     * @param radiusZ The sphere/ellipsoid's largest east/west extent
+     * @param radius The sphere's radius
      * @param filled If false, only a shell will be generated.
      * @return number of blocks changed
      * @throws MaxChangedBlocksException
      */
     public int makeSphere(Vector pos, Pattern block, double radius, boolean filled) throws MaxChangedBlocksException {
-        int affected = 0;
-
-        radius += 0.5;
-        final double radiusSq = radius*radius;
-        final double radius1Sq = (radius - 1)*(radius - 1);
-
-        final int ceilRadius = (int) Math.ceil(radius);
-        for (int x = 0; x <= ceilRadius; ++x) {
-            for (int y = 0; y <= ceilRadius; ++y) {
-                for (int z = 0; z <= ceilRadius; ++z) {
-                    double dSq = lengthSq(x, y, z);
-
-                    if (dSq > radiusSq) {
-                        continue;
-                    }
-                    if (!filled) {
-                        if (dSq < radius1Sq
-                                || (lengthSq(x + 1, y, z) <= radiusSq
-                                && lengthSq(x, y + 1, z) <= radiusSq
-                                && lengthSq(x, y, z + 1) <= radiusSq)) {
-                            continue;
-                        }
-                    }
-
-                    if (setBlock(pos.add(x, y, z), block)) {
-                        ++affected;
-                    }
-                    if (setBlock(pos.add(-x, y, z), block)) {
-                        ++affected;
-                    }
-                    if (setBlock(pos.add(x, -y, z), block)) {
-                        ++affected;
-                    }
-                    if (setBlock(pos.add(x, y, -z), block)) {
-                        ++affected;
-                    }
-                    if (setBlock(pos.add(-x, -y, z), block)) {
-                        ++affected;
-                    }
-                    if (setBlock(pos.add(x, -y, -z), block)) {
-                        ++affected;
-                    }
-                    if (setBlock(pos.add(-x, y, -z), block)) {
-                        ++affected;
-                    }
-                    if (setBlock(pos.add(-x, -y, -z), block)) {
-                        ++affected;
-                    }
-                }
-            }
-        }
-
-        return affected;
+        return stampShape(ShapeCache.getSphere(radius, filled), pos, 1, block);
     }
 
     /**
@@ -1987,86 +2975,8 @@ public class EditSession {
      * @throws MaxChangedBlocksException
      */
     public int makeSphere(Vector pos, Pattern block, double radiusX, double radiusY, double radiusZ, boolean filled) throws MaxChangedBlocksException {
-        int affected = 0;
-
-        radiusX += 0.5;
-        radiusY += 0.5;
-        radiusZ += 0.5;
-
-        final double invRadiusX = 1 / radiusX;
-        final double invRadiusY = 1 / radiusY;
-        final double invRadiusZ = 1 / radiusZ;
-
-        final int ceilRadiusX = (int) Math.ceil(radiusX);
-        final int ceilRadiusY = (int) Math.ceil(radiusY);
-        final int ceilRadiusZ = (int) Math.ceil(radiusZ);
-
-        double nextXn = 0;
-        forX:
-        for (int x = 0; x <= ceilRadiusX; ++x) {
-            final double xn = nextXn;
-            nextXn = (x + 1) * invRadiusX;
-            double nextYn = 0;
-            forY:
-            for (int y = 0; y <= ceilRadiusY; ++y) {
-                final double yn = nextYn;
-                nextYn = (y + 1) * invRadiusY;
-                double nextZn = 0;
-                forZ:
-                for (int z = 0; z <= ceilRadiusZ; ++z) {
-                    final double zn = nextZn;
-                    nextZn = (z + 1) * invRadiusZ;
-
-                    double distanceSq = lengthSq(xn, yn, zn);
-                    if (distanceSq > 1) {
-                        if (z == 0) {
-                            if (y == 0) {
-                                break forX;
-                            }
-                            break forY;
-                        }
-                        break forZ;
-                    }
-
-                    if (!filled) {
-                        if (lengthSq(nextXn, yn, zn) <= 1 && lengthSq(xn, nextYn, zn) <= 1 && lengthSq(xn, yn, nextZn) <= 1) {
-                            continue;
-                        }
-                    }
-
-                    if (setBlock(pos.add(x, y, z), block)) {
-                        ++affected;
-                    }
-                    if (setBlock(pos.add(-x, y, z), block)) {
-                        ++affected;
-                    }
-                    if (setBlock(pos.add(x, -y, z), block)) {
-                        ++affected;
-                    }
-                    if (setBlock(pos.add(x, y, -z), block)) {
-                        ++affected;
-                    }
-                    if (setBlock(pos.add(-x, -y, z), block)) {
-                        ++affected;
-                    }
-                    if (setBlock(pos.add(x, -y, -z), block)) {
-                        ++affected;
-                    }
-                    if (setBlock(pos.add(-x, y, -z), block)) {
-                        ++affected;
-                    }
-                    if (setBlock(pos.add(-x, -y, -z), block)) {
-                        ++affected;
-                    }
-                }
-            }
-        }
-
-        return affected;
-    }
-
-    private static final double lengthSq(double x, double y, double z) {
-        return (x * x) + (y * y) + (z * z);
+        return stampShape(ShapeCache.getEllipsoid(radiusX, radiusY, radiusZ, filled),
+                pos, 1, block);
     }
 
     /**
@@ -2081,35 +2991,7 @@ public class EditSession {
      */
     public int makePyramid(Vector pos, Pattern block, int size,
             boolean filled) throws MaxChangedBlocksException {
-        int affected = 0;
-
-        int height = size;
-
-        for (int y = 0; y <= height; ++y) {
-            size--;
-            for (int x = 0; x <= size; ++x) {
-                for (int z = 0; z <= size; ++z) {
-
-                    if ((filled && z <= size && x <= size) || z == size || x == size) {
-
-                        if (setBlock(pos.add(x, y, z), block)) {
-                            ++affected;
-                        }
-                        if (setBlock(pos.add(-x, y, z), block)) {
-                            ++affected;
-                        }
-                        if (setBlock(pos.add(x, y, -z), block)) {
-                            ++affected;
-                        }
-                        if (setBlock(pos.add(-x, y, -z), block)) {
-                            ++affected;
-                        }
-                    }
-                }
-            }
-        }
-
-        return affected;
+        return stampShape(ShapeCache.getPyramid(size, filled), pos, 1, block);
     }
 
     /**
@@ -2139,30 +3021,28 @@ public class EditSession {
                     continue;
                 }
 
-                for (int y = 127; y >= 1; --y) {
-                    Vector pt = new Vector(x, y, z);
-                    int id = getBlockType(pt);
-
-                    switch (id) {
-                    case BlockID.ICE:
-                        if (setBlock(pt, water)) {
-                            ++affected;
-                        }
-                        break;
+                int y = getHighestBlock(x, z, 1, 127,
+                        ColumnHeightIndex.Surface.NON_AIR);
+                if (y == -1) {
+                    continue;
+                }
 
-                    case BlockID.SNOW:
-                        if (setBlock(pt, air)) {
-                            ++affected;
-                        }
-                        break;
+                Vector pt = new Vector(x, y, z);
 
-                    case BlockID.AIR:
-                        continue;
+                switch (getBlockType(pt)) {
+                case BlockID.ICE:
+                    if (setBlock(pt, water)) {
+                        ++affected;
+                    }
+                    break;
 
-                    default:
-                        break;
+                case BlockID.SNOW:
+                    if (setBlock(pt, air)) {
+                        ++affected;
                     }
+                    break;
 
+                default:
                     break;
                 }
             }
@@ -2198,37 +3078,36 @@ public class EditSession {
                     continue;
                 }
 
-                for (int y = 127; y >= 1; --y) {
-                    Vector pt = new Vector(x, y, z);
-                    int id = getBlockType(pt);
+                int y = getHighestBlock(x, z, 1, 127,
+                        ColumnHeightIndex.Surface.NON_AIR);
+                if (y == -1) {
+                    continue;
+                }
 
-                    if (id == BlockID.AIR) {
-                        continue;
-                    }
+                Vector pt = new Vector(x, y, z);
+                int id = getBlockType(pt);
 
-                    // Ice!
-                    if (id == BlockID.WATER || id == BlockID.STATIONARY_WATER) {
-                        if (setBlock(pt, ice)) {
-                            ++affected;
-                        }
-                        break;
+                // Ice!
+                if (id == BlockID.WATER || id == BlockID.STATIONARY_WATER) {
+                    if (setBlock(pt, ice)) {
+                        ++affected;
                     }
+                    continue;
+                }
 
-                    // Snow should not cover these blocks
-                    if (BlockType.canPassThrough(id)) {
-                        break;
-                    }
+                // Snow should not cover these blocks
+                if (BlockType.canPassThrough(id)) {
+                    continue;
+                }
 
-                    // Too high?
-                    if (y == 127) {
-                        break;
-                    }
+                // Too high?
+                if (y == 127) {
+                    continue;
+                }
 
-                    // add snow cover
-                    if (setBlock(pt.add(0, 1, 0), snow)) {
-                        ++affected;
-                    }
-                    break;
+                // add snow cover
+                if (setBlock(pt.add(0, 1, 0), snow)) {
+                    ++affected;
                 }
             }
         }
@@ -2262,20 +3141,17 @@ public class EditSession {
                     continue;
                 }
 
-                for (int y = 127; y >= 1; --y) {
-                    Vector pt = new Vector(x, y, z);
-                    int id = getBlockType(pt);
-
-                    if (BlockType.canPassThrough(id)) {
-                        continue;
-                    }
+                int y = getHighestBlock(x, z, 1, 127,
+                        ColumnHeightIndex.Surface.SOLID);
+                if (y == -1) {
+                    continue;
+                }
 
-                    if (id == BlockID.DIRT) {
-                        if (setBlock(pt, grass)) {
-                            ++affected;
-                        }
+                Vector pt = new Vector(x, y, z);
+                if (getBlockType(pt) == BlockID.DIRT) {
+                    if (setBlock(pt, grass)) {
+                        ++affected;
                     }
-                    break;
                 }
             }
         }
@@ -2415,16 +3291,17 @@ public class EditSession {
                     continue;
                 }
 
-                for (int y = basePos.getBlockY(); y >= basePos.getBlockY() - 10; --y) {
-                    // Check if we hit the ground
-                    int t = getBlock(new Vector(x, y, z)).getType();
-                    if (t == BlockID.GRASS || t == BlockID.DIRT) {
-                        makePumpkinPatch(new Vector(x, y + 1, z));
-                        ++affected;
-                        break;
-                    } else if (t != BlockID.AIR) { // Trees won't grow on this!
-                        break;
-                    }
+                // Find the ground; trees won't grow on anything else
+                int y = getHighestBlock(x, z, basePos.getBlockY() - 10,
+                        basePos.getBlockY(), ColumnHeightIndex.Surface.NON_AIR);
+                if (y == -1) {
+                    continue;
+                }
+
+                int t = getBlockType(new Vector(x, y, z));
+                if (t == BlockID.GRASS || t == BlockID.DIRT) {
+                    makePumpkinPatch(new Vector(x, y + 1, z));
+                    ++affected;
                 }
             }
         }
@@ -2459,16 +3336,17 @@ public class EditSession {
                     continue;
                 } // def 0.05
 
-                for (int y = basePos.getBlockY(); y >= basePos.getBlockY() - 10; --y) {
-                    // Check if we hit the ground
-                    int t = getBlock(new Vector(x, y, z)).getType();
-                    if (t == BlockID.GRASS || t == BlockID.DIRT) {
-                        treeGenerator.generate(this, new Vector(x, y + 1, z));
-                        ++affected;
-                        break;
-                    } else if (t != BlockID.AIR) { // Trees won't grow on this!
-                        break;
-                    }
+                // Find the ground; trees won't grow on anything else
+                int y = getHighestBlock(x, z, basePos.getBlockY() - 10,
+                        basePos.getBlockY(), ColumnHeightIndex.Surface.NON_AIR);
+                if (y == -1) {
+                    continue;
+                }
+
+                int t = getBlockType(new Vector(x, y, z));
+                if (t == BlockID.GRASS || t == BlockID.DIRT) {
+                    treeGenerator.generate(this, new Vector(x, y + 1, z));
+                    ++affected;
                 }
             }
         }
@@ -2484,40 +3362,7 @@ public class EditSession {
      * @return
      */
     public int countBlocks(Region region, Set<Integer> searchIDs) {
-        int count = 0;
-
-        if (region instanceof CuboidRegion) {
-            // Doing this for speed
-            Vector min = region.getMinimumPoint();
-            Vector max = region.getMaximumPoint();
-
-            int minX = min.getBlockX();
-            int minY = min.getBlockY();
-            int minZ = min.getBlockZ();
-            int maxX = max.getBlockX();
-            int maxY = max.getBlockY();
-            int maxZ = max.getBlockZ();
-
-            for (int x = minX; x <= maxX; ++x) {
-                for (int y = minY; y <= maxY; ++y) {
-                    for (int z = minZ; z <= maxZ; ++z) {
-                        Vector pt = new Vector(x, y, z);
-
-                        if (searchIDs.contains(getBlockType(pt))) {
-                            ++count;
-                        }
-                    }
-                }
-            }
-        } else {
-            for (Vector pt : region) {
-                if (searchIDs.contains(getBlockType(pt))) {
-                    ++count;
-                }
-            }
-        }
-
-        return count;
+        return RegionAnalysis.countTypes(RegionAnalysis.count(world, region), searchIDs);
     }
 
     /**
@@ -2527,55 +3372,7 @@ public class EditSession {
      * @return
      */
     public List<Countable<Integer>> getBlockDistribution(Region region) {
-        List<Countable<Integer>> distribution = new ArrayList<Countable<Integer>>();
-        Map<Integer, Countable<Integer>> map = new HashMap<Integer, Countable<Integer>>();
-
-        if (region instanceof CuboidRegion) {
-            // Doing this for speed
-            Vector min = region.getMinimumPoint();
-            Vector max = region.getMaximumPoint();
-
-            int minX = min.getBlockX();
-            int minY = min.getBlockY();
-            int minZ = min.getBlockZ();
-            int maxX = max.getBlockX();
-            int maxY = max.getBlockY();
-            int maxZ = max.getBlockZ();
-
-            for (int x = minX; x <= maxX; ++x) {
-                for (int y = minY; y <= maxY; ++y) {
-                    for (int z = minZ; z <= maxZ; ++z) {
-                        Vector pt = new Vector(x, y, z);
-
-                        int id = getBlockType(pt);
-
-                        if (map.containsKey(id)) {
-                            map.get(id).increment();
-                        } else {
-                            Countable<Integer> c = new Countable<Integer>(id, 1);
-                            map.put(id, c);
-                            distribution.add(c);
-                        }
-                    }
-                }
-            }
-        } else {
-            for (Vector pt : region) {
-                int id = getBlockType(pt);
-
-                if (map.containsKey(id)) {
-                    map.get(id).increment();
-                } else {
-                    Countable<Integer> c = new Countable<Integer>(id, 1);
-                    map.put(id, c);
-                }
-            }
-        }
-
-        Collections.sort(distribution);
-        // Collections.reverse(distribution);
-
-        return distribution;
+        return RegionAnalysis.getDistribution(RegionAnalysis.count(world, region));
     }
 
     /**
@@ -2603,14 +3400,42 @@ public class EditSession {
      * @return height of highest block found or 'minY'
      */
     public int getHighestTerrainBlock(int x, int z, int minY, int maxY, boolean naturalOnly) {
-        for (int y = maxY; y >= minY; --y) {
-            Vector pt = new Vector(x, y, z);
-            int id = getBlockType(pt);
-            if (naturalOnly ? BlockType.isNaturalTerrainBlock(id) : !BlockType.canPassThrough(id)) {
+        int y = getHighestBlock(x, z, minY, maxY, naturalOnly
+                ? ColumnHeightIndex.Surface.NATURAL_TERRAIN
+                : ColumnHeightIndex.Surface.SOLID);
+        return y != -1 ? y : minY;
+    }
+
+    /**
+     * Returns the highest block of a column between two heights that is
+     * part of a surface. The height index answers right away when the
+     * highest block of the whole column is below maxY; otherwise the
+     * column is searched downwards from maxY.
+     *
+     * @param x
+     * @param z
+     * @param minY minimal height
+     * @param maxY maximal height
+     * @param surface
+     * @return height of highest block found or -1
+     */
+    private int getHighestBlock(int x, int z, int minY, int maxY,
+            ColumnHeightIndex.Surface surface) {
+        if (heightIndex == null) {
+            heightIndex = new ColumnHeightIndex(world);
+        }
+
+        int top = heightIndex.getHighest(x, z, surface);
+        if (top <= maxY) {
+            return top >= minY ? top : -1;
+        }
+
+        for (int y = maxY; y >= Math.max(0, minY); --y) {
+            if (surface.matches(getBlockType(new Vector(x, y, z)))) {
                 return y;
             }
         }
-        return minY;
+        return -1;
     }
 
     /**
@@ -2655,7 +3480,7 @@ public class EditSession {
      * @return
      */
     public int getBlockChangeCount() {
-        return original.size();
+        return changeCount;
     }
 
     /**
@@ -0,0 +1,310 @@
+// $Id$
+/*
+ * WorldEdit
+ * Copyright (C) 2010 sk89q <http://www.sk89q.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.sk89q.worldedit;
+
+/**
+ * Visits every block connected to a set of starting blocks that matches a
+ * predicate, without recursion. Blocks waiting to be visited are kept in a
+ * queue of packed positions and visited blocks are marked in a bit set
+ * covering a bounding box. The bit set is allocated a 16x16x16 section at
+ * a time, so only the parts of the box that are reached take memory.
+ * Blocks outside of the box are never visited.
+ *
+ * <p>A flood fill can only be run once.</p>
+ *
+ * @author sk89q
+ */
+public class FloodFill {
+    /**
+     * Which blocks count as neighbours.
+     */
+    public enum Connectivity {
+        /**
+         * The four blocks next to a block along the X and Z axes.
+         */
+        HORIZONTAL(new int[] {
+            1, 0, 0, -1, 0, 0, 0, 0, 1, 0, 0, -1
+        }),
+        /**
+         * The six blocks that share a face with a block.
+         */
+        FACES(new int[] {
+            1, 0, 0, -1, 0, 0, 0, 0, 1, 0, 0, -1, 0, 1, 0, 0, -1, 0
+        }),
+        /**
+         * All 26 blocks around a block.
+         */
+        ALL(allOffsets());
+
+        private final int[] offsets;
+
+        private Connectivity(int[] offsets) {
+            this.offsets = offsets;
+        }
+
+        private static int[] allOffsets() {
+            int[] offsets = new int[26 * 3];
+            int i = 0;
+            for (int x = -1; x <= 1; ++x) {
+                for (int y = -1; y <= 1; ++y) {
+                    for (int z = -1; z <= 1; ++z) {
+                        if (x != 0 || y != 0 || z != 0) {
+                            offsets[i++] = x;
+                            offsets[i++] = y;
+                            offsets[i++] = z;
+                        }
+                    }
+                }
+            }
+            return offsets;
+        }
+    }
+
+    /**
+     * Decides which blocks the fill goes through.
+     */
+    public interface Predicate {
+        /**
+         * Returns whether the block should be visited. Called at most once
+         * per block.
+         *
+         * @param x
+         * @param y
+         * @param z
+         * @return
+         */
+        public boolean matches(int x, int y, int z);
+    }
+
+    /**
+     * Called for every block the fill goes through.
+     */
+    public interface Action {
+        /**
+         * Visit a block.
+         *
+         * @param x
+         * @param y
+         * @param z
+         * @return true to continue to the neighbours of the block
+         * @throws MaxChangedBlocksException
+         */
+        public boolean visit(int x, int y, int z) throws MaxChangedBlocksException;
+    }
+
+    /**
+     * Largest size of the bounding box along one axis.
+     */
+    private static final int MAX_SIZE = 1 << 21;
+    private static final long COORD_MASK = MAX_SIZE - 1;
+
+    private final int minX;
+    private final int minY;
+    private final int minZ;
+    private final int sizeX;
+    private final int sizeY;
+    private final int sizeZ;
+    private final int sectionsX;
+    private final int sectionsZ;
+    private final long[][] visited;
+    private final int[] offsets;
+    private final Predicate predicate;
+    private long[] queue = new long[256];
+    private int head = 0;
+    private int tail = 0;
+    private int queued = 0;
+    private int visitedCount = 0;
+    private boolean ran = false;
+
+    /**
+     * Construct the flood fill.
+     *
+     * @param min minimum point of the bounding box
+     * @param max maximum point of the bounding box
+     * @param connectivity
+     * @param predicate
+     */
+    public FloodFill(Vector min, Vector max, Connectivity connectivity,
+            Predicate predicate) {
+        minX = min.getBlockX();
+        minY = min.getBlockY();
+        minZ = min.getBlockZ();
+        sizeX = max.getBlockX() - minX + 1;
+        sizeY = max.getBlockY() - minY + 1;
+        sizeZ = max.getBlockZ() - minZ + 1;
+
+        if (sizeX > MAX_SIZE || sizeY > MAX_SIZE || sizeZ > MAX_SIZE) {
+            throw new IllegalArgumentException("Flood fill area is too large");
+        }
+
+        sectionsX = Math.max(0, (sizeX + 15) >> 4);
+        sectionsZ = Math.max(0, (sizeZ + 15) >> 4);
+        long sections = (long) sectionsX * Math.max(0, (sizeY + 15) >> 4) * sectionsZ;
+
+        if (sections > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Flood fill area is too large");
+        }
+
+        this.visited = new long[(int) sections][];
+        this.offsets = connectivity.offsets;
+        this.predicate = predicate;
+    }
+
+    /**
+     * Create a flood fill through the blocks of one type that share a face
+     * and are within a radius of an origin, starting at the origin. Blocks
+     * are read through the edit session.
+     *
+     * @param editSession
+     * @param origin
+     * @param radius
+     * @param type
+     * @return
+     */
+    public static FloodFill withinRadius(final EditSession editSession,
+            final Vector origin, final double radius, final int type) {
+        int size = (int) Math.ceil(radius);
+        int maxY = editSession.getWorld().getHeight();
+
+        FloodFill fill = new FloodFill(
+                origin.subtract(size, 0, size).setY(Math.max(0, origin.getBlockY() - size)),
+                origin.add(size, 0, size).setY(Math.min(maxY, origin.getBlockY() + size)),
+                Connectivity.FACES, new Predicate() {
+                    public boolean matches(int x, int y, int z) {
+                        Vector pt = new Vector(x, y, z);
+                        return origin.distance(pt) <= radius
+                                && editSession.getBlockType(pt) == type;
+                    }
+                });
+        fill.addSeed(origin);
+        return fill;
+    }
+
+    /**
+     * Add a block to start from. It is only visited if it is inside the
+     * bounding box and matches the predicate.
+     *
+     * @param x
+     * @param y
+     * @param z
+     */
+    public void addSeed(int x, int y, int z) {
+        discover(x - minX, y - minY, z - minZ);
+    }
+
+    /**
+     * Add a block to start from.
+     *
+     * @param pt
+     */
+    public void addSeed(Vector pt) {
+        addSeed(pt.getBlockX(), pt.getBlockY(), pt.getBlockZ());
+    }
+
+    /**
+     * Visit every connected block that matches, in breadth-first order.
+     *
+     * @param action
+     * @throws MaxChangedBlocksException
+     */
+    public void run(Action action) throws MaxChangedBlocksException {
+        if (ran) {
+            throw new IllegalStateException("Flood fill has already run");
+        }
+        ran = true;
+
+        while (queued > 0) {
+            long pos = queue[head];
+            head = (head + 1) & (queue.length - 1);
+            --queued;
+
+            int lx = (int) (pos >>> 42);
+            int ly = (int) ((pos >>> 21) & COORD_MASK);
+            int lz = (int) (pos & COORD_MASK);
+
+            if (!action.visit(minX + lx, minY + ly, minZ + lz)) {
+                continue;
+            }
+
+            for (int i = 0; i < offsets.length; i += 3) {
+                discover(lx + offsets[i], ly + offsets[i + 1], lz + offsets[i + 2]);
+            }
+        }
+    }
+
+    /**
+     * Get the number of blocks that matched the predicate.
+     *
+     * @return
+     */
+    public int getVisitedCount() {
+        return visitedCount;
+    }
+
+    /**
+     * Mark a block as seen and queue it if it matches.
+     *
+     * @param lx relative to the minimum point
+     * @param ly relative to the minimum point
+     * @param lz relative to the minimum point
+     */
+    private void discover(int lx, int ly, int lz) {
+        if (lx < 0 || ly < 0 || lz < 0 || lx >= sizeX || ly >= sizeY || lz >= sizeZ) {
+            return;
+        }
+
+        int sectionIndex = ((ly >> 4) * sectionsZ + (lz >> 4)) * sectionsX + (lx >> 4);
+        long[] section = visited[sectionIndex];
+        if (section == null) {
+            section = new long[64];
+            visited[sectionIndex] = section;
+        }
+
+        int bit = ((ly & 15) << 8) | ((lz & 15) << 4) | (lx & 15);
+        long mask = 1L << (bit & 63);
+        if ((section[bit >> 6] & mask) != 0) {
+            return;
+        }
+        section[bit >> 6] |= mask;
+
+        if (!predicate.matches(minX + lx, minY + ly, minZ + lz)) {
+            return;
+        }
+
+        ++visitedCount;
+        enqueue(((long) lx << 42) | ((long) ly << 21) | lz);
+    }
+
+    private void enqueue(long pos) {
+        if (queued == queue.length) {
+            long[] newQueue = new long[queue.length << 1];
+            for (int i = 0; i < queued; ++i) {
+                newQueue[i] = queue[(head + i) & (queue.length - 1)];
+            }
+            queue = newQueue;
+            head = 0;
+            tail = queued;
+        }
+
+        queue[tail] = pos;
+        tail = (tail + 1) & (queue.length - 1);
+        ++queued;
+    }
+}
@@ -102,6 +102,20 @@ public abstract class LocalConfiguration {
     public String saveDir = "schematics";
     public String scriptsDir = "craftscripts";
     public boolean showFirstUseVersion = true;
+    public long historyMaxMemory = -1;
+    public boolean historyGlobalEviction = true;
+    public boolean historySpillOldest = false;
+    public boolean persistentHistory = false;
+    public String persistentHistoryDir = "history";
+    public int readCacheSections = 0;
+    public boolean scheduledEdits = false;
+    public int scheduledEditMinBlocks = 100000;
+    public int scheduledEditBlocksPerTick = 20000;
+    public long scheduledEditMaxTickTime = 25;
+    public boolean asyncCompute = false;
+    public int asyncComputeThreads = 0;
+    public long asyncComputeMaxVolume = 8000000;
+    public boolean asyncAnalysis = true;
     
     /**
      * Loads the configuration.
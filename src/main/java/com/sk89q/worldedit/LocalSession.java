@@ -19,9 +19,13 @@
 
 package com.sk89q.worldedit;
 
+import java.util.ArrayList;
 import java.util.Calendar;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.LinkedList;
+import java.util.List;
 import java.util.Map;
 import java.util.TimeZone;
 import com.sk89q.jchronic.Chronic;
@@ -37,6 +41,10 @@ import com.sk89q.worldedit.bags.BlockBag;
 import com.sk89q.worldedit.cui.CUIPointBasedRegion;
 import com.sk89q.worldedit.cui.CUIEvent;
 import com.sk89q.worldedit.cui.SelectionShapeEvent;
+import com.sk89q.worldedit.history.HistoryBudget;
+import com.sk89q.worldedit.history.HistoryStore;
+import com.sk89q.worldedit.history.JournalException;
+import com.sk89q.worldedit.history.StoredEditSession;
 import com.sk89q.worldedit.masks.Mask;
 import com.sk89q.worldedit.regions.CuboidRegionSelector;
 import com.sk89q.worldedit.regions.Region;
@@ -61,6 +69,11 @@ public class LocalSession {
     private boolean placeAtPos1 = false;
     private LinkedList<EditSession> history = new LinkedList<EditSession>();
     private int historyPointer = 0;
+    private HistoryBudget historyBudget;
+    private HistoryStore historyStore;
+    private String historyOwner;
+    private Map<EditSession, StoredEditSession> persisted =
+            new IdentityHashMap<EditSession, StoredEditSession>();
     private CuboidClipboard clipboard;
     private boolean toolControl = true;
     private boolean superPickaxe = false;
@@ -108,8 +121,78 @@ public class LocalSession {
      * Clear history.
      */
     public void clearHistory() {
+        for (EditSession editSession : history) {
+            editSession.dispose();
+        }
         history.clear();
+        persisted.clear();
         historyPointer = 0;
+        syncHistoryStore();
+    }
+
+    /**
+     * Free the history held in memory. History that was written to the
+     * history store stays available and is loaded from disk when needed;
+     * the rest is discarded.
+     */
+    public void releaseHistory() {
+        if (historyStore == null) {
+            clearHistory();
+            return;
+        }
+
+        for (int i = 0; i < history.size(); ++i) {
+            EditSession editSession = history.get(i);
+            StoredEditSession stored = persisted.remove(editSession);
+            if (stored != null) {
+                history.set(i, stored);
+                editSession.dispose();
+            }
+        }
+    }
+
+    /**
+     * Set the store that history is written to and load the history that
+     * was stored for this session before.
+     *
+     * @param historyStore store, or null to keep history in memory only
+     * @param owner name of the player whose history this is
+     */
+    public void setHistoryStore(HistoryStore historyStore, String owner) {
+        this.historyStore = historyStore;
+        this.historyOwner = owner;
+
+        if (historyStore != null && history.size() == 0) {
+            HistoryStore.StoredHistory stored = historyStore.loadIndex(owner);
+            if (stored != null) {
+                history.addAll(stored.getEntries());
+                historyPointer = stored.getPointer();
+            }
+        }
+    }
+
+    /**
+     * Write the current history order and undo pointer to the history store.
+     */
+    private void syncHistoryStore() {
+        if (historyStore == null) {
+            return;
+        }
+
+        List<StoredEditSession> entries = new ArrayList<StoredEditSession>();
+        int pointer = historyPointer;
+        for (int i = 0; i < history.size(); ++i) {
+            EditSession editSession = history.get(i);
+            StoredEditSession stored = editSession instanceof StoredEditSession
+                    ? (StoredEditSession) editSession
+                    : persisted.get(editSession);
+            if (stored != null) {
+                entries.add(stored);
+            } else if (i < historyPointer) {
+                --pointer;
+            }
+        }
+        historyStore.writeIndex(historyOwner, entries, pointer);
     }
 
     /**
@@ -124,13 +207,101 @@ public class LocalSession {
 
         // Destroy any sessions after this undo point
         while (historyPointer < history.size()) {
-            history.remove(historyPointer);
+            EditSession removed = history.remove(historyPointer);
+            persisted.remove(removed);
+            removed.dispose();
         }
         history.add(editSession);
+        editSession.releaseHistoryIndex();
+        if (historyStore != null) {
+            persisted.put(editSession, historyStore.append(historyOwner, editSession));
+        }
         while (history.size() > MAX_HISTORY_SIZE) {
-            history.remove(0);
+            EditSession removed = history.remove(0);
+            persisted.remove(removed);
+            removed.dispose();
         }
         historyPointer = history.size();
+        syncHistoryStore();
+
+        if (historyBudget != null) {
+            historyBudget.enforce(this);
+        }
+    }
+
+    /**
+     * Get the edit sessions in the history, oldest first.
+     *
+     * @return
+     */
+    public List<EditSession> getHistory() {
+        return Collections.unmodifiableList(history);
+    }
+
+    /**
+     * Remove an edit session from the history and release it.
+     *
+     * @param editSession
+     * @return whether the edit session was in the history
+     */
+    public boolean removeHistory(EditSession editSession) {
+        int index = history.indexOf(editSession);
+        if (index == -1) {
+            return false;
+        }
+
+        // Stored history only has to leave memory, not the history
+        StoredEditSession stored = persisted.remove(editSession);
+        if (stored != null) {
+            history.set(index, stored);
+            editSession.dispose();
+            return true;
+        }
+
+        history.remove(index);
+        if (index < historyPointer) {
+            --historyPointer;
+        }
+        editSession.dispose();
+        syncHistoryStore();
+        return true;
+    }
+
+    /**
+     * Get a rough estimate of the number of bytes of heap used by the
+     * history of this session.
+     *
+     * @return
+     */
+    public long getHistoryMemoryUsage() {
+        long usage = 0;
+        for (EditSession editSession : history) {
+            usage += editSession.getEstimatedMemoryUsage();
+        }
+        return usage;
+    }
+
+    /**
+     * Get the number of bytes of history of this session that were written
+     * to disk.
+     *
+     * @return
+     */
+    public long getHistoryDiskUsage() {
+        long usage = 0;
+        for (EditSession editSession : history) {
+            usage += editSession.getHistoryDiskUsage();
+        }
+        return usage;
+    }
+
+    /**
+     * Set the history budget that this session's history counts against.
+     *
+     * @param historyBudget budget or null
+     */
+    public void setHistoryBudget(HistoryBudget historyBudget) {
+        this.historyBudget = historyBudget;
     }
 
     /**
@@ -147,7 +318,13 @@ public class LocalSession {
                     new EditSession(editSession.getWorld(), -1, newBlockBag);
             newEditSession.enableQueue();
             newEditSession.setFastMode(fastMode);
-            editSession.undo(newEditSession);
+            try {
+                editSession.undo(newEditSession);
+            } catch (JournalException e) {
+                ++historyPointer;
+                throw e;
+            }
+            syncHistoryStore();
             return editSession;
         } else {
             historyPointer = 0;
@@ -170,6 +347,7 @@ public class LocalSession {
             newEditSession.setFastMode(fastMode);
             editSession.redo(newEditSession);
             ++historyPointer;
+            syncHistoryStore();
             return editSession;
         }
 
@@ -645,6 +823,9 @@ public class LocalSession {
                         getBlockChangeLimit(), blockBag);
         editSession.setFastMode(fastMode);
         editSession.setMask(mask);
+        if (config.readCacheSections > 0) {
+            editSession.enableReadCache(config.readCacheSections);
+        }
 
         return editSession;
     }
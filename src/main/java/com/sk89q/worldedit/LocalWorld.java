@@ -122,6 +122,103 @@ public abstract class LocalWorld {
      */
     public abstract int getBlockData(Vector pt);
 
+    /**
+     * Apply a chunk's worth of buffered block changes in one pass. Types
+     * and data are written together. The default implementation sets each
+     * block individually; implementations should override it to resolve the
+     * chunk once and to update lighting and notify clients once per chunk
+     * where they can.
+     * 
+     * @param changes
+     * @param applyPhysics false to skip physics, as the fast methods do
+     */
+    public void setBlocks(ChunkChangeBuffer changes, boolean applyPhysics) {
+        for (int i = 0; i < changes.size(); ++i) {
+            Vector pt = changes.getPosition(i);
+            if (applyPhysics) {
+                setTypeIdAndData(pt, changes.getType(i), changes.getData(i));
+            } else {
+                setTypeIdAndDataFast(pt, changes.getType(i), changes.getData(i));
+            }
+        }
+    }
+
+    /**
+     * Read the types and, optionally, the data values of every block in a
+     * cuboid into the given arrays. Blocks are stored at the index
+     * <code>(y - minY) * width * length + (z - minZ) * width + (x - minX)</code>,
+     * where width is along the X axis and length along the Z axis.
+     * The default implementation reads one chunk column at a time through
+     * {@link #getBlockType(Vector)} and {@link #getBlockData(Vector)};
+     * implementations with access to chunk data should override it.
+     * 
+     * @param min minimum point, inclusive
+     * @param max maximum point, inclusive
+     * @param types array of at least width * height * length entries
+     * @param data array of the same size, or null to skip data values
+     */
+    public void getBlocks(Vector min, Vector max, short[] types, byte[] data) {
+        int minX = min.getBlockX();
+        int minY = min.getBlockY();
+        int minZ = min.getBlockZ();
+        int maxX = max.getBlockX();
+        int maxY = max.getBlockY();
+        int maxZ = max.getBlockZ();
+        int width = maxX - minX + 1;
+        int length = maxZ - minZ + 1;
+
+        checkBlockArrays(min, max, types, data);
+
+        for (int cx = minX >> 4; cx <= maxX >> 4; ++cx) {
+            for (int cz = minZ >> 4; cz <= maxZ >> 4; ++cz) {
+                int x0 = Math.max(minX, cx << 4);
+                int x1 = Math.min(maxX, (cx << 4) + 15);
+                int z0 = Math.max(minZ, cz << 4);
+                int z1 = Math.min(maxZ, (cz << 4) + 15);
+
+                for (int y = minY; y <= maxY; ++y) {
+                    for (int z = z0; z <= z1; ++z) {
+                        int index = (y - minY) * width * length
+                                + (z - minZ) * width + (x0 - minX);
+                        for (int x = x0; x <= x1; ++x, ++index) {
+                            Vector pt = new Vector(x, y, z);
+                            types[index] = (short) getBlockType(pt);
+                            if (data != null) {
+                                data[index] = (byte) getBlockData(pt);
+                            }
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Checks that the arrays passed to
+     * {@link #getBlocks(Vector, Vector, short[], byte[])} are large enough.
+     * 
+     * @param min
+     * @param max
+     * @param types
+     * @param data
+     */
+    protected static void checkBlockArrays(Vector min, Vector max,
+            short[] types, byte[] data) {
+        int width = max.getBlockX() - min.getBlockX() + 1;
+        int height = max.getBlockY() - min.getBlockY() + 1;
+        int length = max.getBlockZ() - min.getBlockZ() + 1;
+
+        if (width <= 0 || height <= 0 || length <= 0) {
+            throw new IllegalArgumentException("Maximum point is below minimum point");
+        }
+
+        long volume = (long) width * height * length;
+        if (types.length < volume || (data != null && data.length < volume)) {
+            throw new IllegalArgumentException("Arrays too small for "
+                    + volume + " blocks");
+        }
+    }
+
     /**
      * Get block light level.
      * 
@@ -0,0 +1,541 @@
+// $Id$
+/*
+ * WorldEdit
+ * Copyright (C) 2010 sk89q <http://www.sk89q.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.sk89q.worldedit;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import com.sk89q.jnbt.CompoundTag;
+import com.sk89q.jnbt.ListTag;
+import com.sk89q.jnbt.StringTag;
+import com.sk89q.jnbt.Tag;
+import com.sk89q.worldedit.blocks.BaseBlock;
+import com.sk89q.worldedit.blocks.BaseItemStack;
+import com.sk89q.worldedit.blocks.TileEntityBlock;
+import com.sk89q.worldedit.data.Chunk;
+import com.sk89q.worldedit.data.ChunkStore;
+import com.sk89q.worldedit.data.DataException;
+import com.sk89q.worldedit.data.MissingChunkException;
+import com.sk89q.worldedit.regions.Region;
+
+/**
+ * A world that only exists in memory, so that edits can be run and
+ * measured without a server. Block types and data are kept in a pair of
+ * arrays per chunk, created when a block in the chunk is first set; blocks
+ * in other chunks read as air. Tile entity data is kept as NBT. Chunks can
+ * be loaded from a {@link ChunkStore}, such as a folder of MCRegion files.
+ *
+ * <p>There are no physics, lighting, entities or world generation; the
+ * methods for those do nothing.</p>
+ *
+ * @author sk89q
+ */
+public class MemoryWorld extends LocalWorld {
+    private final String name;
+    private final int height;
+    private final Map<Long, MemoryChunk> chunks = new HashMap<Long, MemoryChunk>();
+    private final Map<BlockVector, Map<String, Tag>> tileEntities =
+            new HashMap<BlockVector, Map<String, Tag>>();
+    private MemoryChunk last;
+
+    /**
+     * Construct an empty world that is 128 blocks high.
+     *
+     * @param name
+     */
+    public MemoryWorld(String name) {
+        this(name, 128);
+    }
+
+    /**
+     * Construct an empty world.
+     *
+     * @param name
+     * @param height number of blocks along the Y axis
+     */
+    public MemoryWorld(String name, int height) {
+        if (height < 1) {
+            throw new IllegalArgumentException("Height must be at least 1");
+        }
+
+        this.name = name;
+        this.height = height;
+    }
+
+    private static long key(int chunkX, int chunkZ) {
+        return ((long) chunkX << 32) | (chunkZ & 0xFFFFFFFFL);
+    }
+
+    /**
+     * Get the chunk containing a column.
+     *
+     * @param x
+     * @param z
+     * @param create true to create the chunk if it does not exist
+     * @return chunk, or null
+     */
+    private MemoryChunk getChunk(int x, int z, boolean create) {
+        int cx = x >> 4;
+        int cz = z >> 4;
+
+        MemoryChunk chunk = last;
+        if (chunk != null && chunk.x == cx && chunk.z == cz) {
+            return chunk;
+        }
+
+        chunk = chunks.get(key(cx, cz));
+        if (chunk == null) {
+            if (!create) {
+                return null;
+            }
+            chunk = new MemoryChunk(cx, cz, height);
+            chunks.put(key(cx, cz), chunk);
+        }
+
+        last = chunk;
+        return chunk;
+    }
+
+    private static int index(int x, int y, int z) {
+        return (y << 8) | ((z & 15) << 4) | (x & 15);
+    }
+
+    /**
+     * Get the type of a block.
+     *
+     * @param x
+     * @param y
+     * @param z
+     * @return
+     */
+    public int getBlockType(int x, int y, int z) {
+        if (y < 0 || y >= height) {
+            return 0;
+        }
+
+        MemoryChunk chunk = getChunk(x, z, false);
+        return chunk == null ? 0 : chunk.types[index(x, y, z)] & 0xFFFF;
+    }
+
+    /**
+     * Get the data value of a block.
+     *
+     * @param x
+     * @param y
+     * @param z
+     * @return
+     */
+    public int getBlockData(int x, int y, int z) {
+        if (y < 0 || y >= height) {
+            return 0;
+        }
+
+        MemoryChunk chunk = getChunk(x, z, false);
+        return chunk == null ? 0 : chunk.data[index(x, y, z)] & 0xF;
+    }
+
+    /**
+     * Set the type and data value of a block. Tile entity data is dropped
+     * when the type changes.
+     *
+     * @param x
+     * @param y
+     * @param z
+     * @param type
+     * @param data
+     * @return whether the block changed
+     */
+    public boolean setBlock(int x, int y, int z, int type, int data) {
+        if (y < 0 || y >= height) {
+            return false;
+        }
+
+        MemoryChunk chunk = getChunk(x, z, true);
+        int index = index(x, y, z);
+        boolean typeChanged = chunk.types[index] != (short) type;
+        boolean changed = typeChanged || chunk.data[index] != (byte) (data & 0xF);
+
+        chunk.types[index] = (short) type;
+        chunk.data[index] = (byte) (data & 0xF);
+
+        if (typeChanged && !tileEntities.isEmpty()) {
+            tileEntities.remove(new BlockVector(x, y, z));
+        }
+
+        return changed;
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Set the type of a block. As on a server, the data value is reset.
+     *
+     * @param pt
+     * @param type
+     * @return whether the block changed
+     */
+    @Override
+    public boolean setBlockType(Vector pt, int type) {
+        return setBlock(pt.getBlockX(), pt.getBlockY(), pt.getBlockZ(), type, 0);
+    }
+
+    @Override
+    public int getBlockType(Vector pt) {
+        return getBlockType(pt.getBlockX(), pt.getBlockY(), pt.getBlockZ());
+    }
+
+    @Override
+    public void setBlockData(Vector pt, int data) {
+        int x = pt.getBlockX();
+        int y = pt.getBlockY();
+        int z = pt.getBlockZ();
+        setBlock(x, y, z, getBlockType(x, y, z), data);
+    }
+
+    @Override
+    public void setBlockDataFast(Vector pt, int data) {
+        setBlockData(pt, data);
+    }
+
+    @Override
+    public boolean setTypeIdAndData(Vector pt, int type, int data) {
+        return setBlock(pt.getBlockX(), pt.getBlockY(), pt.getBlockZ(), type, data);
+    }
+
+    @Override
+    public boolean setTypeIdAndDataFast(Vector pt, int type, int data) {
+        return setTypeIdAndData(pt, type, data);
+    }
+
+    @Override
+    public int getBlockData(Vector pt) {
+        return getBlockData(pt.getBlockX(), pt.getBlockY(), pt.getBlockZ());
+    }
+
+    @Override
+    public void setBlocks(ChunkChangeBuffer changes, boolean applyPhysics) {
+        int baseX = changes.getChunkX() << 4;
+        int baseZ = changes.getChunkZ() << 4;
+
+        for (int i = 0; i < changes.size(); ++i) {
+            setBlock(baseX + changes.getLocalX(i), changes.getY(i),
+                    baseZ + changes.getLocalZ(i),
+                    changes.getType(i), changes.getData(i));
+        }
+    }
+
+    @Override
+    public void getBlocks(Vector min, Vector max, short[] types, byte[] data) {
+        int minX = min.getBlockX();
+        int minY = min.getBlockY();
+        int minZ = min.getBlockZ();
+        int maxX = max.getBlockX();
+        int maxY = max.getBlockY();
+        int maxZ = max.getBlockZ();
+        int width = maxX - minX + 1;
+        int length = maxZ - minZ + 1;
+
+        checkBlockArrays(min, max, types, data);
+
+        for (int cx = minX >> 4; cx <= maxX >> 4; ++cx) {
+            for (int cz = minZ >> 4; cz <= maxZ >> 4; ++cz) {
+                int x0 = Math.max(minX, cx << 4);
+                int x1 = Math.min(maxX, (cx << 4) + 15);
+                int z0 = Math.max(minZ, cz << 4);
+                int z1 = Math.min(maxZ, (cz << 4) + 15);
+                int rowLength = x1 - x0 + 1;
+                MemoryChunk chunk = chunks.get(key(cx, cz));
+
+                for (int y = minY; y <= maxY; ++y) {
+                    boolean empty = chunk == null || y < 0 || y >= height;
+
+                    for (int z = z0; z <= z1; ++z) {
+                        int index = (y - minY) * width * length
+                                + (z - minZ) * width + (x0 - minX);
+
+                        if (empty) {
+                            for (int i = 0; i < rowLength; ++i) {
+                                types[index + i] = 0;
+                                if (data != null) {
+                                    data[index + i] = 0;
+                                }
+                            }
+                        } else {
+                            int from = index(x0, y, z);
+                            System.arraycopy(chunk.types, from, types, index, rowLength);
+                            if (data != null) {
+                                System.arraycopy(chunk.data, from, data, index, rowLength);
+                            }
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    @Override
+    public int getBlockLightLevel(Vector pt) {
+        return 15;
+    }
+
+    @Override
+    public boolean regenerate(Region region, EditSession editSession) {
+        return false;
+    }
+
+    @Override
+    public boolean copyToWorld(Vector pt, BaseBlock block) {
+        if (!(block instanceof TileEntityBlock)) {
+            return false;
+        }
+
+        TileEntityBlock tileEntityBlock = (TileEntityBlock) block;
+        Map<String, Tag> values = new HashMap<String, Tag>();
+
+        try {
+            Map<String, Tag> blockValues = tileEntityBlock.toTileEntityNBT();
+            if (blockValues != null) {
+                values.putAll(blockValues);
+            }
+        } catch (DataException e) {
+            return false;
+        }
+
+        values.put("id", new StringTag("id", tileEntityBlock.getTileEntityID()));
+        tileEntities.put(pt.toBlockVector(), values);
+        return true;
+    }
+
+    @Override
+    public boolean copyFromWorld(Vector pt, BaseBlock block) {
+        if (!(block instanceof TileEntityBlock)) {
+            return false;
+        }
+
+        Map<String, Tag> values = tileEntities.get(pt.toBlockVector());
+        if (values == null) {
+            return false;
+        }
+
+        try {
+            ((TileEntityBlock) block).fromTileEntityNBT(values);
+            return true;
+        } catch (DataException e) {
+            return false;
+        }
+    }
+
+    @Override
+    public boolean clearContainerBlockContents(Vector pt) {
+        Map<String, Tag> values = tileEntities.get(pt.toBlockVector());
+        if (values == null || !values.containsKey("Items")) {
+            return false;
+        }
+
+        values.put("Items", new ListTag("Items", CompoundTag.class,
+                new ArrayList<Tag>()));
+        return true;
+    }
+
+    /**
+     * Get the number of blocks with tile entity data.
+     *
+     * @return
+     */
+    public int getTileEntityCount() {
+        return tileEntities.size();
+    }
+
+    /**
+     * Get the number of chunks held in memory.
+     *
+     * @return
+     */
+    public int getChunkCount() {
+        return chunks.size();
+    }
+
+    /**
+     * Remove every block and tile entity.
+     */
+    public void clear() {
+        chunks.clear();
+        tileEntities.clear();
+        last = null;
+    }
+
+    /**
+     * Load a chunk from a chunk store, replacing the blocks and tile entities
+     * in that chunk. The chunk is looked up under the name of this world.
+     *
+     * @param store
+     * @param position chunk coordinates
+     * @throws DataException
+     * @throws IOException
+     */
+    public void loadChunk(ChunkStore store, Vector2D position)
+            throws DataException, IOException {
+        Chunk chunk = store.getChunk(position, name);
+        int cx = position.getBlockX();
+        int cz = position.getBlockZ();
+        int baseX = cx << 4;
+        int baseZ = cz << 4;
+
+        Iterator<BlockVector> it = tileEntities.keySet().iterator();
+        while (it.hasNext()) {
+            BlockVector pt = it.next();
+            if (pt.getBlockX() >> 4 == cx && pt.getBlockZ() >> 4 == cz) {
+                it.remove();
+            }
+        }
+
+        MemoryChunk target = new MemoryChunk(cx, cz, height);
+        int maxY = Math.min(height, 128);
+
+        for (int x = 0; x < 16; ++x) {
+            for (int z = 0; z < 16; ++z) {
+                for (int y = 0; y < maxY; ++y) {
+                    Vector pt = new Vector(baseX + x, y, baseZ + z);
+                    int type = chunk.getBlockID(pt) & 0xFF;
+                    int index = index(x, y, z);
+
+                    target.types[index] = (short) type;
+                    target.data[index] = (byte) chunk.getBlockData(pt);
+
+                    if (EditSession.hasTileEntity(type)) {
+                        copyToWorld(pt, chunk.getBlock(pt));
+                    }
+                }
+            }
+        }
+
+        chunks.put(key(cx, cz), target);
+        last = null;
+    }
+
+    /**
+     * Load every chunk in a rectangle of chunks from a chunk store. Chunks
+     * that do not exist in the store are left empty.
+     *
+     * @param store
+     * @param min minimum chunk coordinates
+     * @param max maximum chunk coordinates
+     * @return number of chunks loaded
+     * @throws DataException
+     * @throws IOException
+     */
+    public int loadChunks(ChunkStore store, Vector2D min, Vector2D max)
+            throws DataException, IOException {
+        int loaded = 0;
+
+        for (int cx = min.getBlockX(); cx <= max.getBlockX(); ++cx) {
+            for (int cz = min.getBlockZ(); cz <= max.getBlockZ(); ++cz) {
+                try {
+                    loadChunk(store, new Vector2D(cx, cz));
+                    ++loaded;
+                } catch (MissingChunkException e) {
+                }
+            }
+        }
+
+        return loaded;
+    }
+
+    @Override
+    public boolean generateTree(EditSession editSession, Vector pt) {
+        return false;
+    }
+
+    @Override
+    public boolean generateBigTree(EditSession editSession, Vector pt) {
+        return false;
+    }
+
+    @Override
+    public boolean generateBirchTree(EditSession editSession, Vector pt) {
+        return false;
+    }
+
+    @Override
+    public boolean generateRedwoodTree(EditSession editSession, Vector pt) {
+        return false;
+    }
+
+    @Override
+    public boolean generateTallRedwoodTree(EditSession editSession, Vector pt) {
+        return false;
+    }
+
+    @Override
+    public void dropItem(Vector pt, BaseItemStack item) {
+    }
+
+    @Override
+    public int killMobs(Vector origin, int radius) {
+        return 0;
+    }
+
+    @Override
+    public int killMobs(Vector origin, int radius, boolean killPets) {
+        return 0;
+    }
+
+    @Override
+    public int removeEntities(EntityType type, Vector origin, int radius) {
+        return 0;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        return other == this;
+    }
+
+    @Override
+    public int hashCode() {
+        return System.identityHashCode(this);
+    }
+
+    @Override
+    public int getHeight() {
+        return height - 1;
+    }
+
+    /**
+     * The blocks of a chunk, indexed by <code>y &lt;&lt; 8 | z &lt;&lt; 4 | x</code>.
+     */
+    private static class MemoryChunk {
+        final int x;
+        final int z;
+        final short[] types;
+        final byte[] data;
+
+        MemoryChunk(int x, int z, int height) {
+            this.x = x;
+            this.z = z;
+            this.types = new short[height << 8];
+            this.data = new byte[height << 8];
+        }
+    }
+}
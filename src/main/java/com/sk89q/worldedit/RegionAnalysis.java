@@ -0,0 +1,301 @@
+// $Id$
+/*
+ * WorldEdit
+ * Copyright (C) 2010 sk89q <http://www.sk89q.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.sk89q.worldedit;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import com.sk89q.worldedit.regions.CuboidRegion;
+import com.sk89q.worldedit.regions.Polygonal2DRegion;
+import com.sk89q.worldedit.regions.Region;
+
+/**
+ * A copy of the block types inside a region, taken one chunk section at a
+ * time, that is counted into a histogram indexed by block type. The copy
+ * has to be taken on the thread that may read the world. The sections are
+ * never changed afterwards, so they can be counted on any number of threads.
+ *
+ * <p>Cuboids are copied as they are. For polygons, which columns are inside
+ * is worked out once per column rather than once per block, and chunks with
+ * no column inside are not copied at all. Other regions are checked block
+ * by block while copying, skipping the chunks they are not in.</p>
+ *
+ * @author sk89q
+ */
+public class RegionAnalysis {
+    /**
+     * Length of a histogram; block types are masked to fit.
+     */
+    public static final int TYPES = 4096;
+
+    private final List<Section> sections = new ArrayList<Section>();
+
+    /**
+     * Copy the blocks of a region.
+     *
+     * @param world
+     * @param region
+     */
+    public RegionAnalysis(LocalWorld world, Region region) {
+        capture(world, region, new SectionHandler() {
+            public void handle(Section section) {
+                sections.add(section);
+            }
+        });
+    }
+
+    /**
+     * Count the blocks of a region right away, without keeping a copy.
+     *
+     * @param world
+     * @param region
+     * @return histogram of block types
+     */
+    public static int[] count(LocalWorld world, Region region) {
+        final int[] histogram = new int[TYPES];
+        capture(world, region, new SectionHandler() {
+            public void handle(Section section) {
+                section.count(histogram);
+            }
+        });
+        return histogram;
+    }
+
+    /**
+     * Get the number of sections that were copied.
+     *
+     * @return
+     */
+    public int getSectionCount() {
+        return sections.size();
+    }
+
+    /**
+     * Add the blocks of one section to a histogram.
+     *
+     * @param index
+     * @param histogram array of {@link #TYPES} counts
+     */
+    public void countSection(int index, int[] histogram) {
+        sections.get(index).count(histogram);
+    }
+
+    /**
+     * Count every section.
+     *
+     * @return histogram of block types
+     */
+    public int[] count() {
+        int[] histogram = new int[TYPES];
+        for (Section section : sections) {
+            section.count(histogram);
+        }
+        return histogram;
+    }
+
+    /**
+     * Get the number of blocks in a histogram that are of one of the
+     * given types.
+     *
+     * @param histogram
+     * @param types
+     * @return
+     */
+    public static int countTypes(int[] histogram, Set<Integer> types) {
+        int count = 0;
+        for (int type : types) {
+            if (type >= 0 && type < histogram.length) {
+                count += histogram[type];
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Turn a histogram into a sorted list of the types that were found.
+     *
+     * @param histogram
+     * @return
+     */
+    public static List<Countable<Integer>> getDistribution(int[] histogram) {
+        List<Countable<Integer>> distribution = new ArrayList<Countable<Integer>>();
+
+        for (int id = 0; id < histogram.length; ++id) {
+            if (histogram[id] > 0) {
+                distribution.add(new Countable<Integer>(id, histogram[id]));
+            }
+        }
+
+        Collections.sort(distribution);
+        return distribution;
+    }
+
+    /**
+     * Go through the sections of a region, copying each one.
+     *
+     * @param world
+     * @param region
+     * @param handler
+     */
+    private static void capture(LocalWorld world, Region region,
+            SectionHandler handler) {
+        Vector min = region.getMinimumPoint();
+        Vector max = region.getMaximumPoint();
+
+        int minX = min.getBlockX();
+        int minY = min.getBlockY();
+        int minZ = min.getBlockZ();
+        int maxX = max.getBlockX();
+        int maxY = max.getBlockY();
+        int maxZ = max.getBlockZ();
+
+        Polygonal2DRegion polygon = null;
+        if (region instanceof Polygonal2DRegion) {
+            polygon = (Polygonal2DRegion) region;
+        }
+
+        boolean cuboid = region instanceof CuboidRegion;
+
+        Set<Vector2D> chunks = null;
+        if (!cuboid && polygon == null) {
+            chunks = region.getChunks();
+        }
+
+        for (int cx = minX >> 4; cx <= maxX >> 4; ++cx) {
+            for (int cz = minZ >> 4; cz <= maxZ >> 4; ++cz) {
+                if (chunks != null && !chunks.contains(new BlockVector2D(cx, cz))) {
+                    continue;
+                }
+
+                int x0 = Math.max(minX, cx << 4);
+                int x1 = Math.min(maxX, (cx << 4) + 15);
+                int z0 = Math.max(minZ, cz << 4);
+                int z1 = Math.min(maxZ, (cz << 4) + 15);
+                int width = x1 - x0 + 1;
+                int length = z1 - z0 + 1;
+
+                boolean[] columns = null;
+                if (polygon != null) {
+                    columns = new boolean[width * length];
+                    int inside = 0;
+
+                    for (int z = z0; z <= z1; ++z) {
+                        for (int x = x0; x <= x1; ++x) {
+                            if (polygon.contains(new Vector(x, minY, z))) {
+                                columns[(z - z0) * width + (x - x0)] = true;
+                                ++inside;
+                            }
+                        }
+                    }
+
+                    if (inside == 0) {
+                        continue;
+                    } else if (inside == columns.length) {
+                        columns = null;
+                    }
+                }
+
+                for (int y0 = minY; y0 <= maxY; y0 = (y0 | 15) + 1) {
+                    int y1 = Math.min(maxY, y0 | 15);
+                    int height = y1 - y0 + 1;
+
+                    short[] types = new short[width * length * height];
+                    world.getBlocks(new Vector(x0, y0, z0), new Vector(x1, y1, z1),
+                            types, null);
+
+                    boolean[] blocks = null;
+                    if (!cuboid && polygon == null) {
+                        blocks = new boolean[types.length];
+                        int i = 0;
+                        for (int y = y0; y <= y1; ++y) {
+                            for (int z = z0; z <= z1; ++z) {
+                                for (int x = x0; x <= x1; ++x) {
+                                    blocks[i++] = region.contains(new Vector(x, y, z));
+                                }
+                            }
+                        }
+                    }
+
+                    handler.handle(new Section(width * length, types, columns, blocks));
+                }
+            }
+        }
+    }
+
+    /**
+     * Receives the sections of a region as they are copied.
+     */
+    private interface SectionHandler {
+        public void handle(Section section);
+    }
+
+    /**
+     * The block types of a chunk section, or the part of it in the region,
+     * stored in y, z, x order.
+     */
+    private static class Section {
+        private final int area;
+        private final short[] types;
+        private final boolean[] columns;
+        private final boolean[] blocks;
+
+        /**
+         * Construct the section.
+         *
+         * @param area number of columns
+         * @param types
+         * @param columns which columns are inside, or null for all
+         * @param blocks which blocks are inside, or null for all
+         */
+        Section(int area, short[] types, boolean[] columns, boolean[] blocks) {
+            this.area = area;
+            this.types = types;
+            this.columns = columns;
+            this.blocks = blocks;
+        }
+
+        void count(int[] histogram) {
+            int mask = histogram.length - 1;
+
+            if (blocks != null) {
+                for (int i = 0; i < types.length; ++i) {
+                    if (blocks[i]) {
+                        ++histogram[types[i] & mask];
+                    }
+                }
+            } else if (columns != null) {
+                for (int column = 0; column < area; ++column) {
+                    if (!columns[column]) {
+                        continue;
+                    }
+
+                    for (int i = column; i < types.length; i += area) {
+                        ++histogram[types[i] & mask];
+                    }
+                }
+            } else {
+                for (int i = 0; i < types.length; ++i) {
+                    ++histogram[types[i] & mask];
+                }
+            }
+        }
+    }
+}
@@ -44,4 +44,34 @@ public abstract class ServerInterface {
      * Reload WorldEdit configuration.
      */
     public abstract void reload();
+
+    /**
+     * Get a loaded world by name.
+     *
+     * @param name
+     * @return world, or null if there is no such world
+     */
+    public LocalWorld getWorld(String name) {
+        return null;
+    }
+
+    /**
+     * Schedule a task to run repeatedly on the main server thread.
+     *
+     * @param delay ticks before the first run
+     * @param period ticks between runs
+     * @param task
+     * @return task ID, or -1 if tasks cannot be scheduled
+     */
+    public int schedule(long delay, long period, Runnable task) {
+        return -1;
+    }
+
+    /**
+     * Cancel a task started with {@link #schedule(long, long, Runnable)}.
+     *
+     * @param id
+     */
+    public void cancelTask(int id) {
+    }
 }
@@ -32,7 +32,10 @@ import com.sk89q.util.StringUtil;
 import com.sk89q.worldedit.bags.BlockBag;
 import com.sk89q.worldedit.blocks.*;
 import com.sk89q.worldedit.commands.*;
+import com.sk89q.worldedit.history.HistoryBudget;
+import com.sk89q.worldedit.history.HistoryStore;
 import com.sk89q.worldedit.regions.RegionSelector;
+import com.sk89q.worldedit.scheduler.EditScheduler;
 import com.sk89q.worldedit.scripting.*;
 import com.sk89q.worldedit.tools.*;
 import com.sk89q.worldedit.masks.*;
@@ -81,6 +84,21 @@ public class WorldEdit {
      */
     private HashMap<String,LocalSession> sessions = new HashMap<String,LocalSession>();
     
+    /**
+     * Memory budget shared by the history of all sessions.
+     */
+    private HistoryBudget historyBudget;
+    
+    /**
+     * Store for history that outlives sessions, or null if disabled.
+     */
+    private HistoryStore historyStore;
+    
+    /**
+     * Applies large edits over several ticks.
+     */
+    private EditScheduler editScheduler;
+    
     /**
      * Initialize statically.
      */
@@ -97,6 +115,8 @@ public class WorldEdit {
     public WorldEdit(ServerInterface server, final LocalConfiguration config) {
         this.server = server;
         this.config = config;
+        this.historyBudget = new HistoryBudget(config, sessions);
+        this.editScheduler = new EditScheduler(server, config);
         
         commands = new CommandsManager<LocalPlayer>() {
             @Override
@@ -155,6 +175,14 @@ public class WorldEdit {
                     }
                     logger.info(msg);
                 }
+
+                // Place the rest of the session's earlier edits first if
+                // this command reads or changes blocks, so that it sees them
+                if (method.isAnnotationPresent(Logging.class)
+                        || method.isAnnotationPresent(ReadsWorld.class)) {
+                    editScheduler.finish(getSession(player));
+                }
+
                 super.invokeMethod(parent, args, player, method, instance, methodArgs, level);
             }
         };
@@ -184,6 +212,34 @@ public class WorldEdit {
         return sessions.get(player);
     }
 
+    /**
+     * Gets the LocalSession for a player name, loading the player's stored
+     * history into a new session if the player has no session.
+     *
+     * @param player
+     * @return The session for the player, or null if the player has no
+     *     session and no stored history
+     */
+    public LocalSession getSessionOrStoredHistory(String player) {
+        synchronized (sessions) {
+            LocalSession session = sessions.get(player);
+            if (session != null) {
+                return session;
+            }
+
+            HistoryStore store = getHistoryStore();
+            if (store == null || store.loadIndex(player) == null) {
+                return null;
+            }
+
+            session = new LocalSession(config);
+            session.setHistoryBudget(historyBudget);
+            session.setHistoryStore(store, player);
+            sessions.put(player, session);
+            return session;
+        }
+    }
+
     /**
      * Gets the WorldEdit session for a player.
      *
@@ -199,6 +255,8 @@ public class WorldEdit {
             }
             
             session = new LocalSession(config);
+            session.setHistoryBudget(historyBudget);
+            session.setHistoryStore(getHistoryStore(), player.getName());
             
             // Set the limit on the number of blocks that an operation can
             // change at once, or don't if the player has an override or there
@@ -920,7 +978,65 @@ public class WorldEdit {
      */
     public void removeSession(LocalPlayer player) {
         synchronized (sessions) {
-            sessions.remove(player.getName());
+            LocalSession session = sessions.remove(player.getName());
+            if (session != null) {
+                session.releaseHistory();
+            }
+        }
+    }
+
+    /**
+     * Get a copy of all sessions, keyed by players' names.
+     * 
+     * @return
+     */
+    public Map<String, LocalSession> getSessions() {
+        synchronized (sessions) {
+            return new HashMap<String, LocalSession>(sessions);
+        }
+    }
+
+    /**
+     * Get the memory budget shared by the history of all sessions.
+     * 
+     * @return
+     */
+    public HistoryBudget getHistoryBudget() {
+        return historyBudget;
+    }
+
+    /**
+     * Get the store for history that outlives sessions.
+     * 
+     * @return store, or null if persistent history is disabled
+     */
+    public HistoryStore getHistoryStore() {
+        if (!config.persistentHistory) {
+            return null;
+        }
+        if (historyStore == null) {
+            historyStore = new HistoryStore(
+                    getWorkingDirectoryFile(config.persistentHistoryDir), server);
+        }
+        return historyStore;
+    }
+
+    /**
+     * Get the scheduler that applies large edits over several ticks.
+     * 
+     * @return
+     */
+    public EditScheduler getEditScheduler() {
+        return editScheduler;
+    }
+
+    /**
+     * Wait for stored history to be written and stop the history store.
+     */
+    public void closeHistoryStore() {
+        if (historyStore != null) {
+            historyStore.close();
+            historyStore = null;
         }
     }
 
@@ -929,6 +1045,9 @@ public class WorldEdit {
      */
     public void clearSessions() {
         synchronized (sessions) {
+            for (LocalSession session : sessions.values()) {
+                session.releaseHistory();
+            }
             sessions.clear();
         }
     }
@@ -1023,6 +1142,7 @@ public class WorldEdit {
                 Map.Entry<String, LocalSession> entry = it.next();
                 if (entry.getValue().hasExpired()
                         && !checker.isOnlinePlayer(entry.getKey())) {
+                    entry.getValue().releaseHistory();
                     it.remove();
                 }
             }
@@ -1035,8 +1155,8 @@ public class WorldEdit {
      * @param player
      * @return 
      */
-    public boolean handleArmSwing(LocalPlayer player) {
-        LocalSession session = getSession(player);
+    public boolean handleArmSwing(final LocalPlayer player) {
+        final LocalSession session = getSession(player);
         if (player.getItemInHand() == config.navigationWand
                 && config.navigationWandMaxDistance > 0
                 && player.hasPermission("worldedit.navigation.jumpto")) {
@@ -1056,10 +1176,14 @@ public class WorldEdit {
             return true;
         }
 
-        Tool tool = session.getTool(player.getItemInHand());
+        final Tool tool = session.getTool(player.getItemInHand());
         if (tool != null && tool instanceof DoubleActionTraceTool) {
             if (tool.canUse(player)) {
-                ((DoubleActionTraceTool) tool).actSecondary(server, config, player, session);
+                useTool(player, session, new Runnable() {
+                    public void run() {
+                        ((DoubleActionTraceTool) tool).actSecondary(server, config, player, session);
+                    }
+                });
                 return true;
             }
         }
@@ -1072,8 +1196,8 @@ public class WorldEdit {
      * @param player
      * @return 
      */
-    public boolean handleRightClick(LocalPlayer player) {
-        LocalSession session = getSession(player);
+    public boolean handleRightClick(final LocalPlayer player) {
+        final LocalSession session = getSession(player);
 
         if (player.getItemInHand() == config.navigationWand
                 && config.navigationWandMaxDistance > 0
@@ -1090,11 +1214,15 @@ public class WorldEdit {
             return true;
         }
         
-        Tool tool = session.getTool(player.getItemInHand());
+        final Tool tool = session.getTool(player.getItemInHand());
         
         if (tool != null && tool instanceof TraceTool) {
             if (tool.canUse(player)) {
-                ((TraceTool) tool).actPrimary(server, config, player, session);
+                useTool(player, session, new Runnable() {
+                    public void run() {
+                        ((TraceTool) tool).actPrimary(server, config, player, session);
+                    }
+                });
                 return true;
             }
         }
@@ -1109,10 +1237,11 @@ public class WorldEdit {
      * @param clicked
      * @return false if you want the action to go through
      */
-    public boolean handleBlockRightClick(LocalPlayer player, WorldVector clicked) {
+    public boolean handleBlockRightClick(final LocalPlayer player,
+            final WorldVector clicked) {
         int itemInHand = player.getItemInHand();
         
-        LocalSession session = getSession(player);
+        final LocalSession session = getSession(player);
 
         if (itemInHand == config.wandItem && session.isToolControlEnabled()
                 && player.hasPermission("worldedit.selection.pos")) {
@@ -1124,11 +1253,15 @@ public class WorldEdit {
             return true;
         }
 
-        Tool tool = session.getTool(player.getItemInHand());
+        final Tool tool = session.getTool(player.getItemInHand());
         
         if (tool != null && tool instanceof BlockTool) {
             if (tool.canUse(player)) {
-                ((BlockTool)tool).actPrimary(server, config, player, session, clicked);
+                useTool(player, session, new Runnable() {
+                    public void run() {
+                        ((BlockTool) tool).actPrimary(server, config, player, session, clicked);
+                    }
+                });
                 return true;
             }
         }
@@ -1143,8 +1276,9 @@ public class WorldEdit {
      * @param clicked
      * @return false if you want the action to go through
      */
-    public boolean handleBlockLeftClick(LocalPlayer player, WorldVector clicked) {
-        LocalSession session = getSession(player);
+    public boolean handleBlockLeftClick(final LocalPlayer player,
+            final WorldVector clicked) {
+        final LocalSession session = getSession(player);
 
         if (player.getItemInHand() == config.wandItem) {
             if (session.isToolControlEnabled()
@@ -1158,19 +1292,32 @@ public class WorldEdit {
                 return true;
             }
         } else if (player.isHoldingPickAxe() && session.hasSuperPickAxe()) {
-            if (session.getSuperPickaxe() != null) {
-                if (session.getSuperPickaxe().canUse(player)) {
-                    return session.getSuperPickaxe().actPrimary(server, config,
-                            player, session, clicked);
+            final BlockTool pickaxe = session.getSuperPickaxe();
+            if (pickaxe != null) {
+                if (pickaxe.canUse(player)) {
+                    // If the pickaxe has to wait, the block is kept for it
+                    final boolean[] handled = { true };
+                    useTool(player, session, new Runnable() {
+                        public void run() {
+                            handled[0] = pickaxe.actPrimary(server, config,
+                                    player, session, clicked);
+                        }
+                    });
+                    return handled[0];
                 }
             }
         }
 
-        Tool tool = session.getTool(player.getItemInHand());
+        final Tool tool = session.getTool(player.getItemInHand());
         
         if (tool != null && tool instanceof DoubleActionBlockTool) {
             if (tool.canUse(player)) {
-                ((DoubleActionBlockTool)tool).actSecondary(server, config, player, session, clicked);
+                useTool(player, session, new Runnable() {
+                    public void run() {
+                        ((DoubleActionBlockTool) tool).actSecondary(server, config,
+                                player, session, clicked);
+                    }
+                });
                 return true;
             }
         }
@@ -1178,6 +1325,22 @@ public class WorldEdit {
         return false;
     }
 
+    /**
+     * Use a tool once the edits of the session that are still being applied
+     * are done, so that the tool sees them and the server does not have to
+     * wait for them.
+     *
+     * @param player
+     * @param session
+     * @param use
+     */
+    private void useTool(LocalPlayer player, LocalSession session, Runnable use) {
+        if (!editScheduler.runAfter(session, use)) {
+            player.print("Your last edit is still being applied; "
+                    + "the tool will be used once it is done.");
+        }
+    }
+
     /**
      *
      * @param player
@@ -1236,7 +1399,9 @@ public class WorldEdit {
                 return false;
             } finally {
                 session.remember(editSession);
-                editSession.flushQueue();
+                if (!editScheduler.submit(player, session, editSession)) {
+                    editSession.flushQueue();
+                }
 
                 if (config.profile) {
                     long time = System.currentTimeMillis() - start;
@@ -1249,6 +1414,12 @@ public class WorldEdit {
                     } else {
                         player.printDebug((time / 1000.0) + "s elapsed.");
                     }
+
+                    ChunkSectionCache readCache = editSession.getReadCache();
+                    if (readCache != null) {
+                        player.printDebug("Read cache: " + readCache.getHits()
+                                + " hits, " + readCache.getMisses() + " misses.");
+                    }
                 }
                 
                 flushBlockBag(player, editSession);
@@ -1343,6 +1514,7 @@ public class WorldEdit {
         }
         
         LocalSession session = getSession(player);
+        editScheduler.finish(session);
         CraftScriptContext scriptContext =
                 new CraftScriptContext(this, server, config, session, player, args);
         
@@ -19,6 +19,7 @@
 
 package com.sk89q.worldedit.bukkit;
 
+import java.io.File;
 import java.io.IOException;
 import java.util.HashSet;
 import java.util.logging.FileHandler;
@@ -26,6 +27,7 @@ import java.util.logging.Handler;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import org.bukkit.util.config.Configuration;
+import com.sk89q.worldedit.EditSession;
 import com.sk89q.worldedit.LocalConfiguration;
 import com.sk89q.worldedit.LocalSession;
 import com.sk89q.worldedit.LogFormat;
@@ -84,6 +86,27 @@ public class BukkitConfiguration extends LocalConfiguration {
         
         LocalSession.MAX_HISTORY_SIZE = Math.max(0, config.getInt("history.size", 15));
         LocalSession.EXPIRATION_GRACE = config.getInt("history.expiration", 10) * 60 * 1000;
+        EditSession.HISTORY_SPILL_THRESHOLD = Math.max(-1, config.getInt("history.spill-threshold", -1));
+        String spillDir = config.getString("history.spill-dir", "").trim();
+        EditSession.HISTORY_SPILL_DIR = spillDir.equals("") ? null : new File(spillDir);
+        int maxMemory = config.getInt("history.max-memory-mb", -1);
+        historyMaxMemory = maxMemory < 0 ? -1 : maxMemory * 1024L * 1024L;
+        historyGlobalEviction = config.getBoolean("history.global-eviction", historyGlobalEviction);
+        historySpillOldest = config.getBoolean("history.spill-oldest", historySpillOldest);
+        persistentHistory = config.getBoolean("history.persistent.enable", persistentHistory);
+        persistentHistoryDir = config.getString("history.persistent.dir", persistentHistoryDir);
+
+        readCacheSections = Math.max(0, config.getInt("read-cache.sections", readCacheSections));
+
+        scheduledEdits = config.getBoolean("scheduled-edits.enable", scheduledEdits);
+        scheduledEditMinBlocks = Math.max(0, config.getInt("scheduled-edits.min-blocks", scheduledEditMinBlocks));
+        scheduledEditBlocksPerTick = Math.max(1, config.getInt("scheduled-edits.blocks-per-tick", scheduledEditBlocksPerTick));
+        scheduledEditMaxTickTime = Math.max(-1, config.getInt("scheduled-edits.max-ms-per-tick", (int) scheduledEditMaxTickTime));
+
+        asyncCompute = config.getBoolean("async-compute.enable", asyncCompute);
+        asyncComputeThreads = Math.max(0, config.getInt("async-compute.threads", asyncComputeThreads));
+        asyncComputeMaxVolume = Math.max(0, config.getInt("async-compute.max-volume", (int) asyncComputeMaxVolume));
+        asyncAnalysis = config.getBoolean("async-compute.analysis", asyncAnalysis);
         
         String snapshotsDir = config.getString("snapshots.directory", "");
         if (!snapshotsDir.isEmpty()){
@@ -21,6 +21,7 @@ package com.sk89q.worldedit.bukkit;
 
 import org.bukkit.*;
 import org.bukkit.entity.CreatureType;
+import com.sk89q.worldedit.LocalWorld;
 import com.sk89q.worldedit.ServerInterface;
 
 public class BukkitServerInterface extends ServerInterface {
@@ -48,4 +49,20 @@ public class BukkitServerInterface extends ServerInterface {
         plugin.loadConfiguration();
     }
 
+    @Override
+    public LocalWorld getWorld(String name) {
+        World world = server.getWorld(name);
+        return world != null ? BukkitUtil.getLocalWorld(world) : null;
+    }
+
+    @Override
+    public int schedule(long delay, long period, Runnable task) {
+        return server.getScheduler().scheduleSyncRepeatingTask(plugin, task, delay, period);
+    }
+
+    @Override
+    public void cancelTask(int id) {
+        server.getScheduler().cancelTask(id);
+    }
+
 }
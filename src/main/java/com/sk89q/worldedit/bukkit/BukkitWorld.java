@@ -39,10 +39,12 @@ import org.bukkit.entity.TNTPrimed;
 import org.bukkit.entity.Wolf;
 import org.bukkit.inventory.Inventory;
 import org.bukkit.inventory.ItemStack;
+import org.bukkit.Chunk;
 import org.bukkit.Location;
 import org.bukkit.Material;
 import org.bukkit.TreeType;
 import org.bukkit.World;
+import com.sk89q.worldedit.ChunkChangeBuffer;
 import com.sk89q.worldedit.EditSession;
 import com.sk89q.worldedit.LocalWorld;
 import com.sk89q.worldedit.Vector;
@@ -679,6 +681,97 @@ public class BukkitWorld extends LocalWorld {
         return type <= 255 && Material.getMaterial(type) != null;
     }
 
+    /**
+     * Apply buffered changes through the chunk rather than looking up each
+     * block through the world. Without physics, the server does not notify
+     * clients of the changes, so the chunk is resent once at the end.
+     * 
+     * @param changes
+     * @param applyPhysics
+     */
+    @Override
+    public void setBlocks(ChunkChangeBuffer changes, boolean applyPhysics) {
+        Chunk chunk = world.getChunkAt(changes.getChunkX(), changes.getChunkZ());
+        int worldHeight = world.getMaxHeight();
+        boolean changed = false;
+
+        for (int i = 0; i < changes.size(); ++i) {
+            int y = changes.getY(i);
+            if (y < 0 || y >= worldHeight) {
+                continue;
+            }
+
+            Block block = chunk.getBlock(changes.getLocalX(i), y, changes.getLocalZ(i));
+            if (block.setTypeIdAndData(changes.getType(i),
+                    (byte) changes.getData(i), applyPhysics)) {
+                changed = true;
+            }
+        }
+
+        if (changed && !applyPhysics) {
+            world.refreshChunk(changes.getChunkX(), changes.getChunkZ());
+        }
+    }
+
+    /**
+     * Read a cuboid of blocks straight from the chunks, one chunk at a
+     * time. Only the requested blocks are read; no chunk snapshot is
+     * taken, as callers often read a single section or row.
+     * 
+     * @param min
+     * @param max
+     * @param types
+     * @param data
+     */
+    @Override
+    public void getBlocks(Vector min, Vector max, short[] types, byte[] data) {
+        int minX = min.getBlockX();
+        int minY = min.getBlockY();
+        int minZ = min.getBlockZ();
+        int maxX = max.getBlockX();
+        int maxY = max.getBlockY();
+        int maxZ = max.getBlockZ();
+        int width = maxX - minX + 1;
+        int length = maxZ - minZ + 1;
+        int worldHeight = world.getMaxHeight();
+
+        checkBlockArrays(min, max, types, data);
+
+        for (int cx = minX >> 4; cx <= maxX >> 4; ++cx) {
+            for (int cz = minZ >> 4; cz <= maxZ >> 4; ++cz) {
+                int x0 = Math.max(minX, cx << 4);
+                int x1 = Math.min(maxX, (cx << 4) + 15);
+                int z0 = Math.max(minZ, cz << 4);
+                int z1 = Math.min(maxZ, (cz << 4) + 15);
+
+                Chunk chunk = world.getChunkAt(cx, cz);
+
+                for (int y = minY; y <= maxY; ++y) {
+                    boolean inWorld = y >= 0 && y < worldHeight;
+
+                    for (int z = z0; z <= z1; ++z) {
+                        int index = (y - minY) * width * length
+                                + (z - minZ) * width + (x0 - minX);
+                        for (int x = x0; x <= x1; ++x, ++index) {
+                            if (inWorld && data == null) {
+                                types[index] = (short) world.getBlockTypeIdAt(x, y, z);
+                            } else if (inWorld) {
+                                Block block = chunk.getBlock(x & 15, y, z & 15);
+                                types[index] = (short) block.getTypeId();
+                                data[index] = block.getData();
+                            } else {
+                                types[index] = 0;
+                                if (data != null) {
+                                    data[index] = 0;
+                                }
+                            }
+                        }
+                    }
+                }
+            }
+        }
+    }
+
     @Override
     public void checkLoadedChunk(Vector pt) {
         if (!world.isChunkLoaded(pt.getBlockX() >> 4, pt.getBlockZ() >> 4)) {
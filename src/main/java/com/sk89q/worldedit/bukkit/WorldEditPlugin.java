@@ -117,7 +117,9 @@ public class WorldEditPlugin extends JavaPlugin {
                 lPlayer.dispatchCUIHandshake();
             }
         }
+        controller.getEditScheduler().finishAll();
         controller.clearSessions();
+        controller.closeHistoryStore();
         config.unload();
         this.getServer().getScheduler().cancelTasks(this);
     }
@@ -258,6 +260,7 @@ public class WorldEditPlugin extends JavaPlugin {
     public EditSession createEditSession(Player player) {
         LocalPlayer wePlayer = wrapPlayer(player);
         LocalSession session = controller.getSession(wePlayer);
+        controller.getEditScheduler().finish(session);
         BlockBag blockBag = session.getBlockBag(wePlayer);
         
         EditSession editSession =
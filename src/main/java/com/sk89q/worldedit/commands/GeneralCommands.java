@@ -26,6 +26,7 @@ import com.sk89q.minecraft.util.commands.NestedCommand;
 import com.sk89q.worldedit.*;
 import com.sk89q.worldedit.blocks.ItemType;
 import com.sk89q.worldedit.masks.Mask;
+import com.sk89q.worldedit.scheduler.EditJob;
 
 /**
  * General WorldEdit commands.
@@ -82,6 +83,27 @@ public class GeneralCommands {
         }
     }
 
+    @Command(
+        aliases = { "/cancel" },
+        usage = "",
+        desc = "Stop applying your edit that is still in progress",
+        min = 0,
+        max = 0
+    )
+    public static void cancel(CommandContext args, WorldEdit we,
+            LocalSession session, LocalPlayer player, EditSession editSession)
+            throws WorldEditException {
+
+        EditJob job = we.getEditScheduler().cancel(session);
+
+        if (job != null) {
+            player.print("Edit cancelled after " + job.getApplied() + " of "
+                    + job.getTotal() + " blocks. Use //undo to revert them.");
+        } else {
+            player.printError("You have no edit in progress.");
+        }
+    }
+
     @Command(
         aliases = { "/gmask", "gmask" },
         usage = "[mask]",
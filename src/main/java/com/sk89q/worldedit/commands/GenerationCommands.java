@@ -26,6 +26,7 @@ import com.sk89q.minecraft.util.commands.Logging;
 import static com.sk89q.minecraft.util.commands.Logging.LogMode.*;
 import com.sk89q.worldedit.*;
 import com.sk89q.worldedit.patterns.Pattern;
+import com.sk89q.worldedit.scheduler.EditOperation;
 import com.sk89q.worldedit.util.TreeGenerator;
 
 /**
@@ -44,16 +45,22 @@ public class GenerationCommands {
     @CommandPermissions("worldedit.generation.cylinder")
     @Logging(PLACEMENT)
     public static void hcyl(CommandContext args, WorldEdit we,
-            LocalSession session, LocalPlayer player, EditSession editSession)
+            LocalSession session, final LocalPlayer player, EditSession editSession)
             throws WorldEditException {
 
-        Pattern block = we.getBlockPattern(player, args.getString(0));
-        double radius = Math.max(1, args.getDouble(1));
-        int height = args.argsLength() > 2 ? args.getInteger(2) : 1;
-
-        Vector pos = session.getPlacementPosition(player);
-        int affected = editSession.makeHollowCylinder(pos, block, radius, height);
-        player.print(affected + " block(s) have been created.");
+        final Pattern block = we.getBlockPattern(player, args.getString(0));
+        final double radius = Math.max(1, args.getDouble(1));
+        final int height = args.argsLength() > 2 ? args.getInteger(2) : 1;
+
+        final Vector pos = session.getPlacementPosition(player);
+        generate(we, session, player, editSession, pos, radius, Math.abs(height), radius,
+                new Generation(player, false) {
+                    @Override
+                    public int run(EditSession editSession)
+                            throws MaxChangedBlocksException {
+                        return editSession.makeHollowCylinder(pos, block, radius, height);
+                    }
+                });
     }
 
     @Command(
@@ -66,16 +73,22 @@ public class GenerationCommands {
     @CommandPermissions("worldedit.generation.cylinder")
     @Logging(PLACEMENT)
     public static void cyl(CommandContext args, WorldEdit we,
-            LocalSession session, LocalPlayer player, EditSession editSession)
+            LocalSession session, final LocalPlayer player, EditSession editSession)
             throws WorldEditException {
 
-        Pattern block = we.getBlockPattern(player, args.getString(0));
-        double radius = Math.max(1, args.getDouble(1));
-        int height = args.argsLength() > 2 ? args.getInteger(2) : 1;
-
-        Vector pos = session.getPlacementPosition(player);
-        int affected = editSession.makeCylinder(pos, block, radius, height);
-        player.print(affected + " block(s) have been created.");
+        final Pattern block = we.getBlockPattern(player, args.getString(0));
+        final double radius = Math.max(1, args.getDouble(1));
+        final int height = args.argsLength() > 2 ? args.getInteger(2) : 1;
+
+        final Vector pos = session.getPlacementPosition(player);
+        generate(we, session, player, editSession, pos, radius, Math.abs(height), radius,
+                new Generation(player, false) {
+                    @Override
+                    public int run(EditSession editSession)
+                            throws MaxChangedBlocksException {
+                        return editSession.makeCylinder(pos, block, radius, height);
+                    }
+                });
     }
 
     @Command(
@@ -89,29 +102,32 @@ public class GenerationCommands {
     @CommandPermissions("worldedit.generation.sphere")
     @Logging(PLACEMENT)
     public static void hsphere(CommandContext args, WorldEdit we,
-            LocalSession session, LocalPlayer player, EditSession editSession)
+            LocalSession session, final LocalPlayer player, EditSession editSession)
             throws WorldEditException {
 
         if (args.hasFlag('q')) {
-            Pattern block = we.getBlockPattern(player, args.getString(0));
+            final Pattern block = we.getBlockPattern(player, args.getString(0));
             String[] radiuses = args.getString(1).split(",");
             if (radiuses.length > 1) {
                 throw new InsufficientArgumentsException("Cannot specify q flag and multiple radiuses."); 
             }
-            double radius = Double.parseDouble(radiuses[0]);
+            final double radius = Double.parseDouble(radiuses[0]);
             boolean raised = args.argsLength() > 2
                     ? (args.getString(2).equalsIgnoreCase("true")
                             || args.getString(2).equalsIgnoreCase("yes"))
                     : false;
 
-            Vector pos = session.getPlacementPosition(player);
-            if (raised) {
-                pos = pos.add(0, radius, 0);
-            }
-
-            int affected = editSession.makeSphere(pos, block, radius, false);
-            player.findFreePosition();
-            player.print(affected + " block(s) have been created.");
+            Vector placement = session.getPlacementPosition(player);
+            final Vector pos = raised ? placement.add(0, radius, 0) : placement;
+
+            generate(we, session, player, editSession, pos, radius, radius, radius,
+                    new Generation(player, true) {
+                        @Override
+                        public int run(EditSession editSession)
+                                throws MaxChangedBlocksException {
+                            return editSession.makeSphere(pos, block, radius, false);
+                        }
+                    });
             return;
         }
 
@@ -140,14 +156,17 @@ public class GenerationCommands {
             raised = false;
         }
 
-        Vector pos = session.getPlacementPosition(player);
-        if (raised) {
-            pos = pos.add(0, radiusY, 0);
-        }
-
-        int affected = editSession.makeSphere(pos, block, radiusX, radiusY, radiusZ, false);
-        player.findFreePosition();
-        player.print(affected + " block(s) have been created.");
+        Vector placement = session.getPlacementPosition(player);
+        final Vector pos = raised ? placement.add(0, radiusY, 0) : placement;
+
+        generate(we, session, player, editSession, pos, radiusX, radiusY, radiusZ,
+                new Generation(player, true) {
+                    @Override
+                    public int run(EditSession editSession)
+                            throws MaxChangedBlocksException {
+                        return editSession.makeSphere(pos, block, radiusX, radiusY, radiusZ, false);
+                    }
+                });
     }
 
     @Command(
@@ -161,33 +180,36 @@ public class GenerationCommands {
     @CommandPermissions("worldedit.generation.sphere")
     @Logging(PLACEMENT)
     public static void sphere(CommandContext args, WorldEdit we,
-            LocalSession session, LocalPlayer player, EditSession editSession)
+            LocalSession session, final LocalPlayer player, EditSession editSession)
             throws WorldEditException {
 
         if (args.hasFlag('q')) {
-            Pattern block = we.getBlockPattern(player, args.getString(0));
+            final Pattern block = we.getBlockPattern(player, args.getString(0));
             String[] radiuses = args.getString(1).split(",");
             if (radiuses.length > 1) {
                 throw new InsufficientArgumentsException("Cannot specify q flag and multiple radiuses."); 
             }
-            double radius = Double.parseDouble(radiuses[0]);
+            final double radius = Double.parseDouble(radiuses[0]);
             boolean raised = args.argsLength() > 2
                     ? (args.getString(2).equalsIgnoreCase("true")
                             || args.getString(2).equalsIgnoreCase("yes"))
                     : false;
 
-            Vector pos = session.getPlacementPosition(player);
-            if (raised) {
-                pos = pos.add(0, radius, 0);
-            }
-
-            int affected = editSession.makeSphere(pos, block, radius, true);
-            player.findFreePosition();
-            player.print(affected + " block(s) have been created.");
+            Vector placement = session.getPlacementPosition(player);
+            final Vector pos = raised ? placement.add(0, radius, 0) : placement;
+
+            generate(we, session, player, editSession, pos, radius, radius, radius,
+                    new Generation(player, true) {
+                        @Override
+                        public int run(EditSession editSession)
+                                throws MaxChangedBlocksException {
+                            return editSession.makeSphere(pos, block, radius, true);
+                        }
+                    });
             return;
         }
 
-        Pattern block = we.getBlockPattern(player, args.getString(0));
+        final Pattern block = we.getBlockPattern(player, args.getString(0));
         String[] radiuses = args.getString(1).split(",");
         final double radiusX, radiusY, radiusZ;
         switch (radiuses.length) {
@@ -212,14 +234,17 @@ public class GenerationCommands {
             raised = false;
         }
 
-        Vector pos = session.getPlacementPosition(player);
-        if (raised) {
-            pos = pos.add(0, radiusY, 0);
-        }
-
-        int affected = editSession.makeSphere(pos, block, radiusX, radiusY, radiusZ, true);
-        player.findFreePosition();
-        player.print(affected + " block(s) have been created.");
+        Vector placement = session.getPlacementPosition(player);
+        final Vector pos = raised ? placement.add(0, radiusY, 0) : placement;
+
+        generate(we, session, player, editSession, pos, radiusX, radiusY, radiusZ,
+                new Generation(player, true) {
+                    @Override
+                    public int run(EditSession editSession)
+                            throws MaxChangedBlocksException {
+                        return editSession.makeSphere(pos, block, radiusX, radiusY, radiusZ, true);
+                    }
+                });
     }
 
     @Command(
@@ -280,17 +305,21 @@ public class GenerationCommands {
     @CommandPermissions("worldedit.generation.pyramid")
     @Logging(PLACEMENT)
     public static void pyramid(CommandContext args, WorldEdit we,
-            LocalSession session, LocalPlayer player, EditSession editSession)
+            LocalSession session, final LocalPlayer player, EditSession editSession)
             throws WorldEditException {
 
-        Pattern block = we.getBlockPattern(player, args.getString(0));
-        int size = Math.max(1, args.getInteger(1));
-        Vector pos = session.getPlacementPosition(player);
-        
-        int affected = editSession.makePyramid(pos, block, size, true);
+        final Pattern block = we.getBlockPattern(player, args.getString(0));
+        final int size = Math.max(1, args.getInteger(1));
+        final Vector pos = session.getPlacementPosition(player);
         
-        player.findFreePosition();
-        player.print(affected + " block(s) have been created.");
+        generate(we, session, player, editSession, pos.add(0, size / 2.0, 0),
+                size, size / 2.0, size, new Generation(player, true) {
+                    @Override
+                    public int run(EditSession editSession)
+                            throws MaxChangedBlocksException {
+                        return editSession.makePyramid(pos, block, size, true);
+                    }
+                });
     }
     
     @Command(
@@ -303,16 +332,69 @@ public class GenerationCommands {
     @CommandPermissions("worldedit.generation.pyramid")
     @Logging(PLACEMENT)
     public static void hpyramid(CommandContext args, WorldEdit we,
-            LocalSession session, LocalPlayer player, EditSession editSession)
+            LocalSession session, final LocalPlayer player, EditSession editSession)
             throws WorldEditException {
 
-        Pattern block = we.getBlockPattern(player, args.getString(0));
-        int size = Math.max(1, args.getInteger(1));
-        Vector pos = session.getPlacementPosition(player);
-        
-        int affected = editSession.makePyramid(pos, block, size, false);
+        final Pattern block = we.getBlockPattern(player, args.getString(0));
+        final int size = Math.max(1, args.getInteger(1));
+        final Vector pos = session.getPlacementPosition(player);
         
-        player.findFreePosition();
-        player.print(affected + " block(s) have been created.");
+        generate(we, session, player, editSession, pos.add(0, size / 2.0, 0),
+                size, size / 2.0, size, new Generation(player, true) {
+                    @Override
+                    public int run(EditSession editSession)
+                            throws MaxChangedBlocksException {
+                        return editSession.makePyramid(pos, block, size, false);
+                    }
+                });
+    }
+
+    /**
+     * Run a generation command, on a worker thread if enabled. The edit may
+     * read and change the blocks within the given radiuses of the center,
+     * plus one block on each side for masks that look at neighbors.
+     *
+     * @param we
+     * @param session
+     * @param player
+     * @param editSession
+     * @param center
+     * @param radiusX
+     * @param radiusY
+     * @param radiusZ
+     * @param generation
+     * @throws MaxChangedBlocksException
+     */
+    private static void generate(WorldEdit we, LocalSession session,
+            LocalPlayer player, EditSession editSession, Vector center,
+            double radiusX, double radiusY, double radiusZ,
+            Generation generation) throws MaxChangedBlocksException {
+        Vector radius = new Vector(Math.ceil(radiusX) + 1,
+                Math.ceil(radiusY) + 1, Math.ceil(radiusZ) + 1);
+
+        we.getEditScheduler().getPipeline().submit(player, session, editSession,
+                center.subtract(radius), center.add(radius), generation);
+    }
+
+    /**
+     * A generation command that tells the player how many blocks were
+     * created once it has been applied.
+     */
+    private static abstract class Generation extends EditOperation {
+        private final LocalPlayer player;
+        private final boolean findFreePosition;
+
+        Generation(LocalPlayer player, boolean findFreePosition) {
+            this.player = player;
+            this.findFreePosition = findFreePosition;
+        }
+
+        @Override
+        public void complete(int affected) {
+            if (findFreePosition) {
+                player.findFreePosition();
+            }
+            player.print(affected + " block(s) have been created.");
+        }
     }
 }
@@ -19,10 +19,17 @@
 
 package com.sk89q.worldedit.commands;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
 import com.sk89q.minecraft.util.commands.Command;
 import com.sk89q.minecraft.util.commands.CommandContext;
 import com.sk89q.minecraft.util.commands.CommandPermissions;
 import com.sk89q.worldedit.*;
+import com.sk89q.worldedit.history.JournalException;
 
 /**
  * History little commands.
@@ -45,16 +52,23 @@ public class HistoryCommands {
         int times = Math.max(1, args.getInteger(0, 1));
         for (int i = 0; i < times; ++i) {
             EditSession undone;
-            if (args.argsLength() < 2) {
-                undone = session.undo(session.getBlockBag(player));
-            } else {
+            LocalSession sess = session;
+            if (args.argsLength() >= 2) {
                 player.checkPermission("worldedit.history.undo.other");
-                LocalSession sess = we.getSession(args.getString(1));
+                sess = we.getSessionOrStoredHistory(args.getString(1));
                 if (sess == null){
                     player.printError("Unable to find session for " + args.getString(1));
                     break;
                 }
+            }
+            // A scheduled edit still being placed would overwrite
+            // the blocks that are restored
+            we.getEditScheduler().finish(sess);
+            try {
                 undone = sess.undo(session.getBlockBag(player));
+            } catch (JournalException e) {
+                player.printError("Unable to undo: " + e.getMessage());
+                break;
             }
             if (undone != null) {
                 player.print("Undo successful.");
@@ -82,16 +96,21 @@ public class HistoryCommands {
         
         for (int i = 0; i < times; ++i) {
             EditSession redone;
-            if (args.argsLength() < 2) {
-                redone = session.redo(session.getBlockBag(player));
-            } else {
+            LocalSession sess = session;
+            if (args.argsLength() >= 2) {
                 player.checkPermission("worldedit.history.redo.other");
-                LocalSession sess = we.getSession(args.getString(1));
+                sess = we.getSessionOrStoredHistory(args.getString(1));
                 if (sess == null){
                     player.printError("Unable to find session for " + args.getString(1));
                     break;
                 }
+            }
+            we.getEditScheduler().finish(sess);
+            try {
                 redone = sess.redo(session.getBlockBag(player));
+            } catch (JournalException e) {
+                player.printError("Unable to redo: " + e.getMessage());
+                break;
             }
             if (redone != null) {
                 player.print("Redo successful.");
@@ -117,4 +136,58 @@ public class HistoryCommands {
         session.clearHistory();
         player.print("History cleared.");
     }
+
+    @Command(
+        aliases = { "/historyusage", "historyusage" },
+        usage = "",
+        desc = "Show the memory used by each player's history",
+        min = 0,
+        max = 0
+    )
+    @CommandPermissions("worldedit.history.usage")
+    public static void historyUsage(CommandContext args, WorldEdit we,
+            LocalSession session, LocalPlayer player, EditSession editSession)
+            throws WorldEditException {
+
+        List<Map.Entry<String, LocalSession>> entries =
+                new ArrayList<Map.Entry<String, LocalSession>>(we.getSessions().entrySet());
+
+        final Map<LocalSession, Long> usage = new IdentityHashMap<LocalSession, Long>();
+        long total = 0;
+        for (Map.Entry<String, LocalSession> entry : entries) {
+            long used = entry.getValue().getHistoryMemoryUsage();
+            usage.put(entry.getValue(), used);
+            total += used;
+        }
+
+        Collections.sort(entries, new Comparator<Map.Entry<String, LocalSession>>() {
+            public int compare(Map.Entry<String, LocalSession> a,
+                    Map.Entry<String, LocalSession> b) {
+                return usage.get(b.getValue()).compareTo(usage.get(a.getValue()));
+            }
+        });
+
+        long budget = we.getConfiguration().historyMaxMemory;
+        player.print("History memory: " + formatBytes(total)
+                + (budget < 0 ? " (no budget)" : " of " + formatBytes(budget)));
+
+        for (Map.Entry<String, LocalSession> entry : entries) {
+            LocalSession sess = entry.getValue();
+            if (sess.getHistory().size() == 0) {
+                continue;
+            }
+
+            long disk = sess.getHistoryDiskUsage();
+            player.print(entry.getKey() + ": " + formatBytes(usage.get(sess))
+                    + " in " + sess.getHistory().size() + " edit(s)"
+                    + (disk > 0 ? ", " + formatBytes(disk) + " on disk" : ""));
+        }
+    }
+
+    private static String formatBytes(long bytes) {
+        if (bytes < 1024 * 1024) {
+            return String.format("%.1f KB", bytes / 1024.0);
+        }
+        return String.format("%.1f MB", bytes / 1024.0 / 1024.0);
+    }
 }
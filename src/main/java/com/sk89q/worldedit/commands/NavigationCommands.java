@@ -40,6 +40,7 @@ public class NavigationCommands {
         max = 0
     )
     @CommandPermissions("worldedit.navigation.unstuck")
+    @ReadsWorld
     public static void unstuck(CommandContext args, WorldEdit we,
             LocalSession session, LocalPlayer player, EditSession editSession)
             throws WorldEditException {
@@ -56,6 +57,7 @@ public class NavigationCommands {
         max = 1
     )
     @CommandPermissions("worldedit.navigation.ascend")
+    @ReadsWorld
     public static void ascend(CommandContext args, WorldEdit we,
             LocalSession session, LocalPlayer player, EditSession editSession)
             throws WorldEditException {
@@ -85,6 +87,7 @@ public class NavigationCommands {
         max = 1
     )
     @CommandPermissions("worldedit.navigation.descend")
+    @ReadsWorld
     public static void descend(CommandContext args, WorldEdit we,
             LocalSession session, LocalPlayer player, EditSession editSession)
             throws WorldEditException {
@@ -137,6 +140,7 @@ public class NavigationCommands {
         max = 0
     )
     @CommandPermissions("worldedit.navigation.thru")
+    @ReadsWorld
     public static void thru(CommandContext args, WorldEdit we,
             LocalSession session, LocalPlayer player, EditSession editSession)
             throws WorldEditException {
@@ -156,6 +160,7 @@ public class NavigationCommands {
         max = 0
     )
     @CommandPermissions("worldedit.navigation.jumpto")
+    @ReadsWorld
     public static void jumpTo(CommandContext args, WorldEdit we,
             LocalSession session, LocalPlayer player, EditSession editSession)
             throws WorldEditException {
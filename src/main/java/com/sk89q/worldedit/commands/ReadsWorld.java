@@ -0,0 +1,36 @@
+// $Id$
+/*
+ * WorldEdit
+ * Copyright (C) 2010 sk89q <http://www.sk89q.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.sk89q.worldedit.commands;
+
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+
+/**
+ * Indicates that a command reads blocks from the world. Before such a
+ * command, and before every command with a
+ * {@link com.sk89q.minecraft.util.commands.Logging} annotation, as those
+ * change blocks, the edits of the session that are still being applied
+ * are finished so that the command sees them.
+ *
+ * @author sk89q
+ */
+@Retention(RetentionPolicy.RUNTIME)
+public @interface ReadsWorld {
+}
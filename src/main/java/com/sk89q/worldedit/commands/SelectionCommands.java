@@ -27,10 +27,14 @@ import com.sk89q.minecraft.util.commands.CommandContext;
 import com.sk89q.minecraft.util.commands.CommandPermissions;
 import com.sk89q.worldedit.*;
 import com.sk89q.worldedit.data.ChunkStore;
+import com.sk89q.worldedit.regions.BitSetRegion;
+import com.sk89q.worldedit.regions.BitSetRegionSelector;
 import com.sk89q.worldedit.regions.CuboidRegionSelector;
 import com.sk89q.worldedit.regions.Polygonal2DRegionSelector;
 import com.sk89q.worldedit.regions.Region;
 import com.sk89q.worldedit.regions.RegionOperationException;
+import com.sk89q.worldedit.regions.RegionSelector;
+import com.sk89q.worldedit.scheduler.AnalysisOperation;
 import com.sk89q.worldedit.blocks.*;
 
 /**
@@ -119,6 +123,7 @@ public class SelectionCommands {
         max = 0
     )
     @CommandPermissions("worldedit.selection.hpos")
+    @ReadsWorld
     public static void hpos1(CommandContext args, WorldEdit we,
             LocalSession session, LocalPlayer player, EditSession editSession)
             throws WorldEditException {
@@ -147,6 +152,7 @@ public class SelectionCommands {
         max = 0
     )
     @CommandPermissions("worldedit.selection.hpos")
+    @ReadsWorld
     public static void hpos2(CommandContext args, WorldEdit we,
             LocalSession session, LocalPlayer player, EditSession editSession)
             throws WorldEditException {
@@ -525,14 +531,22 @@ public class SelectionCommands {
         max = 1
     )
     @CommandPermissions("worldedit.analysis.count")
+    @ReadsWorld
     public static void count(CommandContext args, WorldEdit we,
-            LocalSession session, LocalPlayer player, EditSession editSession)
+            LocalSession session, final LocalPlayer player, EditSession editSession)
             throws WorldEditException {
         
-        Set<Integer> searchIDs = we.getBlockIDs(player,
+        final Set<Integer> searchIDs = we.getBlockIDs(player,
                 args.getString(0), true);
-        player.print("Counted: " +
-                editSession.countBlocks(session.getSelection(player.getWorld()), searchIDs));
+
+        we.getEditScheduler().getPipeline().analyze(player, player.getWorld(),
+                session.getSelection(player.getWorld()), new AnalysisOperation() {
+                    @Override
+                    public void complete(int[] histogram) {
+                        player.print("Counted: "
+                                + RegionAnalysis.countTypes(histogram, searchIDs));
+                    }
+                });
     }
 
     @Command(
@@ -544,21 +558,42 @@ public class SelectionCommands {
         max = 0
     )
     @CommandPermissions("worldedit.analysis.distr")
+    @ReadsWorld
     public static void distr(CommandContext args, WorldEdit we,
-            LocalSession session, LocalPlayer player, EditSession editSession)
+            LocalSession session, final LocalPlayer player, EditSession editSession)
             throws WorldEditException {
         
-        List<Countable<Integer>> distribution =
-            editSession.getBlockDistribution(session.getSelection(player.getWorld()));
+        final Region region = session.getSelection(player.getWorld());
+        final int size = region.getArea();
+        final boolean log = args.hasFlag('c');
+
+        we.getEditScheduler().getPipeline().analyze(player, player.getWorld(),
+                region, new AnalysisOperation() {
+                    @Override
+                    public void complete(int[] histogram) {
+                        printDistribution(player, RegionAnalysis.getDistribution(histogram),
+                                size, log);
+                    }
+                });
+    }
+
+    /**
+     * Print a block distribution.
+     * 
+     * @param player
+     * @param distribution
+     * @param size number of blocks in the selection
+     * @param log whether to print it to the console too
+     */
+    private static void printDistribution(LocalPlayer player,
+            List<Countable<Integer>> distribution, int size, boolean log) {
         
         Logger logger = Logger.getLogger("Minecraft.WorldEdit");
         
         if (distribution.size() > 0) { // *Should* always be true
-            int size = session.getSelection(player.getWorld()).getArea();
-    
             player.print("# total blocks: " + size);
             
-            if (args.hasFlag('c')) {
+            if (log) {
                 logger.info("Block distribution (req. by " + player.getName() + "):");
                 logger.info("# total blocks: " + size);
             }
@@ -570,7 +605,7 @@ public class SelectionCommands {
                         BlockType.fromID(c.getID()).getName(), c.getID());
                 player.print(str);
                 
-                if (args.hasFlag('c')) {
+                if (log) {
                     logger.info(str);
                 }
             }
@@ -581,10 +616,10 @@ public class SelectionCommands {
 
     @Command(
         aliases = { "/sel", ";" },
-        usage = "[type]",
+        usage = "[type] [mask]",
         desc = "Choose a region selector",
         min = 0,
-        max = 1
+        max = -1
     )
     public static void select(CommandContext args, WorldEdit we,
             LocalSession session, LocalPlayer player, EditSession editSession)
@@ -603,8 +638,26 @@ public class SelectionCommands {
             session.setRegionSelector(player.getWorld(), new Polygonal2DRegionSelector());
             session.dispatchCUISelection(player);
             player.print("2D polygon selector: Left/right click to add a point.");
+        } else if (typeName.equalsIgnoreCase("blocks")) {
+            // Start from the current selection, keeping the blocks that
+            // match the mask if one was given
+            RegionSelector selector = session.getRegionSelector(player.getWorld());
+            BitSetRegion region;
+            if (!selector.isDefined()) {
+                region = new BitSetRegion();
+            } else if (args.argsLength() > 1) {
+                region = new BitSetRegion(editSession, selector.getRegion(),
+                        we.getBlockMask(player, session, args.getJoinedStrings(1)));
+            } else {
+                region = new BitSetRegion(selector.getRegion());
+            }
+
+            session.setRegionSelector(player.getWorld(), new BitSetRegionSelector(region));
+            session.dispatchCUISelection(player);
+            player.print("Block set selector: left click to add a block, right click to remove one ("
+                    + region.getArea() + " blocks).");
         } else {
-            player.printError("Only 'cuboid' and 'poly' are accepted.");
+            player.printError("Only 'cuboid', 'poly' and 'blocks' are accepted.");
         }
     }
 }
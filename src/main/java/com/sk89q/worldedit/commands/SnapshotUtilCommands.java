@@ -62,6 +62,7 @@ public class SnapshotUtilCommands {
             max = 1
     )
     @CommandPermissions("worldedit.snapshots.restore")
+    @ReadsWorld
     public static void restore(CommandContext args, WorldEdit we,
             LocalSession session, LocalPlayer player, EditSession editSession)
             throws WorldEditException {
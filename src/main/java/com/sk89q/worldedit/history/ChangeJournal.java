@@ -0,0 +1,858 @@
+// $Id$
+/*
+ * WorldEdit
+ * Copyright (C) 2010 sk89q <http://www.sk89q.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.sk89q.worldedit.history;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import com.sk89q.worldedit.BlockVector;
+import com.sk89q.worldedit.Vector;
+import com.sk89q.worldedit.blocks.BaseBlock;
+import com.sk89q.worldedit.blocks.TileEntityBlock;
+
+/**
+ * Stores a list of block changes in packed primitive arrays. Positions are
+ * packed into a single long, block types into a short and block data into
+ * a byte, so an entry costs 11 bytes instead of a BlockVector, a BaseBlock
+ * and two list slots. Blocks carrying tile entity data are kept as-is in
+ * a side map keyed by their entry index.
+ *
+ * <p>If a spill threshold is set, entries past the threshold are written
+ * to a temporary file instead of being kept on the heap. Call
+ * {@link #dispose()} once the journal is no longer needed so that the file
+ * is removed.</p>
+ *
+ * @author sk89q
+ */
+public class ChangeJournal {
+    private static final Logger logger = Logger.getLogger("Minecraft.WorldEdit");
+
+    /**
+     * Capacity of the arrays when the first entry is added.
+     */
+    private static final int INITIAL_CAPACITY = 64;
+    /**
+     * Arrays shared by journals that hold no entries in memory.
+     */
+    private static final long[] EMPTY_POSITIONS = new long[0];
+    private static final short[] EMPTY_TYPES = new short[0];
+    private static final byte[] EMPTY_DATA = new byte[0];
+    /**
+     * Size of a record in the spill file.
+     */
+    private static final int RECORD_SIZE = 11;
+    /**
+     * Number of records buffered when writing to or reading from the spill
+     * file.
+     */
+    private static final int BUFFER_RECORDS = 4096;
+
+    /**
+     * Packed positions.
+     */
+    private long[] positions;
+    /**
+     * Block types.
+     */
+    private short[] types;
+    /**
+     * Block data.
+     */
+    private byte[] data;
+    /**
+     * Number of entries kept in memory.
+     */
+    private int memorySize = 0;
+    /**
+     * Total number of entries.
+     */
+    private int size = 0;
+    /**
+     * Blocks with tile entity data, keyed by entry index.
+     */
+    private Map<Integer, BaseBlock> tileEntities =
+            new HashMap<Integer, BaseBlock>();
+
+    /**
+     * Number of entries to keep in memory before spilling to disk. -1
+     * disables spilling.
+     */
+    private int spillThreshold = -1;
+    /**
+     * Directory for the spill file, or null for the system default.
+     */
+    private File spillDir;
+    /**
+     * Spill file.
+     */
+    private File spillFile;
+    /**
+     * Spill file handle.
+     */
+    private RandomAccessFile spillHandle;
+    /**
+     * Channel of the spill file.
+     */
+    private FileChannel spillChannel;
+    /**
+     * Records that have not been written to the spill file yet.
+     */
+    private ByteBuffer writeBuffer;
+
+    /**
+     * Construct the journal.
+     */
+    public ChangeJournal() {
+        this(0);
+    }
+
+    /**
+     * Construct the journal with an initial capacity. With a capacity of
+     * 0, nothing is allocated until the first entry is added.
+     *
+     * @param capacity
+     */
+    public ChangeJournal(int capacity) {
+        if (capacity > 0) {
+            positions = new long[capacity];
+            types = new short[capacity];
+            data = new byte[capacity];
+        } else {
+            release();
+        }
+    }
+
+    /**
+     * Set the number of entries to keep in memory before the rest are
+     * written to a temporary file. -1 disables spilling.
+     *
+     * @param spillThreshold
+     * @param spillDir directory for the file, or null for the default
+     */
+    public void setSpillThreshold(int spillThreshold, File spillDir) {
+        this.spillThreshold = spillThreshold;
+        this.spillDir = spillDir;
+    }
+
+    /**
+     * Get the spill threshold.
+     *
+     * @return
+     */
+    public int getSpillThreshold() {
+        return spillThreshold;
+    }
+
+    /**
+     * Add an entry.
+     *
+     * @param pt
+     * @param block
+     */
+    public void add(Vector pt, BaseBlock block) {
+        add(pt.getBlockX(), pt.getBlockY(), pt.getBlockZ(), block);
+    }
+
+    /**
+     * Add an entry.
+     *
+     * @param x
+     * @param y
+     * @param z
+     * @param block
+     */
+    public void add(int x, int y, int z, BaseBlock block) {
+        if (block instanceof TileEntityBlock) {
+            tileEntities.put(size, block);
+        }
+        add(x, y, z, block.getType(), block.getData());
+    }
+
+    /**
+     * Add an entry that has no tile entity data.
+     *
+     * @param x
+     * @param y
+     * @param z
+     * @param type
+     * @param data
+     */
+    public void add(int x, int y, int z, int type, int data) {
+        long pos = pack(x, y, z);
+
+        if (shouldSpill()) {
+            if (writeBuffer == null) {
+                writeBuffer = ByteBuffer.allocate(BUFFER_RECORDS * RECORD_SIZE);
+            }
+            writeBuffer.putLong(pos);
+            writeBuffer.putShort((short) type);
+            writeBuffer.put((byte) data);
+            ++size;
+
+            if (!writeBuffer.hasRemaining()) {
+                flushWrites();
+            }
+            return;
+        }
+
+        ensureCapacity(memorySize + 1);
+        positions[memorySize] = pos;
+        types[memorySize] = (short) type;
+        this.data[memorySize] = (byte) data;
+        ++memorySize;
+        ++size;
+    }
+
+    /**
+     * Replace the block of an existing entry, keeping its position.
+     *
+     * @param index
+     * @param block
+     */
+    public void set(int index, BaseBlock block) {
+        checkIndex(index);
+
+        if (block instanceof TileEntityBlock) {
+            tileEntities.put(index, block);
+        } else if (!tileEntities.isEmpty()) {
+            tileEntities.remove(index);
+        }
+
+        short type = (short) block.getType();
+        byte data = (byte) block.getData();
+
+        if (index < memorySize) {
+            types[index] = type;
+            this.data[index] = data;
+            return;
+        }
+
+        int spilledIndex = index - memorySize;
+        int buffered = writeBuffer != null ? writeBuffer.position() / RECORD_SIZE : 0;
+        int flushed = size - memorySize - buffered;
+
+        // Still waiting in the write buffer
+        if (spilledIndex >= flushed) {
+            int offset = (spilledIndex - flushed) * RECORD_SIZE;
+            writeBuffer.putShort(offset + 8, type);
+            writeBuffer.put(offset + 10, data);
+            return;
+        }
+
+        ByteBuffer record = ByteBuffer.allocate(3);
+        record.putShort(type);
+        record.put(data);
+        record.flip();
+        long offset = (long) spilledIndex * RECORD_SIZE + 8;
+        try {
+            while (record.hasRemaining()) {
+                spillChannel.write(record, offset + record.position());
+            }
+        } catch (IOException e) {
+            throw new JournalException("Failed to write to history spill file", e);
+        }
+    }
+
+    /**
+     * Check whether the next entry should go to the spill file, opening the
+     * file if needed.
+     *
+     * @return
+     */
+    private boolean shouldSpill() {
+        if (spillChannel != null) {
+            return true;
+        }
+
+        if (spillThreshold < 0 || memorySize < spillThreshold) {
+            return false;
+        }
+
+        if (!openSpillFile()) {
+            spillThreshold = -1;
+            return false;
+        }
+
+        trimToSize();
+        return true;
+    }
+
+    /**
+     * Create a new spill file.
+     *
+     * @return false if the file could not be created
+     */
+    private boolean openSpillFile() {
+        File file = null;
+        try {
+            file = File.createTempFile("worldedit-history", ".journal", spillDir);
+            file.deleteOnExit();
+            spillHandle = new RandomAccessFile(file, "rw");
+            spillFile = file;
+            spillChannel = spillHandle.getChannel();
+            writeBuffer = ByteBuffer.allocate(BUFFER_RECORDS * RECORD_SIZE);
+            return true;
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "WorldEdit: Failed to create history "
+                    + "spill file; keeping history in memory", e);
+            if (file != null) {
+                file.delete();
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Move every entry that is still in memory to the spill file.
+     *
+     * @return false if the spill file could not be created
+     */
+    public boolean spillAll() {
+        if (memorySize == 0) {
+            return true;
+        }
+
+        flushWrites();
+
+        File oldFile = spillFile;
+        RandomAccessFile oldHandle = spillHandle;
+        FileChannel oldChannel = spillChannel;
+
+        if (!openSpillFile()) {
+            return false;
+        }
+
+        try {
+            for (int i = 0; i < memorySize; ++i) {
+                writeBuffer.putLong(positions[i]);
+                writeBuffer.putShort(types[i]);
+                writeBuffer.put(data[i]);
+                if (!writeBuffer.hasRemaining()) {
+                    flushWrites();
+                }
+            }
+            flushWrites();
+
+            // Entries that were already on disk come after
+            if (oldChannel != null) {
+                long length = oldChannel.size();
+                long copied = 0;
+                while (copied < length) {
+                    copied += oldChannel.transferTo(copied, length - copied, spillChannel);
+                }
+            }
+        } catch (IOException e) {
+            throw new JournalException("Failed to write to history spill file", e);
+        } finally {
+            if (oldHandle != null) {
+                try {
+                    oldHandle.close();
+                } catch (IOException e) {
+                }
+                oldFile.delete();
+            }
+        }
+
+        // The write buffer is allocated again if more entries are added
+        writeBuffer = null;
+        memorySize = 0;
+        release();
+        return true;
+    }
+
+    /**
+     * Write out buffered records to the spill file.
+     */
+    private void flushWrites() {
+        if (writeBuffer == null || writeBuffer.position() == 0) {
+            return;
+        }
+
+        writeBuffer.flip();
+        try {
+            while (writeBuffer.hasRemaining()) {
+                spillChannel.write(writeBuffer);
+            }
+        } catch (IOException e) {
+            throw new JournalException("Failed to write to history spill file", e);
+        }
+        writeBuffer.clear();
+    }
+
+    /**
+     * Write out entries that are waiting to be written to the spill file.
+     */
+    public void flush() {
+        flushWrites();
+    }
+
+    /**
+     * Get the blocks with tile entity data, keyed by entry index.
+     *
+     * @return
+     */
+    public Map<Integer, BaseBlock> getTileEntityBlocks() {
+        return Collections.unmodifiableMap(tileEntities);
+    }
+
+    /**
+     * Read records from the spill file into the given buffer.
+     *
+     * @param index first entry index, must be a spilled entry
+     * @param buffer
+     */
+    private void readSpilled(int index, ByteBuffer buffer) {
+        flushWrites();
+
+        long offset = (long) (index - memorySize) * RECORD_SIZE;
+        try {
+            while (buffer.hasRemaining()) {
+                if (spillChannel.read(buffer, offset + buffer.position()) < 0) {
+                    throw new JournalException("Unexpected end of history spill file");
+                }
+            }
+        } catch (IOException e) {
+            throw new JournalException("Failed to read history spill file", e);
+        }
+        buffer.flip();
+    }
+
+    /**
+     * Grow the arrays to hold at least the given number of entries.
+     *
+     * @param capacity
+     */
+    private void ensureCapacity(int capacity) {
+        if (capacity <= positions.length) {
+            return;
+        }
+
+        int newCapacity = Math.max(capacity, Math.max(INITIAL_CAPACITY,
+                positions.length + (positions.length >> 1)));
+        if (spillThreshold >= 0) {
+            newCapacity = Math.max(capacity, Math.min(newCapacity, spillThreshold));
+        }
+        resize(newCapacity);
+    }
+
+    private void resize(int capacity) {
+        long[] newPositions = new long[capacity];
+        short[] newTypes = new short[capacity];
+        byte[] newData = new byte[capacity];
+        System.arraycopy(positions, 0, newPositions, 0, memorySize);
+        System.arraycopy(types, 0, newTypes, 0, memorySize);
+        System.arraycopy(data, 0, newData, 0, memorySize);
+        positions = newPositions;
+        types = newTypes;
+        data = newData;
+    }
+
+    /**
+     * Get the number of entries.
+     *
+     * @return
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Get the number of entries that were written to disk.
+     *
+     * @return
+     */
+    public int getSpilledSize() {
+        return size - memorySize;
+    }
+
+    /**
+     * Returns whether some entries were written to disk.
+     *
+     * @return
+     */
+    public boolean isSpilled() {
+        return spillChannel != null;
+    }
+
+    /**
+     * Get the packed position of an entry.
+     *
+     * @param index
+     * @return
+     */
+    public long getPackedPosition(int index) {
+        checkIndex(index);
+        if (index < memorySize) {
+            return positions[index];
+        }
+        ByteBuffer record = ByteBuffer.allocate(RECORD_SIZE);
+        readSpilled(index, record);
+        return record.getLong();
+    }
+
+    /**
+     * Get the position of an entry.
+     *
+     * @param index
+     * @return
+     */
+    public BlockVector getPosition(int index) {
+        long pos = getPackedPosition(index);
+        return new BlockVector(unpackX(pos), unpackY(pos), unpackZ(pos));
+    }
+
+    /**
+     * Get the block type of an entry.
+     *
+     * @param index
+     * @return
+     */
+    public int getType(int index) {
+        checkIndex(index);
+        if (index < memorySize) {
+            return types[index];
+        }
+        ByteBuffer record = ByteBuffer.allocate(RECORD_SIZE);
+        readSpilled(index, record);
+        return record.getShort(8);
+    }
+
+    /**
+     * Get the block data of an entry.
+     *
+     * @param index
+     * @return
+     */
+    public int getData(int index) {
+        checkIndex(index);
+        if (index < memorySize) {
+            return data[index];
+        }
+        ByteBuffer record = ByteBuffer.allocate(RECORD_SIZE);
+        readSpilled(index, record);
+        return record.get(10);
+    }
+
+    /**
+     * Get the block of an entry. Blocks with tile entity data are returned
+     * as they were added; other blocks are created on demand.
+     *
+     * @param index
+     * @return
+     */
+    public BaseBlock getBlock(int index) {
+        checkIndex(index);
+        if (!tileEntities.isEmpty()) {
+            BaseBlock block = tileEntities.get(index);
+            if (block != null) {
+                return block;
+            }
+        }
+        if (index < memorySize) {
+            return new BaseBlock(types[index], data[index]);
+        }
+        ByteBuffer record = ByteBuffer.allocate(RECORD_SIZE);
+        readSpilled(index, record);
+        return new BaseBlock(record.getShort(8), record.get(10));
+    }
+
+    /**
+     * Get a cursor that walks over the entries from first to last.
+     *
+     * @return
+     */
+    public Cursor forward() {
+        return new Cursor(false);
+    }
+
+    /**
+     * Get a cursor that walks over the entries from last to first.
+     *
+     * @return
+     */
+    public Cursor reverse() {
+        return new Cursor(true);
+    }
+
+    /**
+     * Clear the journal.
+     */
+    public void clear() {
+        closeSpill();
+        memorySize = 0;
+        size = 0;
+        tileEntities.clear();
+    }
+
+    /**
+     * Clear the journal and delete the spill file, if any.
+     */
+    public void dispose() {
+        clear();
+        release();
+    }
+
+    /**
+     * Drop the in-memory arrays, which must not hold any entries.
+     */
+    private void release() {
+        positions = EMPTY_POSITIONS;
+        types = EMPTY_TYPES;
+        data = EMPTY_DATA;
+    }
+
+    private void closeSpill() {
+        if (spillHandle != null) {
+            try {
+                spillHandle.close();
+            } catch (IOException e) {
+            }
+        }
+        if (spillFile != null) {
+            spillFile.delete();
+        }
+        spillFile = null;
+        spillHandle = null;
+        spillChannel = null;
+        writeBuffer = null;
+    }
+
+    /**
+     * Free unused capacity.
+     */
+    public void trimToSize() {
+        if (memorySize == 0) {
+            release();
+        } else if (positions.length != memorySize) {
+            resize(memorySize);
+        }
+    }
+
+    /**
+     * Get a rough estimate of the number of bytes used on the heap by
+     * this journal.
+     *
+     * @return
+     */
+    public long getEstimatedMemoryUsage() {
+        // Array payloads plus a rough cost per tile entity block
+        return positions.length * 11L + tileEntities.size() * 96L
+                + (writeBuffer != null ? writeBuffer.capacity() : 0) + 64;
+    }
+
+    /**
+     * Get the number of bytes written to disk.
+     *
+     * @return
+     */
+    public long getDiskUsage() {
+        return (long) getSpilledSize() * RECORD_SIZE;
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+        }
+    }
+
+    /**
+     * Pack a position into a long. X and Z get 26 bits each and Y gets
+     * 12 bits, all signed.
+     *
+     * @param x
+     * @param y
+     * @param z
+     * @return
+     */
+    public static long pack(int x, int y, int z) {
+        return ((long) x << 38) | (((long) z & 0x3FFFFFFL) << 12) | ((long) y & 0xFFFL);
+    }
+
+    /**
+     * Get the X component of a packed position.
+     *
+     * @param pos
+     * @return
+     */
+    public static int unpackX(long pos) {
+        return (int) (pos >> 38);
+    }
+
+    /**
+     * Get the Y component of a packed position.
+     *
+     * @param pos
+     * @return
+     */
+    public static int unpackY(long pos) {
+        return (int) (pos << 52 >> 52);
+    }
+
+    /**
+     * Get the Z component of a packed position.
+     *
+     * @param pos
+     * @return
+     */
+    public static int unpackZ(long pos) {
+        return (int) (pos << 26 >> 38);
+    }
+
+    /**
+     * Walks over the entries of the journal in one direction. Spilled
+     * entries are read from disk a window at a time.
+     */
+    public class Cursor {
+        private final boolean reverse;
+        private int index;
+        private long pos;
+        private int type;
+        private int data;
+        private ByteBuffer window;
+        private int windowStart;
+        private int windowEnd;
+
+        private Cursor(boolean reverse) {
+            this.reverse = reverse;
+            index = reverse ? size : -1;
+        }
+
+        /**
+         * Move to the next entry.
+         *
+         * @return false if there are no more entries
+         */
+        public boolean next() {
+            if (reverse) {
+                if (index <= 0) {
+                    return false;
+                }
+                --index;
+            } else {
+                if (index + 1 >= size) {
+                    return false;
+                }
+                ++index;
+            }
+
+            if (index < memorySize) {
+                pos = positions[index];
+                type = types[index];
+                data = ChangeJournal.this.data[index];
+                return true;
+            }
+
+            if (window == null || index < windowStart || index >= windowEnd) {
+                loadWindow();
+            }
+
+            int offset = (index - windowStart) * RECORD_SIZE;
+            pos = window.getLong(offset);
+            type = window.getShort(offset + 8);
+            data = window.get(offset + 10);
+            return true;
+        }
+
+        private void loadWindow() {
+            if (window == null) {
+                window = ByteBuffer.allocate(BUFFER_RECORDS * RECORD_SIZE);
+            }
+
+            if (reverse) {
+                windowStart = Math.max(memorySize, index - BUFFER_RECORDS + 1);
+                windowEnd = index + 1;
+            } else {
+                windowStart = index;
+                windowEnd = Math.min(size, index + BUFFER_RECORDS);
+            }
+
+            window.clear();
+            window.limit((windowEnd - windowStart) * RECORD_SIZE);
+            readSpilled(windowStart, window);
+        }
+
+        /**
+         * Get the index of the current entry.
+         *
+         * @return
+         */
+        public int getIndex() {
+            return index;
+        }
+
+        /**
+         * Get the packed position of the current entry.
+         *
+         * @return
+         */
+        public long getPackedPosition() {
+            return pos;
+        }
+
+        /**
+         * Get the position of the current entry.
+         *
+         * @return
+         */
+        public BlockVector getPosition() {
+            return new BlockVector(unpackX(pos), unpackY(pos), unpackZ(pos));
+        }
+
+        /**
+         * Get the block type of the current entry.
+         *
+         * @return
+         */
+        public int getType() {
+            return type;
+        }
+
+        /**
+         * Get the block data of the current entry.
+         *
+         * @return
+         */
+        public int getData() {
+            return data;
+        }
+
+        /**
+         * Get the block of the current entry.
+         *
+         * @return
+         */
+        public BaseBlock getBlock() {
+            if (!tileEntities.isEmpty()) {
+                BaseBlock block = tileEntities.get(index);
+                if (block != null) {
+                    return block;
+                }
+            }
+            return new BaseBlock(type, data);
+        }
+    }
+}
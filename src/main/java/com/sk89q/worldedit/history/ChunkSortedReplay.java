@@ -0,0 +1,154 @@
+// $Id$
+/*
+ * WorldEdit
+ * Copyright (C) 2010 sk89q <http://www.sk89q.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.sk89q.worldedit.history;
+
+import java.util.Arrays;
+import java.util.Map;
+import com.sk89q.worldedit.BlockVector;
+import com.sk89q.worldedit.EditSession;
+import com.sk89q.worldedit.blocks.BaseBlock;
+
+/**
+ * Replays a change journal into an edit session grouped by chunk and by
+ * 16 block high section within each chunk, so that consecutive writes hit
+ * the same chunk instead of jumping around the world. The journal is read
+ * in batches so that spilled journals are not loaded into memory at once;
+ * each batch is sorted on its own.
+ *
+ * <p>Since a journal holds each position only once, the order in which
+ * positions are replayed does not change the result. Blocks that need to
+ * be placed last are still queued by the edit session as usual.</p>
+ *
+ * @author sk89q
+ */
+public class ChunkSortedReplay {
+    /**
+     * Maximum number of entries sorted at once.
+     */
+    private static final int BATCH_SIZE = 1 << 20;
+    private static final int INDEX_BITS = 20;
+    private static final int INDEX_MASK = (1 << INDEX_BITS) - 1;
+    private static final int SECTION_BITS = 4;
+    private static final int CHUNK_Z_BITS = 20;
+    private static final int CHUNK_X_BITS = 19;
+
+    private ChunkSortedReplay() {
+    }
+
+    /**
+     * Replay a journal into an edit session using
+     * {@link EditSession#smartSetBlock(com.sk89q.worldedit.Vector, BaseBlock)}.
+     *
+     * @param journal
+     * @param reverse true to read the journal from last to first entry
+     * @param target
+     */
+    public static void replay(ChangeJournal journal, boolean reverse, EditSession target) {
+        int batchSize = Math.min(journal.size(), BATCH_SIZE);
+        if (batchSize == 0) {
+            return;
+        }
+
+        long[] positions = new long[batchSize];
+        short[] types = new short[batchSize];
+        byte[] data = new byte[batchSize];
+        int[] indexes = new int[batchSize];
+        long[] keys = new long[batchSize];
+        Map<Integer, BaseBlock> tileEntities = journal.getTileEntityBlocks();
+
+        ChangeJournal.Cursor cursor = reverse ? journal.reverse() : journal.forward();
+        boolean more = true;
+
+        while (more) {
+            int count = 0;
+            while (count < batchSize && (more = cursor.next())) {
+                positions[count] = cursor.getPackedPosition();
+                types[count] = (short) cursor.getType();
+                data[count] = (byte) cursor.getData();
+                indexes[count] = cursor.getIndex();
+                ++count;
+            }
+
+            if (count == 0) {
+                break;
+            }
+
+            boolean sorted = sortByChunk(positions, keys, count);
+
+            for (int i = 0; i < count; ++i) {
+                int j = sorted ? (int) (keys[i] & INDEX_MASK) : i;
+                long pos = positions[j];
+
+                BaseBlock block = null;
+                if (!tileEntities.isEmpty()) {
+                    block = tileEntities.get(indexes[j]);
+                }
+                if (block == null) {
+                    block = new BaseBlock(types[j], data[j]);
+                }
+
+                target.smartSetBlock(new BlockVector(ChangeJournal.unpackX(pos),
+                        ChangeJournal.unpackY(pos), ChangeJournal.unpackZ(pos)), block);
+            }
+        }
+    }
+
+    /**
+     * Fill the sort keys for a batch and sort them. The lower bits of a key
+     * hold the batch index of the entry.
+     *
+     * @param positions
+     * @param keys
+     * @param count
+     * @return false if the batch spans too many chunks to be sorted
+     */
+    private static boolean sortByChunk(long[] positions, long[] keys, int count) {
+        int minChunkX = Integer.MAX_VALUE;
+        int minChunkZ = Integer.MAX_VALUE;
+        int maxChunkX = Integer.MIN_VALUE;
+        int maxChunkZ = Integer.MIN_VALUE;
+
+        for (int i = 0; i < count; ++i) {
+            int chunkX = ChangeJournal.unpackX(positions[i]) >> 4;
+            int chunkZ = ChangeJournal.unpackZ(positions[i]) >> 4;
+            minChunkX = Math.min(minChunkX, chunkX);
+            maxChunkX = Math.max(maxChunkX, chunkX);
+            minChunkZ = Math.min(minChunkZ, chunkZ);
+            maxChunkZ = Math.max(maxChunkZ, chunkZ);
+        }
+
+        if (maxChunkX - minChunkX >= (1 << CHUNK_X_BITS)
+                || maxChunkZ - minChunkZ >= (1 << CHUNK_Z_BITS)) {
+            return false;
+        }
+
+        for (int i = 0; i < count; ++i) {
+            long pos = positions[i];
+            long chunkX = (ChangeJournal.unpackX(pos) >> 4) - minChunkX;
+            long chunkZ = (ChangeJournal.unpackZ(pos) >> 4) - minChunkZ;
+            long section = (ChangeJournal.unpackY(pos) >> 4) & ((1 << SECTION_BITS) - 1);
+            keys[i] = (((chunkX << CHUNK_Z_BITS | chunkZ) << SECTION_BITS | section)
+                    << INDEX_BITS) | i;
+        }
+
+        Arrays.sort(keys, 0, count);
+        return true;
+    }
+}
@@ -0,0 +1,163 @@
+// $Id$
+/*
+ * WorldEdit
+ * Copyright (C) 2010 sk89q <http://www.sk89q.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.sk89q.worldedit.history;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import com.sk89q.worldedit.EditSession;
+import com.sk89q.worldedit.LocalConfiguration;
+import com.sk89q.worldedit.LocalSession;
+
+/**
+ * Keeps the undo history of all sessions within a shared memory budget.
+ * When the budget is exceeded, the oldest edit sessions are first moved to
+ * disk (if enabled) and then discarded. The most recent edit session of the
+ * session that triggered the check is never discarded.
+ *
+ * @author sk89q
+ */
+public class HistoryBudget {
+    private final LocalConfiguration config;
+    private final Map<String, LocalSession> sessions;
+
+    /**
+     * Construct the budget.
+     *
+     * @param config configuration to read the limits from
+     * @param sessions sessions sharing the budget; access is synchronized
+     *     on this map
+     */
+    public HistoryBudget(LocalConfiguration config,
+            Map<String, LocalSession> sessions) {
+        this.config = config;
+        this.sessions = sessions;
+    }
+
+    /**
+     * Get the estimated heap usage of the history of all sessions.
+     *
+     * @return
+     */
+    public long getTotalMemoryUsage() {
+        long usage = 0;
+        synchronized (sessions) {
+            for (LocalSession session : sessions.values()) {
+                usage += session.getHistoryMemoryUsage();
+            }
+        }
+        return usage;
+    }
+
+    /**
+     * Bring history usage back under the budget after a session has
+     * remembered a new edit session.
+     *
+     * @param changed
+     */
+    public void enforce(LocalSession changed) {
+        long maxMemory = config.historyMaxMemory;
+        if (maxMemory < 0) {
+            return;
+        }
+
+        synchronized (sessions) {
+            Map<LocalSession, Boolean> all = new IdentityHashMap<LocalSession, Boolean>();
+            for (LocalSession session : sessions.values()) {
+                all.put(session, true);
+            }
+            all.put(changed, true);
+
+            long usage = 0;
+            for (LocalSession session : all.keySet()) {
+                usage += session.getHistoryMemoryUsage();
+            }
+
+            if (usage <= maxMemory) {
+                return;
+            }
+
+            List<HistoryEntry> candidates = new ArrayList<HistoryEntry>();
+            for (LocalSession session : all.keySet()) {
+                if (session != changed && !config.historyGlobalEviction) {
+                    continue;
+                }
+
+                List<EditSession> history = session.getHistory();
+                for (int i = 0; i < history.size(); ++i) {
+                    // Keep the edit that was just made
+                    if (session == changed && i == history.size() - 1) {
+                        continue;
+                    }
+                    candidates.add(new HistoryEntry(session, history.get(i)));
+                }
+            }
+
+            Collections.sort(candidates, new Comparator<HistoryEntry>() {
+                public int compare(HistoryEntry a, HistoryEntry b) {
+                    long timeA = a.editSession.getCreationTime();
+                    long timeB = b.editSession.getCreationTime();
+                    return timeA < timeB ? -1 : (timeA == timeB ? 0 : 1);
+                }
+            });
+
+            if (config.historySpillOldest) {
+                for (HistoryEntry entry : candidates) {
+                    if (usage <= maxMemory) {
+                        return;
+                    }
+
+                    long before = entry.editSession.getEstimatedMemoryUsage();
+                    if (!entry.editSession.spillHistory()) {
+                        break;
+                    }
+                    usage -= before - entry.editSession.getEstimatedMemoryUsage();
+                }
+            }
+
+            for (HistoryEntry entry : candidates) {
+                if (usage <= maxMemory) {
+                    return;
+                }
+
+                // Already only kept on disk
+                if (entry.editSession.getEstimatedMemoryUsage() == 0) {
+                    continue;
+                }
+
+                usage -= entry.editSession.getEstimatedMemoryUsage();
+                entry.session.removeHistory(entry.editSession);
+            }
+        }
+    }
+
+    private static class HistoryEntry {
+        private final LocalSession session;
+        private final EditSession editSession;
+
+        public HistoryEntry(LocalSession session, EditSession editSession) {
+            this.session = session;
+            this.editSession = editSession;
+        }
+    }
+}
@@ -0,0 +1,405 @@
+// $Id$
+/*
+ * WorldEdit
+ * Copyright (C) 2010 sk89q <http://www.sk89q.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.sk89q.worldedit.history;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import com.sk89q.worldedit.EditSession;
+import com.sk89q.worldedit.ServerInterface;
+import com.sk89q.worldedit.data.DataException;
+
+/**
+ * Keeps undo history on disk so that it survives session expiry and
+ * restarts. Every player gets a directory with one compressed segment file
+ * per edit session and an index listing the segments in history order
+ * along with the undo pointer. Segments are written once and never
+ * modified; all writes happen on a background thread in the order they
+ * were requested.
+ *
+ * @author sk89q
+ */
+public class HistoryStore {
+    private static final Logger logger = Logger.getLogger("Minecraft.WorldEdit");
+
+    /**
+     * Marks the start of a segment file.
+     */
+    private static final int SEGMENT_MAGIC = 0x57454853;
+    /**
+     * Version of the segment format.
+     */
+    private static final int SEGMENT_VERSION = 1;
+    private static final String SEGMENT_EXTENSION = ".seg";
+    private static final String INDEX_FILE = "index.txt";
+
+    private final File dir;
+    private final ServerInterface server;
+    private final ExecutorService writer;
+    private final AtomicLong nextId = new AtomicLong(System.currentTimeMillis());
+    /**
+     * The last index queued for each player in this run, which may not be
+     * on disk yet.
+     */
+    private final Map<String, StoredHistory> queuedIndexes =
+            new ConcurrentHashMap<String, StoredHistory>();
+
+    /**
+     * Construct the store.
+     *
+     * @param dir base directory
+     * @param server used to look up worlds
+     */
+    public HistoryStore(File dir, ServerInterface server) {
+        this.dir = dir;
+        this.server = server;
+        this.writer = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "WorldEdit History Writer");
+                thread.setDaemon(true);
+                thread.setPriority(Thread.MIN_PRIORITY);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Get the server interface.
+     *
+     * @return
+     */
+    public ServerInterface getServer() {
+        return server;
+    }
+
+    /**
+     * Get the directory of a player.
+     *
+     * @param owner
+     * @return
+     */
+    private File getOwnerDir(String owner) {
+        return new File(dir, owner.replaceAll("[^A-Za-z0-9_\\-]", "_"));
+    }
+
+    private File getSegmentFile(String owner, long id) {
+        return new File(getOwnerDir(owner), id + SEGMENT_EXTENSION);
+    }
+
+    /**
+     * Queue an edit session to be written to disk. The history of the edit
+     * session is kept in memory until it has been written, even if the edit
+     * session is disposed.
+     *
+     * @param owner name of the player
+     * @param editSession
+     * @return the stored edit session
+     */
+    public StoredEditSession append(final String owner, final EditSession editSession) {
+        final long id = nextId.incrementAndGet();
+        final File file = getSegmentFile(owner, id);
+        final String worldName = editSession.getWorld().getName();
+        final long creationTime = editSession.getCreationTime();
+
+        editSession.retainHistory();
+
+        Future<?> future = writer.submit(new Runnable() {
+            public void run() {
+                try {
+                    writeSegment(file, worldName, creationTime, editSession);
+                } catch (IOException e) {
+                    logger.log(Level.WARNING, "WorldEdit: Failed to write history for "
+                            + owner + " to " + file, e);
+                } catch (DataException e) {
+                    logger.log(Level.WARNING, "WorldEdit: Failed to write history for "
+                            + owner + " to " + file, e);
+                } finally {
+                    editSession.releaseHistoryReference();
+                }
+            }
+        });
+
+        return new StoredEditSession(this, owner, id, worldName,
+                creationTime, editSession.size(), future);
+    }
+
+    private void writeSegment(File file, String worldName, long creationTime,
+            EditSession editSession) throws IOException, DataException {
+        file.getParentFile().mkdirs();
+        File tempFile = new File(file.getPath() + ".tmp");
+
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                new GZIPOutputStream(new FileOutputStream(tempFile))));
+        try {
+            out.writeInt(SEGMENT_MAGIC);
+            out.writeInt(SEGMENT_VERSION);
+            out.writeUTF(worldName);
+            out.writeLong(creationTime);
+            editSession.writeHistory(out);
+        } finally {
+            out.close();
+        }
+
+        if (!tempFile.renameTo(file)) {
+            tempFile.delete();
+            throw new IOException("Failed to rename " + tempFile + " to " + file);
+        }
+    }
+
+    /**
+     * Load the history of a stored edit session from disk, waiting for it
+     * to be written first if needed.
+     *
+     * @param stored
+     * @return a new edit session holding the history
+     * @throws JournalException if the history cannot be read
+     */
+    public EditSession load(StoredEditSession stored) {
+        Future<?> pending = stored.getPendingWrite();
+        if (pending != null) {
+            try {
+                pending.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new JournalException("Interrupted while waiting for history to be written");
+            } catch (ExecutionException e) {
+                throw new JournalException("Failed to write history", e.getCause());
+            }
+            stored.clearPendingWrite();
+        }
+
+        File file = getSegmentFile(stored.getOwner(), stored.getId());
+        EditSession editSession = new EditSession(stored.getWorld(), -1);
+
+        try {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(
+                    new GZIPInputStream(new FileInputStream(file))));
+            try {
+                if (in.readInt() != SEGMENT_MAGIC || in.readInt() != SEGMENT_VERSION) {
+                    throw new JournalException("Unknown history format in " + file);
+                }
+                in.readUTF();
+                in.readLong();
+                editSession.readHistory(in);
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            editSession.dispose();
+            throw new JournalException("Failed to read history from " + file, e);
+        } catch (DataException e) {
+            editSession.dispose();
+            throw new JournalException("Failed to read history from " + file, e);
+        }
+
+        return editSession;
+    }
+
+    /**
+     * Queue a write of a player's index. Segments that are not in the list
+     * are deleted.
+     *
+     * @param owner name of the player
+     * @param entries history, oldest first
+     * @param pointer undo pointer
+     */
+    public void writeIndex(final String owner, List<StoredEditSession> entries,
+            final int pointer) {
+        final List<StoredEditSession> copy = new ArrayList<StoredEditSession>(entries);
+        queuedIndexes.put(owner, new StoredHistory(copy, pointer));
+
+        writer.submit(new Runnable() {
+            public void run() {
+                try {
+                    writeIndexNow(owner, copy, pointer);
+                } catch (IOException e) {
+                    logger.log(Level.WARNING, "WorldEdit: Failed to write history index for "
+                            + owner, e);
+                }
+            }
+        });
+    }
+
+    private void writeIndexNow(String owner, List<StoredEditSession> entries,
+            int pointer) throws IOException {
+        File ownerDir = getOwnerDir(owner);
+        ownerDir.mkdirs();
+        File file = new File(ownerDir, INDEX_FILE);
+        File tempFile = new File(ownerDir, INDEX_FILE + ".tmp");
+
+        Set<String> keep = new HashSet<String>();
+
+        PrintWriter out = new PrintWriter(new OutputStreamWriter(
+                new FileOutputStream(tempFile), "UTF-8"));
+        try {
+            out.println("pointer " + pointer);
+            for (StoredEditSession entry : entries) {
+                out.println(entry.getId() + " " + entry.getCreationTime() + " "
+                        + entry.size() + " " + entry.getWorldName());
+                keep.add(entry.getId() + SEGMENT_EXTENSION);
+            }
+        } finally {
+            out.close();
+        }
+
+        file.delete();
+        if (!tempFile.renameTo(file)) {
+            throw new IOException("Failed to rename " + tempFile + " to " + file);
+        }
+
+        // Remove segments that dropped out of the history
+        File[] files = ownerDir.listFiles();
+        if (files != null) {
+            for (File segment : files) {
+                String name = segment.getName();
+                if (name.endsWith(SEGMENT_EXTENSION) && !keep.contains(name)) {
+                    segment.delete();
+                }
+            }
+        }
+    }
+
+    /**
+     * Read the history of a player. If an index was queued for the player
+     * in this run, it is used instead of the file, so that this does not
+     * have to wait for the writer.
+     *
+     * @param owner name of the player
+     * @return the stored history, or null if there is none
+     */
+    public StoredHistory loadIndex(String owner) {
+        StoredHistory queued = queuedIndexes.get(owner);
+        if (queued != null) {
+            return new StoredHistory(new ArrayList<StoredEditSession>(
+                    queued.getEntries()), queued.getPointer());
+        }
+
+        File file = new File(getOwnerDir(owner), INDEX_FILE);
+        if (!file.exists()) {
+            return null;
+        }
+
+        List<StoredEditSession> entries = new ArrayList<StoredEditSession>();
+        int pointer = 0;
+
+        try {
+            BufferedReader in = new BufferedReader(new FileReader(file));
+            try {
+                String line;
+                while ((line = in.readLine()) != null) {
+                    String[] parts = line.split(" ", 4);
+                    if (parts.length == 2 && parts[0].equals("pointer")) {
+                        pointer = Integer.parseInt(parts[1]);
+                    } else if (parts.length == 4) {
+                        long id = Long.parseLong(parts[0]);
+                        if (!getSegmentFile(owner, id).exists()) {
+                            continue;
+                        }
+                        entries.add(new StoredEditSession(this, owner, id, parts[3],
+                                Long.parseLong(parts[1]), Integer.parseInt(parts[2]), null));
+                    }
+                }
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "WorldEdit: Failed to read history index for "
+                    + owner, e);
+            return null;
+        } catch (NumberFormatException e) {
+            logger.log(Level.WARNING, "WorldEdit: Corrupt history index for "
+                    + owner, e);
+            return null;
+        }
+
+        return new StoredHistory(entries, Math.max(0, Math.min(pointer, entries.size())));
+    }
+
+    /**
+     * Wait for all queued writes to finish and stop the writer thread.
+     */
+    public void close() {
+        writer.shutdown();
+        try {
+            if (!writer.awaitTermination(60, TimeUnit.SECONDS)) {
+                logger.warning("WorldEdit: Timed out waiting for history to be written");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * History of a player read from disk.
+     */
+    public static class StoredHistory {
+        private final List<StoredEditSession> entries;
+        private final int pointer;
+
+        public StoredHistory(List<StoredEditSession> entries, int pointer) {
+            this.entries = entries;
+            this.pointer = pointer;
+        }
+
+        /**
+         * Get the edit sessions, oldest first.
+         *
+         * @return
+         */
+        public List<StoredEditSession> getEntries() {
+            return entries;
+        }
+
+        /**
+         * Get the undo pointer.
+         *
+         * @return
+         */
+        public int getPointer() {
+            return pointer;
+        }
+    }
+}
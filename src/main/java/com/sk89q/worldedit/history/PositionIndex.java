@@ -0,0 +1,191 @@
+// $Id$
+/*
+ * WorldEdit
+ * Copyright (C) 2010 sk89q <http://www.sk89q.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.sk89q.worldedit.history;
+
+import java.util.Arrays;
+
+/**
+ * Maps packed positions (see {@link ChangeJournal#pack(int, int, int)}) to
+ * entry indexes using open addressing with linear probing, so that no
+ * objects are allocated per position.
+ *
+ * @author sk89q
+ */
+public class PositionIndex {
+    /**
+     * Maximum ratio of used slots before the table is grown.
+     */
+    private static final float LOAD_FACTOR = 0.6f;
+    /**
+     * Number of slots allocated for the first position.
+     */
+    private static final int MIN_CAPACITY = 16;
+    /**
+     * Arrays shared by indexes that hold no positions.
+     */
+    private static final long[] EMPTY_KEYS = new long[0];
+    private static final int[] EMPTY_VALUES = new int[0];
+
+    private long[] keys;
+    private int[] values;
+    private int mask;
+    private int size = 0;
+    private int resizeAt;
+
+    /**
+     * Construct the index. Nothing is allocated until the first position
+     * is stored.
+     */
+    public PositionIndex() {
+        this(0);
+    }
+
+    /**
+     * Construct the index with room for the given number of positions.
+     *
+     * @param expected
+     */
+    public PositionIndex(int expected) {
+        if (expected <= 0) {
+            release();
+            return;
+        }
+
+        int capacity = MIN_CAPACITY;
+        while (capacity * LOAD_FACTOR < expected) {
+            capacity <<= 1;
+        }
+        allocate(capacity);
+    }
+
+    private void allocate(int capacity) {
+        keys = new long[capacity];
+        values = new int[capacity];
+        Arrays.fill(values, -1);
+        mask = capacity - 1;
+        resizeAt = (int) (capacity * LOAD_FACTOR);
+    }
+
+    private void release() {
+        keys = EMPTY_KEYS;
+        values = EMPTY_VALUES;
+        mask = 0;
+        resizeAt = 0;
+    }
+
+    private int slot(long key) {
+        long hash = key * 0x9E3779B97F4A7C15L;
+        return (int) (hash ^ (hash >>> 32)) & mask;
+    }
+
+    /**
+     * Get the index stored for a position.
+     *
+     * @param key packed position
+     * @return index, or -1 if the position is not in the index
+     */
+    public int get(long key) {
+        if (size == 0) {
+            return -1;
+        }
+
+        int i = slot(key);
+        while (values[i] != -1) {
+            if (keys[i] == key) {
+                return values[i];
+            }
+            i = (i + 1) & mask;
+        }
+        return -1;
+    }
+
+    /**
+     * Store the index for a position, replacing any previous one.
+     *
+     * @param key packed position
+     * @param value index, must be 0 or greater
+     */
+    public void put(long key, int value) {
+        if (value < 0) {
+            throw new IllegalArgumentException("Index must be >= 0");
+        }
+        if (keys.length == 0) {
+            allocate(MIN_CAPACITY);
+        }
+
+        int i = slot(key);
+        while (values[i] != -1) {
+            if (keys[i] == key) {
+                values[i] = value;
+                return;
+            }
+            i = (i + 1) & mask;
+        }
+
+        keys[i] = key;
+        values[i] = value;
+        if (++size > resizeAt) {
+            rehash(keys.length << 1);
+        }
+    }
+
+    private void rehash(int capacity) {
+        long[] oldKeys = keys;
+        int[] oldValues = values;
+        allocate(capacity);
+
+        for (int j = 0; j < oldKeys.length; ++j) {
+            if (oldValues[j] != -1) {
+                int i = slot(oldKeys[j]);
+                while (values[i] != -1) {
+                    i = (i + 1) & mask;
+                }
+                keys[i] = oldKeys[j];
+                values[i] = oldValues[j];
+            }
+        }
+    }
+
+    /**
+     * Get the number of positions in the index.
+     *
+     * @return
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Remove all positions.
+     */
+    public void clear() {
+        release();
+        size = 0;
+    }
+
+    /**
+     * Get a rough estimate of the number of bytes used on the heap.
+     *
+     * @return
+     */
+    public long getEstimatedMemoryUsage() {
+        return keys.length * 12L + 48;
+    }
+}
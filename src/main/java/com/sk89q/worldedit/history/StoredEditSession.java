@@ -0,0 +1,175 @@
+// $Id$
+/*
+ * WorldEdit
+ * Copyright (C) 2010 sk89q <http://www.sk89q.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.sk89q.worldedit.history;
+
+import java.util.concurrent.Future;
+import com.sk89q.worldedit.EditSession;
+import com.sk89q.worldedit.LocalWorld;
+
+/**
+ * An edit session whose history is kept in a {@link HistoryStore} segment
+ * instead of in memory. The history is loaded from disk only while it is
+ * being undone or redone.
+ *
+ * @author sk89q
+ */
+public class StoredEditSession extends EditSession {
+    private final HistoryStore store;
+    private final String owner;
+    private final long id;
+    private final String worldName;
+    private final long creationTime;
+    private final int size;
+    private Future<?> pendingWrite;
+    private LocalWorld resolvedWorld;
+
+    /**
+     * Construct the stored edit session.
+     *
+     * @param store
+     * @param owner
+     * @param id
+     * @param worldName
+     * @param creationTime
+     * @param size
+     * @param pendingWrite write of the segment, or null if already written
+     */
+    public StoredEditSession(HistoryStore store, String owner, long id,
+            String worldName, long creationTime, int size, Future<?> pendingWrite) {
+        super(null, -1);
+        this.store = store;
+        this.owner = owner;
+        this.id = id;
+        this.worldName = worldName;
+        this.creationTime = creationTime;
+        this.size = size;
+        this.pendingWrite = pendingWrite;
+    }
+
+    /**
+     * Get the name of the player that owns this history.
+     *
+     * @return
+     */
+    public String getOwner() {
+        return owner;
+    }
+
+    /**
+     * Get the ID of the segment.
+     *
+     * @return
+     */
+    public long getId() {
+        return id;
+    }
+
+    /**
+     * Get the name of the world the changes were made in.
+     *
+     * @return
+     */
+    public String getWorldName() {
+        return worldName;
+    }
+
+    /**
+     * Get the write of the segment, if it may still be in progress.
+     *
+     * @return future or null
+     */
+    Future<?> getPendingWrite() {
+        return pendingWrite;
+    }
+
+    /**
+     * Forget about the pending write once it has completed.
+     */
+    void clearPendingWrite() {
+        pendingWrite = null;
+    }
+
+    @Override
+    public LocalWorld getWorld() {
+        if (resolvedWorld == null) {
+            resolvedWorld = store.getServer().getWorld(worldName);
+        }
+        return resolvedWorld;
+    }
+
+    @Override
+    public void undo(EditSession sess) {
+        checkWorld();
+        EditSession loaded = store.load(this);
+        try {
+            loaded.undo(sess);
+        } finally {
+            loaded.dispose();
+        }
+    }
+
+    @Override
+    public void redo(EditSession sess) {
+        checkWorld();
+        EditSession loaded = store.load(this);
+        try {
+            loaded.redo(sess);
+        } finally {
+            loaded.dispose();
+        }
+    }
+
+    private void checkWorld() {
+        if (getWorld() == null) {
+            throw new JournalException("The world '" + worldName
+                    + "' of this history is not loaded");
+        }
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public int getBlockChangeCount() {
+        return size;
+    }
+
+    @Override
+    public long getCreationTime() {
+        return creationTime;
+    }
+
+    @Override
+    public long getEstimatedMemoryUsage() {
+        return 0;
+    }
+
+    @Override
+    public long getHistoryDiskUsage() {
+        return 0;
+    }
+
+    @Override
+    public boolean spillHistory() {
+        return true;
+    }
+}
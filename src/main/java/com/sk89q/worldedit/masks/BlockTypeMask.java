@@ -50,7 +50,18 @@ public class BlockTypeMask implements Mask {
     }
     
     public boolean matches(EditSession editSession, Vector pos) {
-        return types.contains(editSession.getBlockType(pos));
+        return matchesType(editSession.getBlockType(pos));
+    }
+
+    /**
+     * Returns true if a block of the given type matches. Subclasses that
+     * change {@link #matches(EditSession, Vector)} must change this too.
+     *
+     * @param type
+     * @return
+     */
+    public boolean matchesType(int type) {
+        return types.contains(type);
     }
 
 }
@@ -20,6 +20,7 @@
 package com.sk89q.worldedit.masks;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import com.sk89q.worldedit.EditSession;
 import com.sk89q.worldedit.Vector;
@@ -47,6 +48,15 @@ public class CombinedMask implements Mask {
         return masks.contains(mask);
     }
 
+    /**
+     * Get the masks that all have to match.
+     *
+     * @return
+     */
+    public List<Mask> getMasks() {
+        return Collections.unmodifiableList(masks);
+    }
+
     public boolean matches(EditSession editSession, Vector pos) {
         for (Mask mask : masks) {
             if (!mask.matches(editSession, pos)) {
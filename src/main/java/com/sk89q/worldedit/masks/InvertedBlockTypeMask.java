@@ -20,8 +20,6 @@
 package com.sk89q.worldedit.masks;
 
 import java.util.Set;
-import com.sk89q.worldedit.EditSession;
-import com.sk89q.worldedit.Vector;
 
 /**
  * A block type mask that only matches blocks that are not in the list.
@@ -47,8 +45,8 @@ public class InvertedBlockTypeMask extends BlockTypeMask {
     }
 
     @Override
-    public boolean matches(EditSession editSession, Vector pos) {
-        return !types.contains(editSession.getBlockType(pos));
+    public boolean matchesType(int type) {
+        return !types.contains(type);
     }
 
 }
@@ -31,6 +31,15 @@ public class RegionMask implements Mask {
         this.region = region;
     }
 
+    /**
+     * Get the region that blocks have to be in.
+     *
+     * @return
+     */
+    public Region getRegion() {
+        return region;
+    }
+
     public boolean matches(EditSession editSession, Vector pos) {
         return region.contains(pos);
     }
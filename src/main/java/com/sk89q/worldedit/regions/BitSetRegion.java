@@ -0,0 +1,1219 @@
+// $Id$
+/*
+ * WorldEdit
+ * Copyright (C) 2010 sk89q <http://www.sk89q.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.sk89q.worldedit.regions;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.ConcurrentModificationException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import com.sk89q.worldedit.BlockVector;
+import com.sk89q.worldedit.BlockVector2D;
+import com.sk89q.worldedit.EditSession;
+import com.sk89q.worldedit.MaxChangedBlocksException;
+import com.sk89q.worldedit.Vector;
+import com.sk89q.worldedit.Vector2D;
+import com.sk89q.worldedit.blocks.BlockID;
+import com.sk89q.worldedit.data.DataException;
+import com.sk89q.worldedit.masks.BlockTypeMask;
+import com.sk89q.worldedit.masks.CombinedMask;
+import com.sk89q.worldedit.masks.ExistingBlockMask;
+import com.sk89q.worldedit.masks.Mask;
+
+/**
+ * A region of any shape, kept as the set of blocks in it. The set is a bit
+ * set grouped by chunk and, like {@link com.sk89q.worldedit.FloodFill},
+ * allocated a 16x16x16 section at a time, so only the parts of the world
+ * the region reaches take memory. Whether a block is in the region is
+ * answered with one lookup.
+ *
+ * <p>Regions of any kind can be added with {@link #union(Region)}, kept
+ * with {@link #intersect(Region)} and taken away with
+ * {@link #subtract(Region)}. These go through the other region with
+ * {@link Region#visitChunks(ChunkVisitor)} and work on whole rows of
+ * blocks at a time. Intersecting with a cuboid works on whole sections.</p>
+ *
+ * <p>Sections that are completely inside the region all share one bit set
+ * and sections with nothing in them are dropped, so a selection the size
+ * of a map only takes memory where it has edges. A region can be saved to
+ * a file with {@link #save(File)} and read back with {@link #load(File)}.</p>
+ *
+ * @author sk89q
+ */
+public class BitSetRegion implements Region {
+    /**
+     * Bit set shared by every section that is completely inside the region.
+     * It is never changed; a section is copied before blocks are removed
+     * from it.
+     */
+    private static final long[] FULL = new long[64];
+
+    static {
+        Arrays.fill(FULL, -1L);
+    }
+
+    private static final int MAGIC = 0x57454253;
+    private static final int VERSION = 1;
+
+    private final Map<Long, Column> columns = new HashMap<Long, Column>();
+    private long size = 0;
+
+    private boolean boundsValid = true;
+    private boolean hasBounds = false;
+    private int minX;
+    private int minY;
+    private int minZ;
+    private int maxX;
+    private int maxY;
+    private int maxZ;
+
+    /**
+     * Construct an empty region.
+     */
+    public BitSetRegion() {
+    }
+
+    /**
+     * Construct a region with the blocks of another region.
+     *
+     * @param region
+     */
+    public BitSetRegion(Region region) {
+        union(region);
+    }
+
+    /**
+     * Construct a region with the blocks of another region that a mask
+     * matches. Masks that only look at block types are checked against
+     * whole spans of blocks read at once.
+     *
+     * @param editSession session the mask reads blocks through
+     * @param region
+     * @param mask
+     * @throws MaxChangedBlocksException if the region is larger than the
+     *     session's block change limit
+     */
+    public BitSetRegion(final EditSession editSession, Region region,
+            final Mask mask) throws MaxChangedBlocksException {
+        int limit = editSession.getBlockChangeLimit();
+        if (limit >= 0 && getBoundingVolume(region) > limit
+                && countBlocks(region) > limit) {
+            throw new MaxChangedBlocksException(limit);
+        }
+
+        final boolean[] typeTable = getTypeTable(mask);
+        if (typeTable == null) {
+            visit(region, new ChunkVisitor() {
+                public boolean beginChunk(int chunkX, int chunkZ) {
+                    return true;
+                }
+
+                public void visitSpan(int minX, int maxX, int minY, int maxY, int z) {
+                    for (int y = minY; y <= maxY; ++y) {
+                        for (int x = minX; x <= maxX; ++x) {
+                            if (mask.matches(editSession, new Vector(x, y, z))) {
+                                fill(x, x, y, y, z, true);
+                            }
+                        }
+                    }
+                }
+            });
+            return;
+        }
+
+        final int maxHeight = editSession.getWorld().getHeight();
+        final short[] types = new short[16 * (maxHeight + 1)];
+        final byte[] data = new byte[types.length];
+
+        visit(region, new ChunkVisitor() {
+            public boolean beginChunk(int chunkX, int chunkZ) {
+                return true;
+            }
+
+            public void visitSpan(int minX, int maxX, int minY, int maxY, int z) {
+                // Blocks outside of the world are air
+                if (typeTable[BlockID.AIR]) {
+                    if (minY < 0) {
+                        fill(minX, maxX, minY, Math.min(-1, maxY), z, true);
+                    }
+                    if (maxY > maxHeight) {
+                        fill(minX, maxX, Math.max(maxHeight + 1, minY), maxY, z, true);
+                    }
+                }
+
+                int y0 = Math.max(0, minY);
+                int y1 = Math.min(maxHeight, maxY);
+                if (y0 > y1) {
+                    return;
+                }
+
+                int width = maxX - minX + 1;
+                editSession.getBlocks(new Vector(minX, y0, z),
+                        new Vector(maxX, y1, z), types, data);
+
+                int index = 0;
+                for (int y = y0; y <= y1; ++y) {
+                    // Add each run of matching blocks at once
+                    boolean matching = false;
+                    int start = minX;
+                    for (int x = minX; x <= maxX; ++x, ++index) {
+                        if (typeTable[types[index] & 0xFFFF] != matching) {
+                            if (matching) {
+                                fill(start, x - 1, y, y, z, true);
+                            }
+                            matching = !matching;
+                            start = x;
+                        }
+                    }
+                    if (matching) {
+                        fill(start, maxX, y, y, z, true);
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Add a block to the region.
+     *
+     * @param pt
+     * @return false if the block was already in the region
+     */
+    public boolean add(Vector pt) {
+        int x = pt.getBlockX();
+        int y = pt.getBlockY();
+        return fill(x, x, y, y, pt.getBlockZ(), true);
+    }
+
+    /**
+     * Remove a block from the region.
+     *
+     * @param pt
+     * @return false if the block was not in the region
+     */
+    public boolean remove(Vector pt) {
+        int x = pt.getBlockX();
+        int y = pt.getBlockY();
+        return fill(x, x, y, y, pt.getBlockZ(), false);
+    }
+
+    /**
+     * Remove every block from the region.
+     */
+    public void clear() {
+        columns.clear();
+        size = 0;
+        boundsValid = true;
+        hasBounds = false;
+    }
+
+    /**
+     * Add the blocks of another region.
+     *
+     * @param region
+     */
+    public void union(Region region) {
+        visit(region, new ChunkVisitor() {
+            public boolean beginChunk(int chunkX, int chunkZ) {
+                return true;
+            }
+
+            public void visitSpan(int minX, int maxX, int minY, int maxY, int z) {
+                fill(minX, maxX, minY, maxY, z, true);
+            }
+        });
+    }
+
+    /**
+     * Keep only the blocks that are also in another region.
+     *
+     * @param region
+     */
+    public void intersect(Region region) {
+        if (region instanceof CuboidRegion) {
+            Vector min = region.getMinimumPoint();
+            Vector max = region.getMaximumPoint();
+            intersectCuboid(min.getBlockX(), min.getBlockY(), min.getBlockZ(),
+                    max.getBlockX(), max.getBlockY(), max.getBlockZ());
+            return;
+        }
+
+        final BitSetRegion kept = new BitSetRegion();
+
+        visit(region, new ChunkVisitor() {
+            private int chunkX;
+            private int chunkZ;
+            private Column column;
+
+            public boolean beginChunk(int chunkX, int chunkZ) {
+                this.chunkX = chunkX;
+                this.chunkZ = chunkZ;
+                column = columns.get(key(chunkX, chunkZ));
+                return column != null;
+            }
+
+            public void visitSpan(int minX, int maxX, int minY, int maxY, int z) {
+                int offset = ((z & 15) << 4) | (minX & 15);
+                long mask = rowMask(minX, maxX, offset);
+
+                for (int y = minY; y <= maxY; ++y) {
+                    long[] section = column.getSection(y >> 4, false);
+                    if (section == null) {
+                        y |= 15;
+                        continue;
+                    }
+
+                    int word = ((y & 15) << 2) | (offset >> 6);
+                    long bits = section[word] & mask;
+                    if (bits == 0) {
+                        continue;
+                    }
+
+                    Column keptColumn = kept.getColumn(chunkX, chunkZ);
+                    long[] keptSection = keptColumn.getSection(y >> 4, true);
+                    long added = bits & ~keptSection[word];
+                    if (added != 0) {
+                        keptSection[word] |= added;
+                        keptColumn.change(y >> 4, Long.bitCount(added));
+                        kept.size += Long.bitCount(added);
+                    }
+                }
+            }
+        });
+
+        columns.clear();
+        columns.putAll(kept.columns);
+        size = kept.size;
+        boundsValid = false;
+    }
+
+    /**
+     * Keep only the blocks inside a cuboid. Sections completely inside the
+     * cuboid are kept as they are and sections completely outside it are
+     * dropped, so only the sections on its faces are looked at.
+     *
+     * @param minX
+     * @param minY
+     * @param minZ
+     * @param maxX
+     * @param maxY
+     * @param maxZ
+     */
+    private void intersectCuboid(int minX, int minY, int minZ,
+            int maxX, int maxY, int maxZ) {
+        long[] laneMasks = new long[4];
+        Iterator<Map.Entry<Long, Column>> it = columns.entrySet().iterator();
+
+        while (it.hasNext()) {
+            Map.Entry<Long, Column> entry = it.next();
+            int baseX = (int) (entry.getKey() >> 32) << 4;
+            int baseZ = (int) (long) entry.getKey() << 4;
+            Column column = entry.getValue();
+
+            int x0 = Math.max(minX, baseX) - baseX;
+            int x1 = Math.min(maxX, baseX + 15) - baseX;
+            int z0 = Math.max(minZ, baseZ) - baseZ;
+            int z1 = Math.min(maxZ, baseZ + 15) - baseZ;
+            if (x0 > x1 || z0 > z1) {
+                size -= column.count;
+                it.remove();
+                continue;
+            }
+
+            // Each word holds four z rows of one height
+            long rowMask = ((1L << (x1 - x0 + 1)) - 1) << x0;
+            for (int lane = 0; lane < 16; ++lane) {
+                if ((lane & 3) == 0) {
+                    laneMasks[lane >> 2] = 0;
+                }
+                if (lane >= z0 && lane <= z1) {
+                    laneMasks[lane >> 2] |= rowMask << ((lane & 3) << 4);
+                }
+            }
+            boolean wholeColumn = x0 == 0 && x1 == 15 && z0 == 0 && z1 == 15;
+
+            for (int i = 0; i < column.sections.length; ++i) {
+                long[] section = column.sections[i];
+                if (section == null) {
+                    continue;
+                }
+
+                int sectionY = column.baseSection + i;
+                int y0 = Math.max(minY, sectionY << 4) - (sectionY << 4);
+                int y1 = Math.min(maxY, (sectionY << 4) + 15) - (sectionY << 4);
+                if (wholeColumn && y0 == 0 && y1 == 15) {
+                    continue;
+                }
+
+                if (section == FULL) {
+                    section = column.unshare(sectionY);
+                }
+
+                int kept = 0;
+                for (int word = 0; word < 64; ++word) {
+                    int y = word >> 2;
+                    section[word] &= y >= y0 && y <= y1 ? laneMasks[word & 3] : 0;
+                    kept += Long.bitCount(section[word]);
+                }
+
+                size -= column.counts[i] - kept;
+                column.change(sectionY, kept - column.counts[i]);
+            }
+
+            if (column.count == 0) {
+                it.remove();
+            }
+        }
+
+        boundsValid = false;
+    }
+
+    /**
+     * Remove the blocks that are in another region.
+     *
+     * @param region
+     */
+    public void subtract(Region region) {
+        visit(region, new ChunkVisitor() {
+            public boolean beginChunk(int chunkX, int chunkZ) {
+                return columns.containsKey(key(chunkX, chunkZ));
+            }
+
+            public void visitSpan(int minX, int maxX, int minY, int maxY, int z) {
+                fill(minX, maxX, minY, maxY, z, false);
+            }
+        });
+    }
+
+    /**
+     * Get the lower point of the region.
+     *
+     * @return min. point
+     */
+    public Vector getMinimumPoint() {
+        recalculate();
+        return hasBounds ? new BlockVector(minX, minY, minZ)
+                : new BlockVector(0, 0, 0);
+    }
+
+    /**
+     * Get the upper point of the region.
+     *
+     * @return max. point
+     */
+    public Vector getMaximumPoint() {
+        recalculate();
+        return hasBounds ? new BlockVector(maxX, maxY, maxZ)
+                : new BlockVector(0, 0, 0);
+    }
+
+    /**
+     * Get the number of blocks in the region.
+     *
+     * @return number of blocks
+     */
+    public int getArea() {
+        return (int) Math.min(size, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Get roughly the number of bytes the region takes.
+     *
+     * @return
+     */
+    public long getMemorySize() {
+        long memory = 0;
+
+        for (Column column : columns.values()) {
+            memory += 64 + column.sections.length * 12L;
+            for (long[] section : column.sections) {
+                if (section != null && section != FULL) {
+                    memory += 16 + 64 * 8;
+                }
+            }
+        }
+
+        return memory;
+    }
+
+    /**
+     * Save the region to a file.
+     *
+     * @param file
+     * @throws IOException
+     */
+    public void save(File file) throws IOException {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                new GZIPOutputStream(new FileOutputStream(file))));
+
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(columns.size());
+
+            for (long key : getSortedKeys()) {
+                Column column = columns.get(key);
+                out.writeInt((int) (key >> 32));
+                out.writeInt((int) key);
+                out.writeInt(column.baseSection);
+                out.writeInt(column.sections.length);
+
+                for (long[] section : column.sections) {
+                    if (section == null) {
+                        out.writeByte(0);
+                    } else if (section == FULL) {
+                        out.writeByte(1);
+                    } else {
+                        out.writeByte(2);
+                        for (long word : section) {
+                            out.writeLong(word);
+                        }
+                    }
+                }
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Load a region saved with {@link #save(File)}.
+     *
+     * @param file
+     * @return
+     * @throws IOException
+     * @throws DataException if the file is not a saved region
+     */
+    public static BitSetRegion load(File file)
+            throws IOException, DataException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(
+                new GZIPInputStream(new FileInputStream(file))));
+        BitSetRegion region = new BitSetRegion();
+
+        try {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new DataException("Unknown block set format in " + file);
+            }
+
+            int columnCount = in.readInt();
+            for (int c = 0; c < columnCount; ++c) {
+                Column column = region.getColumn(in.readInt(), in.readInt());
+                int baseSection = in.readInt();
+                int sectionCount = in.readInt();
+                if (sectionCount < 0 || sectionCount > 1 << 20) {
+                    throw new DataException("Corrupt block set in " + file);
+                }
+
+                for (int i = 0; i < sectionCount; ++i) {
+                    int kind = in.readByte();
+                    if (kind == 0) {
+                        continue;
+                    }
+
+                    long[] section = column.getSection(baseSection + i, true);
+                    if (section == FULL) {
+                        throw new DataException("Corrupt block set in " + file);
+                    } else if (kind == 1) {
+                        Arrays.fill(section, -1L);
+                    } else if (kind == 2) {
+                        for (int word = 0; word < 64; ++word) {
+                            section[word] = in.readLong();
+                        }
+                    } else {
+                        throw new DataException("Corrupt block set in " + file);
+                    }
+
+                    int count = 0;
+                    for (long word : section) {
+                        count += Long.bitCount(word);
+                    }
+                    column.change(baseSection + i, count);
+                    region.size += count;
+                }
+            }
+        } finally {
+            in.close();
+        }
+
+        // Drop anything that turned out to be empty
+        Iterator<Column> it = region.columns.values().iterator();
+        while (it.hasNext()) {
+            if (it.next().count == 0) {
+                it.remove();
+            }
+        }
+        region.boundsValid = false;
+
+        return region;
+    }
+
+    /**
+     * Get X-size.
+     *
+     * @return width
+     */
+    public int getWidth() {
+        recalculate();
+        return hasBounds ? maxX - minX + 1 : 0;
+    }
+
+    /**
+     * Get Y-size.
+     *
+     * @return height
+     */
+    public int getHeight() {
+        recalculate();
+        return hasBounds ? maxY - minY + 1 : 0;
+    }
+
+    /**
+     * Get Z-size.
+     *
+     * @return length
+     */
+    public int getLength() {
+        recalculate();
+        return hasBounds ? maxZ - minZ + 1 : 0;
+    }
+
+    /**
+     * Block sets cannot be expanded.
+     *
+     * @param change
+     * @throws RegionOperationException
+     */
+    public void expand(Vector change) throws RegionOperationException {
+        throw new RegionOperationException("Block sets cannot be expanded.");
+    }
+
+    /**
+     * Block sets cannot be contracted.
+     *
+     * @param change
+     * @throws RegionOperationException
+     */
+    public void contract(Vector change) throws RegionOperationException {
+        throw new RegionOperationException("Block sets cannot be contracted.");
+    }
+
+    /**
+     * Returns true based on whether the region contains the point,
+     *
+     * @param pt
+     * @return
+     */
+    public boolean contains(Vector pt) {
+        int x = pt.getBlockX();
+        int y = pt.getBlockY();
+        int z = pt.getBlockZ();
+
+        Column column = columns.get(key(x >> 4, z >> 4));
+        if (column == null) {
+            return false;
+        }
+
+        long[] section = column.getSection(y >> 4, false);
+        if (section == null) {
+            return false;
+        }
+
+        int bit = ((y & 15) << 8) | ((z & 15) << 4) | (x & 15);
+        return (section[bit >> 6] & (1L << (bit & 63))) != 0;
+    }
+
+    /**
+     * Go through the blocks of the region a chunk at a time. Neighbouring
+     * columns of a z row that hold the same heights are given together, one
+     * span for each run of heights.
+     *
+     * @param visitor
+     * @throws MaxChangedBlocksException
+     */
+    public void visitChunks(ChunkVisitor visitor)
+            throws MaxChangedBlocksException {
+        long[][] rows = new long[16][0];
+
+        for (long key : getSortedKeys()) {
+            Column column = columns.get(key);
+            if (column == null) {
+                continue;
+            }
+
+            int chunkX = (int) (key >> 32);
+            int chunkZ = (int) key;
+            if (!visitor.beginChunk(chunkX, chunkZ)) {
+                continue;
+            }
+
+            // Each section holds 16 heights of a column, four to a word
+            int words = (column.sections.length + 3) >> 2;
+            if (rows[0].length < words) {
+                rows = new long[16][words];
+            }
+            int baseY = column.baseSection << 4;
+
+            for (int z = 0; z < 16; ++z) {
+                for (int x = 0; x < 16; ++x) {
+                    Arrays.fill(rows[x], 0, words, 0);
+                }
+
+                // Turn the row into a bit set of heights for each column
+                for (int s = 0; s < column.sections.length; ++s) {
+                    long[] section = column.sections[s];
+                    if (section == null) {
+                        continue;
+                    }
+
+                    for (int y = 0; y < 16; ++y) {
+                        int bits = (int) (section[(y << 2) | (z >> 2)]
+                                >>> ((z & 3) << 4)) & 0xFFFF;
+                        int height = (s << 4) | y;
+
+                        while (bits != 0) {
+                            int x = Integer.numberOfTrailingZeros(bits);
+                            bits &= bits - 1;
+                            rows[x][height >> 6] |= 1L << (height & 63);
+                        }
+                    }
+                }
+
+                for (int x0 = 0; x0 < 16; ) {
+                    int x1 = x0;
+                    while (x1 < 15 && sameBits(rows[x0], rows[x1 + 1], words)) {
+                        ++x1;
+                    }
+
+                    long[] heights = rows[x0];
+                    int end = words << 6;
+                    for (int start = nextBit(heights, 0, end, true); start < end; ) {
+                        int stop = nextBit(heights, start, end, false);
+                        visitor.visitSpan((chunkX << 4) + x0, (chunkX << 4) + x1,
+                                baseY + start, baseY + stop - 1, (chunkZ << 4) + z);
+                        start = nextBit(heights, stop, end, true);
+                    }
+
+                    x0 = x1 + 1;
+                }
+            }
+        }
+    }
+
+    /**
+     * Get a list of chunks.
+     *
+     * @return
+     */
+    public Set<Vector2D> getChunks() {
+        Set<Vector2D> chunks = new HashSet<Vector2D>();
+
+        for (long key : columns.keySet()) {
+            chunks.add(new BlockVector2D((int) (key >> 32), (int) key));
+        }
+
+        return chunks;
+    }
+
+    /**
+     * Get the iterator.
+     *
+     * @return iterator of points inside the region
+     */
+    public Iterator<BlockVector> iterator() {
+        final long[] keys = getSortedKeys();
+
+        return new Iterator<BlockVector>() {
+            private int keyIndex = -1;
+            private Column column;
+            private int chunkX;
+            private int chunkZ;
+            private int sectionIndex;
+            private long[] section;
+            private int word;
+            private long bits;
+
+            private boolean findNext() {
+                while (bits == 0) {
+                    if (section != null && word < 63) {
+                        bits = section[++word];
+                    } else if (column != null
+                            && sectionIndex < column.sections.length - 1) {
+                        section = column.sections[++sectionIndex];
+                        word = -1;
+                    } else if (keyIndex < keys.length - 1) {
+                        long key = keys[++keyIndex];
+                        column = columns.get(key);
+                        chunkX = (int) (key >> 32);
+                        chunkZ = (int) key;
+                        sectionIndex = -1;
+                        section = null;
+                        if (column == null) {
+                            throw new ConcurrentModificationException();
+                        }
+                    } else {
+                        return false;
+                    }
+                }
+                return true;
+            }
+
+            public boolean hasNext() {
+                return findNext();
+            }
+
+            public BlockVector next() {
+                if (!findNext()) {
+                    throw new NoSuchElementException();
+                }
+
+                int bit = (word << 6) | Long.numberOfTrailingZeros(bits);
+                bits &= bits - 1;
+
+                return new BlockVector((chunkX << 4) | (bit & 15),
+                        ((column.baseSection + sectionIndex) << 4) | (bit >> 8),
+                        (chunkZ << 4) | ((bit >> 4) & 15));
+            }
+
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    /**
+     * Returns string representation in the format
+     * "(minX, minY, minZ) - (maxX, maxY, maxZ) * blocks".
+     *
+     * @return string
+     */
+    @Override
+    public String toString() {
+        return getMinimumPoint() + " - " + getMaximumPoint() + " * " + size;
+    }
+
+    /**
+     * Add or remove a row of blocks, from (x0, y0, z) to (x1, y1, z).
+     *
+     * @param x0
+     * @param x1
+     * @param y0
+     * @param y1
+     * @param z
+     * @param value true to add the blocks, false to remove them
+     * @return whether any block was added or removed
+     */
+    private boolean fill(int x0, int x1, int y0, int y1, int z, boolean value) {
+        boolean any = false;
+
+        for (int chunkX = x0 >> 4; chunkX <= x1 >> 4; ++chunkX) {
+            long key = key(chunkX, z >> 4);
+            Column column = columns.get(key);
+            if (column == null) {
+                if (!value) {
+                    continue;
+                }
+                column = new Column();
+                columns.put(key, column);
+            }
+
+            int a = Math.max(x0, chunkX << 4);
+            int b = Math.min(x1, (chunkX << 4) + 15);
+            int offset = ((z & 15) << 4) | (a & 15);
+            long mask = rowMask(a, b, offset);
+
+            for (int y = y0; y <= y1; ++y) {
+                long[] section = column.getSection(y >> 4, value);
+                if (section == null) {
+                    y |= 15;
+                    continue;
+                }
+
+                int word = ((y & 15) << 2) | (offset >> 6);
+                long changed = (value ? ~section[word] : section[word]) & mask;
+                if (changed == 0) {
+                    continue;
+                }
+
+                if (section == FULL) {
+                    section = column.unshare(y >> 4);
+                }
+                section[word] ^= changed;
+                any = true;
+
+                int count = Long.bitCount(changed);
+                if (value) {
+                    column.change(y >> 4, count);
+                    size += count;
+                    if (boundsValid) {
+                        include(a, b, y, z);
+                    }
+                } else {
+                    column.change(y >> 4, -count);
+                    size -= count;
+                    boundsValid = false;
+                }
+            }
+
+            if (column.count == 0) {
+                columns.remove(key);
+            }
+        }
+
+        return any;
+    }
+
+    private Column getColumn(int chunkX, int chunkZ) {
+        long key = key(chunkX, chunkZ);
+        Column column = columns.get(key);
+        if (column == null) {
+            column = new Column();
+            columns.put(key, column);
+        }
+        return column;
+    }
+
+    /**
+     * Work out the bounds again after blocks were removed, going through
+     * each word of each section rather than each block.
+     */
+    private void recalculate() {
+        if (boundsValid) {
+            return;
+        }
+
+        hasBounds = false;
+
+        for (Map.Entry<Long, Column> entry : columns.entrySet()) {
+            int baseX = (int) (entry.getKey() >> 32) << 4;
+            int baseZ = (int) (long) entry.getKey() << 4;
+            Column column = entry.getValue();
+
+            for (int s = 0; s < column.sections.length; ++s) {
+                long[] section = column.sections[s];
+                if (section == null) {
+                    continue;
+                }
+
+                for (int word = 0; word < 64; ++word) {
+                    if (section[word] == 0) {
+                        continue;
+                    }
+
+                    int y = ((column.baseSection + s) << 4) | (word >> 2);
+                    for (int lane = 0; lane < 4; ++lane) {
+                        int bits = (int) (section[word] >>> (lane << 4)) & 0xFFFF;
+                        if (bits != 0) {
+                            include(baseX + Integer.numberOfTrailingZeros(bits),
+                                    baseX + 31 - Integer.numberOfLeadingZeros(bits),
+                                    y, baseZ + ((word & 3) << 2) + lane);
+                        }
+                    }
+                }
+            }
+        }
+
+        boundsValid = true;
+    }
+
+    private void include(int x0, int x1, int y, int z) {
+        if (!hasBounds) {
+            minX = x0;
+            maxX = x1;
+            minY = maxY = y;
+            minZ = maxZ = z;
+            hasBounds = true;
+            return;
+        }
+
+        minX = Math.min(minX, x0);
+        maxX = Math.max(maxX, x1);
+        minY = Math.min(minY, y);
+        maxY = Math.max(maxY, y);
+        minZ = Math.min(minZ, z);
+        maxZ = Math.max(maxZ, z);
+    }
+
+    /**
+     * Get the keys of the chunks in order of x and then z.
+     *
+     * @return
+     */
+    private long[] getSortedKeys() {
+        long[] keys = new long[columns.size()];
+        int i = 0;
+        for (long key : columns.keySet()) {
+            // Flip the sign of z so that negative z sorts first
+            keys[i++] = key ^ 0x80000000L;
+        }
+
+        Arrays.sort(keys);
+        for (i = 0; i < keys.length; ++i) {
+            keys[i] ^= 0x80000000L;
+        }
+
+        return keys;
+    }
+
+    private static long key(int chunkX, int chunkZ) {
+        return ((long) chunkX << 32) | (chunkZ & 0xFFFFFFFFL);
+    }
+
+    /**
+     * Get the bits of a row of blocks from a to b within its word.
+     *
+     * @param a
+     * @param b
+     * @param offset bit index of the block at a within its section
+     * @return
+     */
+    private static long rowMask(int a, int b, int offset) {
+        return ((1L << (b - a + 1)) - 1) << (offset & 63);
+    }
+
+    private static boolean sameBits(long[] a, long[] b, int words) {
+        for (int i = 0; i < words; ++i) {
+            if (a[i] != b[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Find the next bit that is set, or clear, at or after a position.
+     *
+     * @param bits
+     * @param from
+     * @param end number of bits
+     * @param set
+     * @return the position, or end if there is none
+     */
+    private static int nextBit(long[] bits, int from, int end, boolean set) {
+        if (from >= end) {
+            return end;
+        }
+
+        int i = from >> 6;
+        long word = (set ? bits[i] : ~bits[i]) & (-1L << (from & 63));
+
+        while (word == 0) {
+            if (++i << 6 >= end) {
+                return end;
+            }
+            word = set ? bits[i] : ~bits[i];
+        }
+
+        return Math.min(end, (i << 6) + Long.numberOfTrailingZeros(word));
+    }
+
+    /**
+     * Get the volume of the bounding box of a region, which does not
+     * overflow like {@link Region#getArea()} can.
+     *
+     * @param region
+     * @return
+     */
+    private static long getBoundingVolume(Region region) {
+        Vector min = region.getMinimumPoint();
+        Vector max = region.getMaximumPoint();
+        return (long) (max.getBlockX() - min.getBlockX() + 1)
+                * (max.getBlockY() - min.getBlockY() + 1)
+                * (max.getBlockZ() - min.getBlockZ() + 1);
+    }
+
+    /**
+     * Count the blocks of a region by going through its spans.
+     *
+     * @param region
+     * @return
+     */
+    private static long countBlocks(Region region) {
+        if (region instanceof CuboidRegion) {
+            return getBoundingVolume(region);
+        }
+
+        final long[] count = new long[1];
+        visit(region, new ChunkVisitor() {
+            public boolean beginChunk(int chunkX, int chunkZ) {
+                return true;
+            }
+
+            public void visitSpan(int minX, int maxX, int minY, int maxY, int z) {
+                count[0] += (long) (maxX - minX + 1) * (maxY - minY + 1);
+            }
+        });
+        return count[0];
+    }
+
+    /**
+     * Get which block types a mask matches, if it only looks at the type
+     * of each block.
+     *
+     * @param mask
+     * @return table indexed by type, or null if the mask looks at more
+     */
+    private static boolean[] getTypeTable(Mask mask) {
+        boolean[] table = new boolean[65536];
+        Arrays.fill(table, true);
+        return restrictTypes(mask, table) ? table : null;
+    }
+
+    /**
+     * Clear the entries of a type table that a mask does not match.
+     *
+     * @param mask
+     * @param table
+     * @return false if the mask does not only look at block types
+     */
+    private static boolean restrictTypes(Mask mask, boolean[] table) {
+        if (mask instanceof CombinedMask) {
+            for (Mask part : ((CombinedMask) mask).getMasks()) {
+                if (!restrictTypes(part, table)) {
+                    return false;
+                }
+            }
+        } else if (mask instanceof BlockTypeMask) {
+            BlockTypeMask typeMask = (BlockTypeMask) mask;
+            for (int type = 0; type < table.length; ++type) {
+                if (table[type] && !typeMask.matchesType(type)) {
+                    table[type] = false;
+                }
+            }
+        } else if (mask instanceof ExistingBlockMask) {
+            table[BlockID.AIR] = false;
+        } else {
+            return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * Go through a region with a visitor that does not change any blocks.
+     *
+     * @param region
+     * @param visitor
+     */
+    private static void visit(Region region, ChunkVisitor visitor) {
+        try {
+            region.visitChunks(visitor);
+        } catch (MaxChangedBlocksException e) {
+            throw new IllegalStateException("Region visitor changed blocks");
+        }
+    }
+
+    /**
+     * The sections of one chunk that hold blocks of the region, going up
+     * from the lowest one, with the number of blocks in each. Empty
+     * sections are null and full ones are {@link BitSetRegion#FULL}.
+     */
+    private static class Column {
+        private int baseSection = 0;
+        private long[][] sections = new long[0][];
+        private int[] counts = new int[0];
+        private int count = 0;
+
+        /**
+         * Get a section by its height. The section may be
+         * {@link BitSetRegion#FULL}, which must not be changed.
+         *
+         * @param sectionY
+         * @param create whether to add the section if there is none
+         * @return the section, or null
+         */
+        long[] getSection(int sectionY, boolean create) {
+            int index = sectionY - baseSection;
+            if (index >= 0 && index < sections.length) {
+                long[] section = sections[index];
+                if (section == null && create) {
+                    section = new long[64];
+                    sections[index] = section;
+                }
+                return section;
+            } else if (!create) {
+                return null;
+            }
+
+            int base = sections.length == 0 ? sectionY
+                    : Math.min(baseSection, sectionY);
+            int top = sections.length == 0 ? sectionY
+                    : Math.max(baseSection + sections.length - 1, sectionY);
+            long[][] grownSections = new long[top - base + 1][];
+            int[] grownCounts = new int[grownSections.length];
+            if (sections.length > 0) {
+                System.arraycopy(sections, 0, grownSections, baseSection - base,
+                        sections.length);
+                System.arraycopy(counts, 0, grownCounts, baseSection - base,
+                        counts.length);
+            }
+            sections = grownSections;
+            counts = grownCounts;
+            baseSection = base;
+
+            long[] section = new long[64];
+            sections[sectionY - base] = section;
+            return section;
+        }
+
+        /**
+         * Replace a full section with a copy that can be changed.
+         *
+         * @param sectionY
+         * @return
+         */
+        long[] unshare(int sectionY) {
+            long[] section = FULL.clone();
+            sections[sectionY - baseSection] = section;
+            return section;
+        }
+
+        /**
+         * Record that blocks were added to or removed from a section,
+         * sharing or dropping the section if it became full or empty.
+         *
+         * @param sectionY
+         * @param delta
+         */
+        void change(int sectionY, int delta) {
+            int index = sectionY - baseSection;
+            counts[index] += delta;
+            count += delta;
+
+            if (counts[index] == 16 * 16 * 16) {
+                sections[index] = FULL;
+            } else if (counts[index] == 0) {
+                sections[index] = null;
+            }
+        }
+    }
+}
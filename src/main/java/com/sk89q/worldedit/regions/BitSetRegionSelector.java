@@ -0,0 +1,137 @@
+// $Id$
+/*
+ * WorldEdit
+ * Copyright (C) 2010 sk89q <http://www.sk89q.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.sk89q.worldedit.regions;
+
+import java.util.ArrayList;
+import java.util.List;
+import com.sk89q.worldedit.BlockVector;
+import com.sk89q.worldedit.IncompleteRegionException;
+import com.sk89q.worldedit.LocalPlayer;
+import com.sk89q.worldedit.LocalSession;
+import com.sk89q.worldedit.Vector;
+
+/**
+ * Selector for block sets. The primary selection adds a block to the set
+ * and the secondary selection removes one.
+ *
+ * @author sk89q
+ */
+public class BitSetRegionSelector implements RegionSelector {
+    protected BlockVector pos1;
+    protected BitSetRegion region;
+
+    /**
+     * Construct the selector with an empty set.
+     */
+    public BitSetRegionSelector() {
+        this(new BitSetRegion());
+    }
+
+    /**
+     * Construct the selector with the blocks of a region.
+     *
+     * @param region
+     */
+    public BitSetRegionSelector(BitSetRegion region) {
+        this.region = region;
+    }
+
+    public boolean selectPrimary(Vector pos) {
+        if (!region.add(pos)) {
+            return false;
+        }
+        pos1 = pos.toBlockVector();
+        return true;
+    }
+
+    public boolean selectSecondary(Vector pos) {
+        return region.remove(pos);
+    }
+
+    public void explainPrimarySelection(LocalPlayer player,
+            LocalSession session, Vector pos) {
+        player.print("Added " + pos + " (" + region.getArea() + ").");
+    }
+
+    public void explainSecondarySelection(LocalPlayer player,
+            LocalSession session, Vector pos) {
+        player.print("Removed " + pos + " (" + region.getArea() + ").");
+    }
+
+    public void explainRegionAdjust(LocalPlayer player, LocalSession session) {
+    }
+
+    public BlockVector getPrimaryPosition() throws IncompleteRegionException {
+        if (pos1 != null) {
+            return pos1;
+        } else if (!isDefined()) {
+            throw new IncompleteRegionException();
+        }
+
+        return region.getMinimumPoint().toBlockVector();
+    }
+
+    public BitSetRegion getRegion() throws IncompleteRegionException {
+        if (!isDefined()) {
+            throw new IncompleteRegionException();
+        }
+
+        return region;
+    }
+
+    public BitSetRegion getIncompleteRegion() {
+        return region;
+    }
+
+    public boolean isDefined() {
+        return region.getArea() > 0;
+    }
+
+    public int getArea() {
+        return isDefined() ? region.getArea() : -1;
+    }
+
+    public void learnChanges() {
+        if (pos1 != null && !region.contains(pos1)) {
+            pos1 = null;
+        }
+    }
+
+    public void clear() {
+        pos1 = null;
+        region = new BitSetRegion();
+    }
+
+    public String getTypeName() {
+        return "block set";
+    }
+
+    public String getTypeId() {
+        return "blocks";
+    }
+
+    public List<String> getInformationLines() {
+        List<String> lines = new ArrayList<String>();
+        lines.add("# blocks: " + region.getArea());
+        lines.add("# chunks: " + region.getChunks().size());
+        lines.add("Memory: " + (region.getMemorySize() / 1024) + " KB");
+        return lines;
+    }
+}
@@ -0,0 +1,60 @@
+// $Id$
+/*
+ * WorldEdit
+ * Copyright (C) 2010 sk89q <http://www.sk89q.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.sk89q.worldedit.regions;
+
+import com.sk89q.worldedit.MaxChangedBlocksException;
+
+/**
+ * Receives the blocks of a region one chunk at a time from
+ * {@link Region#visitChunks(ChunkVisitor)}. The blocks of a chunk are
+ * given as spans: a run of blocks along the X axis, at one Z coordinate,
+ * repeated over a range of heights. Nothing is allocated per block or per
+ * span.
+ *
+ * @author sk89q
+ */
+public interface ChunkVisitor {
+    /**
+     * Called when the visit reaches a chunk with blocks in the region,
+     * before any of its spans. Every chunk is visited at most once.
+     *
+     * @param chunkX
+     * @param chunkZ
+     * @return false to skip the spans of this chunk
+     * @throws MaxChangedBlocksException
+     */
+    public boolean beginChunk(int chunkX, int chunkZ)
+            throws MaxChangedBlocksException;
+
+    /**
+     * Called for each span of the current chunk: every block from
+     * (minX, minY, z) to (maxX, maxY, z). Spans are given in order of Z
+     * and then X, and never overlap.
+     *
+     * @param minX
+     * @param maxX
+     * @param minY
+     * @param maxY
+     * @param z
+     * @throws MaxChangedBlocksException
+     */
+    public void visitSpan(int minX, int maxX, int minY, int maxY, int z)
+            throws MaxChangedBlocksException;
+}
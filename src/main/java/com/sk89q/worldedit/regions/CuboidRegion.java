@@ -20,9 +20,10 @@
 package com.sk89q.worldedit.regions;
 
 import com.sk89q.worldedit.BlockVector;
+import com.sk89q.worldedit.BlockVector2D;
+import com.sk89q.worldedit.MaxChangedBlocksException;
 import com.sk89q.worldedit.Vector;
 import com.sk89q.worldedit.Vector2D;
-import com.sk89q.worldedit.data.ChunkStore;
 import java.util.Iterator;
 import java.util.Set;
 import java.util.HashSet;
@@ -275,18 +276,50 @@ public class CuboidRegion implements Region {
         Vector min = getMinimumPoint();
         Vector max = getMaximumPoint();
 
-        for (int x = min.getBlockX(); x <= max.getBlockX(); ++x) {
-            for (int y = min.getBlockY(); y <= max.getBlockY(); ++y) {
-                for (int z = min.getBlockZ(); z <= max.getBlockZ(); ++z) {
-                    Vector pt = new Vector(x, y, z);
-                    chunks.add(ChunkStore.toChunk(pt));
-                }
+        for (int x = min.getBlockX() >> 4; x <= max.getBlockX() >> 4; ++x) {
+            for (int z = min.getBlockZ() >> 4; z <= max.getBlockZ() >> 4; ++z) {
+                chunks.add(new BlockVector2D(x, z));
             }
         }
 
         return chunks;
     }
 
+    /**
+     * Go through the blocks of the region a chunk at a time. Each z row of
+     * a chunk is one span.
+     *
+     * @param visitor
+     * @throws MaxChangedBlocksException
+     */
+    public void visitChunks(ChunkVisitor visitor)
+            throws MaxChangedBlocksException {
+        Vector min = getMinimumPoint();
+        Vector max = getMaximumPoint();
+        int minX = min.getBlockX();
+        int minY = min.getBlockY();
+        int minZ = min.getBlockZ();
+        int maxX = max.getBlockX();
+        int maxY = max.getBlockY();
+        int maxZ = max.getBlockZ();
+
+        for (int cx = minX >> 4; cx <= maxX >> 4; ++cx) {
+            for (int cz = minZ >> 4; cz <= maxZ >> 4; ++cz) {
+                if (!visitor.beginChunk(cx, cz)) {
+                    continue;
+                }
+
+                int x0 = Math.max(minX, cx << 4);
+                int x1 = Math.min(maxX, (cx << 4) + 15);
+                int z1 = Math.min(maxZ, (cz << 4) + 15);
+
+                for (int z = Math.max(minZ, cz << 4); z <= z1; ++z) {
+                    visitor.visitSpan(x0, x1, minY, maxY, z);
+                }
+            }
+        }
+    }
+
     /**
      * Returns true based on whether the region contains the point,
      *
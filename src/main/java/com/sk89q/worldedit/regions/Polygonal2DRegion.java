@@ -20,16 +20,19 @@
 package com.sk89q.worldedit.regions;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
+import java.util.NoSuchElementException;
 import java.util.Set;
 import com.sk89q.worldedit.BlockVector;
 import com.sk89q.worldedit.BlockVector2D;
+import com.sk89q.worldedit.MaxChangedBlocksException;
 import com.sk89q.worldedit.Vector;
 import com.sk89q.worldedit.Vector2D;
-import com.sk89q.worldedit.data.ChunkStore;
 
 /**
  * Represents a 2D polygonal region.
@@ -43,6 +46,12 @@ public class Polygonal2DRegion implements Region {
     protected int minY;
     protected int maxY;
     protected boolean hasY = false;
+
+    /**
+     * The x-spans of the region for each z row, worked out when they are
+     * first needed; see {@link #getSpans()}.
+     */
+    private int[][] spans;
     
     /**
      * Construct the region.
@@ -84,6 +93,8 @@ public class Polygonal2DRegion implements Region {
      * called after points have been changed.
      */
     protected void recalculate() {
+        spans = null;
+
         if (points.size() == 0) {
             min = new BlockVector(0, 0, 0);
             max = new BlockVector(0, 0, 0);
@@ -189,17 +200,15 @@ public class Polygonal2DRegion implements Region {
      * @return number of blocks
      */
     public int getArea() {
-        double area = 0;
-        int i, j = points.size() - 1;
+        long columns = 0;
 
-        for (i = 0; i < points.size(); ++i) {
-            area += (points.get(j).getBlockX() + points.get(i).getBlockX())
-                    * (points.get(j).getBlockZ() - points.get(i).getBlockZ());
-            j = i;
+        for (int[] row : getSpans()) {
+            for (int i = 0; i < row.length; i += 2) {
+                columns += row[i + 1] - row[i] + 1;
+            }
         }
 
-        return (int)Math.floor(Math.abs(area * 0.5) 
-                * (maxY - minY + 1));
+        return (int) (columns * (maxY - minY + 1));
     }
 
     /**
@@ -271,7 +280,190 @@ public class Polygonal2DRegion implements Region {
      * Checks to see if a point is inside this region.
      */
     public boolean contains(Vector pt) {
-        return contains(points, minY, maxY, pt);
+        int y = pt.getBlockY();
+        if (y < minY || y > maxY) {
+            return false;
+        }
+
+        int[][] spans = getSpans();
+        int row = pt.getBlockZ() - min.getBlockZ();
+        if (row < 0 || row >= spans.length) {
+            return false;
+        }
+
+        return spanContains(spans[row], pt.getBlockX());
+    }
+
+    /**
+     * Returns whether an x coordinate is in one of the spans of a row.
+     *
+     * @param row
+     * @param x
+     * @return
+     */
+    private static boolean spanContains(int[] row, int x) {
+        int low = 0;
+        int high = row.length / 2 - 1;
+
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (x < row[mid * 2]) {
+                high = mid - 1;
+            } else if (x > row[mid * 2 + 1]) {
+                low = mid + 1;
+            } else {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Get the columns inside the polygon as spans of x coordinates, one
+     * row for each z coordinate from the minimum point to the maximum point.
+     * Each row holds the first and last x of each span, in order. The spans
+     * are worked out once, when they are first needed after the points
+     * change, and give the same result as
+     * {@link #contains(List, int, int, Vector)} for every column.
+     *
+     * @return
+     */
+    protected int[][] getSpans() {
+        if (spans == null) {
+            int minZ = min.getBlockZ();
+            int[][] spans = new int[points.size() < 3 ? 0
+                    : max.getBlockZ() - minZ + 1][];
+
+            for (int i = 0; i < spans.length; ++i) {
+                spans[i] = scanRow(minZ + i);
+            }
+
+            this.spans = spans;
+        }
+
+        return spans;
+    }
+
+    /**
+     * Work out the spans of one z row. This follows
+     * {@link #contains(List, int, int, Vector)} edge by edge: each edge
+     * flips whether the columns above it, within its x range, are inside,
+     * and the columns on an edge are always inside.
+     *
+     * @param z
+     * @return
+     */
+    private int[] scanRow(int z) {
+        int npoints = points.size();
+        int[] flips = new int[npoints * 2];
+        int flipCount = 0;
+        List<int[]> ranges = new ArrayList<int[]>();
+
+        int xOld = points.get(npoints - 1).getBlockX();
+        int zOld = points.get(npoints - 1).getBlockZ();
+
+        for (int i = 0; i < npoints; ++i) {
+            int xNew = points.get(i).getBlockX();
+            int zNew = points.get(i).getBlockZ();
+            int x1, z1, x2, z2;
+
+            if (xNew > xOld) {
+                x1 = xOld;
+                x2 = xNew;
+                z1 = zOld;
+                z2 = zNew;
+            } else {
+                x1 = xNew;
+                x2 = xOld;
+                z1 = zNew;
+                z2 = zOld;
+            }
+
+            xOld = xNew;
+            zOld = zNew;
+
+            // Corners are inside even where their edges leave them out
+            if (zNew == z) {
+                ranges.add(new int[] { xNew, xNew });
+            }
+
+            long width = x2 - x1;
+            long rise = (long) z2 - z1;
+            long offset = ((long) z - z1) * width;
+
+            if (width == 0) {
+                // Vertical edges only ever contain columns
+                if ((z1 <= z) == (z <= z2)) {
+                    ranges.add(new int[] { x1, x1 });
+                }
+                continue;
+            }
+
+            // Columns on the edge
+            if (rise == 0) {
+                if (z == z1) {
+                    ranges.add(new int[] { x1, x2 });
+                }
+            } else if (offset % rise == 0) {
+                long x = x1 + offset / rise;
+                if (x >= x1 && x <= x2) {
+                    ranges.add(new int[] { (int) x, (int) x });
+                }
+            }
+
+            // Columns below the edge, excluding its first x
+            long first = x1 + 1;
+            long last = x2;
+            if (rise == 0) {
+                if (z >= z1) {
+                    continue;
+                }
+            } else if (rise > 0) {
+                first = Math.max(first, x1 + floorDiv(offset, rise) + 1);
+            } else {
+                last = Math.min(last, x1 - floorDiv(offset, -rise) - 1);
+            }
+
+            if (first <= last) {
+                flips[flipCount++] = (int) first;
+                flips[flipCount++] = (int) last + 1;
+            }
+        }
+
+        Arrays.sort(flips, 0, flipCount);
+        for (int i = 0; i + 1 < flipCount; i += 2) {
+            if (flips[i] < flips[i + 1]) {
+                ranges.add(new int[] { flips[i], flips[i + 1] - 1 });
+            }
+        }
+
+        Collections.sort(ranges, new Comparator<int[]>() {
+            public int compare(int[] a, int[] b) {
+                return a[0] < b[0] ? -1 : a[0] > b[0] ? 1 : 0;
+            }
+        });
+
+        int[] row = new int[ranges.size() * 2];
+        int length = 0;
+        for (int[] range : ranges) {
+            if (length > 0 && range[0] <= row[length - 1] + 1) {
+                row[length - 1] = Math.max(row[length - 1], range[1]);
+            } else {
+                row[length++] = range[0];
+                row[length++] = range[1];
+            }
+        }
+
+        return Arrays.copyOf(row, length);
+    }
+
+    private static long floorDiv(long a, long b) {
+        long q = a / b;
+        if ((a % b != 0) && ((a < 0) != (b < 0))) {
+            --q;
+        }
+        return q;
     }
 
     /**
@@ -350,16 +542,18 @@ public class Polygonal2DRegion implements Region {
     public Set<Vector2D> getChunks() {
         Set<Vector2D> chunks = new HashSet<Vector2D>();
 
-        Vector min = getMinimumPoint();
-        Vector max = getMaximumPoint();
+        if (Math.max(min.getBlockY(), minY) > Math.min(max.getBlockY(), maxY)) {
+            return chunks;
+        }
+
+        int[][] spans = getSpans();
+        for (int i = 0; i < spans.length; ++i) {
+            int chunkZ = (min.getBlockZ() + i) >> 4;
+            int[] row = spans[i];
 
-        for (int x = min.getBlockX(); x <= max.getBlockX(); ++x) {
-            for (int y = min.getBlockY(); y <= max.getBlockY(); ++y) {
-                for (int z = min.getBlockZ(); z <= max.getBlockZ(); ++z) {
-                    Vector pt = new Vector(x, y, z);
-                    if (contains(pt)) { // Not the best
-                        chunks.add(ChunkStore.toChunk(pt));
-                    }
+            for (int j = 0; j < row.length; j += 2) {
+                for (int chunkX = row[j] >> 4; chunkX <= row[j + 1] >> 4; ++chunkX) {
+                    chunks.add(new BlockVector2D(chunkX, chunkZ));
                 }
             }
         }
@@ -367,6 +561,71 @@ public class Polygonal2DRegion implements Region {
         return chunks;
     }
     
+    /**
+     * Go through the blocks of the region a chunk at a time. The spans of
+     * each chunk are the spans of the polygon cut at the chunk's edges, and
+     * chunks that no span reaches are not visited.
+     *
+     * @param visitor
+     * @throws MaxChangedBlocksException
+     */
+    public void visitChunks(ChunkVisitor visitor)
+            throws MaxChangedBlocksException {
+        int y0 = Math.max(min.getBlockY(), minY);
+        int y1 = Math.min(max.getBlockY(), maxY);
+        if (y0 > y1) {
+            return;
+        }
+
+        int[][] spans = getSpans();
+        int minZ = min.getBlockZ();
+        int[] next = new int[16];
+
+        for (int first = 0; first < spans.length; ) {
+            int last = Math.min(spans.length, first + 16 - ((minZ + first) & 15));
+            Arrays.fill(next, 0);
+
+            int x = Integer.MAX_VALUE;
+            for (int i = first; i < last; ++i) {
+                if (spans[i].length > 0) {
+                    x = Math.min(x, spans[i][0]);
+                }
+            }
+
+            while (x != Integer.MAX_VALUE) {
+                int chunkX = x >> 4;
+                int x0 = chunkX << 4;
+                int x1 = x0 + 15;
+
+                if (visitor.beginChunk(chunkX, (minZ + first) >> 4)) {
+                    for (int i = first; i < last; ++i) {
+                        int[] row = spans[i];
+                        for (int j = next[i - first]; j < row.length && row[j] <= x1; j += 2) {
+                            visitor.visitSpan(Math.max(x0, row[j]),
+                                    Math.min(x1, row[j + 1]), y0, y1, minZ + i);
+                        }
+                    }
+                }
+
+                // Move on to the first column right of this chunk
+                x = Integer.MAX_VALUE;
+                for (int i = first; i < last; ++i) {
+                    int[] row = spans[i];
+                    int j = next[i - first];
+                    while (j < row.length && row[j + 1] <= x1) {
+                        j += 2;
+                    }
+                    next[i - first] = j;
+                    if (j < row.length) {
+                        x = Math.min(x, Math.max(x1 + 1, row[j]));
+                    }
+                }
+            }
+
+            first = last;
+        }
+    }
+
     /**
      * Return the number of points.
      * 
@@ -406,63 +665,6 @@ public class Polygonal2DRegion implements Region {
      */
     public Iterator<BlockVector> iterator() {
         return new Polygonal2DRegionIterator(this);
-        
-        /*
-        Incomplete iterator. Where's my yield?!
-        
-        ArrayList<BlockVector> items = new ArrayList<BlockVector>();
-        
-        int nodes, pixelZ, i, j, swap;
-        int n = points.size();
-        int[] nodeX = new int[n];
-
-        int minZ = getMinimumPoint().getBlockZ();
-        int maxZ = getMaximumPoint().getBlockZ();
-        
-        for (pixelZ = minZ; pixelZ < maxZ; ++pixelZ) {
-            // Build a list of nodes
-            nodes = 0;
-            j = n - 1;
-            for (i = 0; i < n; ++i) {
-                if (points.get(i).getBlockZ() < (double) pixelZ
-                        && points.get(j).getBlockZ() >= (double) pixelZ
-                        || points.get(j).getBlockZ() < (double) pixelZ
-                        && points.get(i).getBlockZ() >= (double) pixelZ) {
-                    nodeX[nodes++] = (int) (points.get(i).getBlockX()
-                            + (pixelZ - points.get(i).getBlockZ())
-                            / (points.get(j).getBlockZ() - points.get(i)
-                                    .getBlockZ())
-                            * (points.get(j).getBlockX() - points.get(i)
-                                    .getBlockX()));
-                }
-                j = i;
-            }
-
-            // Sort the nodes, via a simple bubble sort
-            i = 0;
-            while (i < nodes - 1) {
-                if (nodeX[i] > nodeX[i + 1]) {
-                    swap = nodeX[i];
-                    nodeX[i] = nodeX[i + 1];
-                    nodeX[i + 1] = swap;
-                    if (i > 0)
-                        --i;
-                } else {
-                    ++i;
-                }
-            }
-
-            // Fill the pixels between node pairs
-            for (i = 0; i < nodes; i += 2) {
-                for (j = nodeX[i]; j < nodeX[i + 1]; ++j) {
-                    for (int y = minY; y >= maxY; ++y) {
-                        items.add(new BlockVector(j, y, pixelZ));
-                    }
-                }
-            }
-        }
-        
-        return items.iterator();*/
     }
 
     /**
@@ -485,71 +687,52 @@ public class Polygonal2DRegion implements Region {
     }
 
     /**
-     * A terrible polygonal region iterator.
+     * Iterates over the region a z row at a time, going through the spans
+     * of each row and every y of each column.
      */
     public class Polygonal2DRegionIterator implements Iterator<BlockVector> {
-        protected List<BlockVector2D> points = new ArrayList<BlockVector2D>();
-        protected int minX;
+        protected int[][] spans;
         protected int minY;
         protected int minZ;
-        protected int maxX;
         protected int maxY;
-        protected int maxZ;
-        protected int n;
-        protected int i;
+        protected int row;
+        protected int span;
         protected int curX;
-        protected int curZ;
         protected int curY;
         protected BlockVector next;
         
         public Polygonal2DRegionIterator(Polygonal2DRegion region) {
-            points = new ArrayList<BlockVector2D>(region.points);
-            Vector min = region.getMinimumPoint();
-            Vector max = region.getMaximumPoint();
-            minX = min.getBlockX();
-            minY = min.getBlockY();
-            minZ = min.getBlockZ();
-            maxX = max.getBlockX();
-            maxY = max.getBlockY();
-            maxZ = max.getBlockZ();
-            n = (maxX - minX + 1) * (maxZ - minZ + 1);
-            i = 0;
-            curX = 0;
-            curZ = 0;
-            curY = minY;
-            next = null;
+            spans = region.getSpans();
+            minY = region.getMinimumPoint().getBlockY();
+            minZ = region.getMinimumPoint().getBlockZ();
+            maxY = region.getMaximumPoint().getBlockY();
+            row = 0;
+            span = -2;
+            curY = maxY;
             findNext();
         }
         
         private void findNext() {
-            if (i >= n) {
-                next = null;
-                return;
-            }
-            
-            if (next != null && curY <= maxY) {
+            if (curY < maxY) {
                 ++curY;
-                next = new BlockVector(curX, curY, curZ);
-                if (curY > maxY) {
-                    ++i;
-                    curY = minY;
-                } else {
-                    return;
+            } else if (span >= 0 && curX < spans[row][span + 1]) {
+                ++curX;
+                curY = minY;
+            } else {
+                span += 2;
+                while (row < spans.length && span >= spans[row].length) {
+                    ++row;
+                    span = 0;
                 }
-            } 
-            
-            while (i < n) {
-                curZ = i / (maxX - minX + 1) + minZ;
-                curX = (i % (maxX - minX + 1)) + minX;
-                BlockVector pt = new BlockVector(curX, minY, curZ);
-                if (contains(points, minY, maxY, pt)) {
-                    next = pt;
+                if (row >= spans.length || minY > maxY) {
+                    next = null;
                     return;
                 }
-                ++i;
+                curX = spans[row][span];
+                curY = minY;
             }
-            
-            next = null;
+
+            next = new BlockVector(curX, curY, minZ + row);
         }
 
         public boolean hasNext() {
@@ -558,6 +741,9 @@ public class Polygonal2DRegion implements Region {
 
         public BlockVector next() {
             BlockVector next = this.next;
+            if (next == null) {
+                throw new NoSuchElementException();
+            }
             findNext();
             return next;
         }
@@ -20,6 +20,7 @@
 package com.sk89q.worldedit.regions;
 
 import com.sk89q.worldedit.BlockVector;
+import com.sk89q.worldedit.MaxChangedBlocksException;
 import com.sk89q.worldedit.Vector;
 import com.sk89q.worldedit.Vector2D;
 import java.util.Set;
@@ -86,6 +87,15 @@ public interface Region extends Iterable<BlockVector> {
      * @return
      */
     public boolean contains(Vector pt);
+    /**
+     * Go through the blocks of the region a chunk at a time, passing them
+     * to the visitor as spans.
+     *
+     * @param visitor
+     * @throws MaxChangedBlocksException thrown by the visitor
+     */
+    public void visitChunks(ChunkVisitor visitor)
+            throws MaxChangedBlocksException;
     /**
      * Get a list of chunks.
      *
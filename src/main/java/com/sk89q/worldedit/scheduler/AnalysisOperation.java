@@ -0,0 +1,39 @@
+// $Id$
+/*
+ * WorldEdit
+ * Copyright (C) 2010 sk89q <http://www.sk89q.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.sk89q.worldedit.scheduler;
+
+import com.sk89q.worldedit.RegionAnalysis;
+
+/**
+ * Receives the result of counting the blocks of a region through
+ * {@link EditPipeline#analyze}. {@link #complete(int[])} is always called
+ * on the main thread.
+ *
+ * @author sk89q
+ */
+public abstract class AnalysisOperation {
+    /**
+     * Called once every block has been counted.
+     *
+     * @param histogram number of blocks of each type, indexed by type, with
+     *     {@link RegionAnalysis#TYPES} entries
+     */
+    public abstract void complete(int[] histogram);
+}
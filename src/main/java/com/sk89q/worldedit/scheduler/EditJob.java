@@ -0,0 +1,166 @@
+// $Id$
+/*
+ * WorldEdit
+ * Copyright (C) 2010 sk89q <http://www.sk89q.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.sk89q.worldedit.scheduler;
+
+import com.sk89q.worldedit.EditSession;
+import com.sk89q.worldedit.LocalPlayer;
+import com.sk89q.worldedit.LocalSession;
+
+/**
+ * The queued changes of an edit session that are being applied a few at
+ * a time by an {@link EditScheduler}.
+ *
+ * @author sk89q
+ */
+public class EditJob {
+    /**
+     * Milliseconds between progress messages.
+     */
+    private static final long REPORT_INTERVAL = 2000;
+
+    private final LocalPlayer player;
+    private final LocalSession session;
+    private final EditSession editSession;
+    private final int total;
+    private int ticks = 0;
+    private long totalTime = 0;
+    private long maxTickTime = 0;
+    private long lastReport = System.currentTimeMillis();
+
+    /**
+     * Construct the job.
+     *
+     * @param player
+     * @param session
+     * @param editSession
+     */
+    public EditJob(LocalPlayer player, LocalSession session,
+            EditSession editSession) {
+        this.player = player;
+        this.session = session;
+        this.editSession = editSession;
+        this.total = editSession.getQueueSize();
+    }
+
+    /**
+     * Apply the next part of the edit.
+     *
+     * @param maxBlocks
+     * @param maxTime in milliseconds, or -1 for no limit
+     * @return true if the edit is complete
+     */
+    public boolean run(int maxBlocks, long maxTime) {
+        long start = System.nanoTime();
+        boolean done = editSession.flushQueue(maxBlocks, maxTime);
+        long time = System.nanoTime() - start;
+
+        ++ticks;
+        totalTime += time;
+        maxTickTime = Math.max(maxTickTime, time);
+
+        long now = System.currentTimeMillis();
+        if (!done && now - lastReport >= REPORT_INTERVAL) {
+            lastReport = now;
+            player.print("Applying edit: " + (getApplied() * 100L / Math.max(1, total))
+                    + "% (" + getApplied() + "/" + total + " blocks).");
+        }
+
+        return done;
+    }
+
+    /**
+     * Apply the rest of the edit right away.
+     */
+    public void finish() {
+        run(Integer.MAX_VALUE, -1);
+    }
+
+    /**
+     * Get the player that started the edit.
+     *
+     * @return
+     */
+    public LocalPlayer getPlayer() {
+        return player;
+    }
+
+    /**
+     * Get the session the edit belongs to.
+     *
+     * @return
+     */
+    public LocalSession getSession() {
+        return session;
+    }
+
+    /**
+     * Get the edit session being applied.
+     *
+     * @return
+     */
+    public EditSession getEditSession() {
+        return editSession;
+    }
+
+    /**
+     * Get the number of blocks queued when the job started.
+     *
+     * @return
+     */
+    public int getTotal() {
+        return total;
+    }
+
+    /**
+     * Get the number of blocks placed so far.
+     *
+     * @return
+     */
+    public int getApplied() {
+        return total - editSession.getQueueSize();
+    }
+
+    /**
+     * Get the number of ticks the job has run in.
+     *
+     * @return
+     */
+    public int getTicks() {
+        return ticks;
+    }
+
+    /**
+     * Get the average time spent per tick in milliseconds.
+     *
+     * @return
+     */
+    public double getAverageTickTime() {
+        return ticks == 0 ? 0 : totalTime / 1000000.0 / ticks;
+    }
+
+    /**
+     * Get the longest time spent in a single tick in milliseconds.
+     *
+     * @return
+     */
+    public double getMaxTickTime() {
+        return maxTickTime / 1000000.0;
+    }
+}
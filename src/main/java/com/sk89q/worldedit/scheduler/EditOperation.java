@@ -0,0 +1,51 @@
+// $Id$
+/*
+ * WorldEdit
+ * Copyright (C) 2010 sk89q <http://www.sk89q.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.sk89q.worldedit.scheduler;
+
+import com.sk89q.worldedit.EditSession;
+import com.sk89q.worldedit.MaxChangedBlocksException;
+
+/**
+ * An edit that can be computed away from the main thread by an
+ * {@link EditPipeline}. {@link #run(EditSession)} may only use the edit
+ * session it is given; {@link #complete(int)} is always called on the main
+ * thread once the changes are in the world.
+ *
+ * @author sk89q
+ */
+public abstract class EditOperation {
+    /**
+     * Compute the edit.
+     *
+     * @param editSession
+     * @return number of blocks affected
+     * @throws MaxChangedBlocksException
+     */
+    public abstract int run(EditSession editSession)
+            throws MaxChangedBlocksException;
+
+    /**
+     * Called after the edit has been applied, for example to tell the
+     * player about it.
+     *
+     * @param affected the value returned by {@link #run(EditSession)}
+     */
+    public abstract void complete(int affected);
+}
@@ -0,0 +1,469 @@
+// $Id$
+/*
+ * WorldEdit
+ * Copyright (C) 2010 sk89q <http://www.sk89q.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.sk89q.worldedit.scheduler;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import com.sk89q.worldedit.BlockVector;
+import com.sk89q.worldedit.BlockVector2D;
+import com.sk89q.worldedit.EditSession;
+import com.sk89q.worldedit.LocalConfiguration;
+import com.sk89q.worldedit.LocalPlayer;
+import com.sk89q.worldedit.LocalSession;
+import com.sk89q.worldedit.LocalWorld;
+import com.sk89q.worldedit.MaxChangedBlocksException;
+import com.sk89q.worldedit.RegionAnalysis;
+import com.sk89q.worldedit.Vector;
+import com.sk89q.worldedit.history.ChangeJournal;
+import com.sk89q.worldedit.masks.CombinedMask;
+import com.sk89q.worldedit.masks.Mask;
+import com.sk89q.worldedit.masks.RegionMask;
+import com.sk89q.worldedit.regions.BitSetRegion;
+import com.sk89q.worldedit.regions.CuboidRegion;
+import com.sk89q.worldedit.regions.Polygonal2DRegion;
+import com.sk89q.worldedit.regions.Region;
+
+/**
+ * Computes edits on worker threads and applies them on the main thread.
+ *
+ * <p>When an edit is submitted, the cuboid it may touch is copied into a
+ * {@link SnapshotWorld} and the edit is run against that copy by a worker.
+ * The changes end up in the history of the worker's edit session. On a later
+ * tick of the {@link EditScheduler}, the changes are applied to the real
+ * world through a normal edit session, so history, block limits and the
+ * scheduler work as usual. A change is skipped, and counted as a conflict,
+ * if the block in the world no longer matches the snapshot.</p>
+ *
+ * <p>Regions are analyzed the same way: the blocks are copied a chunk
+ * section at a time, the sections are counted by the workers and the
+ * result is handed back on a later tick.</p>
+ *
+ * <p>All methods must be called on the main thread.</p>
+ *
+ * @author sk89q
+ */
+public class EditPipeline {
+    private static final Logger logger = Logger.getLogger("Minecraft.WorldEdit");
+
+    private final EditScheduler scheduler;
+    private final LocalConfiguration config;
+    private final LinkedList<PendingEdit> pending = new LinkedList<PendingEdit>();
+    private final LinkedList<PendingAnalysis> analyses = new LinkedList<PendingAnalysis>();
+    private ExecutorService executor;
+
+    /**
+     * Construct the pipeline.
+     *
+     * @param scheduler
+     * @param config
+     */
+    public EditPipeline(EditScheduler scheduler, LocalConfiguration config) {
+        this.scheduler = scheduler;
+        this.config = config;
+    }
+
+    /**
+     * Run an edit. If computing edits in the background is disabled, the
+     * edit session has a block bag, or the cuboid is larger than configured,
+     * the edit is run right away on the given edit session. Otherwise it is
+     * computed in the background and applied on a later tick, and the given
+     * edit session is left untouched.
+     *
+     * @param player
+     * @param session
+     * @param editSession
+     * @param min minimum point of the cuboid the edit may read or change
+     * @param max maximum point of the cuboid the edit may read or change
+     * @param operation
+     * @throws MaxChangedBlocksException
+     */
+    public void submit(LocalPlayer player, LocalSession session,
+            EditSession editSession, Vector min, Vector max,
+            EditOperation operation) throws MaxChangedBlocksException {
+        long volume = (long) (max.getBlockX() - min.getBlockX() + 1)
+                * (max.getBlockY() - min.getBlockY() + 1)
+                * (max.getBlockZ() - min.getBlockZ() + 1);
+
+        if (!config.asyncCompute
+                || editSession.getBlockBag() != null
+                || volume > config.asyncComputeMaxVolume
+                || !scheduler.start()) {
+            operation.complete(operation.run(editSession));
+            return;
+        }
+
+        SnapshotWorld snapshot = new SnapshotWorld(editSession.getWorld(), min, max);
+        EditSession work = new EditSession(snapshot, editSession.getBlockChangeLimit());
+        work.setMask(copyMask(editSession.getMask()));
+
+        PendingEdit edit = new PendingEdit(player, session, snapshot.getWorld(),
+                work, operation);
+        edit.fastMode = editSession.hasFastMode();
+        edit.future = getExecutor().submit(edit);
+        pending.add(edit);
+    }
+
+    /**
+     * Count the blocks of a region. If analyzing in the background is
+     * disabled, the region is counted right away. Otherwise its blocks are
+     * copied now and counted by the workers, and the operation is completed
+     * on a later tick.
+     *
+     * @param player
+     * @param world
+     * @param region
+     * @param operation
+     */
+    public void analyze(LocalPlayer player, LocalWorld world, Region region,
+            AnalysisOperation operation) {
+        if (!config.asyncAnalysis || !scheduler.start()) {
+            operation.complete(RegionAnalysis.count(world, region));
+            return;
+        }
+
+        final RegionAnalysis analysis = new RegionAnalysis(world, region);
+        final int tasks = Math.min(analysis.getSectionCount(), getThreadCount() * 4);
+        PendingAnalysis pendingAnalysis = new PendingAnalysis(player, operation);
+
+        for (int task = 0; task < tasks; ++task) {
+            final int first = task;
+            pendingAnalysis.futures.add(getExecutor().submit(new Callable<int[]>() {
+                public int[] call() {
+                    int[] histogram = new int[RegionAnalysis.TYPES];
+                    for (int i = first; i < analysis.getSectionCount(); i += tasks) {
+                        analysis.countSection(i, histogram);
+                    }
+                    return histogram;
+                }
+            }));
+        }
+
+        analyses.add(pendingAnalysis);
+    }
+
+    private int getThreadCount() {
+        return config.asyncComputeThreads > 0 ? config.asyncComputeThreads
+                : Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
+    }
+
+    private ExecutorService getExecutor() {
+        if (executor == null) {
+            executor = Executors.newFixedThreadPool(getThreadCount(), new ThreadFactory() {
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "WorldEdit Compute");
+                    thread.setDaemon(true);
+                    thread.setPriority(Thread.MIN_PRIORITY);
+                    return thread;
+                }
+            });
+        }
+        return executor;
+    }
+
+    /**
+     * Apply the edits that have finished computing, in the order they were
+     * submitted.
+     */
+    public void applyCompleted() {
+        while (!pending.isEmpty() && pending.getFirst().future.isDone()) {
+            apply(pending.removeFirst());
+        }
+
+        Iterator<PendingAnalysis> it = analyses.iterator();
+        while (it.hasNext()) {
+            PendingAnalysis analysis = it.next();
+            if (analysis.isDone()) {
+                it.remove();
+                complete(analysis);
+            }
+        }
+    }
+
+    /**
+     * Wait for the edits of a session to be computed and apply them.
+     *
+     * @param session
+     */
+    public void finish(LocalSession session) {
+        Iterator<PendingEdit> it = pending.iterator();
+        while (it.hasNext()) {
+            PendingEdit edit = it.next();
+            if (edit.session == session) {
+                it.remove();
+                apply(edit);
+            }
+        }
+    }
+
+    /**
+     * Returns whether a session has edits waiting to be computed or applied.
+     *
+     * @param session
+     * @return
+     */
+    public boolean hasPending(LocalSession session) {
+        for (PendingEdit edit : pending) {
+            if (edit.session == session) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Wait for all edits to be computed and apply them.
+     */
+    public void finishAll() {
+        while (!pending.isEmpty()) {
+            apply(pending.removeFirst());
+        }
+
+        while (!analyses.isEmpty()) {
+            complete(analyses.removeFirst());
+        }
+    }
+
+    /**
+     * Returns whether no edits are waiting to be computed or applied.
+     *
+     * @return
+     */
+    public boolean isIdle() {
+        return pending.isEmpty() && analyses.isEmpty();
+    }
+
+    /**
+     * Stop the worker threads. Edits that have not been applied are lost.
+     */
+    public void shutdown() {
+        if (executor != null) {
+            executor.shutdownNow();
+            executor = null;
+        }
+        pending.clear();
+        analyses.clear();
+    }
+
+    /**
+     * Apply a computed edit to the world.
+     *
+     * @param edit
+     */
+    private void apply(PendingEdit edit) {
+        LocalPlayer player = edit.player;
+        EditSession work = edit.work;
+        int affected = 0;
+        MaxChangedBlocksException limitReached = null;
+
+        try {
+            affected = edit.future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            work.dispose();
+            return;
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof MaxChangedBlocksException) {
+                limitReached = (MaxChangedBlocksException) e.getCause();
+            } else {
+                logger.log(Level.SEVERE, "WorldEdit: Failed to compute edit for "
+                        + player.getName(), e.getCause());
+                player.printError("Please report this error: [See console]");
+                work.dispose();
+                return;
+            }
+        }
+
+        // Apply to the world that was checked, even if the player has left
+        // it since; block bags are never used for background edits
+        LocalWorld world = edit.world;
+        EditSession editSession = new EditSession(world, work.getBlockChangeLimit());
+        editSession.setFastMode(edit.fastMode);
+        editSession.enableQueue();
+        int conflicts = 0;
+
+        try {
+            ChangeJournal.Cursor original = work.getOriginalBlocks().forward();
+            ChangeJournal.Cursor changed = work.getChangedBlocks().forward();
+
+            while (original.next() && changed.next()) {
+                BlockVector pt = original.getPosition();
+
+                if (world.getBlockType(pt) != original.getType()
+                        || world.getBlockData(pt) != original.getData()) {
+                    ++conflicts;
+                    continue;
+                }
+
+                editSession.setBlock(pt, changed.getBlock());
+            }
+        } catch (MaxChangedBlocksException e) {
+            limitReached = e;
+        } finally {
+            work.dispose();
+        }
+
+        edit.session.remember(editSession);
+        if (!scheduler.submit(player, edit.session, editSession)) {
+            editSession.flushQueue();
+        }
+
+        if (limitReached != null) {
+            player.printError("Max blocks changed in an operation reached ("
+                    + limitReached.getBlockLimit() + ").");
+        } else {
+            edit.operation.complete(affected);
+        }
+
+        if (conflicts > 0) {
+            player.printError(conflicts + " block(s) changed while the edit was "
+                    + "being computed and were left alone.");
+        }
+    }
+
+    /**
+     * Add up the counts of an analysis and hand them to its operation.
+     *
+     * @param analysis
+     */
+    private void complete(PendingAnalysis analysis) {
+        int[] histogram = new int[RegionAnalysis.TYPES];
+
+        try {
+            for (Future<int[]> future : analysis.futures) {
+                int[] counts = future.get();
+                for (int i = 0; i < histogram.length; ++i) {
+                    histogram[i] += counts[i];
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        } catch (ExecutionException e) {
+            logger.log(Level.SEVERE, "WorldEdit: Failed to analyze region for "
+                    + analysis.player.getName(), e.getCause());
+            analysis.player.printError("Please report this error: [See console]");
+            return;
+        }
+
+        analysis.operation.complete(histogram);
+    }
+
+    /**
+     * Copy a mask for an edit computed by the workers. The selection behind
+     * a region mask can still be changed on the main thread, so its region
+     * is copied; the other masks are not changed once made.
+     *
+     * @param mask mask, or null
+     * @return
+     */
+    private static Mask copyMask(Mask mask) {
+        if (mask instanceof RegionMask) {
+            return new RegionMask(copyRegion(((RegionMask) mask).getRegion()));
+        } else if (mask instanceof CombinedMask) {
+            CombinedMask copy = new CombinedMask();
+            for (Mask part : ((CombinedMask) mask).getMasks()) {
+                copy.add(copyMask(part));
+            }
+            return copy;
+        }
+
+        return mask;
+    }
+
+    /**
+     * Copy a region so that it no longer follows its selection.
+     *
+     * @param region
+     * @return
+     */
+    private static Region copyRegion(Region region) {
+        if (region instanceof CuboidRegion) {
+            return new CuboidRegion(region.getMinimumPoint(),
+                    region.getMaximumPoint());
+        } else if (region instanceof Polygonal2DRegion) {
+            Polygonal2DRegion polygon = (Polygonal2DRegion) region;
+            return new Polygonal2DRegion(
+                    new ArrayList<BlockVector2D>(polygon.getPoints()),
+                    polygon.getMinimumPoint().getBlockY(),
+                    polygon.getMaximumPoint().getBlockY());
+        }
+
+        return new BitSetRegion(region);
+    }
+
+    /**
+     * An edit being computed.
+     */
+    private static class PendingEdit implements Callable<Integer> {
+        final LocalPlayer player;
+        final LocalSession session;
+        final LocalWorld world;
+        final EditSession work;
+        final EditOperation operation;
+        boolean fastMode;
+        Future<Integer> future;
+
+        PendingEdit(LocalPlayer player, LocalSession session, LocalWorld world,
+                EditSession work, EditOperation operation) {
+            this.player = player;
+            this.session = session;
+            this.world = world;
+            this.work = work;
+            this.operation = operation;
+        }
+
+        public Integer call() throws MaxChangedBlocksException {
+            return operation.run(work);
+        }
+    }
+
+    /**
+     * A region being counted, split over several workers.
+     */
+    private static class PendingAnalysis {
+        final LocalPlayer player;
+        final AnalysisOperation operation;
+        final List<Future<int[]>> futures = new ArrayList<Future<int[]>>();
+
+        PendingAnalysis(LocalPlayer player, AnalysisOperation operation) {
+            this.player = player;
+            this.operation = operation;
+        }
+
+        boolean isDone() {
+            for (Future<int[]> future : futures) {
+                if (!future.isDone()) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
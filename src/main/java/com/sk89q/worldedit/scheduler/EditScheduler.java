@@ -0,0 +1,371 @@
+// $Id$
+/*
+ * WorldEdit
+ * Copyright (C) 2010 sk89q <http://www.sk89q.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.sk89q.worldedit.scheduler;
+
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.Set;
+import com.sk89q.worldedit.EditSession;
+import com.sk89q.worldedit.LocalConfiguration;
+import com.sk89q.worldedit.LocalPlayer;
+import com.sk89q.worldedit.LocalSession;
+import com.sk89q.worldedit.ServerInterface;
+
+/**
+ * Applies the queues of large edit sessions over several server ticks so
+ * that the server does not stall. History is recorded when the edit is
+ * computed, as usual; only the placing of blocks is spread out. Jobs run
+ * one after the other, sharing a budget of blocks and milliseconds per tick.
+ * The same task applies the edits finished by the {@link EditPipeline}.
+ * Actions that a session starts while its edits are being applied can be
+ * put behind them, so the server does not wait for the edits to finish.
+ *
+ * @author sk89q
+ */
+public class EditScheduler {
+    private final ServerInterface server;
+    private final LocalConfiguration config;
+    private final LinkedList<EditJob> jobs = new LinkedList<EditJob>();
+    private final LinkedList<DeferredAction> deferred = new LinkedList<DeferredAction>();
+    private final EditPipeline pipeline;
+    private int taskId = -1;
+
+    /**
+     * Construct the scheduler.
+     *
+     * @param server
+     * @param config
+     */
+    public EditScheduler(ServerInterface server, LocalConfiguration config) {
+        this.server = server;
+        this.config = config;
+        this.pipeline = new EditPipeline(this, config);
+    }
+
+    /**
+     * Get the pipeline that computes edits in the background.
+     *
+     * @return
+     */
+    public EditPipeline getPipeline() {
+        return pipeline;
+    }
+
+    /**
+     * Start the task that runs every tick, if it is not running yet.
+     *
+     * @return false if the server cannot run tasks
+     */
+    synchronized boolean start() {
+        if (taskId == -1) {
+            taskId = server.schedule(1, 1, new Runnable() {
+                public void run() {
+                    tick();
+                }
+            });
+        }
+
+        return taskId != -1;
+    }
+
+    /**
+     * Hand over the queue of an edit session to be applied over the next
+     * ticks. Edit sessions with a block bag, and those with fewer queued
+     * blocks than configured, are not taken.
+     *
+     * @param player
+     * @param session
+     * @param editSession
+     * @return true if the edit session was taken, false if the caller
+     *     should flush it itself
+     */
+    public synchronized boolean submit(LocalPlayer player, LocalSession session,
+            EditSession editSession) {
+        if (!config.scheduledEdits
+                || editSession.getBlockBag() != null
+                || editSession.getQueueSize() < config.scheduledEditMinBlocks) {
+            return false;
+        }
+
+        if (!start()) {
+            return false;
+        }
+
+        EditJob job = new EditJob(player, session, editSession);
+        jobs.add(job);
+
+        player.print("Applying " + job.getTotal()
+                + " blocks over the next few seconds. Use //cancel to stop.");
+        return true;
+    }
+
+    /**
+     * Run queued jobs for one tick.
+     */
+    public synchronized void tick() {
+        long tickStart = System.nanoTime();
+
+        pipeline.applyCompleted();
+
+        int blocks = config.scheduledEditBlocksPerTick;
+
+        while (!jobs.isEmpty() && blocks > 0) {
+            long time = -1;
+
+            if (config.scheduledEditMaxTickTime >= 0) {
+                time = config.scheduledEditMaxTickTime
+                        - (System.nanoTime() - tickStart) / 1000000L;
+                if (time <= 0) {
+                    break;
+                }
+            }
+
+            EditJob job = jobs.getFirst();
+            int before = job.getApplied();
+
+            if (!job.run(blocks, time)) {
+                break;
+            }
+
+            blocks -= job.getApplied() - before;
+            jobs.removeFirst();
+            complete(job);
+        }
+
+        runDeferred();
+
+        if (jobs.isEmpty() && pipeline.isIdle() && deferred.isEmpty()
+                && taskId != -1) {
+            server.cancelTask(taskId);
+            taskId = -1;
+        }
+    }
+
+    /**
+     * Tell the player that a job has finished.
+     *
+     * @param job
+     */
+    private void complete(EditJob job) {
+        LocalPlayer player = job.getPlayer();
+        player.print("Finished applying " + job.getTotal() + " blocks.");
+
+        if (config.profile) {
+            player.printDebug(job.getTicks() + " ticks; "
+                    + String.format("%.2f", job.getAverageTickTime()) + "ms/tick average, "
+                    + String.format("%.2f", job.getMaxTickTime()) + "ms/tick max.");
+        }
+    }
+
+    /**
+     * Get the job of a session that has not finished yet.
+     *
+     * @param session
+     * @return job, or null
+     */
+    public synchronized EditJob getJob(LocalSession session) {
+        for (EditJob job : jobs) {
+            if (job.getSession() == session) {
+                return job;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns whether a session has edits that are still being computed or
+     * applied.
+     *
+     * @param session
+     * @return
+     */
+    public synchronized boolean isBusy(LocalSession session) {
+        return getJob(session) != null || pipeline.hasPending(session);
+    }
+
+    /**
+     * Run an action once the edits of a session have been applied, after
+     * any other actions the session is waiting on. If there are none, the
+     * action is run right away.
+     *
+     * @param session
+     * @param action
+     * @return true if the action was run right away
+     */
+    public synchronized boolean runAfter(LocalSession session, Runnable action) {
+        if (!isBusy(session) && !hasDeferred(session)) {
+            action.run();
+            return true;
+        }
+
+        deferred.add(new DeferredAction(session, action));
+        return false;
+    }
+
+    /**
+     * Returns whether a session has actions waiting for its edits.
+     *
+     * @param session
+     * @return
+     */
+    private boolean hasDeferred(LocalSession session) {
+        for (DeferredAction action : deferred) {
+            if (action.session == session) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Run the waiting actions of the sessions whose edits have been
+     * applied, in order. An action that starts another edit holds up the
+     * rest of its session's actions.
+     */
+    private void runDeferred() {
+        Set<LocalSession> waiting = new HashSet<LocalSession>();
+        Iterator<DeferredAction> it = deferred.iterator();
+
+        while (it.hasNext()) {
+            DeferredAction action = it.next();
+
+            if (waiting.contains(action.session)) {
+                continue;
+            }
+
+            if (isBusy(action.session)) {
+                waiting.add(action.session);
+                continue;
+            }
+
+            it.remove();
+            action.action.run();
+
+            // The action may have added to the list
+            it = deferred.iterator();
+            waiting.clear();
+        }
+    }
+
+    /**
+     * Run the next waiting action of a session.
+     *
+     * @param session the session, or null for any session
+     * @return false if there was none
+     */
+    private boolean runNextDeferred(LocalSession session) {
+        Iterator<DeferredAction> it = deferred.iterator();
+        while (it.hasNext()) {
+            DeferredAction action = it.next();
+            if (session == null || action.session == session) {
+                it.remove();
+                action.action.run();
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Apply the rest of a session's edits right away, along with the
+     * actions that were waiting for them.
+     *
+     * @param session
+     */
+    public synchronized void finish(LocalSession session) {
+        do {
+            pipeline.finish(session);
+
+            Iterator<EditJob> it = jobs.iterator();
+            while (it.hasNext()) {
+                EditJob job = it.next();
+                if (job.getSession() == session) {
+                    it.remove();
+                    job.finish();
+                }
+            }
+        } while (runNextDeferred(session));
+    }
+
+    /**
+     * Stop applying a session's jobs. Blocks that were already placed stay
+     * in place; the history of the edit session covers all of its blocks,
+     * so it can still be undone. Actions that were waiting for the jobs
+     * are dropped.
+     *
+     * @param session
+     * @return the cancelled job, or null if the session had none
+     */
+    public synchronized EditJob cancel(LocalSession session) {
+        EditJob cancelled = null;
+        Iterator<EditJob> it = jobs.iterator();
+        while (it.hasNext()) {
+            EditJob job = it.next();
+            if (job.getSession() == session) {
+                it.remove();
+                cancelled = job;
+            }
+        }
+
+        Iterator<DeferredAction> actions = deferred.iterator();
+        while (actions.hasNext()) {
+            if (actions.next().session == session) {
+                actions.remove();
+            }
+        }
+
+        return cancelled;
+    }
+
+    /**
+     * Apply all edits right away, along with the actions waiting for them,
+     * and stop the task and the pipeline.
+     */
+    public synchronized void finishAll() {
+        do {
+            pipeline.finishAll();
+
+            while (!jobs.isEmpty()) {
+                jobs.removeFirst().finish();
+            }
+        } while (runNextDeferred(null));
+
+        pipeline.shutdown();
+
+        if (taskId != -1) {
+            server.cancelTask(taskId);
+            taskId = -1;
+        }
+    }
+
+    /**
+     * An action waiting for the edits of a session.
+     */
+    private static class DeferredAction {
+        final LocalSession session;
+        final Runnable action;
+
+        DeferredAction(LocalSession session, Runnable action) {
+            this.session = session;
+            this.action = action;
+        }
+    }
+}
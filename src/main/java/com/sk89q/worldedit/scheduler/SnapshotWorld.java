@@ -0,0 +1,236 @@
+// $Id$
+/*
+ * WorldEdit
+ * Copyright (C) 2010 sk89q <http://www.sk89q.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.sk89q.worldedit.scheduler;
+
+import com.sk89q.worldedit.EditSession;
+import com.sk89q.worldedit.EntityType;
+import com.sk89q.worldedit.LocalWorld;
+import com.sk89q.worldedit.Vector;
+import com.sk89q.worldedit.blocks.BaseBlock;
+import com.sk89q.worldedit.blocks.BaseItemStack;
+import com.sk89q.worldedit.regions.Region;
+
+/**
+ * A private copy of the block types and data in a cuboid of a world, so
+ * that an edit can be computed on another thread. Blocks outside of the
+ * cuboid read as air and cannot be changed. Tile entity data, entities and
+ * everything else that is not a block type or data value is not copied.
+ *
+ * @author sk89q
+ */
+public class SnapshotWorld extends LocalWorld {
+    private final LocalWorld world;
+    private final int height;
+    private final int minX;
+    private final int minY;
+    private final int minZ;
+    private final int width;
+    private final int sizeY;
+    private final int length;
+    private final short[] types;
+    private final byte[] data;
+
+    /**
+     * Copy a cuboid of a world. This has to be called on the thread that
+     * may read the world.
+     *
+     * @param world
+     * @param min
+     * @param max
+     */
+    public SnapshotWorld(LocalWorld world, Vector min, Vector max) {
+        this.world = world;
+        this.height = world.getHeight();
+        minX = min.getBlockX();
+        minY = min.getBlockY();
+        minZ = min.getBlockZ();
+        width = max.getBlockX() - minX + 1;
+        sizeY = max.getBlockY() - minY + 1;
+        length = max.getBlockZ() - minZ + 1;
+
+        types = new short[width * sizeY * length];
+        data = new byte[width * sizeY * length];
+        world.getBlocks(min, max, types, data);
+    }
+
+    /**
+     * Get the world this snapshot was taken of.
+     *
+     * @return
+     */
+    public LocalWorld getWorld() {
+        return world;
+    }
+
+    private int index(Vector pt) {
+        int x = pt.getBlockX() - minX;
+        int y = pt.getBlockY() - minY;
+        int z = pt.getBlockZ() - minZ;
+
+        if (x < 0 || y < 0 || z < 0 || x >= width || y >= sizeY || z >= length) {
+            return -1;
+        }
+
+        return y * width * length + z * width + x;
+    }
+
+    @Override
+    public String getName() {
+        return world.getName();
+    }
+
+    @Override
+    public boolean setBlockType(Vector pt, int type) {
+        return setTypeIdAndData(pt, type, 0);
+    }
+
+    @Override
+    public int getBlockType(Vector pt) {
+        int index = index(pt);
+        return index == -1 ? 0 : types[index] & 0xFFFF;
+    }
+
+    @Override
+    public void setBlockData(Vector pt, int data) {
+        int index = index(pt);
+        if (index != -1) {
+            this.data[index] = (byte) data;
+        }
+    }
+
+    @Override
+    public void setBlockDataFast(Vector pt, int data) {
+        setBlockData(pt, data);
+    }
+
+    @Override
+    public boolean setTypeIdAndData(Vector pt, int type, int data) {
+        int index = index(pt);
+        if (index == -1) {
+            return false;
+        }
+
+        boolean changed = types[index] != (short) type
+                || this.data[index] != (byte) data;
+        types[index] = (short) type;
+        this.data[index] = (byte) data;
+        return changed;
+    }
+
+    @Override
+    public boolean setTypeIdAndDataFast(Vector pt, int type, int data) {
+        return setTypeIdAndData(pt, type, data);
+    }
+
+    @Override
+    public int getBlockData(Vector pt) {
+        int index = index(pt);
+        return index == -1 ? 0 : data[index] & 0xFF;
+    }
+
+    @Override
+    public int getBlockLightLevel(Vector pt) {
+        return 0;
+    }
+
+    @Override
+    public boolean regenerate(Region region, EditSession editSession) {
+        return false;
+    }
+
+    @Override
+    public boolean copyToWorld(Vector pt, BaseBlock block) {
+        return false;
+    }
+
+    @Override
+    public boolean copyFromWorld(Vector pt, BaseBlock block) {
+        return false;
+    }
+
+    @Override
+    public boolean clearContainerBlockContents(Vector pt) {
+        return false;
+    }
+
+    @Override
+    public boolean generateTree(EditSession editSession, Vector pt) {
+        return false;
+    }
+
+    @Override
+    public boolean generateBigTree(EditSession editSession, Vector pt) {
+        return false;
+    }
+
+    @Override
+    public boolean generateBirchTree(EditSession editSession, Vector pt) {
+        return false;
+    }
+
+    @Override
+    public boolean generateRedwoodTree(EditSession editSession, Vector pt) {
+        return false;
+    }
+
+    @Override
+    public boolean generateTallRedwoodTree(EditSession editSession, Vector pt) {
+        return false;
+    }
+
+    @Override
+    public void dropItem(Vector pt, BaseItemStack item) {
+    }
+
+    @Override
+    public int killMobs(Vector origin, int radius) {
+        return 0;
+    }
+
+    @Override
+    public int killMobs(Vector origin, int radius, boolean killPets) {
+        return 0;
+    }
+
+    @Override
+    public int removeEntities(EntityType type, Vector origin, int radius) {
+        return 0;
+    }
+
+    @Override
+    public boolean isValidBlockType(int type) {
+        return world.isValidBlockType(type);
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        return other == this;
+    }
+
+    @Override
+    public int hashCode() {
+        return System.identityHashCode(this);
+    }
+
+    @Override
+    public int getHeight() {
+        return height;
+    }
+}
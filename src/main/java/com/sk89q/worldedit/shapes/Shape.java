@@ -0,0 +1,216 @@
+// $Id$
+/*
+ * WorldEdit
+ * Copyright (C) 2010 sk89q <http://www.sk89q.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.sk89q.worldedit.shapes;
+
+/**
+ * A shape rasterized into a bit set of block offsets around its center.
+ * The bit set covers the bounding box of the shape and, like
+ * {@link com.sk89q.worldedit.FloodFill}, is allocated a 16x16x16 section at
+ * a time, so a hollow shape only takes memory near its shell. Shapes are
+ * never changed once they are built, so one shape can be stamped any number
+ * of times from any thread.
+ *
+ * @author sk89q
+ */
+public class Shape {
+    private final int minX;
+    private final int minY;
+    private final int minZ;
+    private final int sizeX;
+    private final int sizeY;
+    private final int sizeZ;
+    private final int sectionsX;
+    private final int sectionsZ;
+    private final long[][] sections;
+    private int sectionCount = 0;
+    private int size = 0;
+
+    /**
+     * Construct an empty shape covering a bounding box of offsets.
+     *
+     * @param minX
+     * @param minY
+     * @param minZ
+     * @param maxX
+     * @param maxY
+     * @param maxZ
+     */
+    Shape(int minX, int minY, int minZ, int maxX, int maxY, int maxZ) {
+        this.minX = minX;
+        this.minY = minY;
+        this.minZ = minZ;
+        sizeX = maxX - minX + 1;
+        sizeY = maxY - minY + 1;
+        sizeZ = maxZ - minZ + 1;
+        sectionsX = (sizeX + 15) >> 4;
+        int sectionsY = (sizeY + 15) >> 4;
+        sectionsZ = (sizeZ + 15) >> 4;
+        sections = new long[sectionsX * sectionsY * sectionsZ][];
+    }
+
+    /**
+     * Add an offset while the shape is being built. Adding an offset twice
+     * has no effect.
+     *
+     * @param x
+     * @param y
+     * @param z
+     */
+    void add(int x, int y, int z) {
+        x -= minX;
+        y -= minY;
+        z -= minZ;
+
+        int sectionIndex = ((y >> 4) * sectionsZ + (z >> 4)) * sectionsX + (x >> 4);
+        long[] section = sections[sectionIndex];
+        if (section == null) {
+            section = new long[64];
+            sections[sectionIndex] = section;
+            ++sectionCount;
+        }
+
+        int bit = ((y & 15) << 8) | ((z & 15) << 4) | (x & 15);
+        long mask = 1L << (bit & 63);
+        if ((section[bit >> 6] & mask) == 0) {
+            section[bit >> 6] |= mask;
+            ++size;
+        }
+    }
+
+    /**
+     * Add an offset along with its mirror images across the X, Y and Z
+     * axes.
+     *
+     * @param x
+     * @param y
+     * @param z
+     */
+    void addMirrored(int x, int y, int z) {
+        add(x, y, z);
+        add(-x, y, z);
+        add(x, -y, z);
+        add(x, y, -z);
+        add(-x, -y, z);
+        add(x, -y, -z);
+        add(-x, y, -z);
+        add(-x, -y, -z);
+    }
+
+    /**
+     * Returns whether an offset is part of the shape.
+     *
+     * @param x
+     * @param y
+     * @param z
+     * @return
+     */
+    public boolean contains(int x, int y, int z) {
+        x -= minX;
+        y -= minY;
+        z -= minZ;
+        if (x < 0 || y < 0 || z < 0 || x >= sizeX || y >= sizeY || z >= sizeZ) {
+            return false;
+        }
+
+        long[] section = sections[((y >> 4) * sectionsZ + (z >> 4)) * sectionsX + (x >> 4)];
+        if (section == null) {
+            return false;
+        }
+
+        int bit = ((y & 15) << 8) | ((z & 15) << 4) | (x & 15);
+        return (section[bit >> 6] & (1L << (bit & 63))) != 0;
+    }
+
+    /**
+     * Returns whether the shape may have offsets inside a box. Only whole
+     * sections are checked, so this can return true for a box that has
+     * none, but never false for a box that does.
+     *
+     * @param x0
+     * @param y0
+     * @param z0
+     * @param x1
+     * @param y1
+     * @param z1
+     * @return
+     */
+    public boolean mayIntersect(int x0, int y0, int z0, int x1, int y1, int z1) {
+        x0 = Math.max(0, x0 - minX);
+        y0 = Math.max(0, y0 - minY);
+        z0 = Math.max(0, z0 - minZ);
+        x1 = Math.min(sizeX - 1, x1 - minX);
+        y1 = Math.min(sizeY - 1, y1 - minY);
+        z1 = Math.min(sizeZ - 1, z1 - minZ);
+
+        for (int sy = y0 >> 4; sy <= y1 >> 4 && y0 <= y1; ++sy) {
+            for (int sz = z0 >> 4; sz <= z1 >> 4 && z0 <= z1; ++sz) {
+                for (int sx = x0 >> 4; sx <= x1 >> 4 && x0 <= x1; ++sx) {
+                    if (sections[(sy * sectionsZ + sz) * sectionsX + sx] != null) {
+                        return true;
+                    }
+                }
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Get the number of offsets in the shape.
+     *
+     * @return
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Get roughly the number of bytes the shape takes.
+     *
+     * @return
+     */
+    public long getMemorySize() {
+        return sections.length * 8L + sectionCount * 64 * 8L;
+    }
+
+    public int getMinX() {
+        return minX;
+    }
+
+    public int getMinY() {
+        return minY;
+    }
+
+    public int getMinZ() {
+        return minZ;
+    }
+
+    public int getMaxX() {
+        return minX + sizeX - 1;
+    }
+
+    public int getMaxY() {
+        return minY + sizeY - 1;
+    }
+
+    public int getMaxZ() {
+        return minZ + sizeZ - 1;
+    }
+}
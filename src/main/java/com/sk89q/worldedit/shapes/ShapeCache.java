@@ -0,0 +1,390 @@
+// $Id$
+/*
+ * WorldEdit
+ * Copyright (C) 2010 sk89q <http://www.sk89q.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.sk89q.worldedit.shapes;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Rasterizes spheres, cylinders and pyramids and keeps the most recently
+ * used ones, so that a brush used over and over with the same size only
+ * works out its shape once. The cache is bounded both by the number of
+ * shapes and by the memory they take, dropping the least recently used
+ * shape first.
+ *
+ * @author sk89q
+ */
+public class ShapeCache {
+    /**
+     * Largest number of shapes kept.
+     */
+    private static final int MAX_SHAPES = 64;
+
+    /**
+     * Largest number of bytes the kept shapes may take together.
+     */
+    private static final long MAX_MEMORY = 16L * 1024 * 1024;
+
+    private static final Map<Key, Shape> shapes =
+            new LinkedHashMap<Key, Shape>(16, 0.75f, true);
+    private static long memory = 0;
+
+    private ShapeCache() {
+    }
+
+    /**
+     * Get a sphere.
+     *
+     * @param radius
+     * @param filled if false, only the shell
+     * @return
+     */
+    public static Shape getSphere(double radius, boolean filled) {
+        Key key = new Key(Kind.SPHERE, filled, radius);
+        Shape shape = get(key);
+        if (shape == null) {
+            shape = put(key, rasterizeSphere(radius, filled));
+        }
+        return shape;
+    }
+
+    /**
+     * Get an ellipsoid.
+     *
+     * @param radiusX
+     * @param radiusY
+     * @param radiusZ
+     * @param filled if false, only the shell
+     * @return
+     */
+    public static Shape getEllipsoid(double radiusX, double radiusY,
+            double radiusZ, boolean filled) {
+        Key key = new Key(Kind.ELLIPSOID, filled, radiusX, radiusY, radiusZ);
+        Shape shape = get(key);
+        if (shape == null) {
+            shape = put(key, rasterizeEllipsoid(radiusX, radiusY, radiusZ, filled));
+        }
+        return shape;
+    }
+
+    /**
+     * Get the circle a cylinder is made of, one block high at y = 0.
+     *
+     * @param radius
+     * @param filled if false, only the outline
+     * @return
+     */
+    public static Shape getCircle(double radius, boolean filled) {
+        Key key = new Key(Kind.CIRCLE, filled, radius);
+        Shape shape = get(key);
+        if (shape == null) {
+            shape = put(key, rasterizeCircle(radius, filled));
+        }
+        return shape;
+    }
+
+    /**
+     * Get a pyramid standing on y = 0.
+     *
+     * @param size
+     * @param filled if false, only the outside
+     * @return
+     */
+    public static Shape getPyramid(int size, boolean filled) {
+        Key key = new Key(Kind.PYRAMID, filled, size);
+        Shape shape = get(key);
+        if (shape == null) {
+            shape = put(key, rasterizePyramid(size, filled));
+        }
+        return shape;
+    }
+
+    /**
+     * Remove every shape from the cache.
+     */
+    public static synchronized void clear() {
+        shapes.clear();
+        memory = 0;
+    }
+
+    private static synchronized Shape get(Key key) {
+        return shapes.get(key);
+    }
+
+    private static synchronized Shape put(Key key, Shape shape) {
+        long size = shape.getMemorySize();
+        if (size > MAX_MEMORY) {
+            return shape;
+        }
+
+        Shape previous = shapes.put(key, shape);
+        if (previous != null) {
+            memory -= previous.getMemorySize();
+        }
+        memory += size;
+
+        Iterator<Shape> it = shapes.values().iterator();
+        while (memory > MAX_MEMORY || shapes.size() > MAX_SHAPES) {
+            memory -= it.next().getMemorySize();
+            it.remove();
+        }
+
+        return shape;
+    }
+
+    private static Shape rasterizeSphere(double radius, boolean filled) {
+        radius += 0.5;
+        final double radiusSq = radius * radius;
+        final double radius1Sq = (radius - 1) * (radius - 1);
+
+        final int ceilRadius = (int) Math.ceil(radius);
+        int bound = Math.max(0, ceilRadius);
+        Shape shape = new Shape(-bound, -bound, -bound, bound, bound, bound);
+
+        for (int x = 0; x <= ceilRadius; ++x) {
+            for (int y = 0; y <= ceilRadius; ++y) {
+                for (int z = 0; z <= ceilRadius; ++z) {
+                    double dSq = lengthSq(x, y, z);
+
+                    if (dSq > radiusSq) {
+                        continue;
+                    }
+                    if (!filled) {
+                        if (dSq < radius1Sq
+                                || (lengthSq(x + 1, y, z) <= radiusSq
+                                && lengthSq(x, y + 1, z) <= radiusSq
+                                && lengthSq(x, y, z + 1) <= radiusSq)) {
+                            continue;
+                        }
+                    }
+
+                    shape.addMirrored(x, y, z);
+                }
+            }
+        }
+
+        return shape;
+    }
+
+    private static Shape rasterizeEllipsoid(double radiusX, double radiusY,
+            double radiusZ, boolean filled) {
+        radiusX += 0.5;
+        radiusY += 0.5;
+        radiusZ += 0.5;
+
+        final double invRadiusX = 1 / radiusX;
+        final double invRadiusY = 1 / radiusY;
+        final double invRadiusZ = 1 / radiusZ;
+
+        final int ceilRadiusX = (int) Math.ceil(radiusX);
+        final int ceilRadiusY = (int) Math.ceil(radiusY);
+        final int ceilRadiusZ = (int) Math.ceil(radiusZ);
+
+        int boundX = Math.max(0, ceilRadiusX);
+        int boundY = Math.max(0, ceilRadiusY);
+        int boundZ = Math.max(0, ceilRadiusZ);
+        Shape shape = new Shape(-boundX, -boundY, -boundZ, boundX, boundY, boundZ);
+
+        double nextXn = 0;
+        forX:
+        for (int x = 0; x <= ceilRadiusX; ++x) {
+            final double xn = nextXn;
+            nextXn = (x + 1) * invRadiusX;
+            double nextYn = 0;
+            forY:
+            for (int y = 0; y <= ceilRadiusY; ++y) {
+                final double yn = nextYn;
+                nextYn = (y + 1) * invRadiusY;
+                double nextZn = 0;
+                forZ:
+                for (int z = 0; z <= ceilRadiusZ; ++z) {
+                    final double zn = nextZn;
+                    nextZn = (z + 1) * invRadiusZ;
+
+                    double distanceSq = lengthSq(xn, yn, zn);
+                    if (distanceSq > 1) {
+                        if (z == 0) {
+                            if (y == 0) {
+                                break forX;
+                            }
+                            break forY;
+                        }
+                        break forZ;
+                    }
+
+                    if (!filled) {
+                        if (lengthSq(nextXn, yn, zn) <= 1 && lengthSq(xn, nextYn, zn) <= 1 && lengthSq(xn, yn, nextZn) <= 1) {
+                            continue;
+                        }
+                    }
+
+                    shape.addMirrored(x, y, z);
+                }
+            }
+        }
+
+        return shape;
+    }
+
+    /**
+     * Rasterize a circle with the midpoint circle algorithm, one octant at
+     * a time.
+     *
+     * @param radius
+     * @param filled
+     * @return
+     */
+    private static Shape rasterizeCircle(double radius, boolean filled) {
+        int bound = Math.abs((int) Math.ceil(radius));
+        Shape shape = new Shape(-bound, 0, -bound, bound, 0, bound);
+
+        int x = 0;
+        double z = radius;
+        double d = (5 - radius * 4) / 4;
+
+        addCirclePoints(shape, x, z, filled);
+
+        while (x < z) {
+            ++x;
+
+            if (d >= 0) {
+                d += 2 * (x - --z) + 1;
+            } else {
+                d += 2 * x + 1;
+            }
+
+            addCirclePoints(shape, x, z, filled);
+        }
+
+        return shape;
+    }
+
+    private static void addCirclePoints(Shape shape, int x, double z,
+            boolean filled) {
+        int ceilZ = (int) Math.ceil(z);
+
+        if (filled) {
+            if (x == z) {
+                for (int z2 = -ceilZ; z2 <= ceilZ; ++z2) {
+                    shape.add(x, 0, z2);
+                    shape.add(-x, 0, z2);
+                }
+            } else if (x < z) {
+                for (int x2 = -x; x2 <= x; ++x2) {
+                    for (int z2 = -ceilZ; z2 <= ceilZ; ++z2) {
+                        shape.add(x2, 0, z2);
+                    }
+                    shape.add(ceilZ, 0, x2);
+                    shape.add(-ceilZ, 0, x2);
+                }
+            }
+        } else {
+            if (x == 0) {
+                shape.add(0, 0, ceilZ);
+                shape.add(0, 0, -ceilZ);
+                shape.add(ceilZ, 0, 0);
+                shape.add(-ceilZ, 0, 0);
+            } else if (x == z) {
+                shape.add(x, 0, ceilZ);
+                shape.add(-x, 0, ceilZ);
+                shape.add(x, 0, -ceilZ);
+                shape.add(-x, 0, -ceilZ);
+            } else if (x < z) {
+                shape.add(x, 0, ceilZ);
+                shape.add(-x, 0, ceilZ);
+                shape.add(x, 0, -ceilZ);
+                shape.add(-x, 0, -ceilZ);
+                shape.add(ceilZ, 0, x);
+                shape.add(-ceilZ, 0, x);
+                shape.add(ceilZ, 0, -x);
+                shape.add(-ceilZ, 0, -x);
+            }
+        }
+    }
+
+    private static Shape rasterizePyramid(int size, boolean filled) {
+        int height = size;
+        int bound = Math.max(0, size - 1);
+        Shape shape = new Shape(-bound, 0, -bound, bound, bound, bound);
+
+        for (int y = 0; y <= height; ++y) {
+            size--;
+            for (int x = 0; x <= size; ++x) {
+                for (int z = 0; z <= size; ++z) {
+                    if (filled || z == size || x == size) {
+                        shape.add(x, y, z);
+                        shape.add(-x, y, z);
+                        shape.add(x, y, -z);
+                        shape.add(-x, y, -z);
+                    }
+                }
+            }
+        }
+
+        return shape;
+    }
+
+    private static double lengthSq(double x, double y, double z) {
+        return (x * x) + (y * y) + (z * z);
+    }
+
+    /**
+     * The kinds of shapes that are cached.
+     */
+    private enum Kind {
+        SPHERE,
+        ELLIPSOID,
+        CIRCLE,
+        PYRAMID
+    }
+
+    /**
+     * Identifies a shape by its kind, whether it is filled and its sizes.
+     */
+    private static final class Key {
+        private final Kind kind;
+        private final boolean filled;
+        private final double[] sizes;
+
+        Key(Kind kind, boolean filled, double ... sizes) {
+            this.kind = kind;
+            this.filled = filled;
+            this.sizes = sizes;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) obj;
+            return kind == other.kind && filled == other.filled
+                    && Arrays.equals(sizes, other.sizes);
+        }
+
+        @Override
+        public int hashCode() {
+            return (kind.hashCode() * 31 + Arrays.hashCode(sizes)) * 2
+                    + (filled ? 1 : 0);
+        }
+    }
+}
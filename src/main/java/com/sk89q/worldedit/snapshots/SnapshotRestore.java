@@ -23,8 +23,6 @@ import com.sk89q.worldedit.regions.*;
 import com.sk89q.worldedit.blocks.*;
 import com.sk89q.worldedit.data.*;
 import java.io.IOException;
-import java.util.Map;
-import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.ArrayList;
 
@@ -34,10 +32,13 @@ import java.util.ArrayList;
  */
 public class SnapshotRestore {
     /**
-     * Store a list of chunks that are needed and the points in them.
+     * Region to restore.
      */
-    private Map<BlockVector2D,ArrayList<Vector>> neededChunks =
-            new LinkedHashMap<BlockVector2D,ArrayList<Vector>>();
+    private Region region;
+    /**
+     * Number of chunks that the region is in.
+     */
+    private int chunksAffected;
     /**
      * Chunk store.
      */
@@ -63,60 +64,9 @@ public class SnapshotRestore {
      */
     public SnapshotRestore(ChunkStore chunkStore, Region region) {
         this.chunkStore = chunkStore;
+        this.region = region;
 
-        if (region instanceof CuboidRegion) {
-            findNeededCuboidChunks(region);
-        } else {
-            findNeededChunks(region);
-        }
-    }
-
-    /**
-     * Find needed chunks in the cuboid of the region.
-     *
-     * @param region
-     */
-    private void findNeededCuboidChunks(Region region) {
-        Vector min = region.getMinimumPoint();
-        Vector max = region.getMaximumPoint();
-
-        // First, we need to group points by chunk so that we only need
-        // to keep one chunk in memory at any given moment
-        for (int x = min.getBlockX(); x <= max.getBlockX(); ++x) {
-            for (int y = min.getBlockY(); y <= max.getBlockY(); ++y) {
-                for (int z = min.getBlockZ(); z <= max.getBlockZ(); ++z) {
-                    Vector pos = new Vector(x, y, z);
-                    BlockVector2D chunkPos = ChunkStore.toChunk(pos);
-
-                    // Unidentified chunk
-                    if (!neededChunks.containsKey(chunkPos)) {
-                        neededChunks.put(chunkPos, new ArrayList<Vector>());
-                    }
-
-                    neededChunks.get(chunkPos).add(pos);
-                }
-            }
-        }
-    }
-
-    /**
-     * Find needed chunks in the region.
-     *
-     * @param region
-     */
-    private void findNeededChunks(Region region) {
-        // First, we need to group points by chunk so that we only need
-        // to keep one chunk in memory at any given moment
-        for (Vector pos : region) {
-            BlockVector2D chunkPos = ChunkStore.toChunk(pos);
-
-            // Unidentified chunk
-            if (!neededChunks.containsKey(chunkPos)) {
-                neededChunks.put(chunkPos, new ArrayList<Vector>());
-            }
-
-            neededChunks.get(chunkPos).add(pos);
-        }
+        chunksAffected = region.getChunks().size();
     }
 
     /**
@@ -125,7 +75,7 @@ public class SnapshotRestore {
      * @return
      */
     public int getChunksAffected() {
-        return neededChunks.size();
+        return chunksAffected;
     }
 
     /**
@@ -140,34 +90,62 @@ public class SnapshotRestore {
         missingChunks = new ArrayList<Vector2D>();
         errorChunks = new ArrayList<Vector2D>();
 
-        // Now let's start restoring!
-        for (Map.Entry<BlockVector2D,ArrayList<Vector>> entry :
-                neededChunks.entrySet()) {
-            BlockVector2D chunkPos = entry.getKey();
-            Chunk chunk;
+        final EditSession session = editSession;
+        final String worldName = editSession.getWorld().getName();
+
+        // The region is visited a chunk at a time so that only one chunk
+        // needs to be kept in memory at any given moment
+        region.visitChunks(new ChunkVisitor() {
+            private BlockVector2D chunkPos;
+            private Chunk chunk;
+
+            public boolean beginChunk(int chunkX, int chunkZ) {
+                chunkPos = new BlockVector2D(chunkX, chunkZ);
+                chunk = null;
+
+                try {
+                    chunk = chunkStore.getChunk(chunkPos, worldName);
+                    // Good, the chunk could be at least loaded
+                } catch (MissingChunkException me) {
+                    missingChunks.add(chunkPos);
+                } catch (MissingWorldException me) {
+                    errorChunks.add(chunkPos);
+                    lastErrorMessage = me.getMessage();
+                } catch (DataException de) {
+                    errorChunks.add(chunkPos);
+                    lastErrorMessage = de.getMessage();
+                } catch (IOException ioe) {
+                    errorChunks.add(chunkPos);
+                    lastErrorMessage = ioe.getMessage();
+                }
+
+                return chunk != null;
+            }
 
-            try {
-                chunk = chunkStore.getChunk(chunkPos, editSession.getWorld().getName());
-                // Good, the chunk could be at least loaded
+            public void visitSpan(int minX, int maxX, int minY, int maxY, int z)
+                    throws MaxChangedBlocksException {
+                if (chunk == null) {
+                    return;
+                }
 
                 // Now just copy blocks!
-                for (Vector pos : entry.getValue()) {
-                    BaseBlock block = chunk.getBlock(pos);
-                    editSession.setBlock(pos, block);
+                for (int x = minX; x <= maxX; ++x) {
+                    for (int y = minY; y <= maxY; ++y) {
+                        Vector pos = new Vector(x, y, z);
+
+                        try {
+                            session.setBlock(pos, chunk.getBlock(pos));
+                        } catch (DataException de) {
+                            errorChunks.add(chunkPos);
+                            lastErrorMessage = de.getMessage();
+                            // Skip the rest of the chunk
+                            chunk = null;
+                            return;
+                        }
+                    }
                 }
-            } catch (MissingChunkException me) {
-                missingChunks.add(chunkPos);
-            } catch (MissingWorldException me) {
-                errorChunks.add(chunkPos);
-                lastErrorMessage = me.getMessage();
-            } catch (DataException de) {
-                errorChunks.add(chunkPos);
-                lastErrorMessage = de.getMessage();
-            } catch (IOException ioe) {
-                errorChunks.add(chunkPos);
-                lastErrorMessage = ioe.getMessage();
             }
-        }
+        });
     }
 
     /**
@@ -19,8 +19,6 @@
 
 package com.sk89q.worldedit.tools;
 
-import java.util.HashSet;
-import java.util.Set;
 import com.sk89q.worldedit.*;
 import com.sk89q.worldedit.blocks.BlockID;
 import com.sk89q.worldedit.patterns.Pattern;
@@ -60,8 +58,7 @@ public class FloodFillTool implements BlockTool {
         EditSession editSession = session.createEditSession(player);
 
         try {
-            recurse(server, editSession, world, clicked.toBlockVector(),
-                    clicked, range, initialType, new HashSet<BlockVector>());
+            fill(editSession, clicked, initialType);
         } catch (MaxChangedBlocksException e) {
             player.printError("Max blocks change limit reached.");
         } finally {
@@ -74,45 +71,22 @@ public class FloodFillTool implements BlockTool {
     /**
      * Helper method.
      * 
-     * @param server
-     * @param superPickaxeManyDrop
-     * @param world
-     * @param pos
+     * @param editSession
      * @param origin
-     * @param size
      * @param initialType
-     * @param visited
+     * @throws MaxChangedBlocksException
      */
-    private void recurse(ServerInterface server, EditSession editSession,
-            LocalWorld world, BlockVector pos,
-            Vector origin, int size, int initialType,
-            Set<BlockVector> visited)
-            throws MaxChangedBlocksException {
-        
-        if (origin.distance(pos) > size || visited.contains(pos)) {
-            return;
-        }
-
-        visited.add(pos);
-
-        if (editSession.getBlock(pos).getType() == initialType) {
-            editSession.setBlock(pos, pattern.next(pos));
-        } else {
-            return;
-        }
-
-        recurse(server, editSession, world, pos.add(1, 0, 0).toBlockVector(),
-                origin, size, initialType, visited);
-        recurse(server, editSession, world, pos.add(-1, 0, 0).toBlockVector(),
-                origin, size, initialType, visited);
-        recurse(server, editSession, world, pos.add(0, 0, 1).toBlockVector(),
-                origin, size, initialType, visited);
-        recurse(server, editSession, world, pos.add(0, 0, -1).toBlockVector(),
-                origin, size, initialType, visited);
-        recurse(server, editSession, world, pos.add(0, 1, 0).toBlockVector(),
-                origin, size, initialType, visited);
-        recurse(server, editSession, world, pos.add(0, -1, 0).toBlockVector(),
-                origin, size, initialType, visited);
+    private void fill(final EditSession editSession, Vector origin,
+            int initialType) throws MaxChangedBlocksException {
+        FloodFill fill = FloodFill.withinRadius(editSession, origin, range, initialType);
+        fill.run(new FloodFill.Action() {
+            public boolean visit(int x, int y, int z)
+                    throws MaxChangedBlocksException {
+                Vector pt = new Vector(x, y, z);
+                editSession.setBlock(pt, pattern.next(pt));
+                return true;
+            }
+        });
     }
 
 }
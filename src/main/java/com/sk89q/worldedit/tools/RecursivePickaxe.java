@@ -19,8 +19,6 @@
 
 package com.sk89q.worldedit.tools;
 
-import java.util.HashSet;
-import java.util.Set;
 import com.sk89q.worldedit.*;
 import com.sk89q.worldedit.blocks.BaseBlock;
 import com.sk89q.worldedit.blocks.BlockID;
@@ -60,8 +58,7 @@ public class RecursivePickaxe implements BlockTool {
         EditSession editSession = session.createEditSession(player);
 
         try {
-            recurse(server, editSession, world, clicked.toBlockVector(),
-                    clicked, range, initialType, new HashSet<BlockVector>(),
+            fill(editSession, world, clicked, initialType,
                     config.superPickaxeManyDrop);
         } catch (MaxChangedBlocksException e) {
             player.printError("Max blocks change limit reached.");
@@ -75,48 +72,28 @@ public class RecursivePickaxe implements BlockTool {
     /**
      * Helper method.
      * 
-     * @param server
-     * @param superPickaxeManyDrop
+     * @param editSession
      * @param world
-     * @param pos
      * @param origin
-     * @param size
      * @param initialType
-     * @param visited
+     * @param drop
+     * @throws MaxChangedBlocksException
      */
-    private static void recurse(ServerInterface server, EditSession editSession,
-            LocalWorld world, BlockVector pos,
-            Vector origin, double size, int initialType,
-            Set<BlockVector> visited, boolean drop)
+    private void fill(final EditSession editSession, final LocalWorld world,
+            Vector origin, int initialType, final boolean drop)
             throws MaxChangedBlocksException {
-        
-        if (origin.distance(pos) > size || visited.contains(pos)) {
-            return;
-        }
-
-        visited.add(pos);
-
-        if (editSession.getBlock(pos).getType() == initialType) {
-            if (drop) {
-                world.simulateBlockMine(pos);
+        FloodFill fill = FloodFill.withinRadius(editSession, origin, range, initialType);
+        fill.run(new FloodFill.Action() {
+            public boolean visit(int x, int y, int z)
+                    throws MaxChangedBlocksException {
+                Vector pt = new Vector(x, y, z);
+                if (drop) {
+                    world.simulateBlockMine(pt);
+                }
+                editSession.setBlock(pt, air);
+                return true;
             }
-            editSession.setBlock(pos, air);
-        } else {
-            return;
-        }
-
-        recurse(server, editSession, world, pos.add(1, 0, 0).toBlockVector(),
-                origin, size, initialType, visited, drop);
-        recurse(server, editSession, world, pos.add(-1, 0, 0).toBlockVector(),
-                origin, size, initialType, visited, drop);
-        recurse(server, editSession, world, pos.add(0, 0, 1).toBlockVector(),
-                origin, size, initialType, visited, drop);
-        recurse(server, editSession, world, pos.add(0, 0, -1).toBlockVector(),
-                origin, size, initialType, visited, drop);
-        recurse(server, editSession, world, pos.add(0, 1, 0).toBlockVector(),
-                origin, size, initialType, visited, drop);
-        recurse(server, editSession, world, pos.add(0, -1, 0).toBlockVector(),
-                origin, size, initialType, visited, drop);
+        });
     }
 
 }
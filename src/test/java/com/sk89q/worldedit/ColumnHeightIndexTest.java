@@ -0,0 +1,224 @@
+// $Id$
+/*
+ * WorldEdit
+ * Copyright (C) 2010 sk89q <http://www.sk89q.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.sk89q.worldedit;
+
+import java.util.Random;
+
+import org.junit.*;
+
+import com.sk89q.worldedit.ColumnHeightIndex.Surface;
+import com.sk89q.worldedit.blocks.BaseBlock;
+import com.sk89q.worldedit.blocks.BlockID;
+import com.sk89q.worldedit.regions.CuboidRegion;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author sk89q
+ */
+public class ColumnHeightIndexTest {
+    private static final int RANGE = 40;
+
+    private static final int[] TYPES = {
+        BlockID.AIR, BlockID.STONE, BlockID.DIRT, BlockID.GRASS,
+        BlockID.SAND, BlockID.WATER, BlockID.LEAVES, BlockID.LOG,
+        BlockID.LONG_GRASS, BlockID.TORCH, BlockID.GLASS, BlockID.SNOW,
+    };
+
+    private MemoryWorld world;
+    private Random random;
+
+    @Before
+    public void setUp() {
+        world = new MemoryWorld("test");
+        random = new Random(20);
+
+        for (int x = -RANGE; x < RANGE; ++x) {
+            for (int z = -RANGE; z < RANGE; ++z) {
+                int height = random.nextInt(8) == 0 ? -1 : random.nextInt(128);
+                for (int y = 0; y <= height; ++y) {
+                    world.setBlock(x, y, z, randomType(), 0);
+                }
+            }
+        }
+    }
+
+    private int randomType() {
+        return TYPES[random.nextInt(TYPES.length)];
+    }
+
+    /**
+     * Find the highest block of a surface by looking at every block.
+     *
+     * @param x
+     * @param z
+     * @param minY
+     * @param maxY
+     * @param surface
+     * @return height, or -1
+     */
+    private int scan(int x, int z, int minY, int maxY, Surface surface) {
+        for (int y = maxY; y >= minY; --y) {
+            if (surface.matches(world.getBlockType(x, y, z))) {
+                return y;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Check every column against a scan of the world.
+     *
+     * @param editSession
+     */
+    private void checkAll(EditSession editSession) {
+        for (int x = -RANGE - 2; x < RANGE + 2; ++x) {
+            for (int z = -RANGE - 2; z < RANGE + 2; ++z) {
+                int solid = scan(x, z, 0, 127, Surface.SOLID);
+                int natural = scan(x, z, 0, 127, Surface.NATURAL_TERRAIN);
+                assertEquals(solid != -1 ? solid : 0,
+                        editSession.getHighestTerrainBlock(x, z, 0, 127));
+                assertEquals(natural != -1 ? natural : 0,
+                        editSession.getHighestTerrainBlock(x, z, 0, 127, true));
+            }
+        }
+    }
+
+    @Test
+    public void testRandomLookups() {
+        ColumnHeightIndex index = new ColumnHeightIndex(world);
+
+        for (int i = 0; i < 80000; ++i) {
+            int x = random.nextInt(RANGE * 2 + 4) - RANGE - 2;
+            int z = random.nextInt(RANGE * 2 + 4) - RANGE - 2;
+            Surface surface = Surface.values()[random.nextInt(Surface.values().length)];
+
+            assertEquals(scan(x, z, 0, 127, surface),
+                    index.getHighest(x, z, surface));
+        }
+    }
+
+    @Test
+    public void testRandomTerrainLookups() {
+        EditSession editSession = new EditSession(world, -1);
+
+        for (int i = 0; i < 80000; ++i) {
+            int x = random.nextInt(RANGE * 2) - RANGE;
+            int z = random.nextInt(RANGE * 2) - RANGE;
+            int minY = random.nextInt(128);
+            int maxY = minY + random.nextInt(128 - minY);
+            boolean natural = random.nextBoolean();
+
+            int expected = scan(x, z, minY, maxY,
+                    natural ? Surface.NATURAL_TERRAIN : Surface.SOLID);
+            assertEquals(expected != -1 ? expected : minY,
+                    editSession.getHighestTerrainBlock(x, z, minY, maxY, natural));
+        }
+    }
+
+    @Test
+    public void testUpdate() {
+        ColumnHeightIndex index = new ColumnHeightIndex(world);
+
+        for (int i = 0; i < 20000; ++i) {
+            int x = random.nextInt(16) - 8;
+            int z = random.nextInt(16) - 8;
+            Surface surface = Surface.values()[random.nextInt(Surface.values().length)];
+            assertEquals(scan(x, z, 0, 127, surface), index.getHighest(x, z, surface));
+
+            // Often change the top block, which has to be read again
+            int y = random.nextBoolean() ? Math.max(0, scan(x, z, 0, 127, surface))
+                    : random.nextInt(128);
+            int type = randomType();
+            world.setBlock(x, y, z, type, 0);
+            index.update(x, y, z, type);
+        }
+    }
+
+    @Test
+    public void testSetBlock() throws MaxChangedBlocksException {
+        EditSession editSession = new EditSession(world, -1);
+        checkAll(editSession);
+
+        for (int i = 0; i < 5000; ++i) {
+            int x = random.nextInt(RANGE * 2) - RANGE;
+            int z = random.nextInt(RANGE * 2) - RANGE;
+            int top = editSession.getHighestTerrainBlock(x, z, 0, 127);
+            int y = random.nextBoolean() ? top : random.nextInt(128);
+
+            editSession.setBlock(new Vector(x, y, z), new BaseBlock(randomType()));
+
+            int expected = scan(x, z, 0, 127, Surface.SOLID);
+            assertEquals(expected != -1 ? expected : 0,
+                    editSession.getHighestTerrainBlock(x, z, 0, 127));
+        }
+
+        checkAll(editSession);
+    }
+
+    @Test
+    public void testSetBlockWithReadCache() throws MaxChangedBlocksException {
+        EditSession editSession = new EditSession(world, -1);
+        editSession.enableReadCache(16);
+        checkAll(editSession);
+
+        for (int i = 0; i < 5000; ++i) {
+            int x = random.nextInt(RANGE * 2) - RANGE;
+            int z = random.nextInt(RANGE * 2) - RANGE;
+            int y = random.nextInt(128);
+            editSession.setBlock(new Vector(x, y, z), new BaseBlock(randomType()));
+        }
+
+        checkAll(editSession);
+    }
+
+    @Test
+    public void testSetBlocks() throws MaxChangedBlocksException {
+        EditSession editSession = new EditSession(world, -1);
+        checkAll(editSession);
+
+        // Carve out a hole, then raise a block partly over it
+        editSession.setBlocks(new CuboidRegion(new Vector(-20, 30, -15),
+                new Vector(10, 127, 5)), new BaseBlock(BlockID.AIR));
+        checkAll(editSession);
+
+        editSession.setBlocks(new CuboidRegion(new Vector(0, 40, 0),
+                new Vector(30, 90, 25)), new BaseBlock(BlockID.STONE));
+        checkAll(editSession);
+
+        editSession.replaceBlocks(new CuboidRegion(new Vector(-RANGE, 0, -RANGE),
+                new Vector(RANGE, 127, RANGE)), null, new BaseBlock(BlockID.LONG_GRASS));
+        checkAll(editSession);
+    }
+
+    @Test
+    public void testQueuedSetBlocks() throws MaxChangedBlocksException {
+        EditSession editSession = new EditSession(world, -1);
+        editSession.enableQueue();
+        checkAll(editSession);
+
+        editSession.setBlocks(new CuboidRegion(new Vector(-20, 20, -20),
+                new Vector(20, 127, 20)), new BaseBlock(BlockID.AIR));
+        editSession.setBlocks(new CuboidRegion(new Vector(-5, 50, -30),
+                new Vector(5, 60, 30)), new BaseBlock(BlockID.SAND));
+        editSession.flushQueue();
+        checkAll(editSession);
+    }
+}
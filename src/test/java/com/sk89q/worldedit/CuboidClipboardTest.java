@@ -0,0 +1,293 @@
+// $Id$
+/*
+ * WorldEdit
+ * Copyright (C) 2010 sk89q <http://www.sk89q.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.sk89q.worldedit;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+
+import org.junit.*;
+
+import com.sk89q.worldedit.CuboidClipboard.FlipDirection;
+import com.sk89q.worldedit.blocks.BaseBlock;
+import com.sk89q.worldedit.blocks.BlockData;
+import com.sk89q.worldedit.blocks.BlockID;
+import com.sk89q.worldedit.blocks.BlockType;
+import com.sk89q.worldedit.blocks.NoteBlock;
+import com.sk89q.worldedit.blocks.SignBlock;
+import com.sk89q.worldedit.blocks.TileEntityBlock;
+import com.sk89q.worldedit.data.DataException;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author sk89q
+ */
+public class CuboidClipboardTest {
+    private static final Vector ORIGIN = new Vector(10, 20, -5);
+    private static final Vector OFFSET = new Vector(-2, 1, -3);
+
+    private static final int[] TYPES = {
+        BlockID.AIR, BlockID.STONE, BlockID.TORCH, BlockID.WOODEN_STAIRS,
+        BlockID.LADDER, BlockID.LEVER, BlockID.PUMPKIN,
+        BlockID.REDSTONE_REPEATER_OFF, BlockID.PISTON_BASE,
+        BlockID.SIGN_POST, BlockID.WALL_SIGN, BlockID.NOTE_BLOCK,
+    };
+
+    /**
+     * The blocks a clipboard should have, indexed by x, y and z, along
+     * with the first line of text of each sign.
+     */
+    private static class Model {
+        private final int width;
+        private final int height;
+        private final int length;
+        private final int[][][] types;
+        private final int[][][] data;
+        private final String[][][] text;
+
+        private Model(int width, int height, int length) {
+            this.width = width;
+            this.height = height;
+            this.length = length;
+            types = new int[width][height][length];
+            data = new int[width][height][length];
+            text = new String[width][height][length];
+        }
+
+        private void set(Model from, int fromX, int fromY, int fromZ,
+                int x, int y, int z, int blockData) {
+            types[x][y][z] = from.types[fromX][fromY][fromZ];
+            data[x][y][z] = blockData;
+            text[x][y][z] = from.text[fromX][fromY][fromZ];
+        }
+
+        /**
+         * Rotate by 90 degrees, clockwise or back.
+         *
+         * @param reverse
+         * @return
+         */
+        private Model rotate(boolean reverse) {
+            Model rotated = new Model(length, height, width);
+            for (int x = 0; x < width; ++x) {
+                for (int y = 0; y < height; ++y) {
+                    for (int z = 0; z < length; ++z) {
+                        int type = types[x][y][z];
+                        if (reverse) {
+                            rotated.set(this, x, y, z, z, y, width - x - 1,
+                                    BlockData.rotate90Reverse(type, data[x][y][z]));
+                        } else {
+                            rotated.set(this, x, y, z, length - z - 1, y, x,
+                                    BlockData.rotate90(type, data[x][y][z]));
+                        }
+                    }
+                }
+            }
+            return rotated;
+        }
+
+        private Model flip(FlipDirection dir) {
+            Model flipped = new Model(width, height, length);
+            for (int x = 0; x < width; ++x) {
+                for (int y = 0; y < height; ++y) {
+                    for (int z = 0; z < length; ++z) {
+                        int blockData = BlockData.flip(types[x][y][z], data[x][y][z], dir);
+                        switch (dir) {
+                        case NORTH_SOUTH:
+                            flipped.set(this, x, y, z, width - x - 1, y, z, blockData);
+                            break;
+                        case WEST_EAST:
+                            flipped.set(this, x, y, z, x, y, length - z - 1, blockData);
+                            break;
+                        case UP_DOWN:
+                            flipped.set(this, x, y, z, x, height - y - 1, z, blockData);
+                            break;
+                        }
+                    }
+                }
+            }
+            return flipped;
+        }
+    }
+
+    private MemoryWorld world;
+    private Model model;
+
+    @Before
+    public void setUp() {
+        Random random = new Random(25);
+        world = new MemoryWorld("test");
+        model = new Model(7, 5, 4);
+
+        for (int x = 0; x < model.width; ++x) {
+            for (int y = 0; y < model.height; ++y) {
+                for (int z = 0; z < model.length; ++z) {
+                    int type = TYPES[random.nextInt(TYPES.length)];
+                    int data = BlockType.usesData(type) ? random.nextInt(16) : 0;
+                    Vector pt = ORIGIN.add(x, y, z);
+                    world.setBlock(pt.getBlockX(), pt.getBlockY(), pt.getBlockZ(), type, data);
+                    model.types[x][y][z] = type;
+                    model.data[x][y][z] = data;
+
+                    if (type == BlockID.SIGN_POST || type == BlockID.WALL_SIGN) {
+                        String label = x + "," + y + "," + z;
+                        world.copyToWorld(pt, new SignBlock(type, data,
+                                new String[] { label, "", "", "" }));
+                        model.text[x][y][z] = label;
+                    }
+                }
+            }
+        }
+    }
+
+    private CuboidClipboard copy() {
+        CuboidClipboard clipboard = new CuboidClipboard(
+                new Vector(model.width, model.height, model.length),
+                ORIGIN, OFFSET);
+        clipboard.copy(new EditSession(world, -1));
+        return clipboard;
+    }
+
+    private static void check(Model model, CuboidClipboard clipboard) {
+        assertEquals(new Vector(model.width, model.height, model.length),
+                clipboard.getSize());
+
+        for (int x = 0; x < model.width; ++x) {
+            for (int y = 0; y < model.height; ++y) {
+                for (int z = 0; z < model.length; ++z) {
+                    String at = "at " + x + "," + y + "," + z;
+                    int type = model.types[x][y][z];
+                    int data = model.data[x][y][z];
+                    assertEquals(at, type, clipboard.getBlockType(x, y, z));
+                    assertEquals(at, data, clipboard.getBlockData(x, y, z));
+
+                    BaseBlock block = clipboard.getPoint(new Vector(x, y, z));
+                    assertEquals(at, type, block.getType());
+                    assertEquals(at, data, block.getData());
+
+                    if (model.text[x][y][z] != null) {
+                        assertTrue(at, block instanceof SignBlock);
+                        assertEquals(at, model.text[x][y][z],
+                                ((SignBlock) block).getText()[0]);
+                    } else if (type == BlockID.NOTE_BLOCK) {
+                        assertTrue(at, block instanceof NoteBlock);
+                    } else {
+                        assertFalse(at, block instanceof TileEntityBlock);
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testCopy() {
+        check(model, copy());
+    }
+
+    @Test
+    public void testFlip() {
+        for (FlipDirection dir : FlipDirection.values()) {
+            CuboidClipboard clipboard = copy();
+            clipboard.flip(dir);
+            check(model.flip(dir), clipboard);
+            clipboard.flip(dir);
+            check(model.flip(dir).flip(dir), clipboard);
+        }
+    }
+
+    @Test
+    public void testRotate() {
+        CuboidClipboard clipboard = copy();
+        clipboard.rotate2D(90);
+        check(model.rotate(false), clipboard);
+
+        clipboard = copy();
+        clipboard.rotate2D(180);
+        check(model.rotate(false).rotate(false), clipboard);
+
+        clipboard = copy();
+        clipboard.rotate2D(-90);
+        check(model.rotate(true), clipboard);
+
+        clipboard = copy();
+        clipboard.rotate2D(45);
+        check(model, clipboard);
+    }
+
+    @Test
+    public void testRotateAndFlip() {
+        CuboidClipboard clipboard = copy();
+        clipboard.rotate2D(90);
+        clipboard.flip(FlipDirection.UP_DOWN);
+        clipboard.rotate2D(90);
+        clipboard.flip(FlipDirection.NORTH_SOUTH);
+        check(model.rotate(false).flip(FlipDirection.UP_DOWN).rotate(false)
+                .flip(FlipDirection.NORTH_SOUTH), clipboard);
+    }
+
+    @Test
+    public void testSaveLoad() throws IOException, DataException {
+        CuboidClipboard clipboard = copy();
+        clipboard.rotate2D(-90);
+        clipboard.flip(FlipDirection.WEST_EAST);
+        Model expected = model.rotate(true).flip(FlipDirection.WEST_EAST);
+
+        File file = File.createTempFile("clipboard", ".schematic");
+        try {
+            clipboard.saveSchematic(file);
+            CuboidClipboard loaded = CuboidClipboard.loadSchematic(file);
+
+            check(expected, loaded);
+            assertEquals(clipboard.getOrigin(), loaded.getOrigin());
+            assertEquals(clipboard.getOffset(), loaded.getOffset());
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void testPaste() throws MaxChangedBlocksException {
+        CuboidClipboard clipboard = copy();
+        clipboard.rotate2D(90);
+        clipboard.flip(FlipDirection.WEST_EAST);
+        Model expected = model.rotate(false).flip(FlipDirection.WEST_EAST);
+
+        MemoryWorld target = new MemoryWorld("target");
+        Vector pos = new Vector(-30, 40, 12);
+        clipboard.place(new EditSession(target, -1), pos, false);
+
+        for (int x = 0; x < expected.width; ++x) {
+            for (int y = 0; y < expected.height; ++y) {
+                for (int z = 0; z < expected.length; ++z) {
+                    Vector pt = pos.add(x, y, z);
+                    assertEquals(expected.types[x][y][z], target.getBlockType(pt));
+                    assertEquals(expected.data[x][y][z], target.getBlockData(pt));
+
+                    if (expected.text[x][y][z] != null) {
+                        SignBlock sign = new SignBlock(expected.types[x][y][z], 0);
+                        assertTrue(target.copyFromWorld(pt, sign));
+                        assertEquals(expected.text[x][y][z], sign.getText()[0]);
+                    }
+                }
+            }
+        }
+    }
+}
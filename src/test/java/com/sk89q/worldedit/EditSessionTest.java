@@ -0,0 +1,90 @@
+// $Id$
+/*
+ * WorldEdit
+ * Copyright (C) 2010 sk89q <http://www.sk89q.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.sk89q.worldedit;
+
+import org.junit.*;
+
+import com.sk89q.worldedit.blocks.BaseBlock;
+import com.sk89q.worldedit.blocks.BlockID;
+import com.sk89q.worldedit.regions.CuboidRegion;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author sk89q
+ */
+public class EditSessionTest {
+    private static final Vector TWICE = new Vector(5, 3, 5);
+
+    private MemoryWorld world;
+
+    /**
+     * Counts the blocks that flushing the queue reports as changed. The
+     * block at {@link #TWICE} is set to glass first.
+     */
+    private static class CountingEditSession extends EditSession {
+        private int changed = 0;
+
+        CountingEditSession(LocalWorld world) {
+            super(world, -1);
+        }
+
+        @Override
+        public boolean rawSetBlock(Vector pt, BaseBlock block) {
+            if (pt.equals(TWICE)) {
+                assertTrue(super.rawSetBlock(pt, new BaseBlock(BlockID.GLASS)));
+            }
+            if (super.rawSetBlock(pt, block)) {
+                ++changed;
+            }
+            return true;
+        }
+    }
+
+    @Before
+    public void setUp() {
+        world = new MemoryWorld("test");
+        for (int x = 0; x < 20; ++x) {
+            for (int z = 0; z < 10; ++z) {
+                world.setBlock(x, 3, z, BlockID.STONE, 0);
+            }
+        }
+        world.setBlock(12, 3, 4, BlockID.ICE, 0);
+    }
+
+    @Test
+    public void testFlushCountsChanges() throws MaxChangedBlocksException {
+        CountingEditSession editSession = new CountingEditSession(world);
+        editSession.enableQueue();
+        editSession.setBlocks(new CuboidRegion(new Vector(0, 3, 0),
+                new Vector(19, 3, 19)), new BaseBlock(BlockID.STONE));
+        editSession.flushQueue();
+
+        // Only the air, the ice and the block set to glass in between
+        // changed
+        assertEquals(20 * 10 + 1 + 1, editSession.changed);
+
+        for (int x = 0; x < 20; ++x) {
+            for (int z = 0; z < 20; ++z) {
+                assertEquals(BlockID.STONE, world.getBlockType(x, 3, z));
+            }
+        }
+    }
+}
@@ -0,0 +1,266 @@
+// $Id$
+/*
+ * WorldEdit
+ * Copyright (C) 2010 sk89q <http://www.sk89q.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.sk89q.worldedit;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.*;
+
+import com.sk89q.worldedit.FloodFill.Connectivity;
+import com.sk89q.worldedit.blocks.BlockID;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author sk89q
+ */
+public class FloodFillTest {
+    private MemoryWorld world;
+
+    @Before
+    public void setUp() {
+        world = new MemoryWorld("test");
+    }
+
+    private void fill(int minX, int minY, int minZ,
+            int maxX, int maxY, int maxZ) {
+        for (int x = minX; x <= maxX; ++x) {
+            for (int y = minY; y <= maxY; ++y) {
+                for (int z = minZ; z <= maxZ; ++z) {
+                    world.setBlock(x, y, z, BlockID.STONE, 0);
+                }
+            }
+        }
+    }
+
+    private FloodFill create(Vector min, Vector max, Connectivity connectivity) {
+        return new FloodFill(min, max, connectivity, new FloodFill.Predicate() {
+            public boolean matches(int x, int y, int z) {
+                return world.getBlockType(x, y, z) == BlockID.STONE;
+            }
+        });
+    }
+
+    /**
+     * Run a fill, checking that no block is visited twice.
+     *
+     * @param fill
+     * @return the visited blocks
+     * @throws MaxChangedBlocksException
+     */
+    private Set<BlockVector> run(FloodFill fill) throws MaxChangedBlocksException {
+        final Set<BlockVector> visited = new HashSet<BlockVector>();
+        fill.run(new FloodFill.Action() {
+            public boolean visit(int x, int y, int z) {
+                assertTrue(visited.add(new BlockVector(x, y, z)));
+                return true;
+            }
+        });
+        assertEquals(visited.size(), fill.getVisitedCount());
+        return visited;
+    }
+
+    private int count(Connectivity connectivity, Vector seed)
+            throws MaxChangedBlocksException {
+        FloodFill fill = create(new Vector(-20, 0, -20), new Vector(20, 40, 20),
+                connectivity);
+        fill.addSeed(seed);
+        return run(fill).size();
+    }
+
+    @Test
+    public void testCube() throws MaxChangedBlocksException {
+        fill(-2, 10, -2, 2, 14, 2);
+
+        assertEquals(25, count(Connectivity.HORIZONTAL, new Vector(0, 12, 0)));
+        assertEquals(125, count(Connectivity.FACES, new Vector(0, 12, 0)));
+        assertEquals(125, count(Connectivity.ALL, new Vector(0, 12, 0)));
+    }
+
+    @Test
+    public void testDiagonals() throws MaxChangedBlocksException {
+        for (int i = 0; i < 5; ++i) {
+            world.setBlock(i, 10 + i, i, BlockID.STONE, 0);
+            world.setBlock(i - 10, 20, i, BlockID.STONE, 0);
+        }
+
+        assertEquals(1, count(Connectivity.HORIZONTAL, new Vector(0, 10, 0)));
+        assertEquals(1, count(Connectivity.FACES, new Vector(0, 10, 0)));
+        assertEquals(5, count(Connectivity.ALL, new Vector(0, 10, 0)));
+
+        assertEquals(1, count(Connectivity.HORIZONTAL, new Vector(-10, 20, 0)));
+        assertEquals(1, count(Connectivity.FACES, new Vector(-10, 20, 0)));
+        assertEquals(5, count(Connectivity.ALL, new Vector(-10, 20, 0)));
+    }
+
+    @Test
+    public void testShape() throws MaxChangedBlocksException {
+        // Two layers joined by a single column
+        fill(0, 10, 0, 6, 10, 6);
+        fill(0, 14, 0, 6, 14, 6);
+        fill(3, 11, 3, 3, 13, 3);
+
+        Set<BlockVector> horizontal = run(seed(Connectivity.HORIZONTAL, 0, 10, 0));
+        assertEquals(49, horizontal.size());
+        for (BlockVector pt : horizontal) {
+            assertEquals(10, pt.getBlockY());
+        }
+
+        Set<BlockVector> faces = run(seed(Connectivity.FACES, 0, 10, 0));
+        assertEquals(49 * 2 + 3, faces.size());
+        assertTrue(faces.contains(new BlockVector(6, 14, 6)));
+        assertTrue(faces.contains(new BlockVector(3, 12, 3)));
+        assertFalse(faces.contains(new BlockVector(2, 12, 3)));
+    }
+
+    private FloodFill seed(Connectivity connectivity, int x, int y, int z) {
+        FloodFill fill = create(new Vector(-20, 0, -20), new Vector(20, 40, 20),
+                connectivity);
+        fill.addSeed(x, y, z);
+        return fill;
+    }
+
+    @Test
+    public void testClipping() throws MaxChangedBlocksException {
+        fill(-10, 0, -10, 10, 20, 10);
+
+        FloodFill fill = create(new Vector(-3, 5, -1), new Vector(4, 7, 2),
+                Connectivity.ALL);
+        fill.addSeed(0, 6, 0);
+        Set<BlockVector> visited = run(fill);
+
+        assertEquals(8 * 3 * 4, visited.size());
+        for (BlockVector pt : visited) {
+            assertTrue(pt.containedWithin(new Vector(-3, 5, -1), new Vector(4, 7, 2)));
+        }
+    }
+
+    @Test
+    public void testSeedOutsideBox() throws MaxChangedBlocksException {
+        fill(-10, 0, -10, 10, 20, 10);
+
+        FloodFill fill = create(new Vector(0, 5, 0), new Vector(4, 7, 4),
+                Connectivity.FACES);
+        fill.addSeed(-1, 6, 0);
+        fill.addSeed(0, 8, 0);
+        fill.addSeed(5, 5, 5);
+        assertEquals(0, run(fill).size());
+    }
+
+    @Test
+    public void testSeedNotMatching() throws MaxChangedBlocksException {
+        fill(0, 0, 0, 3, 3, 3);
+
+        FloodFill fill = create(new Vector(-5, 0, -5), new Vector(5, 5, 5),
+                Connectivity.FACES);
+        fill.addSeed(-2, 2, 2);
+        fill.addSeed(0, 0, 0);
+        fill.addSeed(0, 0, 0);
+        assertEquals(64, run(fill).size());
+    }
+
+    @Test
+    public void testLargeQueue() throws MaxChangedBlocksException {
+        // The front of a fill from the corner of a cube is a triangle of
+        // several hundred blocks, so the queue wraps around and grows
+        fill(0, 0, 0, 29, 29, 29);
+
+        FloodFill fill = create(new Vector(0, 0, 0), new Vector(29, 29, 29),
+                Connectivity.FACES);
+        fill.addSeed(0, 0, 0);
+
+        final Set<BlockVector> visited = new HashSet<BlockVector>();
+        final int[] lastDistance = new int[1];
+        fill.run(new FloodFill.Action() {
+            public boolean visit(int x, int y, int z) {
+                assertTrue(visited.add(new BlockVector(x, y, z)));
+
+                // Breadth first, so the distance never goes down
+                int distance = x + y + z;
+                assertTrue(distance >= lastDistance[0]);
+                lastDistance[0] = distance;
+                return true;
+            }
+        });
+
+        assertEquals(30 * 30 * 30, visited.size());
+        assertEquals(30 * 30 * 30, fill.getVisitedCount());
+    }
+
+    @Test
+    public void testStop() throws MaxChangedBlocksException {
+        fill(0, 0, 0, 9, 0, 0);
+
+        FloodFill fill = create(new Vector(0, 0, 0), new Vector(9, 0, 0),
+                Connectivity.FACES);
+        fill.addSeed(0, 0, 0);
+
+        final int[] visits = new int[1];
+        fill.run(new FloodFill.Action() {
+            public boolean visit(int x, int y, int z) {
+                ++visits[0];
+                return x < 4;
+            }
+        });
+
+        assertEquals(5, visits[0]);
+    }
+
+    @Test
+    public void testWithinRadius() throws MaxChangedBlocksException {
+        fill(-10, 0, -10, 10, 20, 10);
+        world.setBlock(1, 2, 0, BlockID.GLASS, 0);
+        Vector origin = new Vector(0, 1, 0);
+
+        Set<BlockVector> visited = run(FloodFill.withinRadius(
+                new EditSession(world, -1), origin, 3.5, BlockID.STONE));
+
+        Set<BlockVector> expected = new HashSet<BlockVector>();
+        for (int x = -4; x <= 4; ++x) {
+            for (int y = 0; y <= 5; ++y) {
+                for (int z = -4; z <= 4; ++z) {
+                    BlockVector pt = new BlockVector(x, y, z);
+                    if (origin.distance(pt) <= 3.5
+                            && world.getBlockType(x, y, z) == BlockID.STONE) {
+                        expected.add(pt);
+                    }
+                }
+            }
+        }
+        assertEquals(expected, visited);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testRunTwice() throws MaxChangedBlocksException {
+        fill(0, 0, 0, 2, 2, 2);
+
+        FloodFill fill = create(new Vector(0, 0, 0), new Vector(2, 2, 2),
+                Connectivity.FACES);
+        fill.addSeed(0, 0, 0);
+        run(fill);
+        run(fill);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testTooLarge() {
+        create(new Vector(0, 0, 0), new Vector(1 << 22, 0, 0), Connectivity.FACES);
+    }
+}
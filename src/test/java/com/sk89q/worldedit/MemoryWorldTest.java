@@ -0,0 +1,175 @@
+// $Id$
+/*
+ * WorldEdit
+ * Copyright (C) 2010 sk89q <http://www.sk89q.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.sk89q.worldedit;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.*;
+
+import com.sk89q.jnbt.ByteArrayTag;
+import com.sk89q.jnbt.CompoundTag;
+import com.sk89q.jnbt.IntTag;
+import com.sk89q.jnbt.ListTag;
+import com.sk89q.jnbt.Tag;
+import com.sk89q.worldedit.blocks.BaseBlock;
+import com.sk89q.worldedit.blocks.BaseItemStack;
+import com.sk89q.worldedit.blocks.BlockID;
+import com.sk89q.worldedit.blocks.ChestBlock;
+import com.sk89q.worldedit.data.ChunkStore;
+import com.sk89q.worldedit.data.MissingChunkException;
+import com.sk89q.worldedit.regions.CuboidRegion;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author sk89q
+ */
+public class MemoryWorldTest {
+    private MemoryWorld world;
+
+    @Before
+    public void setUp() {
+        world = new MemoryWorld("test");
+    }
+
+    @Test
+    public void testSetGet() {
+        assertEquals(0, world.getBlockType(new Vector(5, 64, -20)));
+        assertTrue(world.setTypeIdAndData(new Vector(5, 64, -20), BlockID.CLOTH, 14));
+        assertFalse(world.setTypeIdAndData(new Vector(5, 64, -20), BlockID.CLOTH, 14));
+        assertEquals(BlockID.CLOTH, world.getBlockType(new Vector(5, 64, -20)));
+        assertEquals(14, world.getBlockData(new Vector(5, 64, -20)));
+
+        assertFalse(world.setBlockType(new Vector(0, 128, 0), BlockID.STONE));
+        assertEquals(0, world.getBlockType(new Vector(0, -1, 0)));
+        assertEquals(1, world.getChunkCount());
+    }
+
+    @Test
+    public void testGetBlocks() {
+        for (int x = -20; x < 20; ++x) {
+            for (int z = -20; z < 20; ++z) {
+                world.setTypeIdAndData(new Vector(x, (x * 7 + z * 3) & 127, z),
+                        (x + z) & 0xFF, (x ^ z) & 0xF);
+            }
+        }
+
+        Vector min = new Vector(-18, 0, -19);
+        Vector max = new Vector(25, 127, 3);
+        int width = 44;
+        int length = 23;
+        short[] types = new short[width * 128 * length];
+        byte[] data = new byte[types.length];
+        world.getBlocks(min, max, types, data);
+
+        for (int y = 0; y < 128; ++y) {
+            for (int z = -19; z <= 3; ++z) {
+                for (int x = -18; x <= 25; ++x) {
+                    int index = y * width * length + (z + 19) * width + (x + 18);
+                    Vector pt = new Vector(x, y, z);
+                    assertEquals(world.getBlockType(pt), types[index]);
+                    assertEquals(world.getBlockData(pt), data[index]);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testEditSessionUndo() throws MaxChangedBlocksException {
+        world.setBlockType(new Vector(3, 10, 3), BlockID.DIRT);
+
+        EditSession editSession = new EditSession(world, -1);
+        CuboidRegion region = new CuboidRegion(new Vector(0, 0, 0), new Vector(31, 15, 31));
+        assertEquals(32 * 16 * 32, editSession.setBlocks(region, new BaseBlock(BlockID.STONE)));
+        assertEquals(BlockID.STONE, world.getBlockType(new Vector(31, 15, 31)));
+
+        editSession.undo(new EditSession(world, -1));
+        assertEquals(BlockID.DIRT, world.getBlockType(new Vector(3, 10, 3)));
+        assertEquals(0, world.getBlockType(new Vector(31, 15, 31)));
+    }
+
+    @Test
+    public void testTileEntities() throws Exception {
+        Vector pt = new Vector(1, 2, 3);
+        BaseItemStack[] items = new BaseItemStack[27];
+        items[4] = new BaseItemStack(BlockID.GOLD_BLOCK, 12);
+
+        world.setBlockType(pt, BlockID.CHEST);
+        assertTrue(world.copyToWorld(pt, new ChestBlock(0, items)));
+
+        ChestBlock chest = new ChestBlock();
+        assertTrue(world.copyFromWorld(pt, chest));
+        assertEquals(BlockID.GOLD_BLOCK, chest.getItems()[4].getType());
+        assertEquals(12, chest.getItems()[4].getAmount());
+
+        assertTrue(world.clearContainerBlockContents(pt));
+        chest = new ChestBlock();
+        world.copyFromWorld(pt, chest);
+        assertNull(chest.getItems()[4]);
+
+        world.setBlockType(pt, BlockID.STONE);
+        assertEquals(0, world.getTileEntityCount());
+    }
+
+    @Test
+    public void testLoadChunk() throws Exception {
+        final byte[] blocks = new byte[32768];
+        final byte[] data = new byte[16384];
+        // Chunk files are ordered x, z, y with y changing fastest
+        blocks[(5 * 16 + 6) * 128 + 70] = (byte) BlockID.GLASS;
+        blocks[(1 * 16 + 2) * 128 + 3] = (byte) BlockID.CHEST;
+        data[((1 * 16 + 2) * 128 + 3) / 2] = (byte) 0x50;
+
+        ChunkStore store = new ChunkStore() {
+            @Override
+            public CompoundTag getChunkTag(Vector2D pos, String world)
+                    throws MissingChunkException {
+                if (pos.getBlockX() != 2 || pos.getBlockZ() != -1) {
+                    throw new MissingChunkException();
+                }
+
+                Map<String, Tag> values = new HashMap<String, Tag>();
+                values.put("Blocks", new ByteArrayTag("Blocks", blocks));
+                values.put("Data", new ByteArrayTag("Data", data));
+                values.put("xPos", new IntTag("xPos", 2));
+                values.put("zPos", new IntTag("zPos", -1));
+                List<Tag> tileEntities = new ArrayList<Tag>();
+                values.put("TileEntities", new ListTag("TileEntities",
+                        CompoundTag.class, tileEntities));
+                return new CompoundTag("Level", values);
+            }
+
+            @Override
+            public boolean isValid() {
+                return true;
+            }
+        };
+
+        assertEquals(1, world.loadChunks(store, new Vector2D(0, -2), new Vector2D(3, 0)));
+        assertEquals(BlockID.GLASS, world.getBlockType(new Vector(32 + 5, 70, -16 + 6)));
+        assertEquals(BlockID.CHEST, world.getBlockType(new Vector(32 + 1, 3, -16 + 2)));
+        assertEquals(5, world.getBlockData(new Vector(32 + 1, 3, -16 + 2)));
+        assertEquals(1, world.getTileEntityCount());
+        assertEquals(0, world.getBlockType(new Vector(32 + 5, 70, 6)));
+    }
+}
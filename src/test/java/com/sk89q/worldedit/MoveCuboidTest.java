@@ -0,0 +1,193 @@
+// $Id$
+/*
+ * WorldEdit
+ * Copyright (C) 2010 sk89q <http://www.sk89q.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.sk89q.worldedit;
+
+import java.util.Random;
+
+import org.junit.*;
+
+import com.sk89q.worldedit.blocks.BaseBlock;
+import com.sk89q.worldedit.blocks.BlockID;
+import com.sk89q.worldedit.blocks.SignBlock;
+import com.sk89q.worldedit.regions.CuboidRegion;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author sk89q
+ */
+public class MoveCuboidTest {
+    private static final Vector MIN = new Vector(-7, 20, 5);
+    private static final Vector MAX = new Vector(30, 41, 27);
+    private static final Vector SIGN = new Vector(-3, 22, 9);
+    private static final int LOW = -64;
+    private static final int SIZE = 160;
+
+    private MemoryWorld world;
+
+    @Before
+    public void setUp() {
+        Random random = new Random(18);
+        world = new MemoryWorld("test");
+
+        for (int x = MIN.getBlockX() - 40; x <= MAX.getBlockX() + 40; ++x) {
+            for (int y = 0; y < 128; y += 3) {
+                for (int z = MIN.getBlockZ() - 40; z <= MAX.getBlockZ() + 40; ++z) {
+                    if (random.nextInt(4) > 0) {
+                        world.setBlock(x, y, z, BlockID.CLOTH, random.nextInt(16));
+                    }
+                }
+            }
+        }
+
+        world.setBlock(SIGN.getBlockX(), SIGN.getBlockY(), SIGN.getBlockZ(),
+                BlockID.SIGN_POST, 4);
+        world.copyToWorld(SIGN, new SignBlock(BlockID.SIGN_POST, 4,
+                new String[] { "moved", "", "", "" }));
+    }
+
+    /**
+     * Take a copy of the types and data values of every block that a move
+     * or a stack could change, as type << 4 | data.
+     *
+     * @return
+     */
+    private int[] snapshot() {
+        short[] types = new short[SIZE * 128 * SIZE];
+        byte[] data = new byte[types.length];
+        world.getBlocks(new Vector(LOW, 0, LOW),
+                new Vector(LOW + SIZE - 1, 127, LOW + SIZE - 1), types, data);
+
+        int[] blocks = new int[types.length];
+        for (int i = 0; i < blocks.length; ++i) {
+            blocks[i] = types[i] << 4 | data[i];
+        }
+        return blocks;
+    }
+
+    private static int get(int[] blocks, int x, int y, int z) {
+        return blocks[(y * SIZE + z - LOW) * SIZE + x - LOW];
+    }
+
+    private static boolean inSource(int x, int y, int z) {
+        return x >= MIN.getBlockX() && y >= MIN.getBlockY() && z >= MIN.getBlockZ()
+                && x <= MAX.getBlockX() && y <= MAX.getBlockY() && z <= MAX.getBlockZ();
+    }
+
+    private void checkMove(Vector dir, int distance, boolean copyAir)
+            throws MaxChangedBlocksException {
+        setUp();
+        int[] before = snapshot();
+        Vector shift = dir.multiply(distance);
+        int shiftX = shift.getBlockX();
+        int shiftY = shift.getBlockY();
+        int shiftZ = shift.getBlockZ();
+
+        EditSession editSession = new EditSession(world, -1);
+        int moved = editSession.moveCuboidRegion(new CuboidRegion(MIN, MAX),
+                dir, distance, copyAir, new BaseBlock(BlockID.CLOTH, 14));
+
+        int[] after = snapshot();
+        int expectedMoved = 0;
+        for (int x = LOW; x < LOW + SIZE; ++x) {
+            for (int y = 0; y < 128; ++y) {
+                for (int z = LOW; z < LOW + SIZE; ++z) {
+                    int expected = get(before, x, y, z);
+
+                    if (inSource(x - shiftX, y - shiftY, z - shiftZ)
+                            && (copyAir || get(before, x - shiftX, y - shiftY, z - shiftZ) != 0)) {
+                        expected = get(before, x - shiftX, y - shiftY, z - shiftZ);
+                        ++expectedMoved;
+                    } else if (inSource(x, y, z) && (copyAir || expected != 0)) {
+                        expected = BlockID.CLOTH << 4 | 14;
+                    }
+
+                    if (get(after, x, y, z) != expected) {
+                        fail("Wrong block at " + x + "," + y + "," + z
+                                + " after moving by " + shift);
+                    }
+                }
+            }
+        }
+        assertEquals(expectedMoved, moved);
+
+        SignBlock sign = new SignBlock(BlockID.SIGN_POST, 4);
+        assertTrue(world.copyFromWorld(SIGN.add(shift), sign));
+        assertEquals("moved", sign.getText()[0]);
+
+        editSession.undo(new EditSession(world, -1));
+        assertArrayEquals(before, snapshot());
+    }
+
+    @Test
+    public void testMoveOverlapping() throws MaxChangedBlocksException {
+        checkMove(new Vector(1, 0, 0), 1, true);
+        checkMove(new Vector(-1, 0, 0), 20, true);
+        checkMove(new Vector(0, 1, 0), 3, true);
+        checkMove(new Vector(0, -1, 0), 17, true);
+        checkMove(new Vector(0, 0, 1), 16, true);
+        checkMove(new Vector(0, 0, -1), 5, true);
+    }
+
+    @Test
+    public void testMoveApart() throws MaxChangedBlocksException {
+        checkMove(new Vector(1, 0, 0), 45, true);
+        checkMove(new Vector(0, 1, 0), 50, true);
+        checkMove(new Vector(0, 0, -1), 30, true);
+    }
+
+    @Test
+    public void testMoveDiagonal() throws MaxChangedBlocksException {
+        checkMove(new Vector(3, 1, -2), 1, true);
+        checkMove(new Vector(-1, 0, 1), 7, true);
+        checkMove(new Vector(1, -1, 1), 20, true);
+    }
+
+    @Test
+    public void testMoveWithoutAir() throws MaxChangedBlocksException {
+        checkMove(new Vector(0, 1, 0), 2, false);
+        checkMove(new Vector(-1, 0, 0), 4, false);
+        checkMove(new Vector(1, 2, 1), 1, false);
+    }
+
+    @Test
+    public void testStack() throws MaxChangedBlocksException {
+        int[] before = snapshot();
+        EditSession editSession = new EditSession(world, -1);
+        editSession.stackCuboidRegion(new CuboidRegion(MIN, MAX),
+                new Vector(0, 0, -1), 3, true);
+        int[] after = snapshot();
+
+        for (int i = 0; i <= 3; ++i) {
+            int offsetZ = -23 * i;
+            for (int x = MIN.getBlockX(); x <= MAX.getBlockX(); ++x) {
+                for (int y = MIN.getBlockY(); y <= MAX.getBlockY(); ++y) {
+                    for (int z = MIN.getBlockZ(); z <= MAX.getBlockZ(); ++z) {
+                        assertEquals(get(before, x, y, z), get(after, x, y, z + offsetZ));
+                    }
+                }
+            }
+        }
+
+        SignBlock sign = new SignBlock(BlockID.SIGN_POST, 4);
+        assertTrue(world.copyFromWorld(SIGN.add(0, 0, -69), sign));
+        assertEquals("moved", sign.getText()[0]);
+    }
+}
@@ -0,0 +1,259 @@
+// $Id$
+/*
+ * WorldEdit
+ * Copyright (C) 2010 sk89q <http://www.sk89q.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.sk89q.worldedit.history;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.junit.*;
+
+import com.sk89q.worldedit.EditSession;
+import com.sk89q.worldedit.MaxChangedBlocksException;
+import com.sk89q.worldedit.MemoryWorld;
+import com.sk89q.worldedit.Vector;
+import com.sk89q.worldedit.blocks.BaseBlock;
+import com.sk89q.worldedit.blocks.BlockID;
+import com.sk89q.worldedit.blocks.SignBlock;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author sk89q
+ */
+public class ChangeJournalTest {
+    /**
+     * More than one read window of spilled records.
+     */
+    private static final int COUNT = 10000;
+    private static final int THRESHOLD = 100;
+
+    private File dir;
+    private ChangeJournal journal;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = File.createTempFile("journal", "");
+        dir.delete();
+        dir.mkdir();
+
+        journal = new ChangeJournal();
+        journal.setSpillThreshold(THRESHOLD, dir);
+    }
+
+    @After
+    public void tearDown() {
+        journal.dispose();
+        EditSession.HISTORY_SPILL_THRESHOLD = -1;
+        EditSession.HISTORY_SPILL_DIR = null;
+
+        File[] files = dir.listFiles();
+        for (File file : files) {
+            file.delete();
+        }
+        dir.delete();
+    }
+
+    private static int getX(int i) {
+        return i % 37 - 18;
+    }
+
+    private static int getY(int i) {
+        return i % 128;
+    }
+
+    private static int getZ(int i) {
+        return -i * 3;
+    }
+
+    private static int getType(int i) {
+        return i % 97;
+    }
+
+    private static int getData(int i) {
+        return i % 16;
+    }
+
+    private void fill() {
+        for (int i = 0; i < COUNT; ++i) {
+            journal.add(getX(i), getY(i), getZ(i), getType(i), getData(i));
+        }
+    }
+
+    private void check(int i, int type, int data, ChangeJournal.Cursor cursor) {
+        assertEquals(i, cursor.getIndex());
+        assertEquals(new Vector(getX(i), getY(i), getZ(i)), cursor.getPosition());
+        assertEquals(type, cursor.getType());
+        assertEquals(data, cursor.getData());
+    }
+
+    @Test
+    public void testPack() {
+        int[][] points = {
+            { 0, 0, 0 }, { -1, -1, -1 }, { 33554431, 2047, -33554432 },
+            { -33554432, -2048, 33554431 }, { 12, 127, -300 },
+        };
+        for (int[] pt : points) {
+            long pos = ChangeJournal.pack(pt[0], pt[1], pt[2]);
+            assertEquals(pt[0], ChangeJournal.unpackX(pos));
+            assertEquals(pt[1], ChangeJournal.unpackY(pos));
+            assertEquals(pt[2], ChangeJournal.unpackZ(pos));
+        }
+    }
+
+    @Test
+    public void testSpill() {
+        fill();
+        assertTrue(journal.isSpilled());
+        assertEquals(COUNT, journal.size());
+        assertEquals(COUNT - THRESHOLD, journal.getSpilledSize());
+        assertEquals(1, dir.listFiles().length);
+
+        ChangeJournal.Cursor cursor = journal.forward();
+        for (int i = 0; i < COUNT; ++i) {
+            assertTrue(cursor.next());
+            check(i, getType(i), getData(i), cursor);
+        }
+        assertFalse(cursor.next());
+
+        cursor = journal.reverse();
+        for (int i = COUNT - 1; i >= 0; --i) {
+            assertTrue(cursor.next());
+            check(i, getType(i), getData(i), cursor);
+        }
+        assertFalse(cursor.next());
+
+        for (int i = 0; i < COUNT; i += 999) {
+            assertEquals(new Vector(getX(i), getY(i), getZ(i)), journal.getPosition(i));
+            assertEquals(getType(i), journal.getType(i));
+            assertEquals(getData(i), journal.getData(i));
+        }
+
+        journal.dispose();
+        assertEquals(0, dir.listFiles().length);
+    }
+
+    @Test
+    public void testSet() {
+        fill();
+        // Not yet written out, still in the write buffer
+        int buffered = COUNT - 1;
+        journal.set(buffered, new BaseBlock(BlockID.GLASS, 3));
+        // In memory and on disk
+        journal.set(5, new BaseBlock(BlockID.GLASS, 1));
+        journal.set(THRESHOLD + 10, new BaseBlock(BlockID.GLASS, 2));
+        journal.flush();
+        journal.set(buffered - 1, new BaseBlock(BlockID.GLASS, 4));
+
+        ChangeJournal.Cursor cursor = journal.reverse();
+        while (cursor.next()) {
+            int i = cursor.getIndex();
+            if (i == 5) {
+                check(i, BlockID.GLASS, 1, cursor);
+            } else if (i == THRESHOLD + 10) {
+                check(i, BlockID.GLASS, 2, cursor);
+            } else if (i == buffered) {
+                check(i, BlockID.GLASS, 3, cursor);
+            } else if (i == buffered - 1) {
+                check(i, BlockID.GLASS, 4, cursor);
+            } else {
+                check(i, getType(i), getData(i), cursor);
+            }
+        }
+    }
+
+    @Test
+    public void testSetTileEntity() {
+        fill();
+        SignBlock sign = new SignBlock(BlockID.SIGN_POST, 4,
+                new String[] { "a", "b", "c", "d" });
+        journal.set(THRESHOLD + 1, sign);
+        assertSame(sign, journal.getBlock(THRESHOLD + 1));
+        assertEquals(BlockID.SIGN_POST, journal.getType(THRESHOLD + 1));
+
+        journal.set(THRESHOLD + 1, new BaseBlock(BlockID.STONE));
+        assertFalse(journal.getBlock(THRESHOLD + 1) instanceof SignBlock);
+        assertTrue(journal.getTileEntityBlocks().isEmpty());
+    }
+
+    @Test
+    public void testSpillAll() {
+        journal.setSpillThreshold(-1, dir);
+        fill();
+        assertFalse(journal.isSpilled());
+
+        assertTrue(journal.spillAll());
+        assertEquals(COUNT, journal.getSpilledSize());
+        journal.add(1, 2, 3, BlockID.STONE, 0);
+
+        ChangeJournal.Cursor cursor = journal.forward();
+        for (int i = 0; i < COUNT; ++i) {
+            assertTrue(cursor.next());
+            check(i, getType(i), getData(i), cursor);
+        }
+        assertTrue(cursor.next());
+        assertEquals(new Vector(1, 2, 3), cursor.getPosition());
+        assertFalse(cursor.next());
+    }
+
+    @Test
+    public void testUndoSpilled() throws MaxChangedBlocksException {
+        EditSession.HISTORY_SPILL_THRESHOLD = THRESHOLD;
+        EditSession.HISTORY_SPILL_DIR = dir;
+
+        MemoryWorld world = new MemoryWorld("test");
+        int[] types = { BlockID.STONE, BlockID.GLASS, BlockID.SAND };
+        EditSession[] sessions = new EditSession[types.length];
+        int[][] before = new int[types.length][];
+
+        // Each edit overlaps the previous one, so undoing them out of
+        // order would leave the wrong blocks behind
+        for (int n = 0; n < types.length; ++n) {
+            before[n] = snapshot(world);
+            sessions[n] = new EditSession(world, -1);
+            for (int x = 0; x < 40; ++x) {
+                for (int z = n * 10; z < 40 + n * 10; ++z) {
+                    sessions[n].setBlock(new Vector(x, 5, z), new BaseBlock(types[n], n));
+                }
+            }
+            assertTrue(sessions[n].getOriginalBlocks().isSpilled());
+        }
+
+        for (int n = types.length - 1; n >= 0; --n) {
+            sessions[n].undo(new EditSession(world, -1));
+            assertArrayEquals(before[n], snapshot(world));
+        }
+
+        for (EditSession editSession : sessions) {
+            editSession.dispose();
+        }
+        assertEquals(0, dir.listFiles().length);
+    }
+
+    private static int[] snapshot(MemoryWorld world) {
+        int[] blocks = new int[40 * 60];
+        for (int x = 0; x < 40; ++x) {
+            for (int z = 0; z < 60; ++z) {
+                blocks[x * 60 + z] = world.getBlockType(x, 5, z) << 4
+                        | world.getBlockData(x, 5, z);
+            }
+        }
+        return blocks;
+    }
+}
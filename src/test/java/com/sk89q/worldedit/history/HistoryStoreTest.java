@@ -0,0 +1,247 @@
+// $Id$
+/*
+ * WorldEdit
+ * Copyright (C) 2010 sk89q <http://www.sk89q.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.sk89q.worldedit.history;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.*;
+
+import com.sk89q.worldedit.EditSession;
+import com.sk89q.worldedit.LocalWorld;
+import com.sk89q.worldedit.MaxChangedBlocksException;
+import com.sk89q.worldedit.MemoryWorld;
+import com.sk89q.worldedit.ServerInterface;
+import com.sk89q.worldedit.Vector;
+import com.sk89q.worldedit.blocks.BaseBlock;
+import com.sk89q.worldedit.blocks.BlockID;
+import com.sk89q.worldedit.blocks.SignBlock;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author sk89q
+ */
+public class HistoryStoreTest {
+    private File dir;
+    private MemoryWorld world;
+    private ServerInterface server;
+    private HistoryStore store;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = File.createTempFile("history", "");
+        dir.delete();
+        dir.mkdir();
+
+        world = new MemoryWorld("test");
+        server = new ServerInterface() {
+            public int resolveItem(String name) {
+                return 0;
+            }
+
+            public boolean isValidMobType(String type) {
+                return false;
+            }
+
+            public void reload() {
+            }
+
+            @Override
+            public LocalWorld getWorld(String name) {
+                return name.equals(world.getName()) ? world : null;
+            }
+        };
+        store = new HistoryStore(dir, server);
+    }
+
+    @After
+    public void tearDown() {
+        store.close();
+        delete(dir);
+    }
+
+    private static void delete(File file) {
+        File[] files = file.listFiles();
+        if (files != null) {
+            for (File child : files) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+
+    /**
+     * Fill a row of blocks with a type.
+     *
+     * @param type
+     * @param z
+     * @return the edit session that made the change
+     * @throws MaxChangedBlocksException
+     */
+    private EditSession edit(int type, int z) throws MaxChangedBlocksException {
+        EditSession editSession = new EditSession(world, -1);
+        for (int x = 0; x < 20; ++x) {
+            editSession.setBlock(new Vector(x, 10, z), new BaseBlock(type));
+        }
+        return editSession;
+    }
+
+    private void checkRow(int type, int z) {
+        for (int x = 0; x < 20; ++x) {
+            assertEquals(type, world.getBlockType(x, 10, z));
+        }
+    }
+
+    private File getOwnerDir() {
+        return new File(dir, "owner");
+    }
+
+    @Test
+    public void testQueuedIndex() throws MaxChangedBlocksException {
+        List<StoredEditSession> entries = new ArrayList<StoredEditSession>();
+        entries.add(store.append("owner", edit(BlockID.STONE, 0)));
+        entries.add(store.append("owner", edit(BlockID.GLASS, 1)));
+        store.writeIndex("owner", entries, 1);
+
+        // Read back before the writer has been waited for
+        HistoryStore.StoredHistory history = store.loadIndex("owner");
+        assertEquals(entries, history.getEntries());
+        assertEquals(1, history.getPointer());
+
+        // Changing the list afterwards does not change the queued index
+        entries.clear();
+        assertEquals(2, store.loadIndex("owner").getEntries().size());
+        assertNull(store.loadIndex("nobody"));
+    }
+
+    @Test
+    public void testLoadIndexFromDisk() throws MaxChangedBlocksException {
+        List<StoredEditSession> entries = new ArrayList<StoredEditSession>();
+        entries.add(store.append("owner", edit(BlockID.STONE, 0)));
+        entries.add(store.append("owner", edit(BlockID.GLASS, 1)));
+        store.writeIndex("owner", entries, 2);
+        store.close();
+
+        // A new run only has the files
+        store = new HistoryStore(dir, server);
+        HistoryStore.StoredHistory history = store.loadIndex("owner");
+        assertEquals(2, history.getEntries().size());
+        assertEquals(2, history.getPointer());
+
+        StoredEditSession second = history.getEntries().get(1);
+        assertEquals(entries.get(1).getId(), second.getId());
+        assertEquals(20, second.size());
+        assertSame(world, second.getWorld());
+
+        checkRow(BlockID.GLASS, 1);
+        second.undo(new EditSession(world, -1));
+        checkRow(BlockID.AIR, 1);
+        checkRow(BlockID.STONE, 0);
+        second.redo(new EditSession(world, -1));
+        checkRow(BlockID.GLASS, 1);
+    }
+
+    private static void checkJournal(ChangeJournal expected, ChangeJournal actual) {
+        assertEquals(expected.size(), actual.size());
+        ChangeJournal.Cursor from = expected.forward();
+        ChangeJournal.Cursor to = actual.forward();
+        while (from.next()) {
+            assertTrue(to.next());
+            assertEquals(from.getPackedPosition(), to.getPackedPosition());
+            assertEquals(from.getType(), to.getType());
+            assertEquals(from.getData(), to.getData());
+        }
+        assertFalse(to.next());
+    }
+
+    @Test
+    public void testLoadSegment() throws MaxChangedBlocksException {
+        world.setBlock(3, 10, 2, BlockID.GLASS, 0);
+        world.setBlock(4, 10, 2, BlockID.SIGN_POST, 7);
+        world.copyToWorld(new Vector(4, 10, 2), new SignBlock(BlockID.SIGN_POST, 7,
+                new String[] { "old", "", "", "" }));
+
+        EditSession editSession = edit(BlockID.STONE, 2);
+        editSession.setBlock(new Vector(5, 10, 2), new SignBlock(BlockID.WALL_SIGN, 3,
+                new String[] { "new", "", "", "" }));
+        editSession.setBlock(new Vector(-7, 64, -300), new BaseBlock(BlockID.CLOTH, 14));
+        // The segment is written from the spill file as well
+        assertTrue(editSession.spillHistory());
+
+        StoredEditSession stored = store.append("owner", editSession);
+        EditSession loaded = store.load(stored);
+        checkJournal(editSession.getOriginalBlocks(), loaded.getOriginalBlocks());
+        checkJournal(editSession.getChangedBlocks(), loaded.getChangedBlocks());
+
+        SignBlock original = (SignBlock) loaded.getOriginalBlocks().getBlock(4);
+        assertEquals("old", original.getText()[0]);
+        SignBlock changed = (SignBlock) loaded.getChangedBlocks().getBlock(5);
+        assertEquals("new", changed.getText()[0]);
+        assertEquals(1, loaded.getOriginalBlocks().getTileEntityBlocks().size());
+        assertEquals(1, loaded.getChangedBlocks().getTileEntityBlocks().size());
+
+        loaded.undo(new EditSession(world, -1));
+        assertEquals(BlockID.GLASS, world.getBlockType(3, 10, 2));
+        assertEquals(7, world.getBlockData(4, 10, 2));
+        assertEquals(BlockID.AIR, world.getBlockType(-7, 64, -300));
+        SignBlock sign = new SignBlock(BlockID.SIGN_POST, 0);
+        assertTrue(world.copyFromWorld(new Vector(4, 10, 2), sign));
+        assertEquals("old", sign.getText()[0]);
+        loaded.dispose();
+    }
+
+    @Test
+    public void testMissingSegment() throws MaxChangedBlocksException {
+        List<StoredEditSession> entries = new ArrayList<StoredEditSession>();
+        StoredEditSession stored = store.append("owner", edit(BlockID.STONE, 0));
+        entries.add(stored);
+        store.writeIndex("owner", entries, 1);
+        store.close();
+
+        File[] files = getOwnerDir().listFiles();
+        for (File file : files) {
+            if (file.getName().endsWith(".seg")) {
+                assertTrue(file.delete());
+            }
+        }
+
+        try {
+            stored.undo(new EditSession(world, -1));
+            fail("Undid a segment that is not there");
+        } catch (JournalException e) {
+        }
+        checkRow(BlockID.STONE, 0);
+
+        // Entries without a segment are left out in the next run
+        store = new HistoryStore(dir, server);
+        assertEquals(0, store.loadIndex("owner").getEntries().size());
+    }
+
+    @Test(expected = JournalException.class)
+    public void testWorldNotLoaded() throws MaxChangedBlocksException {
+        StoredEditSession stored = store.append("owner", edit(BlockID.STONE, 0));
+        // The server now only knows about another world
+        world = new MemoryWorld("other");
+        stored.undo(new EditSession(world, -1));
+    }
+}
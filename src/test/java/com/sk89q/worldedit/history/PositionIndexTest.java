@@ -0,0 +1,115 @@
+// $Id$
+/*
+ * WorldEdit
+ * Copyright (C) 2010 sk89q <http://www.sk89q.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.sk89q.worldedit.history;
+
+import org.junit.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author sk89q
+ */
+public class PositionIndexTest {
+    private static long key(int i) {
+        return ChangeJournal.pack(i % 50 - 25, i % 7, i / 50 - 100);
+    }
+
+    @Test
+    public void testEmpty() {
+        PositionIndex index = new PositionIndex();
+        assertEquals(0, index.size());
+        assertEquals(-1, index.get(key(0)));
+    }
+
+    @Test
+    public void testResize() {
+        // Starts with 16 slots and has to grow many times; every slot
+        // past the first few is filled by probing past other keys
+        PositionIndex index = new PositionIndex();
+        int count = 20000;
+        for (int i = 0; i < count; ++i) {
+            index.put(key(i), i);
+            assertEquals(i + 1, index.size());
+        }
+
+        for (int i = 0; i < count; ++i) {
+            assertEquals(i, index.get(key(i)));
+        }
+        for (int i = count; i < count * 2; ++i) {
+            assertEquals(-1, index.get(key(i)));
+        }
+    }
+
+    @Test
+    public void testCollisions() {
+        // Nine positions in 16 slots, filled up to just below the point
+        // where the table grows, so several of them have to probe past
+        // another position
+        PositionIndex index = new PositionIndex(9);
+        long before = index.getEstimatedMemoryUsage();
+        for (int i = 0; i < 9; ++i) {
+            index.put(key(i), i);
+        }
+        assertEquals(before, index.getEstimatedMemoryUsage());
+
+        for (int i = 0; i < 9; ++i) {
+            assertEquals(i, index.get(key(i)));
+        }
+        for (int i = 9; i < 1000; ++i) {
+            assertEquals(-1, index.get(key(i)));
+        }
+    }
+
+    @Test
+    public void testReplace() {
+        PositionIndex index = new PositionIndex(100);
+        for (int i = 0; i < 100; ++i) {
+            index.put(key(i), i);
+        }
+        for (int i = 0; i < 100; i += 2) {
+            index.put(key(i), i + 1000);
+        }
+
+        assertEquals(100, index.size());
+        for (int i = 0; i < 100; ++i) {
+            assertEquals(i % 2 == 0 ? i + 1000 : i, index.get(key(i)));
+        }
+    }
+
+    @Test
+    public void testClear() {
+        PositionIndex index = new PositionIndex();
+        for (int i = 0; i < 100; ++i) {
+            index.put(key(i), i);
+        }
+        index.clear();
+        assertEquals(0, index.size());
+        assertEquals(-1, index.get(key(5)));
+
+        index.put(key(5), 0);
+        assertEquals(0, index.get(key(5)));
+        assertEquals(1, index.size());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNegativeValue() {
+        new PositionIndex().put(key(0), -1);
+    }
+}
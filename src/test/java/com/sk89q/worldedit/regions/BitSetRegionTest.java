@@ -0,0 +1,448 @@
+// $Id$
+/*
+ * WorldEdit
+ * Copyright (C) 2010 sk89q <http://www.sk89q.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.sk89q.worldedit.regions;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+import java.util.zip.GZIPOutputStream;
+
+import org.junit.*;
+
+import com.sk89q.worldedit.BlockVector;
+import com.sk89q.worldedit.BlockVector2D;
+import com.sk89q.worldedit.EditSession;
+import com.sk89q.worldedit.MaxChangedBlocksException;
+import com.sk89q.worldedit.MemoryWorld;
+import com.sk89q.worldedit.Vector;
+import com.sk89q.worldedit.Vector2D;
+import com.sk89q.worldedit.blocks.BlockID;
+import com.sk89q.worldedit.data.DataException;
+import com.sk89q.worldedit.masks.BlockTypeMask;
+import com.sk89q.worldedit.masks.CombinedMask;
+import com.sk89q.worldedit.masks.ExistingBlockMask;
+import com.sk89q.worldedit.masks.InvertedBlockTypeMask;
+import com.sk89q.worldedit.masks.Mask;
+import com.sk89q.worldedit.masks.RegionMask;
+import com.sk89q.worldedit.masks.UnderOverlayMask;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author sk89q
+ */
+public class BitSetRegionTest {
+    private static final Vector MIN = new Vector(-40, 0, -40);
+    private static final Vector MAX = new Vector(40, 70, 40);
+
+    private Random random;
+
+    @Before
+    public void setUp() {
+        random = new Random(23);
+    }
+
+    /**
+     * What a set operation should do to a single block.
+     */
+    private interface Operation {
+        public boolean apply(boolean a, boolean b);
+        public void apply(BitSetRegion a, Region b);
+    }
+
+    private static final Operation UNION = new Operation() {
+        public boolean apply(boolean a, boolean b) {
+            return a || b;
+        }
+
+        public void apply(BitSetRegion a, Region b) {
+            a.union(b);
+        }
+    };
+
+    private static final Operation INTERSECT = new Operation() {
+        public boolean apply(boolean a, boolean b) {
+            return a && b;
+        }
+
+        public void apply(BitSetRegion a, Region b) {
+            a.intersect(b);
+        }
+    };
+
+    private static final Operation SUBTRACT = new Operation() {
+        public boolean apply(boolean a, boolean b) {
+            return a && !b;
+        }
+
+        public void apply(BitSetRegion a, Region b) {
+            a.subtract(b);
+        }
+    };
+
+    /**
+     * Get a random cuboid, often large enough to hold whole sections.
+     *
+     * @return
+     */
+    private CuboidRegion randomCuboid() {
+        int size = random.nextBoolean() ? 40 : 12;
+        Vector pos1 = new Vector(random.nextInt(size) - size / 2,
+                random.nextInt(40), random.nextInt(size) - size / 2);
+        Vector pos2 = pos1.add(random.nextInt(size), random.nextInt(size),
+                random.nextInt(size));
+        return new CuboidRegion(pos1, pos2);
+    }
+
+    /**
+     * Check a region against the blocks it should have, along with its
+     * area, bounds, iterator and chunks.
+     *
+     * @param region
+     * @param expected
+     */
+    private static void check(BitSetRegion region, Set<BlockVector> expected) {
+        for (int x = MIN.getBlockX(); x <= MAX.getBlockX(); ++x) {
+            for (int y = MIN.getBlockY(); y <= MAX.getBlockY(); ++y) {
+                for (int z = MIN.getBlockZ(); z <= MAX.getBlockZ(); ++z) {
+                    BlockVector pt = new BlockVector(x, y, z);
+                    assertEquals("at " + pt, expected.contains(pt), region.contains(pt));
+                }
+            }
+        }
+
+        assertEquals(expected.size(), region.getArea());
+
+        Set<BlockVector> iterated = new HashSet<BlockVector>();
+        for (BlockVector pt : region) {
+            assertTrue(iterated.add(pt));
+        }
+        assertEquals(expected, iterated);
+
+        Set<Vector2D> chunks = new HashSet<Vector2D>();
+        for (BlockVector pt : expected) {
+            chunks.add(new BlockVector2D(pt.getBlockX() >> 4, pt.getBlockZ() >> 4));
+        }
+        assertEquals(chunks, region.getChunks());
+
+        if (!expected.isEmpty()) {
+            assertEquals(minimum(expected), region.getMinimumPoint());
+            assertEquals(maximum(expected), region.getMaximumPoint());
+        }
+    }
+
+    private static Vector minimum(Set<BlockVector> points) {
+        Vector min = null;
+        for (BlockVector pt : points) {
+            min = min == null ? pt : Vector.getMinimum(min, pt);
+        }
+        return min;
+    }
+
+    private static Vector maximum(Set<BlockVector> points) {
+        Vector max = null;
+        for (BlockVector pt : points) {
+            max = max == null ? pt : Vector.getMaximum(max, pt);
+        }
+        return max;
+    }
+
+    private static Set<BlockVector> blocks(Region region) {
+        Set<BlockVector> blocks = new HashSet<BlockVector>();
+        for (BlockVector pt : region) {
+            blocks.add(pt);
+        }
+        return blocks;
+    }
+
+    private static Set<BlockVector> apply(Operation operation,
+            Set<BlockVector> a, Set<BlockVector> b) {
+        Set<BlockVector> result = new HashSet<BlockVector>();
+        for (BlockVector pt : a) {
+            if (operation.apply(true, b.contains(pt))) {
+                result.add(pt);
+            }
+        }
+        for (BlockVector pt : b) {
+            if (operation.apply(a.contains(pt), true)) {
+                result.add(pt);
+            }
+        }
+        return result;
+    }
+
+    @Test
+    public void testFromCuboid() {
+        for (int i = 0; i < 10; ++i) {
+            CuboidRegion cuboid = randomCuboid();
+            check(new BitSetRegion(cuboid), blocks(cuboid));
+        }
+
+        check(new BitSetRegion(), new HashSet<BlockVector>());
+    }
+
+    private void checkOperation(Operation operation) {
+        for (int i = 0; i < 12; ++i) {
+            CuboidRegion a = randomCuboid();
+            CuboidRegion b = randomCuboid();
+            Set<BlockVector> expected = apply(operation, blocks(a), blocks(b));
+
+            // Once against the cuboid itself, once against a block set
+            BitSetRegion region = new BitSetRegion(a);
+            operation.apply(region, b);
+            check(region, expected);
+
+            region = new BitSetRegion(a);
+            operation.apply(region, new BitSetRegion(b));
+            check(region, expected);
+        }
+    }
+
+    @Test
+    public void testUnion() {
+        checkOperation(UNION);
+    }
+
+    @Test
+    public void testIntersect() {
+        checkOperation(INTERSECT);
+    }
+
+    @Test
+    public void testSubtract() {
+        checkOperation(SUBTRACT);
+    }
+
+    @Test
+    public void testAddRemove() {
+        BitSetRegion region = new BitSetRegion();
+        Set<BlockVector> expected = new HashSet<BlockVector>();
+
+        for (int i = 0; i < 5000; ++i) {
+            BlockVector pt = new BlockVector(random.nextInt(20) - 10,
+                    random.nextInt(20), random.nextInt(20) - 10);
+
+            if (random.nextInt(3) == 0) {
+                assertEquals(expected.remove(pt), region.remove(pt));
+            } else {
+                assertEquals(expected.add(pt), region.add(pt));
+            }
+        }
+
+        check(region, expected);
+
+        region.clear();
+        check(region, new HashSet<BlockVector>());
+    }
+
+    @Test
+    public void testSharedFullSections() {
+        // Two whole sections, stored as full
+        CuboidRegion cuboid = new CuboidRegion(new Vector(0, 16, -16),
+                new Vector(15, 31, 15));
+        Set<BlockVector> all = blocks(cuboid);
+
+        BitSetRegion a = new BitSetRegion(cuboid);
+        BitSetRegion b = new BitSetRegion(a);
+        BitSetRegion c = new BitSetRegion(cuboid);
+
+        assertTrue(b.remove(new Vector(3, 20, 4)));
+        b.subtract(new CuboidRegion(new Vector(0, 16, -16), new Vector(15, 16, -1)));
+        b.intersect(new CuboidRegion(new Vector(0, 0, -16), new Vector(14, 127, 15)));
+        b.intersect(new BitSetRegion(new CuboidRegion(new Vector(0, 0, -16),
+                new Vector(15, 30, 15))));
+        check(a, all);
+        check(c, all);
+
+        assertTrue(a.remove(new Vector(15, 31, 15)));
+        a.subtract(new CuboidRegion(new Vector(5, 20, 5), new Vector(6, 21, 6)));
+        check(c, all);
+
+        // A region made afterwards still starts from full sections
+        check(new BitSetRegion(cuboid), all);
+
+        Set<BlockVector> expected = new HashSet<BlockVector>(all);
+        expected.remove(new BlockVector(15, 31, 15));
+        expected.removeAll(blocks(new CuboidRegion(new Vector(5, 20, 5),
+                new Vector(6, 21, 6))));
+        check(a, expected);
+    }
+
+    @Test
+    public void testMemorySize() {
+        BitSetRegion full = new BitSetRegion(new CuboidRegion(
+                new Vector(0, 0, 0), new Vector(255, 127, 255)));
+        BitSetRegion partial = new BitSetRegion(new CuboidRegion(
+                new Vector(1, 1, 1), new Vector(254, 126, 254)));
+
+        assertEquals(256 * 128 * 256, full.getArea());
+        assertTrue(full.getMemorySize() * 10 < partial.getMemorySize());
+    }
+
+    @Test
+    public void testSaveLoad() throws IOException, DataException {
+        BitSetRegion region = new BitSetRegion(new CuboidRegion(
+                new Vector(-32, 0, -32), new Vector(-1, 31, 15)));
+        region.union(new CuboidRegion(new Vector(3, 5, 7), new Vector(20, 60, 9)));
+        region.subtract(new CuboidRegion(new Vector(-20, 10, -20), new Vector(-18, 40, -18)));
+        for (int i = 0; i < 500; ++i) {
+            region.add(new Vector(random.nextInt(80) - 40, random.nextInt(70),
+                    random.nextInt(80) - 40));
+        }
+        Set<BlockVector> expected = blocks(region);
+
+        File file = File.createTempFile("blockset", ".dat");
+        try {
+            region.save(file);
+            BitSetRegion loaded = BitSetRegion.load(file);
+            check(loaded, expected);
+
+            // The loaded region can be changed like any other
+            assertTrue(loaded.remove(new Vector(-32, 0, -32)));
+            assertTrue(region.contains(new Vector(-32, 0, -32)));
+
+            new BitSetRegion().save(file);
+            check(BitSetRegion.load(file), new HashSet<BlockVector>());
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test(expected = DataException.class)
+    public void testLoadBadFile() throws IOException, DataException {
+        File file = File.createTempFile("blockset", ".dat");
+        try {
+            DataOutputStream out = new DataOutputStream(
+                    new GZIPOutputStream(new FileOutputStream(file)));
+            out.writeInt(0x12345678);
+            out.writeInt(1);
+            out.close();
+
+            BitSetRegion.load(file);
+        } finally {
+            file.delete();
+        }
+    }
+
+    /**
+     * Check the blocks a mask picks out of a region against the mask
+     * itself.
+     *
+     * @param editSession
+     * @param region
+     * @param mask
+     * @throws MaxChangedBlocksException
+     */
+    private static void checkMask(EditSession editSession, Region region,
+            Mask mask) throws MaxChangedBlocksException {
+        Set<BlockVector> expected = new HashSet<BlockVector>();
+        for (BlockVector pt : region) {
+            if (mask.matches(editSession, pt)) {
+                expected.add(pt);
+            }
+        }
+
+        check(new BitSetRegion(editSession, region, mask), expected);
+    }
+
+    @Test
+    public void testMask() throws MaxChangedBlocksException {
+        MemoryWorld world = new MemoryWorld("test", 64);
+        int[] types = { BlockID.AIR, BlockID.STONE, BlockID.DIRT, BlockID.GLASS };
+        for (int x = -30; x < 30; ++x) {
+            for (int y = 0; y < 64; ++y) {
+                for (int z = -30; z < 30; ++z) {
+                    int type = types[random.nextInt(types.length)];
+                    if (type != BlockID.AIR) {
+                        world.setBlock(x, y, z, type, 0);
+                    }
+                }
+            }
+        }
+        EditSession editSession = new EditSession(world, -1);
+
+        // Reaching out of the world at both ends
+        Region cuboid = new CuboidRegion(new Vector(-35, -3, -20), new Vector(12, 68, 9));
+        Region polygon = new Polygonal2DRegion(Arrays.asList(
+                new BlockVector2D(-25, -28), new BlockVector2D(20, -5),
+                new BlockVector2D(3, 0), new BlockVector2D(8, 33)), 10, 40);
+
+        Set<Integer> airAndDirt = new HashSet<Integer>(
+                Arrays.asList(BlockID.AIR, BlockID.DIRT));
+        CombinedMask combined = new CombinedMask(new ExistingBlockMask());
+        combined.add(new InvertedBlockTypeMask(BlockID.GLASS));
+        CombinedMask withRegion = new CombinedMask(new BlockTypeMask(BlockID.STONE));
+        withRegion.add(new RegionMask(new CuboidRegion(new Vector(0, 0, 0),
+                new Vector(10, 30, 10))));
+
+        Mask[] masks = {
+            new BlockTypeMask(BlockID.STONE),
+            new BlockTypeMask(BlockID.AIR),
+            new InvertedBlockTypeMask(airAndDirt),
+            new ExistingBlockMask(),
+            combined,
+            withRegion,
+            new UnderOverlayMask(new HashSet<Integer>(), true),
+        };
+
+        for (Mask mask : masks) {
+            checkMask(editSession, cuboid, mask);
+            checkMask(editSession, polygon, mask);
+        }
+    }
+
+    @Test
+    public void testMaskLimit() throws MaxChangedBlocksException {
+        EditSession editSession = new EditSession(new MemoryWorld("test"), 500);
+
+        // The bounding box is over the limit but the triangle is not
+        Region polygon = new Polygonal2DRegion(Arrays.asList(
+                new BlockVector2D(0, 0), new BlockVector2D(20, 0),
+                new BlockVector2D(0, 20)), 0, 1);
+        assertTrue(polygon.getArea() <= 500);
+        checkMask(editSession, polygon, new BlockTypeMask(BlockID.AIR));
+
+        try {
+            new BitSetRegion(editSession, new CuboidRegion(new Vector(0, 0, 0),
+                    new Vector(9, 9, 5)), new ExistingBlockMask());
+            fail("Region over the limit was read");
+        } catch (MaxChangedBlocksException e) {
+        }
+
+        // Large enough to overflow an int
+        try {
+            new BitSetRegion(new EditSession(new MemoryWorld("test"), Integer.MAX_VALUE),
+                    new CuboidRegion(new Vector(-1000000, 0, -1000000),
+                    new Vector(1000000, 127, 1000000)), new ExistingBlockMask());
+            fail("Region over the limit was read");
+        } catch (MaxChangedBlocksException e) {
+        }
+    }
+
+    @Test(expected = RegionOperationException.class)
+    public void testExpand() throws RegionOperationException {
+        new BitSetRegion().expand(new Vector(1, 0, 0));
+    }
+}
@@ -0,0 +1,197 @@
+// $Id$
+/*
+ * WorldEdit
+ * Copyright (C) 2010 sk89q <http://www.sk89q.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.sk89q.worldedit.regions;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.*;
+
+import com.sk89q.worldedit.BlockVector;
+import com.sk89q.worldedit.BlockVector2D;
+import com.sk89q.worldedit.MaxChangedBlocksException;
+import com.sk89q.worldedit.Vector;
+import com.sk89q.worldedit.Vector2D;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks the cached spans of polygons against the point-in-polygon test
+ * they replaced.
+ *
+ * @author sk89q
+ */
+public class Polygonal2DRegionTest {
+    private static List<BlockVector2D> points(int ... coords) {
+        List<BlockVector2D> points = new ArrayList<BlockVector2D>();
+        for (int i = 0; i < coords.length; i += 2) {
+            points.add(new BlockVector2D(coords[i], coords[i + 1]));
+        }
+        return points;
+    }
+
+    /**
+     * Compare contains(), getArea(), the iterator, getChunks() and
+     * visitChunks() with the static check.
+     *
+     * @param points
+     * @param minY
+     * @param maxY
+     * @throws MaxChangedBlocksException
+     */
+    private static void check(List<BlockVector2D> points, int minY, int maxY)
+            throws MaxChangedBlocksException {
+        Polygonal2DRegion region = new Polygonal2DRegion(points, minY, maxY);
+        String name = points + " " + minY + "-" + maxY;
+
+        int minX = Integer.MAX_VALUE;
+        int minZ = Integer.MAX_VALUE;
+        int maxX = Integer.MIN_VALUE;
+        int maxZ = Integer.MIN_VALUE;
+        for (BlockVector2D pt : points) {
+            minX = Math.min(minX, pt.getBlockX());
+            minZ = Math.min(minZ, pt.getBlockZ());
+            maxX = Math.max(maxX, pt.getBlockX());
+            maxZ = Math.max(maxZ, pt.getBlockZ());
+        }
+
+        Set<BlockVector> expected = new HashSet<BlockVector>();
+        Set<Vector2D> expectedChunks = new HashSet<Vector2D>();
+
+        for (int x = minX - 2; x <= maxX + 2; ++x) {
+            for (int z = minZ - 2; z <= maxZ + 2; ++z) {
+                for (int y = minY - 1; y <= maxY + 1; ++y) {
+                    Vector pt = new Vector(x, y, z);
+                    boolean inside = Polygonal2DRegion.contains(points, minY, maxY, pt);
+                    assertEquals(name + " at " + pt, inside, region.contains(pt));
+
+                    if (inside) {
+                        expected.add(pt.toBlockVector());
+                        expectedChunks.add(new BlockVector2D(x >> 4, z >> 4));
+                    }
+                }
+            }
+        }
+
+        assertEquals(name, expected.size(), region.getArea());
+
+        Set<BlockVector> iterated = new HashSet<BlockVector>();
+        for (BlockVector pt : region) {
+            assertTrue(name + " repeats " + pt, iterated.add(pt));
+        }
+        assertEquals(name, expected, iterated);
+
+        assertEquals(name, expectedChunks, region.getChunks());
+
+        final Set<BlockVector> visited = new HashSet<BlockVector>();
+        final Set<Vector2D> visitedChunks = new HashSet<Vector2D>();
+        final int[] chunk = new int[2];
+        region.visitChunks(new ChunkVisitor() {
+            public boolean beginChunk(int chunkX, int chunkZ) {
+                assertTrue(visitedChunks.add(new BlockVector2D(chunkX, chunkZ)));
+                chunk[0] = chunkX;
+                chunk[1] = chunkZ;
+                return true;
+            }
+
+            public void visitSpan(int minX, int maxX, int minY, int maxY, int z) {
+                assertTrue(minX <= maxX && minY <= maxY);
+                assertEquals(chunk[0], minX >> 4);
+                assertEquals(chunk[0], maxX >> 4);
+                assertEquals(chunk[1], z >> 4);
+
+                for (int x = minX; x <= maxX; ++x) {
+                    for (int y = minY; y <= maxY; ++y) {
+                        assertTrue(visited.add(new BlockVector(x, y, z)));
+                    }
+                }
+            }
+        });
+        assertEquals(name, expected, visited);
+        assertEquals(name, expectedChunks, visitedChunks);
+    }
+
+    @Test
+    public void testConvex() throws MaxChangedBlocksException {
+        check(points(0, 0, 10, 0, 10, 10, 0, 10), 0, 2);
+        check(points(-20, 3, 5, -17, 31, 8, 2, 40), 5, 5);
+        check(points(-3, -3, 3, -3, 0, 4), 0, 0);
+    }
+
+    @Test
+    public void testConcave() throws MaxChangedBlocksException {
+        // L shape with horizontal edges
+        check(points(0, 0, 20, 0, 20, 5, 5, 5, 5, 20, 0, 20), 0, 1);
+        // Star
+        check(points(0, -12, 3, -3, 12, -3, 5, 2, 8, 11, 0, 5, -8, 11, -5, 2,
+                -12, -3, -3, -3), 0, 1);
+        // Comb, with several spans per row
+        check(points(0, 0, 30, 0, 30, 20, 25, 20, 25, 5, 20, 5, 20, 20,
+                15, 20, 15, 5, 10, 5, 10, 20, 5, 20, 5, 5, 0, 5), 0, 1);
+        // Notch at a vertex
+        check(points(0, 0, 10, 0, 5, 5, 10, 10, 0, 10), 0, 1);
+    }
+
+    @Test
+    public void testSharedVertices() throws MaxChangedBlocksException {
+        // Bow tie crossing at one point
+        check(points(0, 0, 10, 10, 10, 0, 0, 10), 0, 1);
+        // Two squares touching at a corner that is visited twice
+        check(points(0, 0, 5, 0, 5, 5, 10, 5, 10, 10, 5, 10, 5, 5, 0, 5), 0, 1);
+        // Repeated and collinear points
+        check(points(0, 0, 0, 0, 5, 0, 10, 0, 10, 0, 10, 10, 0, 10), 0, 1);
+        // Spike going out and back along the same line
+        check(points(0, 0, 10, 0, 10, 10, 20, 10, 10, 10, 0, 10), 0, 1);
+    }
+
+    @Test
+    public void testDegenerate() throws MaxChangedBlocksException {
+        check(points(0, 0, 10, 0, 20, 0), 0, 1);
+        check(points(0, 0, 10, 10), 0, 1);
+        check(points(3, 3, 3, 3, 3, 3), 0, 1);
+    }
+
+    @Test
+    public void testAcrossChunks() throws MaxChangedBlocksException {
+        check(points(-40, -35, 47, -20, 12, 50, -33, 18, -5, 2), 0, 3);
+    }
+
+    @Test
+    public void testRandom() throws MaxChangedBlocksException {
+        Random random = new Random(21);
+
+        for (int i = 0; i < 3000; ++i) {
+            // Small coordinates so that vertices and edges often line up
+            int range = i % 3 == 0 ? 40 : 12;
+            int offset = random.nextInt(64) - 32;
+            int count = 3 + random.nextInt(6);
+            int[] coords = new int[count * 2];
+            for (int j = 0; j < coords.length; ++j) {
+                coords[j] = random.nextInt(range) - range / 2 + offset;
+            }
+
+            int minY = random.nextInt(4);
+            check(points(coords), minY, minY + random.nextInt(3));
+        }
+    }
+}